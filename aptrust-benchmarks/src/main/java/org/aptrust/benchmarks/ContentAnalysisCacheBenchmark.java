@@ -0,0 +1,101 @@
+package org.aptrust.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.aptrust.ingest.ips.DuraChunkManifest;
+import org.aptrust.ingest.ips.InMemoryContentAnalysisCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures InMemoryContentAnalysisCache with large objects: the cost of
+ * isObjectComplete() once every part has arrived, and the cost of tracking
+ * an object from the assertion of its parts through the arrival of the last
+ * one (checking for completeness after each arrival, as DropboxProcessor
+ * does).  Parts may be chunked, in which case each part's chunk manifest
+ * arrives before its chunks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentAnalysisCacheBenchmark {
+
+    private static final String OBJECT_ID = "uva-lib:602146";
+
+    @Param({ "100", "10000" })
+    public int partCount;
+
+    @Param({ "0", "10" })
+    public int chunksPerPart;
+
+    private List<String> partIds;
+
+    private List<DuraChunkManifest> chunkManifests;
+
+    private InMemoryContentAnalysisCache completeCache;
+
+    @Setup
+    public void createObject() {
+        partIds = new ArrayList<String>();
+        chunkManifests = new ArrayList<DuraChunkManifest>();
+        for (int i = 0; i < partCount; i ++) {
+            String partId = OBJECT_ID + "+DS" + i + "+DS" + i + ".0";
+            partIds.add(partId);
+            if (chunksPerPart > 0) {
+                DuraChunkManifest manifest = new DuraChunkManifest();
+                manifest.chunks = new DuraChunkManifest.Chunk[chunksPerPart];
+                for (int c = 0; c < chunksPerPart; c ++) {
+                    manifest.chunks[c] = new DuraChunkManifest.Chunk();
+                    manifest.chunks[c].chunkId = partId + ".dura-chunk-" + String.format("%04d", c);
+                    manifest.chunks[c].index = c;
+                }
+                chunkManifests.add(manifest);
+            }
+        }
+        completeCache = trackObject();
+        if (!completeCache.isObjectComplete(OBJECT_ID)) {
+            throw new IllegalStateException("The object should be complete!");
+        }
+    }
+
+    @Benchmark
+    public boolean isObjectComplete() {
+        return completeCache.isObjectComplete(OBJECT_ID);
+    }
+
+    @Benchmark
+    public InMemoryContentAnalysisCache trackObject() {
+        InMemoryContentAnalysisCache cache = new InMemoryContentAnalysisCache();
+        cache.assertObjectParts(partIds, OBJECT_ID);
+        for (int i = 0; i < partCount; i ++) {
+            String partId = partIds.get(i);
+            if (chunksPerPart > 0) {
+                DuraChunkManifest manifest = chunkManifests.get(i);
+                cache.notifyChunkManifest(partId, manifest);
+                cache.notifyContentId(partId + ".dura-manifest");
+                for (DuraChunkManifest.Chunk chunk : manifest.chunks) {
+                    cache.notifyContentId(chunk.chunkId);
+                    cache.isObjectComplete(OBJECT_ID);
+                }
+            } else {
+                cache.notifyContentId(partId);
+                cache.isObjectComplete(OBJECT_ID);
+            }
+        }
+        return cache;
+    }
+}
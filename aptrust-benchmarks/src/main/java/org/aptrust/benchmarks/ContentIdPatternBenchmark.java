@@ -0,0 +1,52 @@
+package org.aptrust.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.aptrust.ingest.ips.DropboxProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the matching of the content ids in a staging space against the
+ * patterns DropboxProcessor uses to recognize the content written by Fedora
+ * CloudSync, for each kind of content id it sees: FOXML, datastream versions,
+ * chunks and chunk manifests of datastream versions, and DSpace AIPs (which
+ * match neither pattern).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentIdPatternBenchmark {
+
+    private String[] contentIds = new String[] {
+            "uva-lib:602146",
+            "uva-lib:602146+content+content.0",
+            "uva-lib:602146+MASTER_TIFF+MASTER_TIFF.3.dura-chunk-0012",
+            "uva-lib:602146+MASTER_TIFF+MASTER_TIFF.3.dura-manifest",
+            "10266-3152.zip" };
+
+    @Benchmark
+    public void matchCloudSyncPattern(Blackhole bh) {
+        for (String contentId : contentIds) {
+            bh.consume(DropboxProcessor.FEDORA_CLOUDSYNC_CONTENTID_PATTERN.matcher(contentId).matches());
+        }
+    }
+
+    @Benchmark
+    public void matchFoxmlPattern(Blackhole bh) {
+        for (String contentId : contentIds) {
+            bh.consume(DropboxProcessor.FOXML_CONTENTID_PATTERN.matcher(contentId).matches());
+        }
+    }
+}
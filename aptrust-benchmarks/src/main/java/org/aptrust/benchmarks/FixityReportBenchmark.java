@@ -0,0 +1,55 @@
+package org.aptrust.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.aptrust.ingest.ips.FixityReport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the parsing of the fixity reports DuraCloud's bit integrity
+ * service writes for each space, which list every piece of content in the
+ * space.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FixityReportBenchmark {
+
+    private static final String REPORT_ID = "bit-integrity/fixity-report-fingerprints-uva-2012-11-05T16:20-vs-manifest-2012-10-05T16:20.tsv";
+
+    @Param({ "1000", "100000" })
+    public int lineCount;
+
+    private byte[] report;
+
+    @Setup
+    public void createReport() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("space-id\tcontent-id\tmd5-1\tmd5-2\tstatus\n");
+        for (int i = 0; i < lineCount; i ++) {
+            String checksum = String.format("%032x", i);
+            sb.append("uva\tuva-lib:" + (i / 10) + "+DS" + (i % 10) + "+DS" + (i % 10) + ".0\t" + checksum + "\t" + checksum + "\tVALID\n");
+        }
+        report = sb.toString().getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public FixityReport parseReport() throws IOException {
+        return new FixityReport(REPORT_ID, new ByteArrayInputStream(report));
+    }
+}
@@ -0,0 +1,72 @@
+package org.aptrust.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.aptrust.ingest.IngestClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the hashing of content by IngestClient.HashOutputStream as it's
+ * written to a stream that discards it, writing either a buffer at a time
+ * or (as some serializers do) a byte at a time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashOutputStreamBenchmark {
+
+    @Param({ "4096", "1048576" })
+    public int size;
+
+    private byte[] content;
+
+    @Setup
+    public void createContent() {
+        content = new byte[size];
+        new Random(0).nextBytes(content);
+    }
+
+    @Benchmark
+    public String writeBuffered() throws IOException {
+        IngestClient.HashOutputStream os = new IngestClient.HashOutputStream(new NullOutputStream());
+        for (int offset = 0; offset < content.length; offset += 8192) {
+            os.write(content, offset, Math.min(8192, content.length - offset));
+        }
+        os.close();
+        return os.getMD5Hash();
+    }
+
+    @Benchmark
+    public String writeBytes() throws IOException {
+        IngestClient.HashOutputStream os = new IngestClient.HashOutputStream(new NullOutputStream());
+        for (int i = 0; i < content.length; i ++) {
+            os.write(content[i]);
+        }
+        os.close();
+        return os.getMD5Hash();
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        public void write(int b) {
+        }
+
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
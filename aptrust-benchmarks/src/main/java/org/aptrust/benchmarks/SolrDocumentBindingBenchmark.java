@@ -0,0 +1,136 @@
+package org.aptrust.benchmarks;
+
+import java.lang.reflect.Method;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+import org.aptrust.client.api.IngestProcessSummary;
+import org.aptrust.common.metadata.APTrustMetadata;
+import org.aptrust.common.solr.AptrustSolrDocument;
+import org.aptrust.common.solr.ContentSolrDocument;
+import org.aptrust.common.solr.SolrField;
+import org.aptrust.ingest.api.DigitalObject;
+import org.aptrust.ingest.api.IngestManifest;
+import org.aptrust.ingest.api.IngestPackage;
+import org.aptrust.ingest.ips.solr.IngestSolrDocument;
+import org.aptrust.ingest.ips.solr.PackageSolrDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the conversion of records to and from Solr documents by
+ * AptrustSolrDocument: content records (written for every piece of content
+ * ingested), package records and ingest records (read for every search
+ * hit in the client).  Each operation binds one document, so the scores
+ * are documents per second.  The reflective benchmark repeats what
+ * AptrustSolrDocument did for each document before it used a cached
+ * SolrDocumentBinder for each class (finding and invoking the annotated
+ * methods reflectively, without validating the result), as a baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SolrDocumentBindingBenchmark {
+
+    private ContentSolrDocument content;
+
+    private PackageSolrDocument packageRecord;
+
+    private IngestSolrDocument ingestRecord;
+
+    private SolrDocument contentResult;
+
+    private SolrDocument ingestResult;
+
+    @Setup
+    public void createRecords() throws Exception {
+        content = new ContentSolrDocument("uva", "aptrust:1", "uva-lib:602146", "uva-lib:602146+content+content.0", true, new Date());
+
+        IngestPackage p = new IngestPackage();
+        APTrustMetadata metadata = new APTrustMetadata();
+        metadata.setId("aptrust:1");
+        metadata.setInstitution("uva");
+        metadata.setTitle("A map of the British and French dominions in North America.");
+        metadata.setAccessConditions("institution");
+        p.setMetadata(metadata);
+        DigitalObject[] objects = new DigitalObject[10];
+        for (int i = 0; i < objects.length; i ++) {
+            objects[i] = new DigitalObject("uva-lib:" + (602146 + i), DigitalObject.Type.FEDORA, "3.5", -1);
+        }
+        p.setDigitalObjects(objects);
+        packageRecord = new PackageSolrDocument(p);
+
+        IngestManifest m = new IngestManifest("All local packages.", "mdurbin", new IngestPackage[] { p });
+        m.setId("aptrust:2");
+        contentResult = toSolrDocument(AptrustSolrDocument.createValidSolrDocument(content));
+        ingestRecord = IngestSolrDocument.newIngest("uva", m);
+        ingestResult = toSolrDocument(AptrustSolrDocument.createValidSolrDocument(ingestRecord));
+    }
+
+    @Benchmark
+    public SolrInputDocument createContentDocument() {
+        return AptrustSolrDocument.createValidSolrDocument(content);
+    }
+
+    @Benchmark
+    public SolrInputDocument createContentDocumentReflectively() throws Exception {
+        SolrInputDocument doc = new SolrInputDocument();
+        for (Method method : content.getClass().getMethods()) {
+            if (method.isAnnotationPresent(SolrField.class) && method.getParameterTypes().length == 0) {
+                Object value = method.invoke(content);
+                if (value != null) {
+                    doc.addField(method.getAnnotation(SolrField.class).name(), value);
+                }
+            }
+        }
+        return doc;
+    }
+
+    @Benchmark
+    public SolrInputDocument createPackageDocument() {
+        return AptrustSolrDocument.createValidSolrDocument(packageRecord);
+    }
+
+    @Benchmark
+    public SolrInputDocument createIngestDocument() {
+        return AptrustSolrDocument.createValidSolrDocument(ingestRecord);
+    }
+
+    @Benchmark
+    public ContentSolrDocument populateContentRecord() {
+        ContentSolrDocument record = new ContentSolrDocument();
+        AptrustSolrDocument.populateFromSolrDocument(record, contentResult);
+        return record;
+    }
+
+    @Benchmark
+    public IngestProcessSummary populateIngestSummary() {
+        IngestProcessSummary summary = new IngestProcessSummary();
+        AptrustSolrDocument.populateFromSolrDocument(summary, ingestResult);
+        return summary;
+    }
+
+    /**
+     * Converts a document as Solr would when it's returned in a result.
+     */
+    private static SolrDocument toSolrDocument(SolrInputDocument input) {
+        SolrDocument d = new SolrDocument();
+        for (String name : input.getFieldNames()) {
+            d.setField(name, input.getFieldValue(name));
+        }
+        return d;
+    }
+}
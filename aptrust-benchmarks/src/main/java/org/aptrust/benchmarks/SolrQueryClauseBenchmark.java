@@ -0,0 +1,81 @@
+package org.aptrust.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.aptrust.client.impl.SolrQueryClause;
+import org.aptrust.common.solr.AptrustSolrDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the building of the Solr queries the client sends: the
+ * conjunctions used for the summary counts, a search for ingest operations
+ * started within a date range, and a query for the records of many
+ * objects at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SolrQueryClauseBenchmark {
+
+    private List<String> objectIds;
+
+    private Date start;
+
+    private Date end;
+
+    @Setup
+    public void createValues() {
+        objectIds = new ArrayList<String>();
+        for (int i = 0; i < 100; i ++) {
+            objectIds.add("uva-lib:" + (602146 + i));
+        }
+        end = new Date();
+        start = new Date(end.getTime() - 7L * 24 * 60 * 60 * 1000);
+    }
+
+    @Benchmark
+    public String packageCountQuery() {
+        return new SolrQueryClause(AptrustSolrDocument.RECORD_TYPE, "package")
+                .and(new SolrQueryClause(AptrustSolrDocument.ACCESS_CONTROL_POLICY, "institution"))
+                .and(new SolrQueryClause(AptrustSolrDocument.INSTITUTION_ID, "uva"))
+                .getQueryString();
+    }
+
+    @Benchmark
+    public String ingestDateRangeQuery() {
+        return new SolrQueryClause(AptrustSolrDocument.RECORD_TYPE, "ingest")
+                .and(AptrustSolrDocument.INSTITUTION_ID, "uva")
+                .and(SolrQueryClause.dateRange(AptrustSolrDocument.OPERATION_START_DATE, start, end))
+                .not(new SolrQueryClause(AptrustSolrDocument.OPERATION_STATUS, "completed"))
+                .getQueryString();
+    }
+
+    @Benchmark
+    public String anyOfObjectsQuery() {
+        return new SolrQueryClause(AptrustSolrDocument.RECORD_TYPE, "object")
+                .and(SolrQueryClause.anyOf(AptrustSolrDocument.ID, objectIds))
+                .getQueryString();
+    }
+
+    @Benchmark
+    public String userQuery() {
+        return SolrQueryClause.parseUserQuery("title:\"British and French dominions\"")
+                .and(AptrustSolrDocument.INSTITUTION_ID, "uva")
+                .getQueryString();
+    }
+}
@@ -1,15 +1,14 @@
 package org.aptrust.client.impl;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -39,6 +38,8 @@ import org.aptrust.client.api.PackageSummaryQueryResponse;
 import org.aptrust.client.api.SearchConstraint;
 import org.aptrust.client.api.SearchParams;
 import org.aptrust.client.api.Summary;
+import org.aptrust.common.duracloud.InstrumentedContentStore;
+import org.aptrust.common.duracloud.SpaceTopology;
 import org.aptrust.common.exception.AptrustException;
 import org.aptrust.common.solr.AptrustSolrDocument;
 import org.aptrust.common.solr.ContentSolrDocument;
@@ -47,9 +48,6 @@ import org.duracloud.client.ContentStoreImpl;
 import org.duracloud.common.model.Credential;
 import org.duracloud.common.web.RestHttpHelper;
 import org.duracloud.common.web.RestHttpHelper.HttpResponse;
-import org.duracloud.domain.Content;
-import org.duracloud.error.ContentStoreException;
-import org.duracloud.error.NotFoundException;
 import org.duracloud.storage.domain.StorageProviderType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -84,7 +82,13 @@ public class AptrustClientImpl implements AptrustClient {
 
     protected SolrServer solr;
 
-    private List<InstitutionInfo> cachedInstitutions;
+    /**
+     * The least time between refreshes of the topology caused by requests for
+     * unknown institutions.
+     */
+    private static final long MIN_TOPOLOGY_REFRESH_INTERVAL_MILLIS = 30000;
+
+    private SpaceTopology topology;
 
     public AptrustClientImpl(ClientConfig config) {
         if (config == null) {
@@ -208,58 +212,52 @@ public class AptrustClientImpl implements AptrustClient {
      * contains a single line of text with the institution's full name.
      */
     public List<InstitutionInfo> getInstitutions() throws AptrustException {
-        ContentStore cs = new ContentStoreImpl(config.getDuracloudUrl() + "durastore", 
-                StorageProviderType.valueOf(config.getDuraCloudProviderName()),
-                config.getDuraCloudProviderId(), 
-                new RestHttpHelper(
-                        new Credential(config.getDuracloudUsername(), 
-                                       config.getDuracloudPassword())));
-
+        SpaceTopology topology = getSpaceTopology();
         List<InstitutionInfo> institutions = new ArrayList<InstitutionInfo>();
-        try {
-            List<String> spaces = cs.getSpaces();
-            for (String spaceId : spaces) {
-                if (spaces.contains(spaceId + "staging")) {
-                    try {
-                        Content c = cs.getContent(spaceId, "institution-info.txt");
-                        BufferedReader r = new BufferedReader(new InputStreamReader(c.getStream()));
-                        try {
-                            institutions.add(new InstitutionInfo(spaceId, r.readLine()));
-                        } catch (IOException ex) {
-                            logger.error("Error reading first line of " + c.getId() + " from space \"" + spaceId + "\".");
-                            throw new AptrustException(ex);
-                        } finally {
-                            try {
-                                r.close();
-                            } catch (IOException ex) {
-                                throw new AptrustException(ex);
-                            }
-                        }
-                    } catch (NotFoundException ex) {
-                        logger.warn("\"" + spaceId + "\" and \"" + spaceId + "staging\" look like institutional staging and productions spaces, but \"" + spaceId + "\" does not contain institution-info.txt.");
-                    }
-                }
+        for (String institutionId : topology.getInstitutionIds()) {
+            String name = topology.getInstitutionName(institutionId);
+            if (name != null) {
+                institutions.add(new InstitutionInfo(institutionId, name));
             }
-        } catch (ContentStoreException ex) {
-            throw new AptrustException(ex);
         }
-        cachedInstitutions = institutions;
         return institutions;
     }
 
+    /**
+     * Gets the institution with the given id.  An id that isn't in the cached
+     * topology causes it to be refreshed (if it hasn't been recently) in case
+     * the institution was only just added.
+     */
     public InstitutionInfo getInstitutionInfo(String institutionId) throws AptrustException {
-        if (cachedInstitutions == null || !institutionId.contains(institutionId)) {
-            cachedInstitutions = getInstitutions();
+        SpaceTopology topology = getSpaceTopology();
+        if (topology.getInstitutionName(institutionId) == null) {
+            topology.refreshIfOlderThan(MIN_TOPOLOGY_REFRESH_INTERVAL_MILLIS);
         }
-        for (InstitutionInfo i : cachedInstitutions) {
-            if (i.getId().equals(institutionId)) {
-                return i;
-            }
+        String name = topology.getInstitutionName(institutionId);
+        if (name != null) {
+            return new InstitutionInfo(institutionId, name);
         }
         
         throw new AptrustException("An institution with id ("+ institutionId + ") could not be found.");
     }
 
+    /**
+     * Gets the (shared) topology of the DuraCloud spaces, which is first
+     * loaded when needed.
+     */
+    private synchronized SpaceTopology getSpaceTopology() throws AptrustException {
+        if (topology == null) {
+            ContentStore cs = new ContentStoreImpl(config.getDuracloudUrl() + "durastore", 
+                    StorageProviderType.valueOf(config.getDuraCloudProviderName()),
+                    config.getDuraCloudProviderId(), 
+                    new RestHttpHelper(
+                            new Credential(config.getDuracloudUsername(), 
+                                           config.getDuracloudPassword())));
+            topology = new SpaceTopology(new InstrumentedContentStore(cs));
+        }
+        return topology;
+    }
+
     /**
      * Queries Solr for ingest processes from a given institution that match the
      * provided criteria. <br />
@@ -311,6 +309,8 @@ public class AptrustClientImpl implements AptrustClient {
         }
         List<IngestProcessSummary> results =
             new ArrayList<IngestProcessSummary>();
+        Map<String, IngestProcessSummary> inProgress =
+            new HashMap<String, IngestProcessSummary>();
 
         ModifiableSolrParams params = new ModifiableSolrParams();
         params.set("q", query.toString());
@@ -326,18 +326,48 @@ public class AptrustClientImpl implements AptrustClient {
                 IngestProcessSummary s = new IngestProcessSummary();
                 AptrustSolrDocument.populateFromSolrDocument(s, doc);
                 results.add(s);
+                if (s.getStatus() == IngestStatus.IN_PROGRESS) {
+                    inProgress.put((String) doc.getFirstValue(AptrustSolrDocument.ID), s);
+                }
                 if (pageOffset + 1 >= page.size()) {
                     // fetch next page of results
                     params.set("start", String.valueOf(i + 1));
                     page = solr.query(params).getResults();
                 }
             }
+            if (!inProgress.isEmpty()) {
+                updateIngestProgress(institutionId, inProgress);
+            }
         } catch (SolrServerException ex) {
             throw new AptrustException(ex);
         }
         return results;
     }
 
+    /**
+     * Updates the ingested object count of each of the given in-progress
+     * ingest operations from its "ingest_progress" record, which (unlike the
+     * "ingest" record) is rewritten as each object is ingested.
+     * @param inProgress the in-progress operations, by ingest id
+     */
+    private void updateIngestProgress(String institutionId, Map<String, IngestProcessSummary> inProgress) throws SolrServerException {
+        SolrQueryClause query =
+            new SolrQueryClause(AptrustSolrDocument.RECORD_TYPE, "ingest_progress")
+                .and(new SolrQueryClause(AptrustSolrDocument.INSTITUTION_ID, institutionId))
+                .and(SolrQueryClause.anyOf(AptrustSolrDocument.INGEST_ID, inProgress.keySet()));
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set("q", query.toString());
+        params.set("fl", AptrustSolrDocument.INGEST_ID + "," + AptrustSolrDocument.COMPLETED_OBJECT_COUNT);
+        params.set("rows", String.valueOf(inProgress.size()));
+        for (SolrDocument doc : solr.query(params).getResults()) {
+            IngestProcessSummary s = inProgress.get((String) doc.getFirstValue(AptrustSolrDocument.INGEST_ID));
+            Integer count = (Integer) doc.getFirstValue(AptrustSolrDocument.COMPLETED_OBJECT_COUNT);
+            if (s != null && count != null) {
+                s.setIngestedObjectCount(count);
+            }
+        }
+    }
+
 
     @Override
     public PackageSummaryQueryResponse findPackageSummaries(String institutionId, SearchParams searchParams, String ... facetFields) throws AptrustException {
@@ -1,6 +1,7 @@
 package org.aptrust.client.impl;
 
 import java.text.SimpleDateFormat;
+import java.util.Collection;
 import java.util.Date;
 import java.util.TimeZone;
 
@@ -79,6 +80,26 @@ public class SolrQueryClause {
         return new SolrQueryClause(fieldName.replaceAll(":", "\\:") + ":[" + (start == null ? "*" : f.format(start)) + " TO " + (end == null ? "*" : f.format(end)) + "]");
     }
 
+    /**
+     * Creates a query clause that matches any of the given values in the given
+     * field.
+     * @param fieldName the name of the field to search
+     * @param values the values, at least one of which must be present
+     * @return the SolrQueryClause matching records with any of the values
+     */
+    public static SolrQueryClause anyOf(String fieldName, Collection<String> values) {
+        if (values.isEmpty()) {
+            throw new IllegalArgumentException("At least one value is required!");
+        }
+        StringBuffer sb = new StringBuffer();
+        for (String value : values) {
+            sb.append(sb.length() == 0 ? "(" : " ");
+            sb.append(new SolrQueryClause(fieldName, value));
+        }
+        sb.append(")");
+        return new SolrQueryClause(sb.toString());
+    }
+
     /**
      * Creates a query clause formatted appropriately for Solr based on a user
      * entered query.  The current implementation assumes that the user-entered
@@ -0,0 +1,41 @@
+package org.aptrust.common.duracloud;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * <p>
+ *   Computes checksums as DuraCloud does: MD5 digests, given as lower case
+ *   hexadecimal strings.
+ * </p>
+ */
+public final class Checksums {
+
+    private Checksums() {
+    }
+
+    /**
+     * Creates a new MD5 digest.
+     */
+    public static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException ex) {
+            // can't happen because MD5 is supported by all JVMs
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Gets the given bytes (typically a digest) as a lower case hexadecimal
+     * string.
+     */
+    public static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
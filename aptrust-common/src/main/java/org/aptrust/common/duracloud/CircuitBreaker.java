@@ -0,0 +1,143 @@
+package org.aptrust.common.duracloud;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ *   Tracks the health of a single DuraCloud endpoint so that requests fail
+ *   fast while it's unavailable instead of each waiting through its own
+ *   series of retries.  After a number of consecutive failures that suggest
+ *   the endpoint is unavailable the breaker opens and no requests are
+ *   allowed until a period has passed.  Then a single trial request is
+ *   allowed: if it gets an answer the breaker closes, otherwise it opens
+ *   again.
+ * </p>
+ * <p>
+ *   Breakers are shared by all of the clients of an endpoint (see
+ *   forEndpoint()), since all of them suffer when it's unavailable.
+ * </p>
+ */
+public class CircuitBreaker {
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    public static final long DEFAULT_OPEN_MILLIS = 60000;
+
+    private static final ConcurrentMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    public static enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN;
+    }
+
+    final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private String endpoint;
+
+    private int failureThreshold;
+
+    private long openMillis;
+
+    private State state;
+
+    private int failureCount;
+
+    private long openedAt;
+
+    /**
+     * Gets the breaker, with the default threshold and period, shared by all
+     * clients of the given endpoint.
+     */
+    public static CircuitBreaker forEndpoint(String endpoint) {
+        CircuitBreaker breaker = BREAKERS.get(endpoint);
+        if (breaker == null) {
+            CircuitBreaker existing = BREAKERS.putIfAbsent(endpoint, breaker = new CircuitBreaker(endpoint, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS));
+            if (existing != null) {
+                breaker = existing;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * @param endpoint a description of the endpoint for messages
+     * @param failureThreshold the number of consecutive failures after which
+     * the breaker opens
+     * @param openMillis the number of milliseconds for which the breaker
+     * stays open before a trial request is allowed
+     */
+    public CircuitBreaker(String endpoint, int failureThreshold, long openMillis) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("The failure threshold must be at least one!");
+        }
+        this.endpoint = endpoint;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        state = State.CLOSED;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Determines whether a request may be made now.  While the breaker is
+     * half open only the one trial request is allowed, and it must be
+     * followed by a call to recordResponse() or recordFailure().
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.CLOSED) {
+            return true;
+        } else if (state == State.OPEN && getRetryAfterMillis() == 0) {
+            state = State.HALF_OPEN;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the number of milliseconds until a request may be allowed, which
+     * is zero unless the breaker is open.
+     */
+    public synchronized long getRetryAfterMillis() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, openedAt + openMillis - System.currentTimeMillis());
+    }
+
+    /**
+     * Records that a request was answered, even if the answer was an error,
+     * since that shows the endpoint is available.
+     */
+    public synchronized void recordResponse() {
+        if (state != State.CLOSED) {
+            logger.info("Requests to " + endpoint + " are succeeding again.");
+        }
+        state = State.CLOSED;
+        failureCount = 0;
+    }
+
+    /**
+     * Records that a request failed in a way that suggests the endpoint is
+     * unavailable.
+     */
+    public synchronized void recordFailure() {
+        failureCount ++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failureCount >= failureThreshold)) {
+            logger.warn("Suspending requests to " + endpoint + " for " + openMillis + "ms after " + failureCount + " consecutive failures.");
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.aptrust.common.duracloud;
+
+import org.duracloud.error.ContentStoreException;
+
+/**
+ * Thrown in place of making a request to a DuraCloud instance whose
+ * CircuitBreaker is open because recent requests to it have failed.
+ */
+public class CircuitOpenException extends ContentStoreException {
+
+    private static final long serialVersionUID = 1L;
+
+    private long retryAfterMillis;
+
+    public CircuitOpenException(String endpoint, long retryAfterMillis) {
+        super("Requests to " + endpoint + " are suspended for " + retryAfterMillis + "ms after repeated failures.");
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * Gets the number of milliseconds after which a request may be attempted.
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,130 @@
+package org.aptrust.common.duracloud;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <p>
+ *   Content that can be read from the beginning as many times as needed, so
+ *   that an upload that fails part way through can be attempted again.  Each
+ *   call to open() returns a new stream, which the caller must close.
+ * </p>
+ * <p>
+ *   Sources for a file, a range of bytes in a file, or an array of bytes are
+ *   available from the static methods; other sources (such as something
+ *   that generates its content) may extend this class.
+ * </p>
+ */
+public abstract class ContentSource {
+
+    /**
+     * Opens a new stream of the content from its first byte.
+     */
+    public abstract InputStream open() throws IOException;
+
+    /**
+     * Gets the number of bytes in the content.
+     */
+    public abstract long getSize();
+
+    public static ContentSource forFile(File file) {
+        return forRange(file, 0, file.length());
+    }
+
+    /**
+     * Gets the source for the given number of bytes of the given file,
+     * starting at the given offset.
+     */
+    public static ContentSource forRange(final File file, final long offset, final long length) {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Invalid range!");
+        }
+        return new ContentSource() {
+
+            public InputStream open() throws IOException {
+                final FileInputStream fis = new FileInputStream(file);
+                try {
+                    fis.getChannel().position(offset);
+                } catch (IOException ex) {
+                    fis.close();
+                    throw ex;
+                }
+                return new RangeInputStream(fis, length);
+            }
+
+            public long getSize() {
+                return length;
+            }
+
+            public String toString() {
+                return file.getPath() + "[" + offset + "+" + length + "]";
+            }
+        };
+    }
+
+    public static ContentSource forBytes(final byte[] bytes) {
+        return new ContentSource() {
+
+            public InputStream open() {
+                return new ByteArrayInputStream(bytes);
+            }
+
+            public long getSize() {
+                return bytes.length;
+            }
+        };
+    }
+
+    /**
+     * A stream that ends after a given number of bytes of another stream.
+     */
+    private static class RangeInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        public RangeInputStream(InputStream in, long length) {
+            super(in);
+            remaining = length;
+        }
+
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b != -1) {
+                remaining --;
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read != -1) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.aptrust.common.duracloud;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ *   The statistics recorded by InstrumentedContentStores: for each
+ *   operation, for each space, and for each operation on each space.  Each
+ *   OperationStats is registered as an MBean when it's first needed, with
+ *   a name such as org.aptrust:type=ContentStore,name="default",
+ *   operation=getContent,space="uva" (the space or operation being omitted
+ *   from the totals for an operation or space), and a summary of the
+ *   operations and spaces may be logged periodically.
+ * </p>
+ * <p>
+ *   A single instance (see getInstance()) is usually shared by every
+ *   InstrumentedContentStore in a process so that all calls to DuraCloud are
+ *   counted together.
+ * </p>
+ */
+public class ContentStoreMetrics {
+
+    private static ContentStoreMetrics INSTANCE;
+
+    final Logger logger = LoggerFactory.getLogger(ContentStoreMetrics.class);
+
+    private String name;
+
+    private boolean registerMBeans;
+
+    private ConcurrentMap<String, OperationStats> operations = new ConcurrentHashMap<String, OperationStats>();
+
+    private ConcurrentMap<String, OperationStats> spaces = new ConcurrentHashMap<String, OperationStats>();
+
+    private ConcurrentMap<String, OperationStats> operationsBySpace = new ConcurrentHashMap<String, OperationStats>();
+
+    private ScheduledExecutorService summaryLogger;
+
+    /**
+     * Gets the metrics shared by the InstrumentedContentStores that aren't
+     * given others, which are registered with JMX.
+     */
+    public static synchronized ContentStoreMetrics getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new ContentStoreMetrics("default", true);
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * @param name the name that distinguishes the MBeans of these metrics
+     * @param registerMBeans true if the statistics should be registered with
+     * the platform MBean server
+     */
+    public ContentStoreMetrics(String name, boolean registerMBeans) {
+        this.name = name;
+        this.registerMBeans = registerMBeans;
+    }
+
+    /**
+     * Gets the statistics for all calls of the given operation.
+     */
+    public OperationStats getOperationStats(String operation) {
+        return getStats(operations, operation, operation, null);
+    }
+
+    /**
+     * Gets the statistics for all calls on the given space.
+     */
+    public OperationStats getSpaceStats(String spaceId) {
+        return getStats(spaces, spaceId, null, spaceId);
+    }
+
+    /**
+     * Gets the statistics for calls of the given operation on the given
+     * space.
+     */
+    public OperationStats getOperationStats(String operation, String spaceId) {
+        return getStats(operationsBySpace, operation + " " + spaceId, operation, spaceId);
+    }
+
+    /**
+     * Records a call of the given operation on the given space (which may be
+     * null for operations that aren't on a space).
+     */
+    public void recordCall(String operation, String spaceId, long nanos, boolean failed) {
+        getOperationStats(operation).recordCall(nanos, failed);
+        if (spaceId != null) {
+            getSpaceStats(spaceId).recordCall(nanos, failed);
+            getOperationStats(operation, spaceId).recordCall(nanos, failed);
+        }
+    }
+
+    /**
+     * Gets a summary of the statistics for each operation and each space, one
+     * per line.
+     */
+    public List<String> getSummary() {
+        List<String> summary = new ArrayList<String>();
+        for (OperationStats stats : operations.values()) {
+            summary.add(stats.getSummary());
+        }
+        for (OperationStats stats : spaces.values()) {
+            summary.add(stats.getSummary());
+        }
+        return summary;
+    }
+
+    /**
+     * Begins logging a summary of these statistics at the given interval.
+     */
+    public synchronized void startLogging(long intervalSeconds) {
+        if (summaryLogger == null && intervalSeconds > 0) {
+            summaryLogger = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "content-store-metrics");
+                    t.setDaemon(true);
+                    return t;
+                }});
+            summaryLogger.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    for (String line : getSummary()) {
+                        logger.info(line);
+                    }
+                }}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public synchronized void stopLogging() {
+        if (summaryLogger != null) {
+            summaryLogger.shutdownNow();
+            summaryLogger = null;
+        }
+    }
+
+    private OperationStats getStats(ConcurrentMap<String, OperationStats> map, String key, String operation, String spaceId) {
+        OperationStats stats = map.get(key);
+        if (stats == null) {
+            stats = new OperationStats(operation == null ? "space " + spaceId : (spaceId == null ? operation : operation + " on " + spaceId));
+            OperationStats existing = map.putIfAbsent(key, stats);
+            if (existing != null) {
+                return existing;
+            }
+            if (registerMBeans) {
+                register(stats, operation, spaceId);
+            }
+        }
+        return stats;
+    }
+
+    private void register(OperationStats stats, String operation, String spaceId) {
+        StringBuilder objectName = new StringBuilder("org.aptrust:type=ContentStore,name=" + ObjectName.quote(name));
+        if (operation != null) {
+            objectName.append(",operation=" + operation);
+        }
+        if (spaceId != null) {
+            objectName.append(",space=" + ObjectName.quote(spaceId));
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(stats, new ObjectName(objectName.toString()));
+        } catch (InstanceAlreadyExistsException ex) {
+            logger.debug(objectName + " is already registered.");
+        } catch (Exception ex) {
+            logger.warn("Unable to register " + objectName + " with JMX.", ex);
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package org.aptrust.common.duracloud;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.duracloud.client.ContentStore;
+import org.duracloud.common.model.AclType;
+import org.duracloud.domain.Content;
+import org.duracloud.domain.Space;
+import org.duracloud.error.ContentStoreException;
+import org.duracloud.error.InvalidIdException;
+
+/**
+ * <p>
+ * A ContentStore implementation that wraps another ContentStore
+ * implementation and records, in a ContentStoreMetrics, the number of
+ * calls of each operation on each space, how many of them failed, how long
+ * they took and how many bytes they moved.  Bytes are counted as content is
+ * read from the stream passed to addContent() or returned by getContent(),
+ * so the latency of getContent() is the time until its content can begin
+ * to be read.
+ * </p>
+ * <p>
+ * When combined with a StubbornContentStore, this should be the inner store
+ * so that each attempt is recorded separately.
+ * </p>
+ */
+public class InstrumentedContentStore implements ContentStore {
+
+    private ContentStore cs;
+
+    private ContentStoreMetrics metrics;
+
+    /**
+     * Creates an InstrumentedContentStore that records its calls in the
+     * shared ContentStoreMetrics.
+     */
+    public InstrumentedContentStore(ContentStore contentStore) {
+        this(contentStore, ContentStoreMetrics.getInstance());
+    }
+
+    public InstrumentedContentStore(ContentStore contentStore, ContentStoreMetrics metrics) {
+        cs = contentStore;
+        this.metrics = metrics;
+    }
+
+    public ContentStoreMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void record(String operation, String spaceId, long start, boolean failed) {
+        metrics.recordCall(operation, spaceId, System.nanoTime() - start, failed);
+    }
+
+    @Override
+    public String addContent(String spaceId, String contentId, InputStream content, long contentSize, String contentMimeType, String contentChecksum, Map<String, String> contentProperties) throws ContentStoreException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            String result = cs.addContent(spaceId, contentId, new CountingInputStream(content, "addContent", spaceId), contentSize, contentMimeType, contentChecksum, contentProperties);
+            failed = false;
+            return result;
+        } finally {
+            record("addContent", spaceId, start, failed);
+        }
+    }
+
+    @Override
+    public String copyContent(String srcSpaceId, String srcContentId, String destSpaceId, String destContentId) throws ContentStoreException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            String result = cs.copyContent(srcSpaceId, srcContentId, destSpaceId, destContentId);
+            failed = false;
+            return result;
+        } finally {
+            record("copyContent", srcSpaceId, start, failed);
+        }
+    }
+
+    @Override
+    public String copyContent(String srcSpaceId, String srcContentId, String destStoreId, String destSpaceId, String destContentId) throws ContentStoreException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            String result = cs.copyContent(srcSpaceId, srcContentId, destStoreId, destSpaceId, destContentId);
+            failed = false;
+            return result;
+        } finally {
+            record("copyContent", srcSpaceId, start, failed);
+        }
+    }
+
+    @Override
+    public void createSpace(String spaceId) throws ContentStoreException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            cs.createSpace(spaceId);
+            failed = false;
+        } finally {
+            record("createSpace", spaceId, start, failed);
+        }
+    }
+
+    @Override
+    public void deleteContent(String spaceId, String contentId) throws ContentStoreException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            cs.deleteContent(spaceId, contentId);
+            failed = false;
+        } finally {
+            record("deleteContent", spaceId, start, failed);
+        }
+    }
+
+    @Override
+    public void deleteSpace(String spaceId) throws ContentStoreException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            cs.deleteSpace(spaceId);
+            failed = false;
+        } finally {
+            record("deleteSpace", spaceId, start, failed);
+        }
+    }
+
+    @Override
+    public String getBaseURL() {
+        return cs.getBaseURL();
+    }
+
+    @Override
+    public Content getContent(String spaceId, String contentId) throws ContentStoreException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Content result = cs.getContent(spaceId, contentId);
+            if (result != null && result.getStream() != null) {
+                result.setStream(new CountingInputStream(result.getStream(), "getContent", spaceId));
+            }
+            failed = false;
+            return result;
+        } finally {
+            record("getContent", spaceId, start, failed);
+        }
+    }
+
+    @Override
+    public Map<String, String> getContentProperties(String spaceId, String contentId) throws ContentStoreException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Map<String, String> result = cs.getContentProperties(spaceId, contentId);
+            failed = false;
+            return result;
+        } finally {
+            record("getContentProperties", spaceId, start, failed);
+        }
+    }
+
+    @Override
+    public Space getSpace(String spaceId, String prefix, long maxResults, String marker) throws ContentStoreException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Space result = cs.getSpace(spaceId, prefix, maxResults, marker);
+            failed = false;
+            return result;
+        } finally {
+            record("getSpace", spaceId, start, failed);
+        }
+    }
+
+    @Override
+    public Map<String, AclType> getSpaceACLs(String spaceId) throws ContentStoreException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Map<String, AclType> result = cs.getSpaceACLs(spaceId);
+            failed = false;
+            return result;
+        } finally {
+            record("getSpaceACLs", spaceId, start, failed);
+        }
+    }
+
+    @Override
+    public Iterator<String> getSpaceContents(String spaceId) throws ContentStoreException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Iterator<String> result = cs.getSpaceContents(spaceId);
+            failed = false;
+            return result;
+        } finally {
+            record("getSpaceContents", spaceId, start, failed);
+        }
+    }
+
+    @Override
+    public Iterator<String> getSpaceContents(String spaceId, String prefix) throws ContentStoreException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Iterator<String> result = cs.getSpaceContents(spaceId, prefix);
+            failed = false;
+            return result;
+        } finally {
+            record("getSpaceContents", spaceId, start, failed);
+        }
+    }
+
+    @Override
+    public Map<String, String> getSpaceProperties(String spaceId) throws ContentStoreException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Map<String, String> result = cs.getSpaceProperties(spaceId);
+            failed = false;
+            return result;
+        } finally {
+            record("getSpaceProperties", spaceId, start, failed);
+        }
+    }
+
+    @Override
+    public List<String> getSpaces() throws ContentStoreException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            List<String> result = cs.getSpaces();
+            failed = false;
+            return result;
+        } finally {
+            record("getSpaces", null, start, failed);
+        }
+    }
+
+    @Override
+    public String getStorageProviderType() {
+        return cs.getStorageProviderType();
+    }
+
+    @Override
+    public String getStoreId() {
+        return cs.getStoreId();
+    }
+
+    @Override
+    public List<String> getSupportedTasks() throws ContentStoreException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            List<String> result = cs.getSupportedTasks();
+            failed = false;
+            return result;
+        } finally {
+            record("getSupportedTasks", null, start, failed);
+        }
+    }
+
+    @Override
+    public String moveContent(String srcSpaceId, String srcContentId, String destSpaceId, String destContentId) throws ContentStoreException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            String result = cs.moveContent(srcSpaceId, srcContentId, destSpaceId, destContentId);
+            failed = false;
+            return result;
+        } finally {
+            record("moveContent", srcSpaceId, start, failed);
+        }
+    }
+
+    @Override
+    public String moveContent(String srcSpaceId, String srcContentId, String destStoreId, String destSpaceId, String destContentId) throws ContentStoreException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            String result = cs.moveContent(srcSpaceId, srcContentId, destStoreId, destSpaceId, destContentId);
+            failed = false;
+            return result;
+        } finally {
+            record("moveContent", srcSpaceId, start, failed);
+        }
+    }
+
+    @Override
+    public String performTask(String taskName, String taskParameters) throws ContentStoreException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            String result = cs.performTask(taskName, taskParameters);
+            failed = false;
+            return result;
+        } finally {
+            record("performTask", null, start, failed);
+        }
+    }
+
+    @Override
+    public void setContentProperties(String spaceId, String contentId, Map<String, String> contentProperties) throws ContentStoreException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            cs.setContentProperties(spaceId, contentId, contentProperties);
+            failed = false;
+        } finally {
+            record("setContentProperties", spaceId, start, failed);
+        }
+    }
+
+    @Override
+    public void setSpaceACLs(String spaceId, Map<String, AclType> spaceACLs) throws ContentStoreException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            cs.setSpaceACLs(spaceId, spaceACLs);
+            failed = false;
+        } finally {
+            record("setSpaceACLs", spaceId, start, failed);
+        }
+    }
+
+    @Override
+    public void validateContentId(String contentId) throws InvalidIdException {
+        cs.validateContentId(contentId);
+    }
+
+    @Override
+    public void validateSpaceId(String spaceId) throws InvalidIdException {
+        cs.validateSpaceId(spaceId);
+    }
+
+    /**
+     * A stream that records the bytes read from it as those moved by an
+     * operation on a space.  The statistics to which the bytes are added are
+     * looked up once, when the stream is created, rather than on each read.
+     */
+    private class CountingInputStream extends FilterInputStream {
+
+        private OperationStats[] stats;
+
+        public CountingInputStream(InputStream in, String operation, String spaceId) {
+            super(in);
+            if (spaceId == null) {
+                stats = new OperationStats[] { metrics.getOperationStats(operation) };
+            } else {
+                stats = new OperationStats[] { metrics.getOperationStats(operation), metrics.getSpaceStats(spaceId), metrics.getOperationStats(operation, spaceId) };
+            }
+        }
+
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                recordBytes(1);
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                recordBytes(read);
+            }
+            return read;
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            if (skipped > 0) {
+                recordBytes(skipped);
+            }
+            return skipped;
+        }
+
+        private void recordBytes(long bytes) {
+            for (OperationStats s : stats) {
+                s.recordBytes(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.aptrust.common.duracloud;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ *   Counts the calls, errors and bytes transferred by some set of
+ *   ContentStore calls (such as those of one operation, or those to one
+ *   space) and keeps a histogram of their latencies.  Every update is a few
+ *   atomic additions so that recording calls never makes them wait for one
+ *   another.
+ * </p>
+ * <p>
+ *   The histogram has a bucket for each power of two milliseconds, so
+ *   percentiles are reported as the upper bound of the bucket in which they
+ *   fall, which is within a factor of two of the actual value.
+ * </p>
+ */
+public class OperationStats implements OperationStatsMBean {
+
+    /**
+     * Bucket 0 holds latencies under a millisecond and bucket i those from
+     * 2^(i-1) up to 2^i milliseconds; the last bucket (from about 18 hours)
+     * holds everything longer.
+     */
+    private static final int BUCKET_COUNT = 28;
+
+    private String name;
+
+    private AtomicLong callCount = new AtomicLong();
+
+    private AtomicLong errorCount = new AtomicLong();
+
+    private AtomicLong bytesTransferred = new AtomicLong();
+
+    private AtomicLong totalNanos = new AtomicLong();
+
+    private AtomicLong maxNanos = new AtomicLong();
+
+    private AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    public OperationStats(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records a call that took the given number of nanoseconds.
+     */
+    public void recordCall(long nanos, boolean failed) {
+        callCount.incrementAndGet();
+        if (failed) {
+            errorCount.incrementAndGet();
+        }
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+        buckets.incrementAndGet(getBucket(TimeUnit.NANOSECONDS.toMillis(nanos)));
+    }
+
+    public void recordBytes(long bytes) {
+        bytesTransferred.addAndGet(bytes);
+    }
+
+    public long getCallCount() {
+        return callCount.get();
+    }
+
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    public long getBytesTransferred() {
+        return bytesTransferred.get();
+    }
+
+    public double getMeanMillis() {
+        long calls = callCount.get();
+        return calls == 0 ? 0 : totalNanos.get() / 1000000.0 / calls;
+    }
+
+    public long getMaxMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+    }
+
+    public long getPercentile50Millis() {
+        return getPercentileMillis(50);
+    }
+
+    public long getPercentile95Millis() {
+        return getPercentileMillis(95);
+    }
+
+    public long getPercentile99Millis() {
+        return getPercentileMillis(99);
+    }
+
+    /**
+     * Gets the upper bound of the bucket in which the given percentile of
+     * latencies falls, or 0 if no calls have been recorded.
+     */
+    public long getPercentileMillis(double percentile) {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i ++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT - 1; i ++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return 1L << i;
+            }
+        }
+        return getMaxMillis();
+    }
+
+    /**
+     * Gets a one-line summary of these statistics.
+     */
+    public String getSummary() {
+        return name + ": " + getCallCount() + " calls, " + getErrorCount() + " errors, "
+                + String.format("%.1f", getMeanMillis()) + "ms mean, " + getPercentile95Millis() + "ms p95, "
+                + getMaxMillis() + "ms max, " + getBytesTransferred() + " bytes";
+    }
+
+    static int getBucket(long millis) {
+        int bucket = 64 - Long.numberOfLeadingZeros(millis);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+}
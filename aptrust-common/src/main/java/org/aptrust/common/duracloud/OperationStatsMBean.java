@@ -0,0 +1,24 @@
+package org.aptrust.common.duracloud;
+
+/**
+ * The JMX view of an OperationStats.
+ */
+public interface OperationStatsMBean {
+
+    public long getCallCount();
+
+    public long getErrorCount();
+
+    public long getBytesTransferred();
+
+    public double getMeanMillis();
+
+    public long getMaxMillis();
+
+    public long getPercentile50Millis();
+
+    public long getPercentile95Millis();
+
+    public long getPercentile99Millis();
+
+}
@@ -0,0 +1,308 @@
+package org.aptrust.common.duracloud;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.duracloud.error.ContentStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ *   Performs DuraCloud operations according to a RetryPolicy, through a
+ *   CircuitBreaker.  Each attempt is made only if the breaker allows it and
+ *   its outcome is recorded with the breaker.  Once the breaker opens, no
+ *   further attempts are made and the last failure is returned at once.
+ * </p>
+ * <p>
+ *   An operation may be performed synchronously, in which case the calling
+ *   thread sleeps between attempts, or asynchronously, in which case each
+ *   attempt is made on a thread of a ScheduledExecutorService and the waits
+ *   between them are scheduled rather than slept, so that no thread is tied
+ *   up while waiting to retry.
+ * </p>
+ */
+public class RetryExecutor {
+
+    /**
+     * An operation that may be attempted more than once.
+     */
+    public static interface Operation<T> {
+        public T call() throws ContentStoreException;
+    }
+
+    /**
+     * Notified once an asynchronous operation has succeeded or failed (for
+     * the last time).  It isn't notified if the operation is cancelled.
+     */
+    public static interface Callback<T> {
+        public void completed(T result);
+        public void failed(ContentStoreException ex);
+    }
+
+    private static ScheduledExecutorService DEFAULT_SCHEDULER;
+
+    final Logger logger = LoggerFactory.getLogger(RetryExecutor.class);
+
+    private RetryPolicy policy;
+
+    private CircuitBreaker breaker;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a RetryExecutor whose asynchronous operations are performed on
+     * a small shared pool of daemon threads.
+     */
+    public RetryExecutor(RetryPolicy policy, CircuitBreaker breaker) {
+        this(policy, breaker, getDefaultScheduler());
+    }
+
+    public RetryExecutor(RetryPolicy policy, CircuitBreaker breaker, ScheduledExecutorService scheduler) {
+        this.policy = policy;
+        this.breaker = breaker;
+        this.scheduler = scheduler;
+    }
+
+    private static synchronized ScheduledExecutorService getDefaultScheduler() {
+        if (DEFAULT_SCHEDULER == null) {
+            DEFAULT_SCHEDULER = Executors.newScheduledThreadPool(4, new ThreadFactory() {
+                private int count = 0;
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "content-store-retry-" + (++ count));
+                    t.setDaemon(true);
+                    return t;
+                }});
+        }
+        return DEFAULT_SCHEDULER;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+
+    /**
+     * Performs the given operation, sleeping between attempts.
+     * @param description a description of the operation for log messages
+     * @throws ContentStoreException the last failure, if the operation
+     * failed in a way that isn't retryable, failed too many times, or can't
+     * be attempted because the breaker is open
+     */
+    public <T> T execute(String description, Operation<T> op) throws ContentStoreException {
+        for (int retries = 0; ; retries ++) {
+            try {
+                return attempt(op);
+            } catch (ContentStoreException ex) {
+                long delay = getRetryDelay(description, ex, retries);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    logger.info("Interrupted while waiting before subsequent attempt!");
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    /**
+     * Performs the given operation, through the breaker, without attempting
+     * it again if it fails.  This is for operations that can't safely be
+     * repeated.
+     */
+    public <T> T executeOnce(Operation<T> op) throws ContentStoreException {
+        return attempt(op);
+    }
+
+    /**
+     * Begins performing the given operation asynchronously.
+     * @param description a description of the operation for log messages
+     * @param callback notified of the outcome, may be null
+     * @return a Future from which the result (or, wrapped in an
+     * ExecutionException, the last failure) may be had
+     */
+    public <T> Future<T> executeAsync(String description, Operation<T> op, Callback<T> callback) {
+        AsyncOperation<T> async = new AsyncOperation<T>(description, op, callback);
+        async.schedule(0);
+        return async;
+    }
+
+    private <T> T attempt(Operation<T> op) throws ContentStoreException {
+        if (!breaker.allowRequest()) {
+            throw new CircuitOpenException(breaker.getEndpoint(), breaker.getRetryAfterMillis());
+        }
+        boolean answered = true;
+        try {
+            return op.call();
+        } catch (ContentStoreException ex) {
+            answered = !policy.isRetryable(ex);
+            throw ex;
+        } finally {
+            if (answered) {
+                breaker.recordResponse();
+            } else {
+                breaker.recordFailure();
+            }
+        }
+    }
+
+    /**
+     * Gets the delay before the next attempt of an operation that failed
+     * with the given exception.
+     * @throws ContentStoreException the given exception if no further
+     * attempt should be made
+     */
+    private long getRetryDelay(String description, ContentStoreException ex, int retries) throws ContentStoreException {
+        if (retries >= policy.getMaxRetries() || !policy.isRetryable(ex)) {
+            throw ex;
+        }
+        if (breaker.getState() == CircuitBreaker.State.OPEN) {
+            logger.warn(description + " failed with message, \"" + ex.getMessage() + "\" and will not be attempted again while requests to " + breaker.getEndpoint() + " are suspended.");
+            throw ex;
+        }
+        long delay = policy.getDelay(retries);
+        logger.warn(description + " failed with message, \"" + ex.getMessage() + "\" attempting again in " + delay + "ms.", ex);
+        return delay;
+    }
+
+    /**
+     * An operation whose attempts are scheduled, one at a time, on the
+     * scheduler.  It serves as its own Future.
+     */
+    private class AsyncOperation<T> implements Runnable, Future<T> {
+
+        private String description;
+
+        private Operation<T> op;
+
+        private Callback<T> callback;
+
+        private int retries;
+
+        private ScheduledFuture<?> pending;
+
+        private boolean done;
+
+        private boolean cancelled;
+
+        private T result;
+
+        private ContentStoreException failure;
+
+        public AsyncOperation(String description, Operation<T> op, Callback<T> callback) {
+            this.description = description;
+            this.op = op;
+            this.callback = callback;
+        }
+
+        public void run() {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+            }
+            try {
+                complete(attempt(op), null);
+            } catch (ContentStoreException ex) {
+                try {
+                    schedule(getRetryDelay(description, ex, retries ++));
+                } catch (ContentStoreException last) {
+                    complete(null, last);
+                }
+            } catch (RuntimeException ex) {
+                complete(null, new ContentStoreException(description + " failed!", ex));
+            }
+        }
+
+        private void schedule(long delay) {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                try {
+                    pending = scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (RejectedExecutionException ex) {
+                    logger.warn(description + " can't be attempted after shutdown.");
+                }
+            }
+            complete(null, new ContentStoreException(description + " was not attempted because the executor is shut down!"));
+        }
+
+        private void complete(T result, ContentStoreException failure) {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                this.result = result;
+                this.failure = failure;
+                done = true;
+                notifyAll();
+            }
+            if (callback != null) {
+                if (failure == null) {
+                    callback.completed(result);
+                } else {
+                    callback.failed(failure);
+                }
+            }
+        }
+
+        public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+            if (done) {
+                return false;
+            }
+            done = true;
+            cancelled = true;
+            if (pending != null) {
+                pending.cancel(mayInterruptIfRunning);
+            }
+            notifyAll();
+            return true;
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        public synchronized boolean isDone() {
+            return done;
+        }
+
+        public synchronized T get() throws InterruptedException, ExecutionException {
+            while (!done) {
+                wait();
+            }
+            return getResult();
+        }
+
+        public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+            while (!done) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                wait(remaining);
+            }
+            return getResult();
+        }
+
+        private T getResult() throws ExecutionException {
+            if (cancelled) {
+                throw new CancellationException();
+            } else if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.aptrust.common.duracloud;
+
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.duracloud.error.ContentStoreException;
+import org.duracloud.error.NotFoundException;
+import org.duracloud.error.UnauthorizedException;
+
+/**
+ * <p>
+ *   Decides which failed DuraCloud operations are worth attempting again
+ *   and how long to wait before each attempt.  Failures are retryable when
+ *   the store answered with a status code that indicates a temporary
+ *   condition (408, 429, 500, 502, 503 or 504) or when the request never
+ *   got an answer because of a timeout or a connection failure.  Missing
+ *   content, bad credentials and every other answer are returned to the
+ *   caller at once.
+ * </p>
+ * <p>
+ *   The delays grow exponentially from a base delay up to a maximum, and
+ *   each is randomized between half and all of its nominal length so that
+ *   the many threads that fail together during an outage don't all return
+ *   together.  The defaults (five retries starting at five seconds) wait
+ *   about as long in total as the fixed delays that preceded them.
+ * </p>
+ */
+public class RetryPolicy {
+
+    public static final int DEFAULT_MAX_RETRIES = 5;
+
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 5000;
+
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 120000;
+
+    /**
+     * The DuraCloud client reports the status of a failed request only in
+     * the message of the exception it throws.
+     */
+    private static final Pattern RESPONSE_CODE = Pattern.compile("response code was (\\d{3})");
+
+    private int maxRetries;
+
+    private long baseDelayMillis;
+
+    private long maxDelayMillis;
+
+    private Random random;
+
+    public RetryPolicy() {
+        this(DEFAULT_MAX_RETRIES, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * @param maxRetries the number of attempts made after the first
+     * @param baseDelayMillis the nominal delay before the first retry
+     * @param maxDelayMillis the longest nominal delay before any retry
+     */
+    public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        if (maxRetries < 0 || baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException("Invalid retry policy!");
+        }
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        random = new Random();
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Gets the number of milliseconds to wait before the given retry.
+     * @param retries the number of retries performed already
+     */
+    public long getDelay(int retries) {
+        long delay = baseDelayMillis;
+        for (int i = 0; i < retries && delay < maxDelayMillis; i ++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxDelayMillis);
+        long half = delay / 2;
+        synchronized (random) {
+            return delay - half + (half == 0 ? 0 : (long) (random.nextDouble() * (half + 1)));
+        }
+    }
+
+    /**
+     * Determines whether the failure reported by the given exception is
+     * likely to be temporary.
+     */
+    public boolean isRetryable(ContentStoreException ex) {
+        if (ex instanceof NotFoundException || ex instanceof UnauthorizedException || ex instanceof CircuitOpenException) {
+            return false;
+        }
+        int status = getStatusCode(ex);
+        if (status != -1) {
+            return isRetryableStatusCode(status);
+        }
+        for (Throwable cause = ex.getCause(); cause != null; cause = cause.getCause()) {
+            // timeouts (of both connecting and reading) and refused, reset
+            // or unroutable connections
+            if (cause instanceof InterruptedIOException || cause instanceof SocketException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static boolean isRetryableStatusCode(int status) {
+        return status == 408 || status == 429 || status == 500 || status == 502 || status == 503 || status == 504;
+    }
+
+    /**
+     * Gets the HTTP status code with which the request that caused the given
+     * exception was answered, or -1 if it is unknown.
+     */
+    public static int getStatusCode(Throwable ex) {
+        for (Throwable t = ex; t != null; t = t.getCause()) {
+            if (t.getMessage() != null) {
+                Matcher m = RESPONSE_CODE.matcher(t.getMessage());
+                if (m.find()) {
+                    return Integer.parseInt(m.group(1));
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,326 @@
+package org.aptrust.common.duracloud;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.aptrust.common.exception.AptrustException;
+import org.duracloud.client.ContentStore;
+import org.duracloud.domain.Content;
+import org.duracloud.error.ContentStoreException;
+import org.duracloud.error.NotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ *   A cached view of the spaces in a DuraCloud instance and the institutions
+ *   they represent.  An institution "x" is recognized when there are two
+ *   spaces, one with the id "x" (the production space) and another with the
+ *   id "xstaging" (the staging space).  Its full name is the first line of
+ *   the file "institution-info.txt" in the production space.
+ * </p>
+ * <p>
+ *   The spaces are listed (and each institution's name read) when the
+ *   topology is created and again at a fixed interval by a background
+ *   thread, and the view may be updated in between as spaces are created or
+ *   deleted.  Lookups read an immutable snapshot and never block or contact
+ *   DuraCloud, so a single instance may be shared by every component that
+ *   needs to know which spaces belong to which institution.
+ * </p>
+ */
+public class SpaceTopology {
+
+    public static final String STAGING_SUFFIX = "staging";
+
+    public static final String INSTITUTION_INFO_ID = "institution-info.txt";
+
+    public static final int DEFAULT_REFRESH_INTERVAL_SECONDS = 600;
+
+    final Logger logger = LoggerFactory.getLogger(SpaceTopology.class);
+
+    private ContentStore cs;
+
+    private volatile Snapshot snapshot;
+
+    private List<Listener> listeners;
+
+    private ScheduledExecutorService refresher;
+
+    public SpaceTopology(ContentStore cs) throws AptrustException {
+        this(cs, DEFAULT_REFRESH_INTERVAL_SECONDS);
+    }
+
+    /**
+     * @param cs the content store whose spaces are described
+     * @param refreshIntervalSeconds the number of seconds between each
+     * complete refresh of the topology, or zero if it should only be
+     * refreshed on request
+     */
+    public SpaceTopology(ContentStore cs, int refreshIntervalSeconds) throws AptrustException {
+        this.cs = cs;
+        listeners = new CopyOnWriteArrayList<Listener>();
+        refresh();
+        if (refreshIntervalSeconds > 0) {
+            refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "space-topology");
+                    t.setDaemon(true);
+                    return t;
+                }});
+            refresher.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        refresh();
+                    } catch (Throwable t) {
+                        logger.warn("Unable to refresh the space topology, the previous one will be used.", t);
+                    }
+                }}, refreshIntervalSeconds, refreshIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Adds a listener that is notified of each institution that appears
+     * after the topology was first loaded.
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Lists the spaces and reads the name of each institution, replacing the
+     * current view.
+     */
+    public void refresh() throws AptrustException {
+        List<String> added = null;
+        synchronized (this) {
+            List<String> spaceIds = null;
+            try {
+                spaceIds = cs.getSpaces();
+            } catch (ContentStoreException ex) {
+                throw new AptrustException("Unable to list spaces!", ex);
+            }
+            Set<String> spaceIdSet = new LinkedHashSet<String>(spaceIds);
+            Map<String, String> institutions = new LinkedHashMap<String, String>();
+            for (String spaceId : spaceIdSet) {
+                if (spaceIdSet.contains(spaceId + STAGING_SUFFIX)) {
+                    institutions.put(spaceId, readInstitutionName(spaceId));
+                }
+            }
+            added = publish(new Snapshot(spaceIdSet, institutions));
+        }
+        notifyListeners(added);
+    }
+
+    /**
+     * Refreshes the topology if it was last refreshed more than the given
+     * number of milliseconds ago.  This allows callers to refresh on a
+     * cache miss without refreshing on every miss.
+     */
+    public void refreshIfOlderThan(long maxAgeMillis) throws AptrustException {
+        if (System.currentTimeMillis() - snapshot.time > maxAgeMillis) {
+            refresh();
+        }
+    }
+
+    /**
+     * Updates the topology to include a newly created space.
+     */
+    public void notifySpaceCreated(String spaceId) throws AptrustException {
+        List<String> added = null;
+        synchronized (this) {
+            Snapshot current = snapshot;
+            if (current.spaceIds.contains(spaceId)) {
+                return;
+            }
+            Set<String> spaceIds = new LinkedHashSet<String>(current.spaceIds);
+            spaceIds.add(spaceId);
+            Map<String, String> institutions = new LinkedHashMap<String, String>(current.institutions);
+            String institutionId = getInstitutionIdForSpace(spaceId);
+            if (spaceIds.contains(institutionId) && spaceIds.contains(institutionId + STAGING_SUFFIX)) {
+                institutions.put(institutionId, readInstitutionName(institutionId));
+            }
+            added = publish(new Snapshot(spaceIds, institutions));
+        }
+        notifyListeners(added);
+    }
+
+    /**
+     * Updates the topology to exclude a deleted space.
+     */
+    public synchronized void notifySpaceDeleted(String spaceId) {
+        Snapshot current = snapshot;
+        if (!current.spaceIds.contains(spaceId)) {
+            return;
+        }
+        Set<String> spaceIds = new LinkedHashSet<String>(current.spaceIds);
+        spaceIds.remove(spaceId);
+        Map<String, String> institutions = new LinkedHashMap<String, String>(current.institutions);
+        institutions.remove(getInstitutionIdForSpace(spaceId));
+        publish(new Snapshot(spaceIds, institutions));
+    }
+
+    /**
+     * Returns true if there are both production and staging spaces for the
+     * given institution id.
+     */
+    public boolean isInstitutionId(String id) {
+        return snapshot.institutions.containsKey(id);
+    }
+
+    /**
+     * Gets the full name of the given institution, or null if it isn't an
+     * institution or its production space has no institution-info.txt.
+     */
+    public String getInstitutionName(String institutionId) {
+        return snapshot.institutions.get(institutionId);
+    }
+
+    /**
+     * Gets the ids of the institutions that have both production and staging
+     * spaces.
+     */
+    public List<String> getInstitutionIds() {
+        return new ArrayList<String>(snapshot.institutions.keySet());
+    }
+
+    public List<String> getSpaceIds() {
+        return new ArrayList<String>(snapshot.spaceIds);
+    }
+
+    /**
+     * Gets the time (in milliseconds) at which the spaces were last listed or
+     * the topology last changed.
+     */
+    public long getLastUpdateTime() {
+        return snapshot.time;
+    }
+
+    /**
+     * Stops the background refresh.
+     */
+    public void shutdown() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+
+    public static String getStagingSpaceId(String institutionId) {
+        return institutionId + STAGING_SUFFIX;
+    }
+
+    /**
+     * Gets the id of the institution to which the given (production or
+     * staging) space would belong.
+     */
+    public static String getInstitutionIdForSpace(String spaceId) {
+        if (spaceId.endsWith(STAGING_SUFFIX)) {
+            return spaceId.substring(0, spaceId.length() - STAGING_SUFFIX.length());
+        } else {
+            return spaceId;
+        }
+    }
+
+    /**
+     * Replaces the current view.  Callers must hold this object's lock, so
+     * that a refresh can't discard a space created while the spaces were
+     * being listed, and must pass the result to notifyListeners() once
+     * they've released it.
+     * @return the ids of the institutions that weren't in the previous view
+     */
+    private List<String> publish(Snapshot next) {
+        Snapshot previous = snapshot;
+        snapshot = next;
+        List<String> added = new ArrayList<String>();
+        if (previous == null) {
+            return added;
+        }
+        for (String institutionId : next.institutions.keySet()) {
+            if (!previous.institutions.containsKey(institutionId)) {
+                added.add(institutionId);
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Notifies the listeners of the given new institutions.  This is never
+     * called while holding this object's lock, so a slow listener doesn't
+     * hold up the refreshes and space events that update the topology.
+     */
+    private void notifyListeners(List<String> added) {
+        for (String institutionId : added) {
+            logger.info("Institution \"" + institutionId + "\" was added.");
+            for (Listener l : listeners) {
+                try {
+                    l.institutionAdded(institutionId);
+                } catch (Throwable t) {
+                    logger.error("Error notifying listener of new institution \"" + institutionId + "\"!", t);
+                }
+            }
+        }
+    }
+
+    private String readInstitutionName(String spaceId) throws AptrustException {
+        try {
+            Content c = cs.getContent(spaceId, INSTITUTION_INFO_ID);
+            BufferedReader r = new BufferedReader(new InputStreamReader(c.getStream(), "UTF-8"));
+            try {
+                return r.readLine();
+            } finally {
+                r.close();
+            }
+        } catch (NotFoundException ex) {
+            logger.warn("\"" + spaceId + "\" and \"" + spaceId + "staging\" look like institutional staging and productions spaces, but \"" + spaceId + "\" does not contain " + INSTITUTION_INFO_ID + ".");
+            return null;
+        } catch (ContentStoreException ex) {
+            throw new AptrustException(ex);
+        } catch (IOException ex) {
+            logger.error("Error reading first line of " + INSTITUTION_INFO_ID + " from space \"" + spaceId + "\".");
+            throw new AptrustException(ex);
+        }
+    }
+
+    /**
+     * Notified of changes to the topology.
+     */
+    public static interface Listener {
+
+        /**
+         * Called when an institution's production and staging spaces have
+         * both been found, after the topology was first loaded.  This is
+         * called on the thread that updated the topology (but without its
+         * lock held), so anything slow should be handed off.
+         */
+        public void institutionAdded(String institutionId);
+
+    }
+
+    private static class Snapshot {
+
+        private Set<String> spaceIds;
+
+        private Map<String, String> institutions;
+
+        private long time;
+
+        private Snapshot(Collection<String> spaceIds, Map<String, String> institutions) {
+            this.spaceIds = Collections.unmodifiableSet(new LinkedHashSet<String>(spaceIds));
+            this.institutions = Collections.unmodifiableMap(institutions);
+            time = System.currentTimeMillis();
+        }
+    }
+}
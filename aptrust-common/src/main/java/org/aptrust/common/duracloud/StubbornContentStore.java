@@ -1,10 +1,14 @@
 package org.aptrust.common.duracloud;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
+import org.aptrust.common.duracloud.RetryExecutor.Callback;
+import org.aptrust.common.duracloud.RetryExecutor.Operation;
 import org.duracloud.client.ContentStore;
 import org.duracloud.common.model.AclType;
 import org.duracloud.domain.Content;
@@ -17,137 +21,176 @@ import org.slf4j.LoggerFactory;
 /**
  * <p>
  * A ContentStore implementation that wraps another ContentStore implementation
- * but attempts to perform operations three times (with longer delays between
- * attempts) when exceptions are encountered that suggest temporary network
- * connectivity issues.
+ * but attempts operations again (with exponentially longer, randomized delays
+ * between attempts) when they fail in ways that suggest temporary network
+ * connectivity issues or an overloaded server, as determined by a
+ * RetryPolicy.  All requests to an endpoint pass through its CircuitBreaker,
+ * so that once it appears to be unavailable operations fail immediately
+ * instead of waiting through their retries.
+ * </p>
+ * <p>
+ * The ContentStore methods wait between attempts on the calling thread.
+ * Operations may also be submitted to be performed asynchronously, in which
+ * case no thread waits between attempts.
  * </p>
  */
 public class StubbornContentStore implements ContentStore {
 
+    /**
+     * An operation on the wrapped ContentStore that may be submitted to be
+     * performed asynchronously.
+     */
+    public static interface ContentStoreOperation<T> {
+        public T call(ContentStore cs) throws ContentStoreException;
+    }
+
+    /**
+     * The size of the largest stream passed to addContent() that will be
+     * buffered so that the upload may be attempted again.
+     */
+    public static final long MAX_REPLAYABLE_STREAM_SIZE = 8 * 1024 * 1024;
+
     final Logger logger = LoggerFactory.getLogger(StubbornContentStore.class);
     
     private ContentStore cs;
 
+    private RetryExecutor retry;
+
     /**
-     * The delays (in ms) before each subsequent attempt.  The number of
-     * total attempts for each call (assuming failure) will be the length of
-     * this array plus one (for the initial call).
+     * Creates a StubbornContentStore with the default RetryPolicy that
+     * shares the CircuitBreaker for the wrapped store's endpoint.
      */
-    private int retryDelays[];
-
     public StubbornContentStore(ContentStore contentStore) {
+        this(contentStore, new RetryPolicy(), CircuitBreaker.forEndpoint(contentStore.getBaseURL() + "#" + contentStore.getStoreId()));
+    }
+
+    public StubbornContentStore(ContentStore contentStore, RetryPolicy policy, CircuitBreaker breaker) {
+        this(contentStore, new RetryExecutor(policy, breaker));
+    }
+
+    public StubbornContentStore(ContentStore contentStore, RetryExecutor retry) {
         cs = contentStore;
-        retryDelays = new int[] { 5000, 30000, 120000 };
+        this.retry = retry;
     }
-    
+
     /**
-     * Determines whether the provided exception merits another attempt based
-     * on the type of exception and number of attempts.  If it does, this 
-     * method sleeps for the preconfigured amount of time and returns, otherwise
-     * it throws the provided exception.
-     * @param ex the original exception
-     * @param attempt the number of retries performed already
-     * @throws ContentStoreException the passed exception if appropriate either
-     * because we've already tried enough times or the type of exception is
-     * unlikely to be resolved with a subsequent attempt.
+     * Begins performing the given operation on the wrapped ContentStore, on
+     * the RetryExecutor's threads, attempting it again as needed without
+     * tying up a thread while waiting.
+     * @param description a description of the operation for log messages
+     * @param callback notified of the outcome, may be null
      */
-    private void handleException(ContentStoreException ex, int retries) throws ContentStoreException {
-        if (retries < retryDelays.length && ex.getMessage() != null 
-                && (ex.getMessage().toLowerCase().contains("timeout") 
-                    || ex.getMessage().toLowerCase().contains("no route to host")
-                    || ex.getMessage().toLowerCase().contains("connection reset")
-                    || ex.getMessage().toLowerCase().contains("response code was 500"))) {
-            try {
-                logger.warn("Request failed with message, \"" + ex.getMessage() + "\" attempting again in " + retryDelays[retries] + "ms.", ex);
-                Thread.sleep(retryDelays[retries]);
-            } catch (InterruptedException e) {
-                logger.info("Interrupted while waiting before subsequent attempt!");
-            }
-        } else {
-            throw ex;
-        }
+    public <T> Future<T> submit(String description, final ContentStoreOperation<T> op, Callback<T> callback) {
+        return retry.executeAsync(description, new Operation<T>() {
+            public T call() throws ContentStoreException {
+                return op.call(cs);
+            }}, callback);
     }
 
-    public String addContent(String arg0, String arg1, InputStream arg2,
-            long arg3, String arg4, String arg5, Map<String, String> arg6)
-            throws ContentStoreException {
-        String result = null;
-        for (int i = 0; i <= retryDelays.length; i ++) {
-            try {
-                result = cs.addContent(arg0, arg1, arg2, arg3, arg4, arg5, arg6);
-                break;
-            } catch (ContentStoreException ex) {
-                handleException(ex, i);
-            }
+    /**
+     * Adds content read from the given stream.  A failed upload has consumed
+     * some unknown part of the stream, so it can be attempted again only if
+     * the stream can be reset to its beginning: that is, if it supports mark
+     * and reset and isn't larger than MAX_REPLAYABLE_STREAM_SIZE.  Otherwise
+     * a single attempt is made; use the ContentSource variant of this method
+     * for retry-safe uploads of larger content.
+     */
+    @Override
+    public String addContent(final String arg0, final String arg1, final InputStream arg2, final long arg3, final String arg4, final String arg5, final Map<String, String> arg6) throws ContentStoreException {
+        Operation<String> op = new Operation<String>() {
+            public String call() throws ContentStoreException {
+                return cs.addContent(arg0, arg1, arg2, arg3, arg4, arg5, arg6);
+            }};
+        if (!arg2.markSupported() || arg3 < 0 || arg3 > MAX_REPLAYABLE_STREAM_SIZE) {
+            return retry.executeOnce(op);
         }
-        return result;
+        arg2.mark((int) arg3 + 1);
+        final Operation<String> upload = op;
+        return retry.execute("addContent(" + arg0 + ", " + arg1 + ", " + arg4 + ", " + arg5 + ")", new Operation<String>() {
+            public String call() throws ContentStoreException {
+                try {
+                    arg2.reset();
+                } catch (IOException ex) {
+                    throw new ContentStoreException("Unable to reset the content of " + arg1 + " for another attempt!", ex);
+                }
+                return upload.call();
+            }});
+    }
+
+    /**
+     * Adds content read from the given source, which is opened anew for each
+     * attempt.
+     * @param spaceId the space to which the content is added
+     * @param contentId the id of the content
+     * @param source the source of the content
+     * @param mimetype the mimetype of the content
+     * @param checksum the MD5 checksum of the content, if known, which
+     * DuraCloud will verify
+     * @param properties the properties of the content, may be null
+     * @return the checksum of the content, as computed by DuraCloud
+     */
+    public String addContent(final String spaceId, final String contentId, final ContentSource source, final String mimetype, final String checksum, final Map<String, String> properties) throws ContentStoreException {
+        return retry.execute("addContent(" + spaceId + ", " + contentId + ", " + source + ")", new Operation<String>() {
+            public String call() throws ContentStoreException {
+                InputStream content = null;
+                try {
+                    content = source.open();
+                    return cs.addContent(spaceId, contentId, content, source.getSize(), mimetype, checksum, properties);
+                } catch (IOException ex) {
+                    throw new ContentStoreException("Unable to read the content of " + contentId + "!", ex);
+                } finally {
+                    if (content != null) {
+                        try {
+                            content.close();
+                        } catch (IOException ex) {
+                            logger.warn("Unable to close the content of " + contentId + ".", ex);
+                        }
+                    }
+                }
+            }});
     }
 
     @Override
-    public String copyContent(String arg0, String arg1, String arg2, String arg3)
-            throws ContentStoreException {
-        String result = null;
-        for (int i = 0; i <= retryDelays.length; i ++) {
-            try {
-                result = cs.copyContent(arg0, arg1, arg2, arg3);
-                break;
-            } catch (ContentStoreException ex) {
-                handleException(ex, i);
-            }
-        }
-        return result;
+    public String copyContent(final String arg0, final String arg1, final String arg2, final String arg3) throws ContentStoreException {
+        return retry.execute("copyContent(" + arg0 + ", " + arg1 + ", " + arg2 + ", " + arg3 + ")", new Operation<String>() {
+            public String call() throws ContentStoreException {
+                return cs.copyContent(arg0, arg1, arg2, arg3);
+            }});
     }
 
     @Override
-    public String copyContent(String arg0, String arg1, String arg2,
-            String arg3, String arg4) throws ContentStoreException {
-        String result = null;
-        for (int i = 0; i <= retryDelays.length; i ++) {
-            try {
-                result = cs.copyContent(arg0, arg1, arg2, arg3, arg4);
-                break;
-            } catch (ContentStoreException ex) {
-                handleException(ex, i);
-            }
-        }
-        return result;
+    public String copyContent(final String arg0, final String arg1, final String arg2, final String arg3, final String arg4) throws ContentStoreException {
+        return retry.execute("copyContent(" + arg0 + ", " + arg1 + ", " + arg2 + ", " + arg3 + ", " + arg4 + ")", new Operation<String>() {
+            public String call() throws ContentStoreException {
+                return cs.copyContent(arg0, arg1, arg2, arg3, arg4);
+            }});
     }
 
     @Override
-    public void createSpace(String arg0) throws ContentStoreException {
-        for (int i = 0; i <= retryDelays.length; i ++) {
-            try {
+    public void createSpace(final String arg0) throws ContentStoreException {
+        retry.execute("createSpace(" + arg0 + ")", new Operation<Void>() {
+            public Void call() throws ContentStoreException {
                 cs.createSpace(arg0);
-                return;
-            } catch (ContentStoreException ex) {
-                handleException(ex, i);
-            }
-        }
+                return null;
+            }});
     }
 
     @Override
-    public void deleteContent(String arg0, String arg1)
-            throws ContentStoreException {
-        for (int i = 0; i <= retryDelays.length; i ++) {
-            try {
+    public void deleteContent(final String arg0, final String arg1) throws ContentStoreException {
+        retry.execute("deleteContent(" + arg0 + ", " + arg1 + ")", new Operation<Void>() {
+            public Void call() throws ContentStoreException {
                 cs.deleteContent(arg0, arg1);
-                return;
-            } catch (ContentStoreException ex) {
-                handleException(ex, i);
-            }
-        }
+                return null;
+            }});
     }
 
     @Override
-    public void deleteSpace(String arg0) throws ContentStoreException {
-        for (int i = 0; i <= retryDelays.length; i ++) {
-            try {
+    public void deleteSpace(final String arg0) throws ContentStoreException {
+        retry.execute("deleteSpace(" + arg0 + ")", new Operation<Void>() {
+            public Void call() throws ContentStoreException {
                 cs.deleteSpace(arg0);
-                return;
-            } catch (ContentStoreException ex) {
-                handleException(ex, i);
-            }
-        }
+                return null;
+            }});
     }
 
     @Override
@@ -156,122 +199,67 @@ public class StubbornContentStore implements ContentStore {
     }
 
     @Override
-    public Content getContent(String arg0, String arg1)
-            throws ContentStoreException {
-        Content result = null;
-        for (int i = 0; i <= retryDelays.length; i ++) {
-            try {
-                result = cs.getContent(arg0, arg1);
-                break;
-            } catch (ContentStoreException ex) {
-                handleException(ex, i);
-            }
-        }
-        return result;
+    public Content getContent(final String arg0, final String arg1) throws ContentStoreException {
+        return retry.execute("getContent(" + arg0 + ", " + arg1 + ")", new Operation<Content>() {
+            public Content call() throws ContentStoreException {
+                return cs.getContent(arg0, arg1);
+            }});
     }
 
     @Override
-    public Map<String, String> getContentProperties(String arg0, String arg1)
-            throws ContentStoreException {
-        Map<String, String> result = null;
-        for (int i = 0; i <= retryDelays.length; i ++) {
-            try {
-                result = cs.getContentProperties(arg0, arg1);
-                break;
-            } catch (ContentStoreException ex) {
-                handleException(ex, i);
-            }
-        }
-        return result;
+    public Map<String, String> getContentProperties(final String arg0, final String arg1) throws ContentStoreException {
+        return retry.execute("getContentProperties(" + arg0 + ", " + arg1 + ")", new Operation<Map<String, String>>() {
+            public Map<String, String> call() throws ContentStoreException {
+                return cs.getContentProperties(arg0, arg1);
+            }});
     }
 
     @Override
-    public Space getSpace(String arg0, String arg1, long arg2, String arg3)
-            throws ContentStoreException {
-        Space result = null;
-        for (int i = 0; i <= retryDelays.length; i ++) {
-            try {
-                result = cs.getSpace(arg0,  arg1, arg2, arg3);
-                break;
-            } catch (ContentStoreException ex) {
-                handleException(ex, i);
-            }
-        }
-        return result;
+    public Space getSpace(final String arg0, final String arg1, final long arg2, final String arg3) throws ContentStoreException {
+        return retry.execute("getSpace(" + arg0 + ", " + arg1 + ", " + arg3 + ")", new Operation<Space>() {
+            public Space call() throws ContentStoreException {
+                return cs.getSpace(arg0, arg1, arg2, arg3);
+            }});
     }
 
     @Override
-    public Map<String, AclType> getSpaceACLs(String arg0)
-            throws ContentStoreException {
-        Map<String, AclType> result = null;
-        for (int i = 0; i <= retryDelays.length; i ++) {
-            try {
-                result = cs.getSpaceACLs(arg0);
-                break;
-            } catch (ContentStoreException ex) {
-                handleException(ex, i);
-            }
-        }
-        return result;
+    public Map<String, AclType> getSpaceACLs(final String arg0) throws ContentStoreException {
+        return retry.execute("getSpaceACLs(" + arg0 + ")", new Operation<Map<String, AclType>>() {
+            public Map<String, AclType> call() throws ContentStoreException {
+                return cs.getSpaceACLs(arg0);
+            }});
     }
 
     @Override
-    public Iterator<String> getSpaceContents(String arg0)
-            throws ContentStoreException {
-        Iterator<String> result = null;
-        for (int i = 0; i <= retryDelays.length; i ++) {
-            try {
-                result = cs.getSpaceContents(arg0);
-                break;
-            } catch (ContentStoreException ex) {
-                handleException(ex, i);
-            }
-        }
-        return result;
+    public Iterator<String> getSpaceContents(final String arg0) throws ContentStoreException {
+        return retry.execute("getSpaceContents(" + arg0 + ")", new Operation<Iterator<String>>() {
+            public Iterator<String> call() throws ContentStoreException {
+                return cs.getSpaceContents(arg0);
+            }});
     }
 
     @Override
-    public Iterator<String> getSpaceContents(String arg0, String arg1)
-            throws ContentStoreException {
-        Iterator<String> result = null;
-        for (int i = 0; i <= retryDelays.length; i ++) {
-            try {
-                result = cs.getSpaceContents(arg0, arg1);
-                break;
-            } catch (ContentStoreException ex) {
-                handleException(ex, i);
-            }
-        }
-        return result;
+    public Iterator<String> getSpaceContents(final String arg0, final String arg1) throws ContentStoreException {
+        return retry.execute("getSpaceContents(" + arg0 + ", " + arg1 + ")", new Operation<Iterator<String>>() {
+            public Iterator<String> call() throws ContentStoreException {
+                return cs.getSpaceContents(arg0, arg1);
+            }});
     }
 
     @Override
-    public Map<String, String> getSpaceProperties(String arg0)
-            throws ContentStoreException {
-        Map<String, String> result = null;
-        for (int i = 0; i <= retryDelays.length; i ++) {
-            try {
-                result = cs.getSpaceProperties(arg0);
-                break;
-            } catch (ContentStoreException ex) {
-                handleException(ex, i);
-            }
-        }
-        return result;
+    public Map<String, String> getSpaceProperties(final String arg0) throws ContentStoreException {
+        return retry.execute("getSpaceProperties(" + arg0 + ")", new Operation<Map<String, String>>() {
+            public Map<String, String> call() throws ContentStoreException {
+                return cs.getSpaceProperties(arg0);
+            }});
     }
 
     @Override
     public List<String> getSpaces() throws ContentStoreException {
-        List<String> result = null;
-        for (int i = 0; i <= retryDelays.length; i ++) {
-            try {
-                result = cs.getSpaces();
-                break;
-            } catch (ContentStoreException ex) {
-                handleException(ex, i);
-            }
-        }
-        return result;
+        return retry.execute("getSpaces", new Operation<List<String>>() {
+            public List<String> call() throws ContentStoreException {
+                return cs.getSpaces();
+            }});
     }
 
     @Override
@@ -286,87 +274,52 @@ public class StubbornContentStore implements ContentStore {
 
     @Override
     public List<String> getSupportedTasks() throws ContentStoreException {
-        List<String> result = null;
-        for (int i = 0; i <= retryDelays.length; i ++) {
-            try {
-                result = cs.getSupportedTasks();
-                break;
-            } catch (ContentStoreException ex) {
-                handleException(ex, i);
-            }
-        }
-        return result;
+        return retry.execute("getSupportedTasks", new Operation<List<String>>() {
+            public List<String> call() throws ContentStoreException {
+                return cs.getSupportedTasks();
+            }});
     }
 
     @Override
-    public String moveContent(String arg0, String arg1, String arg2, String arg3)
-            throws ContentStoreException {
-        String result = null;
-        for (int i = 0; i <= retryDelays.length; i ++) {
-            try {
-                result = cs.moveContent(arg0, arg1, arg2, arg3);
-                break;
-            } catch (ContentStoreException ex) {
-                handleException(ex, i);
-            }
-        }
-        return result;
+    public String moveContent(final String arg0, final String arg1, final String arg2, final String arg3) throws ContentStoreException {
+        return retry.execute("moveContent(" + arg0 + ", " + arg1 + ", " + arg2 + ", " + arg3 + ")", new Operation<String>() {
+            public String call() throws ContentStoreException {
+                return cs.moveContent(arg0, arg1, arg2, arg3);
+            }});
     }
 
     @Override
-    public String moveContent(String arg0, String arg1, String arg2,
-            String arg3, String arg4) throws ContentStoreException {
-        String result = null;
-        for (int i = 0; i <= retryDelays.length; i ++) {
-            try {
-                result = cs.moveContent(arg0, arg1, arg2, arg3, arg4);
-                break;
-            } catch (ContentStoreException ex) {
-                handleException(ex, i);
-            }
-        }
-        return result;
+    public String moveContent(final String arg0, final String arg1, final String arg2, final String arg3, final String arg4) throws ContentStoreException {
+        return retry.execute("moveContent(" + arg0 + ", " + arg1 + ", " + arg2 + ", " + arg3 + ", " + arg4 + ")", new Operation<String>() {
+            public String call() throws ContentStoreException {
+                return cs.moveContent(arg0, arg1, arg2, arg3, arg4);
+            }});
     }
 
     @Override
-    public String performTask(String arg0, String arg1)
-            throws ContentStoreException {
-        String result = null;
-        for (int i = 0; i <= retryDelays.length; i ++) {
-            try {
-                result = cs.performTask(arg0, arg1);
-                break;
-            } catch (ContentStoreException ex) {
-                handleException(ex, i);
-            }
-        }
-        return result;
+    public String performTask(final String arg0, final String arg1) throws ContentStoreException {
+        return retry.execute("performTask(" + arg0 + ", " + arg1 + ")", new Operation<String>() {
+            public String call() throws ContentStoreException {
+                return cs.performTask(arg0, arg1);
+            }});
     }
 
     @Override
-    public void setContentProperties(String arg0, String arg1,
-            Map<String, String> arg2) throws ContentStoreException {
-        for (int i = 0; i <= retryDelays.length; i ++) {
-            try {
+    public void setContentProperties(final String arg0, final String arg1, final Map<String, String> arg2) throws ContentStoreException {
+        retry.execute("setContentProperties(" + arg0 + ", " + arg1 + ")", new Operation<Void>() {
+            public Void call() throws ContentStoreException {
                 cs.setContentProperties(arg0, arg1, arg2);
-                return;
-            } catch (ContentStoreException ex) {
-                handleException(ex, i);
-            }
-        }
+                return null;
+            }});
     }
 
     @Override
-    public void setSpaceACLs(String arg0, Map<String, AclType> arg1)
-            throws ContentStoreException {
-        for (int i = 0; i <= retryDelays.length; i ++) {
-            try {
+    public void setSpaceACLs(final String arg0, final Map<String, AclType> arg1) throws ContentStoreException {
+        retry.execute("setSpaceACLs(" + arg0 + ")", new Operation<Void>() {
+            public Void call() throws ContentStoreException {
                 cs.setSpaceACLs(arg0, arg1);
-                return;
-            } catch (ContentStoreException ex) {
-                handleException(ex, i);
-            }
-        }
+                return null;
+            }});
     }
 
     @Override
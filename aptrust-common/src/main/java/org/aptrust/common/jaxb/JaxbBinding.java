@@ -0,0 +1,191 @@
+package org.aptrust.common.jaxb;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+/**
+ * <p>
+ *   A JAXB binding for a fixed set of classes, whose JAXBContext is built
+ *   only once.  Building a JAXBContext is far more expensive than the
+ *   marshalling or unmarshalling it makes possible, so code that reads or
+ *   writes XML repeatedly should get its binding from {@link #forClasses}
+ *   (typically into a constant) rather than calling JAXBContext.newInstance()
+ *   each time.
+ * </p>
+ * <p>
+ *   JAXBContext is thread safe but Marshaller and Unmarshaller are not, so
+ *   this class keeps a small pool of each.  The marshal() and unmarshal()
+ *   methods borrow an instance from the pool (creating one if none is idle)
+ *   and return it when finished, so they may be called from any number of
+ *   threads at once.
+ * </p>
+ */
+public class JaxbBinding {
+
+    /**
+     * The maximum number of idle marshallers (and of idle unmarshallers)
+     * retained by each binding.
+     */
+    private static final int MAX_IDLE = 16;
+
+    private static final ConcurrentMap<List<Class<?>>, JaxbBinding> BINDINGS = new ConcurrentHashMap<List<Class<?>>, JaxbBinding>();
+
+    /**
+     * Gets the binding for the given classes, building its JAXBContext if this
+     * is the first request for that combination of classes.
+     * @throws IllegalArgumentException if the classes can't be bound
+     */
+    public static JaxbBinding forClasses(Class<?> ... classes) {
+        List<Class<?>> key = Arrays.<Class<?>>asList(classes.clone());
+        JaxbBinding binding = BINDINGS.get(key);
+        if (binding == null) {
+            try {
+                binding = new JaxbBinding(JAXBContext.newInstance(classes));
+            } catch (JAXBException ex) {
+                throw new IllegalArgumentException("Unable to create a JAXB binding for " + key + "!", ex);
+            }
+            JaxbBinding existing = BINDINGS.putIfAbsent(key, binding);
+            if (existing != null) {
+                binding = existing;
+            }
+        }
+        return binding;
+    }
+
+    private JAXBContext context;
+
+    private ConcurrentLinkedQueue<Marshaller> idleMarshallers;
+
+    private AtomicInteger idleMarshallerCount;
+
+    private ConcurrentLinkedQueue<Unmarshaller> idleUnmarshallers;
+
+    private AtomicInteger idleUnmarshallerCount;
+
+    JaxbBinding(JAXBContext context) {
+        this.context = context;
+        idleMarshallers = new ConcurrentLinkedQueue<Marshaller>();
+        idleMarshallerCount = new AtomicInteger();
+        idleUnmarshallers = new ConcurrentLinkedQueue<Unmarshaller>();
+        idleUnmarshallerCount = new AtomicInteger();
+    }
+
+    public JAXBContext getContext() {
+        return context;
+    }
+
+    /**
+     * Writes the given object as XML to the given file.
+     */
+    public void marshal(Object o, File file) throws JAXBException {
+        marshal(o, file, false);
+    }
+
+    /**
+     * Writes the given object as XML to the given file.
+     * @param formatted true if the XML should be indented for readability
+     */
+    public void marshal(Object o, File file, boolean formatted) throws JAXBException {
+        Marshaller m = borrowMarshaller(formatted);
+        try {
+            m.marshal(o, file);
+        } finally {
+            returnMarshaller(m);
+        }
+    }
+
+    /**
+     * Writes the given object as XML to the given stream, which is left open.
+     */
+    public void marshal(Object o, OutputStream os) throws JAXBException {
+        marshal(o, os, false);
+    }
+
+    /**
+     * Writes the given object as XML to the given stream, which is left open.
+     * @param formatted true if the XML should be indented for readability
+     */
+    public void marshal(Object o, OutputStream os, boolean formatted) throws JAXBException {
+        Marshaller m = borrowMarshaller(formatted);
+        try {
+            m.marshal(o, os);
+        } finally {
+            returnMarshaller(m);
+        }
+    }
+
+    /**
+     * Parses the given file, which is expected to represent an instance of
+     * the given type.
+     */
+    public <T> T unmarshal(File file, Class<T> type) throws JAXBException {
+        Unmarshaller u = borrowUnmarshaller();
+        try {
+            return type.cast(u.unmarshal(file));
+        } finally {
+            returnUnmarshaller(u);
+        }
+    }
+
+    /**
+     * Parses the given stream, which is expected to represent an instance of
+     * the given type.  The stream is not closed.
+     */
+    public <T> T unmarshal(InputStream is, Class<T> type) throws JAXBException {
+        Unmarshaller u = borrowUnmarshaller();
+        try {
+            return type.cast(u.unmarshal(is));
+        } finally {
+            returnUnmarshaller(u);
+        }
+    }
+
+    private Marshaller borrowMarshaller(boolean formatted) throws JAXBException {
+        Marshaller m = idleMarshallers.poll();
+        if (m == null) {
+            m = context.createMarshaller();
+        } else {
+            idleMarshallerCount.decrementAndGet();
+        }
+        m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.valueOf(formatted));
+        return m;
+    }
+
+    private void returnMarshaller(Marshaller m) {
+        if (idleMarshallerCount.incrementAndGet() <= MAX_IDLE) {
+            idleMarshallers.offer(m);
+        } else {
+            idleMarshallerCount.decrementAndGet();
+        }
+    }
+
+    private Unmarshaller borrowUnmarshaller() throws JAXBException {
+        Unmarshaller u = idleUnmarshallers.poll();
+        if (u == null) {
+            u = context.createUnmarshaller();
+        } else {
+            idleUnmarshallerCount.decrementAndGet();
+        }
+        return u;
+    }
+
+    private void returnUnmarshaller(Unmarshaller u) {
+        if (idleUnmarshallerCount.incrementAndGet() <= MAX_IDLE) {
+            idleUnmarshallers.offer(u);
+        } else {
+            idleUnmarshallerCount.decrementAndGet();
+        }
+    }
+}
@@ -1,9 +1,5 @@
 package org.aptrust.common.solr;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.Date;
-
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrInputDocument;
 
@@ -68,6 +64,18 @@ import org.apache.solr.common.SolrInputDocument;
  *       <li>failed_health_check</li>
  *     </ul>
  *   </li>
+ *   <li>
+ *     ingest progress records (one per in-progress ingest, holding the
+ *     current progress so that the ingest record itself needn't be rewritten
+ *     as each object is ingested)
+ *     <ul>
+ *       <li>id</li>
+ *       <li>record_type="ingest_progress"</li>
+ *       <li>institution_id</li>
+ *       <li>ingest_id</li>
+ *       <li>completed_object_count</li>
+ *     </ul>
+ *   </li>
  * </ul>
  */
 public class AptrustSolrDocument {
@@ -135,9 +143,10 @@ public class AptrustSolrDocument {
     /**
      * The field name within Solr for the field containing the progress (in
      * number of objects ingested) of the ingest operation.  This field  is
-     * only present in Solr documents with the "record_type" of "ingest" and is
-     * likely only useful for those with the "operation_status" value of
-     * "IN_PROGRESS".
+     * only present in Solr documents with the "record_type" of "ingest" or
+     * "ingest_progress".  For an "ingest" record with the "operation_status"
+     * value of "IN_PROGRESS" it holds the progress when the operation began;
+     * the current progress is held by the "ingest_progress" record.
      */
     public static final String COMPLETED_OBJECT_COUNT = "completed_object_count";
 
@@ -229,112 +238,38 @@ public class AptrustSolrDocument {
     public static final String OBJECT_ID = "object_id";
 
     /**
-     * A method that uses reflection to build a SolrInputDocument.  For each 
-     * method that is annotated with a SolrField annotation, a field is added
-     * with the value that is the result of the method invocation.  This method
+     * The field name within Solr for the field containing the id of the
+     * ingest operation whose progress is recorded.  This field is only
+     * present in Solr documents with the "record_type" of "ingest_progress".
+     */
+    public static final String INGEST_ID = "ingest_id";
+
+    /**
+     * Builds a SolrInputDocument from the given object.  For each method
+     * that is annotated with a SolrField annotation, a field is added with
+     * the value that is the result of the method invocation.  This method
      * ensures that the SolrInputDocument is complete and valid according to 
      * the rules specified in this class.  All required fields will be present
      * or an Exception will be thrown.  Additional fields specified through
-     * SolrField annotations will be included if present.
+     * SolrField annotations will be included if present.  The annotated
+     * methods of each class are found once, by the SolrDocumentBinder for
+     * that class.
      * @param o an object with methods annotated with the SolrField annotation
      * @return a SolrInputDocument with fields from the passed object
      */
     public static SolrInputDocument createValidSolrDocument(Object o) {
-        // Step One: Add all fields based on SolrField annotations
-        Method[] methods = o.getClass().getMethods();
-        SolrInputDocument doc = new SolrInputDocument();
-        for (Method method : methods) {
-            if (method.isAnnotationPresent(SolrField.class) && method.getParameterTypes().length == 0) {
-                try {
-                    Object value = method.invoke(o);
-                    if (value != null) {
-                        doc.addField(method.getAnnotation(SolrField.class).name(), value);
-                    }
-                } catch (IllegalAccessException ex) {
-                    throw new RuntimeException("Method annotated with SolrField must be public! (" + method.getName() + ")", ex);
-                } catch (IllegalArgumentException ex) {
-                    throw new RuntimeException("Method annotated with SolrField must have no parameters. (" + method.getName() + ")", ex);
-                } catch (InvocationTargetException ex) {
-                    throw new RuntimeException(ex);
-                }
-            }
-        }
-        
-        // Step Two: Validate the document
-        
-        // the following fields are required regardless of record_type
-        assertRequiredField(RECORD_TYPE, doc, o, String.class);
-        assertRequiredField(INSTITUTION_ID, doc, o, String.class);
-        assertRequiredField(ID, doc, o, String.class);
-
-        String recordType = (String) doc.getField(RECORD_TYPE).getValue();
-        if (recordType.equals("ingest")) {
-            assertRequiredField(SUBMITTING_USER, doc, o, String.class);
-            assertRequiredField(OPERATION_STATUS, doc, o, String.class);
-            assertRequiredField(OPERATION_START_DATE, doc, o, Date.class);
-            String status = (String) doc.getField(OPERATION_STATUS).getValue();
-            if (status.equals("IN_PROGRESS")) {
-                assertRequiredField(OBJECT_COUNT, doc, o, Integer.class);
-                assertRequiredField(COMPLETED_OBJECT_COUNT, doc, o, Integer.class);
-            } else if (status.equals("FAILED")) {
-                assertRequiredField(MESSAGE, doc, o, String.class);
-            } else if (status.equals("COMPLETED")) {
-                assertRequiredField(OPERATION_END_DATE, doc, o, Date.class);
-            }
-            // all other fields are optional
-        } else if (recordType.equals("package")) {
-            assertRequiredField(DPN_BOUND, doc, o, Boolean.class);
-            assertRequiredField(ACCESS_CONTROL_POLICY, doc, o, String.class);
-            assertRequiredField(OBJECT_COUNT, doc, o, Integer.class);
-            assertRequiredField(TITLE, doc, o, String.class);
-            assertRequiredField(INGEST_DATE, doc, o, Date.class);
-            // all other fields are optional
-        } else if (recordType.equals("object")) {
-            assertRequiredField(PACKAGE_ID, doc, o, String.class);
-            // all other fields are optional
-        } else if (recordType.equals("content")) {
-            assertRequiredField(PACKAGE_ID, doc, o, String.class);
-            assertRequiredField(OBJECT_ID, doc, o, String.class);
-            assertRequiredField(LAST_HEALTH_CHECK_DATE, doc, o, Date.class);
-            assertRequiredField(FAILED_HEALTH_CHECK, doc, o, String.class);
-        }
-
-        return doc;
-    }
-
-    private static void assertRequiredField(String field, SolrInputDocument doc, Object o, Class<?> c) {
-        if (doc.getField(field) == null) {
-            throw new IllegalArgumentException("Object " + o.getClass().getName() + " is not annotated with the required \"" + field + "\" field!");
-        } else if (!(doc.getField(field).getValue().getClass().isAssignableFrom(c))) {
-            throw new IllegalArgumentException("The method annotated with the SolrField named \"" + field + "\" on object " + o.getClass().getName() + " must have a return type of \"" + c.getName() + "\". (has \"" + doc.getField(field).getValue().getClass() + "\" instead)");
-        }
+        return SolrDocumentBinder.forClass(o.getClass()).createValidSolrDocument(o);
     }
 
     /**
-     * A method that uses reflection to populate the provided object with
-     * values from a Solr document.  For each method that is annotated with a
-     * AptrustSolrDocument annotation and accepts a single parameter that method is 
-     * invoked with the value from the Solr document.
-     * @param o an object with methods annotated with the AptrustSolrDocument annotation
-     * @return a SolrInputDocument with fields from the passed object
+     * Populates the provided object with values from a Solr document.  For
+     * each method that is annotated with a SolrField annotation and accepts
+     * a single parameter that method is invoked with the value from the Solr
+     * document.
+     * @param o an object with methods annotated with the SolrField annotation
+     * @param d the Solr document from which to take the values
      */
     public static void populateFromSolrDocument(Object o, SolrDocument d) {
-        Method[] methods = o.getClass().getMethods();
-        for (Method method : methods) {
-            if (method.isAnnotationPresent(SolrField.class) && method.getParameterTypes().length == 1) {
-                try {
-                    Object value = d.getFirstValue(method.getAnnotation(SolrField.class).name());
-                    if (value != null) {
-                        method.invoke(o, value);
-                    }
-                } catch (IllegalAccessException ex) {
-                    throw new RuntimeException("Method annotated with AptrustSolrDocument must be public! (" + method.getName() + ")", ex);
-                } catch (IllegalArgumentException ex) {
-                    throw new RuntimeException("Method annotated with AptrustSolrDocument must have exactly one parameter. (" + method.getName() + ")", ex);
-                } catch (InvocationTargetException ex) {
-                    throw new RuntimeException(ex);
-                }
-            }
-        }
+        SolrDocumentBinder.forClass(o.getClass()).populateFromSolrDocument(o, d);
     }
 }
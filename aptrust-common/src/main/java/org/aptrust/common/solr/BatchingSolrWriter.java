@@ -0,0 +1,462 @@
+package org.aptrust.common.solr;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ *   A thread-safe component, meant to be shared by everything that writes to
+ *   a Solr index, which buffers added documents and sends them to Solr in
+ *   batches rather than one at a time, and which commits on a schedule
+ *   rather than after every change.
+ * </p>
+ * <p>
+ *   Buffered documents are sent once the buffer reaches the batch size, or
+ *   once the oldest of them has waited for the flush interval.  Sent
+ *   documents become durable and visible to searches either when Solr
+ *   commits them within the configured "commitWithin" time, or (if that's
+ *   not configured) when this class next commits, which it does every commit
+ *   interval while there are uncommitted documents.  A caller that can't
+ *   proceed until its documents are durable and searchable may call
+ *   {@link #commit()}, which flushes the buffer and waits for a commit.
+ *   Concurrent calls to commit() are satisfied by a single Solr commit where
+ *   possible.
+ * </p>
+ * <p>
+ *   Because the index is shared, callers must never call rollback() on the
+ *   underlying SolrServer (which would discard other callers' documents).  A
+ *   caller that needs several documents to be written together or not at all
+ *   should instead collect them and pass them in a single call to
+ *   {@link #add(Collection)}, which always sends them in the same request.
+ * </p>
+ * <p>
+ *   A document added while another with the same id is still buffered
+ *   replaces the buffered one in place, since Solr would only overwrite it.
+ *   Records that are rewritten often (such as the progress of an ingest)
+ *   therefore cost at most one update per batch.
+ * </p>
+ * <p>
+ *   A batch that Solr rejects (as opposed to one it can't be reached to
+ *   receive) is sent again in halves until the documents it rejects are
+ *   found; only those are logged and dropped, so one bad document doesn't
+ *   cost other callers their records.
+ * </p>
+ */
+public class BatchingSolrWriter implements Closeable {
+
+    final Logger logger = LoggerFactory.getLogger(BatchingSolrWriter.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+    public static final long DEFAULT_COMMIT_INTERVAL_MS = 10000;
+
+    private SolrServer solr;
+
+    private int batchSize;
+
+    private long flushIntervalMs;
+
+    private long commitIntervalMs;
+
+    private int commitWithinMs;
+
+    private List<SolrInputDocument> buffer;
+
+    /**
+     * The position within the buffer of each buffered document, by id.
+     */
+    private Map<Object, Integer> bufferedIds;
+
+    private long oldestBufferedTime;
+
+    /**
+     * Held while sending documents to Solr, so that batches arrive in the
+     * order their documents were added.
+     */
+    private final Object sendLock = new Object();
+
+    /**
+     * Held while committing, so that concurrent callers share a commit.
+     */
+    private final Object commitLock = new Object();
+
+    private AtomicLong sentDocumentCount = new AtomicLong();
+
+    private AtomicLong deleteCount = new AtomicLong();
+
+    /**
+     * The number of documents sent and deletes made (see getChangeCount())
+     * that the last commit covered.
+     */
+    private long committedDocumentCount;
+
+    private long lastCommitTime;
+
+    private AtomicLong addRequestCount = new AtomicLong();
+
+    private AtomicLong commitCount = new AtomicLong();
+
+    private AtomicLong coalescedDocumentCount = new AtomicLong();
+
+    private AtomicLong rejectedDocumentCount = new AtomicLong();
+
+    private ScheduledExecutorService timer;
+
+    /**
+     * Creates a writer with the default batch size, flush interval and commit
+     * interval.
+     */
+    public BatchingSolrWriter(SolrServer solr) {
+        this(solr, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MS, DEFAULT_COMMIT_INTERVAL_MS, 0);
+    }
+
+    /**
+     * @param solr the Solr server to which documents are written
+     * @param batchSize the number of buffered documents that triggers a send
+     * @param flushIntervalMs the longest a document may wait in the buffer
+     * before being sent
+     * @param commitIntervalMs the longest sent documents may wait for a
+     * commit (ignored if commitWithinMs is positive); zero or less if commits
+     * only happen when commit() is called
+     * @param commitWithinMs if positive, the "commitWithin" time passed to
+     * Solr with every batch, leaving the scheduling of commits to Solr
+     */
+    public BatchingSolrWriter(SolrServer solr, int batchSize, long flushIntervalMs, long commitIntervalMs, int commitWithinMs) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be at least one!");
+        }
+        this.solr = solr;
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.commitIntervalMs = commitIntervalMs;
+        this.commitWithinMs = commitWithinMs;
+        buffer = new ArrayList<SolrInputDocument>();
+        bufferedIds = new HashMap<Object, Integer>();
+        lastCommitTime = System.currentTimeMillis();
+        long period = Math.max(10, Math.min(flushIntervalMs > 0 ? flushIntervalMs : Long.MAX_VALUE, commitIntervalMs > 0 ? commitIntervalMs : Long.MAX_VALUE) / 4);
+        if (flushIntervalMs > 0 || (commitIntervalMs > 0 && commitWithinMs <= 0)) {
+            timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "solr-writer");
+                    t.setDaemon(true);
+                    return t;
+                }});
+            timer.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    flushAndCommitIfDue();
+                }}, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Gets the underlying SolrServer, for use in queries.  Remember that
+     * documents added to this writer aren't visible to queries until they
+     * have been committed.
+     */
+    public SolrServer getSolrServer() {
+        return solr;
+    }
+
+    /**
+     * Adds a document to the buffer, sending the buffer if it's full.
+     */
+    public void add(SolrInputDocument doc) {
+        add(Collections.singletonList(doc));
+    }
+
+    /**
+     * Adds documents to the buffer, sending the buffer if it's full.  The
+     * given documents are always sent in the same request (unless Solr
+     * rejects it, in which case it's split to find the rejected documents).
+     * If the buffer can't be sent because Solr is unavailable, the documents
+     * remain buffered and are sent again later, so once this method returns
+     * the caller needn't do anything further to have them indexed.
+     */
+    public void add(Collection<SolrInputDocument> docs) {
+        if (docs.isEmpty()) {
+            return;
+        }
+        boolean full = false;
+        synchronized (buffer) {
+            if (buffer.isEmpty()) {
+                oldestBufferedTime = System.currentTimeMillis();
+            }
+            for (SolrInputDocument doc : docs) {
+                buffer(doc);
+            }
+            full = buffer.size() >= batchSize;
+        }
+        if (full) {
+            try {
+                flush();
+            } catch (SolrServerException ex) {
+                logger.warn("Unable to send documents to solr (they will be sent again)!", ex);
+            } catch (IOException ex) {
+                logger.warn("Unable to send documents to solr (they will be sent again)!", ex);
+            }
+        }
+    }
+
+    /**
+     * Sends all buffered documents to Solr.  This doesn't commit them.
+     * @throws SolrServerException if the documents couldn't be sent (in which
+     * case they remain buffered and will be sent again)
+     */
+    public void flush() throws SolrServerException, IOException {
+        synchronized (sendLock) {
+            List<SolrInputDocument> batch = null;
+            synchronized (buffer) {
+                if (buffer.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<SolrInputDocument>(buffer);
+                buffer.clear();
+                bufferedIds.clear();
+            }
+            try {
+                try {
+                    send(batch);
+                } catch (RuntimeException ex) {
+                    // solr rejected the documents themselves
+                    sendRejectedBatch(batch, ex);
+                }
+            } catch (SolrServerException ex) {
+                requeue(batch);
+                throw ex;
+            } catch (IOException ex) {
+                requeue(batch);
+                throw ex;
+            }
+        }
+    }
+
+    private void send(List<SolrInputDocument> batch) throws SolrServerException, IOException {
+        if (commitWithinMs > 0) {
+            solr.add(batch, commitWithinMs);
+        } else {
+            solr.add(batch);
+        }
+        addRequestCount.incrementAndGet();
+        sentDocumentCount.addAndGet(batch.size());
+        logger.trace("Sent " + batch.size() + " documents to solr.");
+    }
+
+    /**
+     * Sends a batch that Solr rejected in halves (and those halves that are
+     * rejected in halves, and so on) so that only the documents Solr rejects
+     * on their own, which retrying won't help, are dropped.
+     */
+    private void sendRejectedBatch(List<SolrInputDocument> batch, RuntimeException rejection) throws SolrServerException, IOException {
+        if (batch.size() == 1) {
+            rejectedDocumentCount.incrementAndGet();
+            logger.error("Solr rejected document " + batch.get(0).getFieldValue("id") + ", it will not be indexed!", rejection);
+            return;
+        }
+        int half = batch.size() / 2;
+        sendPart(batch.subList(0, half));
+        sendPart(batch.subList(half, batch.size()));
+    }
+
+    private void sendPart(List<SolrInputDocument> part) throws SolrServerException, IOException {
+        try {
+            send(part);
+        } catch (RuntimeException ex) {
+            sendRejectedBatch(part, ex);
+        }
+    }
+
+    /**
+     * Deletes the document with the given id.  Every buffered document is
+     * sent first, so the delete follows every document added before it
+     * (including any with the same id).  Like an add, the delete becomes
+     * visible once it has been committed.
+     * @throws SolrServerException if the buffered documents couldn't be sent
+     * or the delete couldn't be made
+     */
+    public void deleteById(String id) throws SolrServerException, IOException {
+        synchronized (sendLock) {
+            flush();
+            solr.deleteById(id);
+            deleteCount.incrementAndGet();
+            logger.trace("Deleted " + id + " from solr.");
+        }
+    }
+
+    /**
+     * Sends all buffered documents to Solr and waits until they (and every
+     * other document sent so far) have been committed, so they are durable
+     * and visible to searches.  If another thread's commit already covers
+     * them, no further commit is made.
+     */
+    public void commit() throws SolrServerException, IOException {
+        flush();
+        long target = getChangeCount();
+        synchronized (commitLock) {
+            if (committedDocumentCount >= target && target > 0) {
+                return;
+            }
+            long covered = getChangeCount();
+            solr.commit();
+            committedDocumentCount = covered;
+            lastCommitTime = System.currentTimeMillis();
+            commitCount.incrementAndGet();
+            logger.trace("Committed solr (" + covered + " documents sent so far).");
+        }
+    }
+
+    /**
+     * Stops the background flushing and commits everything that was added.
+     */
+    public void close() throws IOException {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        try {
+            commit();
+        } catch (SolrServerException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Gets the number of documents waiting in the buffer.
+     */
+    public int getBufferedDocumentCount() {
+        synchronized (buffer) {
+            return buffer.size();
+        }
+    }
+
+    /**
+     * Gets the number of documents sent to Solr.
+     */
+    public long getSentDocumentCount() {
+        return sentDocumentCount.get();
+    }
+
+    /**
+     * Gets the number of documents Solr rejected, which were dropped.
+     */
+    public long getRejectedDocumentCount() {
+        return rejectedDocumentCount.get();
+    }
+
+    /**
+     * Gets the number of update requests made to Solr.
+     */
+    public long getAddRequestCount() {
+        return addRequestCount.get();
+    }
+
+    /**
+     * Gets the number of commits made by this writer.
+     */
+    public long getCommitCount() {
+        return commitCount.get();
+    }
+
+    /**
+     * Gets the number of added documents that were never sent because a
+     * later document with the same id replaced them in the buffer.
+     */
+    public long getCoalescedDocumentCount() {
+        return coalescedDocumentCount.get();
+    }
+
+    public String toString() {
+        return getSentDocumentCount() + " documents sent in " + getAddRequestCount() + " requests, "
+                + getCoalescedDocumentCount() + " coalesced, "
+                + getCommitCount() + " commits, " + getBufferedDocumentCount() + " documents buffered";
+    }
+
+    /**
+     * Gets the number of changes (documents sent and deletes made) sent to
+     * Solr, which a commit must cover.
+     */
+    private long getChangeCount() {
+        return sentDocumentCount.get() + deleteCount.get();
+    }
+
+    /**
+     * Appends a document to the buffer, or replaces the buffered document
+     * with the same id.  The caller must hold the buffer's lock.
+     */
+    private void buffer(SolrInputDocument doc) {
+        Object id = doc.getFieldValue(AptrustSolrDocument.ID);
+        Integer position = id == null ? null : bufferedIds.get(id);
+        if (position != null) {
+            buffer.set(position, doc);
+            coalescedDocumentCount.incrementAndGet();
+        } else {
+            if (id != null) {
+                bufferedIds.put(id, buffer.size());
+            }
+            buffer.add(doc);
+        }
+    }
+
+    /**
+     * Returns an unsent batch to the front of the buffer.  Any document in
+     * the batch that has since been replaced by a newer buffered document
+     * with the same id is dropped.
+     */
+    private void requeue(List<SolrInputDocument> batch) {
+        synchronized (buffer) {
+            List<SolrInputDocument> newer = new ArrayList<SolrInputDocument>(buffer);
+            buffer.clear();
+            bufferedIds.clear();
+            for (SolrInputDocument doc : batch) {
+                buffer(doc);
+            }
+            for (SolrInputDocument doc : newer) {
+                buffer(doc);
+            }
+            oldestBufferedTime = Math.min(oldestBufferedTime, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Invoked periodically to send documents that have been buffered for too
+     * long and to commit documents that have waited too long for a commit.
+     */
+    private void flushAndCommitIfDue() {
+        try {
+            long now = System.currentTimeMillis();
+            boolean flushDue = false;
+            synchronized (buffer) {
+                flushDue = !buffer.isEmpty() && flushIntervalMs > 0 && now - oldestBufferedTime >= flushIntervalMs;
+            }
+            if (flushDue) {
+                flush();
+            }
+            if (commitWithinMs <= 0 && commitIntervalMs > 0) {
+                boolean commitDue = false;
+                synchronized (commitLock) {
+                    commitDue = getChangeCount() > committedDocumentCount && now - lastCommitTime >= commitIntervalMs;
+                }
+                if (commitDue) {
+                    commit();
+                }
+            }
+        } catch (Throwable t) {
+            logger.error("Error writing to solr (will retry)!", t);
+        }
+    }
+}
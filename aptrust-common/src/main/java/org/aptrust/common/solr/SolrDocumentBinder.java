@@ -0,0 +1,269 @@
+package org.aptrust.common.solr;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * <p>
+ *   Converts objects of one class with methods annotated with SolrField to
+ *   and from Solr documents.  The annotated methods are found once, when the
+ *   binder for a class is first requested, and are invoked through method
+ *   handles rather than by reflection; the validation rules for each
+ *   record_type (see AptrustSolrDocument) are held in tables built once for
+ *   all classes.  The documents produced are identical to those produced by
+ *   invoking each annotated method reflectively, with the fields in the
+ *   order in which Class.getMethods() returns the methods.
+ * </p>
+ * <p>
+ *   Binders are immutable and may be shared between threads.
+ * </p>
+ */
+public final class SolrDocumentBinder {
+
+    private static final ClassValue<SolrDocumentBinder> BINDERS = new ClassValue<SolrDocumentBinder>() {
+        protected SolrDocumentBinder computeValue(Class<?> c) {
+            return new SolrDocumentBinder(c);
+        }
+    };
+
+    /**
+     * Fields required of every record, regardless of record_type.
+     */
+    private static final RequiredField[] COMMON_FIELDS = new RequiredField[] {
+            new RequiredField(AptrustSolrDocument.RECORD_TYPE, String.class),
+            new RequiredField(AptrustSolrDocument.INSTITUTION_ID, String.class),
+            new RequiredField(AptrustSolrDocument.ID, String.class) };
+
+    /**
+     * Fields required of records of each record_type.  Record types not
+     * listed have no additional required fields.
+     */
+    private static final Map<String, RequiredField[]> RECORD_TYPE_FIELDS = new HashMap<String, RequiredField[]>();
+
+    /**
+     * Fields required of ingest records in each operation_status, in addition
+     * to those required of every ingest record.
+     */
+    private static final Map<String, RequiredField[]> INGEST_STATUS_FIELDS = new HashMap<String, RequiredField[]>();
+
+    static {
+        RECORD_TYPE_FIELDS.put("ingest", new RequiredField[] {
+                new RequiredField(AptrustSolrDocument.SUBMITTING_USER, String.class),
+                new RequiredField(AptrustSolrDocument.OPERATION_STATUS, String.class),
+                new RequiredField(AptrustSolrDocument.OPERATION_START_DATE, Date.class) });
+        RECORD_TYPE_FIELDS.put("package", new RequiredField[] {
+                new RequiredField(AptrustSolrDocument.DPN_BOUND, Boolean.class),
+                new RequiredField(AptrustSolrDocument.ACCESS_CONTROL_POLICY, String.class),
+                new RequiredField(AptrustSolrDocument.OBJECT_COUNT, Integer.class),
+                new RequiredField(AptrustSolrDocument.TITLE, String.class),
+                new RequiredField(AptrustSolrDocument.INGEST_DATE, Date.class) });
+        RECORD_TYPE_FIELDS.put("object", new RequiredField[] {
+                new RequiredField(AptrustSolrDocument.PACKAGE_ID, String.class) });
+        RECORD_TYPE_FIELDS.put("content", new RequiredField[] {
+                new RequiredField(AptrustSolrDocument.PACKAGE_ID, String.class),
+                new RequiredField(AptrustSolrDocument.OBJECT_ID, String.class),
+                new RequiredField(AptrustSolrDocument.LAST_HEALTH_CHECK_DATE, Date.class),
+                new RequiredField(AptrustSolrDocument.FAILED_HEALTH_CHECK, String.class) });
+        RECORD_TYPE_FIELDS.put("ingest_progress", new RequiredField[] {
+                new RequiredField(AptrustSolrDocument.INGEST_ID, String.class),
+                new RequiredField(AptrustSolrDocument.COMPLETED_OBJECT_COUNT, Integer.class) });
+
+        INGEST_STATUS_FIELDS.put("IN_PROGRESS", new RequiredField[] {
+                new RequiredField(AptrustSolrDocument.OBJECT_COUNT, Integer.class),
+                new RequiredField(AptrustSolrDocument.COMPLETED_OBJECT_COUNT, Integer.class) });
+        INGEST_STATUS_FIELDS.put("FAILED", new RequiredField[] {
+                new RequiredField(AptrustSolrDocument.MESSAGE, String.class) });
+        INGEST_STATUS_FIELDS.put("COMPLETED", new RequiredField[] {
+                new RequiredField(AptrustSolrDocument.OPERATION_END_DATE, Date.class) });
+    }
+
+    /**
+     * Gets the binder for the given class, creating it if this is the first
+     * request for that class.
+     */
+    public static SolrDocumentBinder forClass(Class<?> c) {
+        return BINDERS.get(c);
+    }
+
+    private String className;
+
+    private Accessor[] getters;
+
+    private Accessor[] setters;
+
+    private SolrDocumentBinder(Class<?> c) {
+        className = c.getName();
+        List<Accessor> getterList = new ArrayList<Accessor>();
+        List<Accessor> setterList = new ArrayList<Accessor>();
+        for (Method method : c.getMethods()) {
+            SolrField field = method.getAnnotation(SolrField.class);
+            if (field != null) {
+                int parameterCount = method.getParameterTypes().length;
+                if (parameterCount == 0) {
+                    getterList.add(new Accessor(field.name(), method, MethodType.methodType(Object.class, Object.class)));
+                } else if (parameterCount == 1) {
+                    setterList.add(new Accessor(field.name(), method, MethodType.methodType(void.class, Object.class, Object.class)));
+                }
+            }
+        }
+        getters = getterList.toArray(new Accessor[getterList.size()]);
+        setters = setterList.toArray(new Accessor[setterList.size()]);
+    }
+
+    /**
+     * Builds a SolrInputDocument from the given object, which must be an
+     * instance of the class for which this binder was created, and ensures
+     * that it's complete and valid.
+     * @see AptrustSolrDocument#createValidSolrDocument(Object)
+     */
+    public SolrInputDocument createValidSolrDocument(Object o) {
+        SolrInputDocument doc = new SolrInputDocument();
+        for (Accessor getter : getters) {
+            MethodHandle handle = getter.getHandle("Method annotated with SolrField must be public! (" + getter.methodName + ")");
+            Object value;
+            try {
+                value = (Object) handle.invokeExact(o);
+            } catch (Throwable t) {
+                throw new RuntimeException(t);
+            }
+            if (value != null) {
+                doc.addField(getter.fieldName, value);
+            }
+        }
+
+        assertRequiredFields(COMMON_FIELDS, doc);
+        String recordType = (String) doc.getField(AptrustSolrDocument.RECORD_TYPE).getValue();
+        RequiredField[] recordTypeFields = RECORD_TYPE_FIELDS.get(recordType);
+        if (recordTypeFields != null) {
+            assertRequiredFields(recordTypeFields, doc);
+            if (recordType.equals("ingest")) {
+                RequiredField[] statusFields = INGEST_STATUS_FIELDS.get((String) doc.getField(AptrustSolrDocument.OPERATION_STATUS).getValue());
+                if (statusFields != null) {
+                    assertRequiredFields(statusFields, doc);
+                }
+            }
+        }
+        return doc;
+    }
+
+    /**
+     * Populates the given object, which must be an instance of the class for
+     * which this binder was created, with values from the given Solr
+     * document.
+     * @see AptrustSolrDocument#populateFromSolrDocument(Object, SolrDocument)
+     */
+    public void populateFromSolrDocument(Object o, SolrDocument d) {
+        for (Accessor setter : setters) {
+            Object value = d.getFirstValue(setter.fieldName);
+            if (value != null) {
+                MethodHandle handle = setter.getHandle("Method annotated with AptrustSolrDocument must be public! (" + setter.methodName + ")");
+                if (!setter.valueType.isInstance(value)) {
+                    throw new RuntimeException("Method annotated with AptrustSolrDocument must have exactly one parameter. (" + setter.methodName + ")",
+                            new IllegalArgumentException("argument type mismatch"));
+                }
+                try {
+                    handle.invokeExact(o, value);
+                } catch (Throwable t) {
+                    throw new RuntimeException(t);
+                }
+            }
+        }
+    }
+
+    private void assertRequiredFields(RequiredField[] fields, SolrInputDocument doc) {
+        for (RequiredField field : fields) {
+            if (doc.getField(field.name) == null) {
+                throw new IllegalArgumentException("Object " + className + " is not annotated with the required \"" + field.name + "\" field!");
+            } else if (!(doc.getField(field.name).getValue().getClass().isAssignableFrom(field.type))) {
+                throw new IllegalArgumentException("The method annotated with the SolrField named \"" + field.name + "\" on object " + className + " must have a return type of \"" + field.type.getName() + "\". (has \"" + doc.getField(field.name).getValue().getClass() + "\" instead)");
+            }
+        }
+    }
+
+    private static final class RequiredField {
+
+        private String name;
+
+        private Class<?> type;
+
+        private RequiredField(String name, Class<?> type) {
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    /**
+     * An annotated method, with a handle adapted to take and return Objects
+     * so that it may be invoked with invokeExact().  Methods that can't be
+     * invoked from outside their class (for instance public methods of
+     * non-public classes) have no handle and fail when they're first used,
+     * as they would if invoked reflectively.
+     */
+    private static final class Accessor {
+
+        private String fieldName;
+
+        private String methodName;
+
+        private MethodHandle handle;
+
+        private IllegalAccessException accessError;
+
+        /**
+         * The type of value a setter accepts (its parameter type, boxed).
+         */
+        private Class<?> valueType;
+
+        private Accessor(String fieldName, Method method, MethodType type) {
+            this.fieldName = fieldName;
+            methodName = method.getName();
+            if (method.getParameterTypes().length == 1) {
+                valueType = box(method.getParameterTypes()[0]);
+            }
+            try {
+                handle = MethodHandles.publicLookup().unreflect(method).asType(type);
+            } catch (IllegalAccessException ex) {
+                accessError = ex;
+            }
+        }
+
+        private MethodHandle getHandle(String accessErrorMessage) {
+            if (handle == null) {
+                throw new RuntimeException(accessErrorMessage, accessError);
+            }
+            return handle;
+        }
+
+        private static Class<?> box(Class<?> c) {
+            if (!c.isPrimitive()) {
+                return c;
+            } else if (c == int.class) {
+                return Integer.class;
+            } else if (c == long.class) {
+                return Long.class;
+            } else if (c == boolean.class) {
+                return Boolean.class;
+            } else if (c == double.class) {
+                return Double.class;
+            } else if (c == float.class) {
+                return Float.class;
+            } else if (c == short.class) {
+                return Short.class;
+            } else if (c == byte.class) {
+                return Byte.class;
+            } else {
+                return Character.class;
+            }
+        }
+    }
+}
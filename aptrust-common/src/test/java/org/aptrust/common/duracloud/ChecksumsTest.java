@@ -0,0 +1,20 @@
+package org.aptrust.common.duracloud;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ChecksumsTest {
+
+    @Test
+    public void testMD5() throws Exception {
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", Checksums.toHex(Checksums.createDigest().digest()));
+        assertEquals("5d41402abc4b2a76b9719d911017c592", Checksums.toHex(Checksums.createDigest().digest("hello".getBytes("UTF-8"))));
+    }
+
+    @Test
+    public void testToHex() {
+        assertEquals("00010fff", Checksums.toHex(new byte[] { 0, 1, 15, (byte) 0xff }));
+        assertEquals("", Checksums.toHex(new byte[0]));
+    }
+}
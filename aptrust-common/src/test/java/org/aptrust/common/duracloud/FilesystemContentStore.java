@@ -0,0 +1,532 @@
+package org.aptrust.common.duracloud;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.duracloud.client.ContentStore;
+import org.duracloud.common.model.AclType;
+import org.duracloud.domain.Content;
+import org.duracloud.domain.Space;
+import org.duracloud.error.ContentStoreException;
+import org.duracloud.error.InvalidIdException;
+import org.duracloud.error.NotFoundException;
+
+/**
+ * <p>
+ *   A ContentStore that keeps its spaces in directories on the local
+ *   filesystem, so that the ingest processing components can be run (and
+ *   measured) without a DuraCloud instance.  Each space is a directory
+ *   under the root holding a "content" directory, in which each item is a
+ *   file named by its URL-encoded content id, and a "properties" directory,
+ *   in which each item's properties are kept in a sidecar file of the same
+ *   name.  The properties DuraCloud computes ("content-checksum",
+ *   "content-size", "content-mimetype" and "content-modified") are computed
+ *   as content is added.
+ * </p>
+ * <p>
+ *   To simulate a remote store, a fixed latency may be added to every
+ *   operation and a random fraction of operations may be made to fail (with
+ *   a 503 response, before they take effect).  Changes to content may be
+ *   reported to ChangeListeners, standing in for DuraCloud's JMS topics.
+ *   Tasks aren't supported.
+ * </p>
+ */
+public class FilesystemContentStore implements ContentStore {
+
+    /**
+     * Notified after content is added, updated or deleted.
+     */
+    public static interface ChangeListener {
+        public void contentUpdated(String spaceId, String contentId);
+        public void contentDeleted(String spaceId, String contentId);
+    }
+
+    public static final String CONTENT_CHECKSUM = "content-checksum";
+
+    public static final String CONTENT_SIZE = "content-size";
+
+    public static final String CONTENT_MIMETYPE = "content-mimetype";
+
+    public static final String CONTENT_MODIFIED = "content-modified";
+
+    private static final String CONTENT_DIR = "content";
+
+    private static final String PROPERTIES_DIR = "properties";
+
+    private static final String ACLS_FILE = "acls.properties";
+
+    private File root;
+
+    private String storeId;
+
+    private List<ChangeListener> listeners = new CopyOnWriteArrayList<ChangeListener>();
+
+    private volatile long latencyMillis;
+
+    private volatile double failureRate;
+
+    private Random random = new Random();
+
+    /**
+     * @param root the directory holding the spaces, which is created if it
+     * doesn't exist
+     */
+    public FilesystemContentStore(File root) {
+        this(root, "0");
+    }
+
+    public FilesystemContentStore(File root, String storeId) {
+        this.root = root;
+        this.storeId = storeId;
+        root.mkdirs();
+    }
+
+    public void addChangeListener(ChangeListener l) {
+        listeners.add(l);
+    }
+
+    public void removeChangeListener(ChangeListener l) {
+        listeners.remove(l);
+    }
+
+    /**
+     * Sets the number of milliseconds every operation waits before it
+     * begins.
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Sets the fraction (from 0 to 1) of operations that fail.
+     */
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * Seeds the choice of operations that fail, so that a run can be
+     * repeated exactly.
+     */
+    public void setRandomSeed(long seed) {
+        synchronized (random) {
+            random.setSeed(seed);
+        }
+    }
+
+    public String getBaseURL() {
+        return root.toURI().toString();
+    }
+
+    public String getStoreId() {
+        return storeId;
+    }
+
+    public String getStorageProviderType() {
+        return "FILESYSTEM";
+    }
+
+    public List<String> getSpaces() throws ContentStoreException {
+        simulate("get spaces");
+        List<String> spaceIds = new ArrayList<String>();
+        File[] dirs = root.listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                if (dir.isDirectory()) {
+                    spaceIds.add(dir.getName());
+                }
+            }
+        }
+        Collections.sort(spaceIds);
+        return spaceIds;
+    }
+
+    public Iterator<String> getSpaceContents(String spaceId) throws ContentStoreException {
+        return getSpaceContents(spaceId, null);
+    }
+
+    public Iterator<String> getSpaceContents(String spaceId, String prefix) throws ContentStoreException {
+        simulate("get contents of space " + spaceId);
+        return listContents(spaceId, prefix, null, Long.MAX_VALUE).iterator();
+    }
+
+    public Space getSpace(String spaceId, String prefix, long maxResults, String marker) throws ContentStoreException {
+        simulate("get space " + spaceId);
+        Space space = new Space();
+        space.setId(spaceId);
+        space.setContentIds(listContents(spaceId, prefix, marker, maxResults > 0 ? maxResults : 1000));
+        space.setProperties(readSpaceProperties(spaceId));
+        return space;
+    }
+
+    public void createSpace(String spaceId) throws ContentStoreException {
+        simulate("create space " + spaceId);
+        try {
+            validateSpaceId(spaceId);
+        } catch (InvalidIdException ex) {
+            throw new ContentStoreException(ex.getMessage());
+        }
+        File dir = new File(root, spaceId);
+        if (!new File(dir, CONTENT_DIR).mkdirs() || !new File(dir, PROPERTIES_DIR).mkdirs()) {
+            throw new ContentStoreException("Unable to create space " + spaceId + "!");
+        }
+    }
+
+    public void deleteSpace(String spaceId) throws ContentStoreException {
+        simulate("delete space " + spaceId);
+        delete(getSpaceDir(spaceId));
+    }
+
+    public Map<String, String> getSpaceProperties(String spaceId) throws ContentStoreException {
+        simulate("get properties of space " + spaceId);
+        return readSpaceProperties(spaceId);
+    }
+
+    public Map<String, AclType> getSpaceACLs(String spaceId) throws ContentStoreException {
+        simulate("get ACLs of space " + spaceId);
+        Map<String, AclType> acls = new HashMap<String, AclType>();
+        for (Map.Entry<String, String> acl : readProperties(new File(getSpaceDir(spaceId), ACLS_FILE)).entrySet()) {
+            acls.put(acl.getKey(), AclType.valueOf(acl.getValue()));
+        }
+        return acls;
+    }
+
+    public void setSpaceACLs(String spaceId, Map<String, AclType> acls) throws ContentStoreException {
+        simulate("set ACLs of space " + spaceId);
+        Map<String, String> values = new HashMap<String, String>();
+        for (Map.Entry<String, AclType> acl : acls.entrySet()) {
+            values.put(acl.getKey(), acl.getValue().name());
+        }
+        writeProperties(new File(getSpaceDir(spaceId), ACLS_FILE), values);
+    }
+
+    public String addContent(String spaceId, String contentId, InputStream content, long contentSize, String contentMimeType, String contentChecksum, Map<String, String> contentProperties) throws ContentStoreException {
+        simulate("add " + contentId + " to space " + spaceId);
+        File spaceDir = getSpaceDir(spaceId);
+        String name = encode(contentId);
+        File temp = null;
+        try {
+            temp = File.createTempFile(".add-", ".tmp", new File(spaceDir, CONTENT_DIR));
+            MessageDigest digest = Checksums.createDigest();
+            long size = 0;
+            OutputStream os = new FileOutputStream(temp);
+            try {
+                byte[] buffer = new byte[65536];
+                int read;
+                while ((read = content.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    os.write(buffer, 0, read);
+                    size += read;
+                }
+            } finally {
+                os.close();
+            }
+            String checksum = Checksums.toHex(digest.digest());
+            if (contentChecksum != null && !contentChecksum.equalsIgnoreCase(checksum)) {
+                throw new ContentStoreException("Checksum mismatch adding " + contentId + " to " + spaceId + ", expected " + contentChecksum + " but computed " + checksum + "!");
+            }
+            Map<String, String> properties = new HashMap<String, String>();
+            if (contentProperties != null) {
+                properties.putAll(contentProperties);
+            }
+            properties.put(CONTENT_CHECKSUM, checksum);
+            properties.put(CONTENT_SIZE, String.valueOf(size));
+            properties.put(CONTENT_MIMETYPE, contentMimeType == null ? "application/octet-stream" : contentMimeType);
+            properties.put(CONTENT_MODIFIED, String.valueOf(System.currentTimeMillis()));
+            writeProperties(new File(new File(spaceDir, PROPERTIES_DIR), name), properties);
+            Files.move(temp.toPath(), new File(new File(spaceDir, CONTENT_DIR), name).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            temp = null;
+            fireUpdated(spaceId, contentId);
+            return checksum;
+        } catch (IOException ex) {
+            throw new ContentStoreException("add content", spaceId, contentId, ex);
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    public Content getContent(String spaceId, String contentId) throws ContentStoreException {
+        simulate("get " + contentId + " from space " + spaceId);
+        File file = getContentFile(spaceId, contentId);
+        Content c = new Content();
+        c.setId(contentId);
+        c.setProperties(readContentProperties(spaceId, contentId));
+        try {
+            c.setStream(new FileInputStream(file));
+        } catch (IOException ex) {
+            throw new NotFoundException(contentId + " does not exist in " + spaceId + ".");
+        }
+        return c;
+    }
+
+    public void deleteContent(String spaceId, String contentId) throws ContentStoreException {
+        simulate("delete " + contentId + " from space " + spaceId);
+        File file = getContentFile(spaceId, contentId);
+        if (!file.delete()) {
+            throw new ContentStoreException("Unable to delete " + contentId + " from " + spaceId + "!");
+        }
+        new File(new File(getSpaceDir(spaceId), PROPERTIES_DIR), encode(contentId)).delete();
+        fireDeleted(spaceId, contentId);
+    }
+
+    public void setContentProperties(String spaceId, String contentId, Map<String, String> contentProperties) throws ContentStoreException {
+        simulate("set properties of " + contentId + " in space " + spaceId);
+        Map<String, String> properties = readContentProperties(spaceId, contentId);
+        Map<String, String> updated = new HashMap<String, String>(contentProperties);
+        for (String name : Arrays.asList(CONTENT_CHECKSUM, CONTENT_SIZE, CONTENT_MIMETYPE, CONTENT_MODIFIED)) {
+            if (properties.containsKey(name) && !updated.containsKey(name)) {
+                updated.put(name, properties.get(name));
+            }
+        }
+        writeProperties(new File(new File(getSpaceDir(spaceId), PROPERTIES_DIR), encode(contentId)), updated);
+        fireUpdated(spaceId, contentId);
+    }
+
+    public Map<String, String> getContentProperties(String spaceId, String contentId) throws ContentStoreException {
+        simulate("get properties of " + contentId + " in space " + spaceId);
+        return readContentProperties(spaceId, contentId);
+    }
+
+    public String copyContent(String srcSpaceId, String srcContentId, String destSpaceId, String destContentId) throws ContentStoreException {
+        return copyContent(srcSpaceId, srcContentId, storeId, destSpaceId, destContentId);
+    }
+
+    public String copyContent(String srcSpaceId, String srcContentId, String destStoreId, String destSpaceId, String destContentId) throws ContentStoreException {
+        simulate("copy " + srcContentId + " from space " + srcSpaceId + " to " + destSpaceId);
+        checkStoreId(destStoreId);
+        File source = getContentFile(srcSpaceId, srcContentId);
+        Map<String, String> properties = readContentProperties(srcSpaceId, srcContentId);
+        File destDir = getSpaceDir(destSpaceId);
+        String name = encode(destContentId);
+        File temp = null;
+        try {
+            temp = File.createTempFile(".copy-", ".tmp", new File(destDir, CONTENT_DIR));
+            Files.copy(source.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            writeProperties(new File(new File(destDir, PROPERTIES_DIR), name), properties);
+            Files.move(temp.toPath(), new File(new File(destDir, CONTENT_DIR), name).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            temp = null;
+        } catch (IOException ex) {
+            throw new ContentStoreException("copy content", srcSpaceId, srcContentId, ex);
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+        fireUpdated(destSpaceId, destContentId);
+        return properties.get(CONTENT_CHECKSUM);
+    }
+
+    public String moveContent(String srcSpaceId, String srcContentId, String destSpaceId, String destContentId) throws ContentStoreException {
+        return moveContent(srcSpaceId, srcContentId, storeId, destSpaceId, destContentId);
+    }
+
+    public String moveContent(String srcSpaceId, String srcContentId, String destStoreId, String destSpaceId, String destContentId) throws ContentStoreException {
+        String checksum = copyContent(srcSpaceId, srcContentId, destStoreId, destSpaceId, destContentId);
+        deleteContent(srcSpaceId, srcContentId);
+        return checksum;
+    }
+
+    public void validateSpaceId(String spaceId) throws InvalidIdException {
+        if (spaceId == null || !spaceId.matches("[a-z0-9][a-z0-9.-]{2,62}")) {
+            throw new InvalidIdException("Invalid space id: " + spaceId);
+        }
+    }
+
+    public void validateContentId(String contentId) throws InvalidIdException {
+        if (contentId == null || contentId.length() == 0 || contentId.equals(".") || contentId.equals("..")) {
+            throw new InvalidIdException("Invalid content id: " + contentId);
+        }
+    }
+
+    public List<String> getSupportedTasks() throws ContentStoreException {
+        return new ArrayList<String>();
+    }
+
+    public String performTask(String taskName, String taskParameters) throws ContentStoreException {
+        throw new ContentStoreException("Task " + taskName + " is not supported by the filesystem store.");
+    }
+
+    /**
+     * Waits for the configured latency, then fails if this operation has been
+     * chosen to fail.
+     */
+    private void simulate(String description) throws ContentStoreException {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new ContentStoreException("Interrupted before attempting to " + description + "!");
+            }
+        }
+        if (failureRate > 0) {
+            boolean fail;
+            synchronized (random) {
+                fail = random.nextDouble() < failureRate;
+            }
+            if (fail) {
+                throw new ContentStoreException("Error attempting to " + description + "; response code was 503, error message was 'simulated failure'");
+            }
+        }
+    }
+
+    private void checkStoreId(String destStoreId) throws ContentStoreException {
+        if (destStoreId != null && !destStoreId.equals(storeId)) {
+            throw new ContentStoreException("Copying to store " + destStoreId + " is not supported by the filesystem store.");
+        }
+    }
+
+    private List<String> listContents(String spaceId, String prefix, String marker, long maxResults) throws ContentStoreException {
+        String[] names = new File(getSpaceDir(spaceId), CONTENT_DIR).list();
+        List<String> contentIds = new ArrayList<String>();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(".")) {
+                    // in-progress additions and copies
+                    continue;
+                }
+                String contentId = decode(name);
+                if ((prefix == null || contentId.startsWith(prefix)) && (marker == null || contentId.compareTo(marker) > 0)) {
+                    contentIds.add(contentId);
+                }
+            }
+        }
+        Collections.sort(contentIds);
+        return contentIds.size() > maxResults ? new ArrayList<String>(contentIds.subList(0, (int) maxResults)) : contentIds;
+    }
+
+    private Map<String, String> readSpaceProperties(String spaceId) throws ContentStoreException {
+        File dir = getSpaceDir(spaceId);
+        Map<String, String> properties = new HashMap<String, String>();
+        String[] names = new File(dir, CONTENT_DIR).list();
+        properties.put("space-count", String.valueOf(names == null ? 0 : names.length));
+        properties.put("space-created", String.valueOf(dir.lastModified()));
+        return properties;
+    }
+
+    private Map<String, String> readContentProperties(String spaceId, String contentId) throws ContentStoreException {
+        getContentFile(spaceId, contentId);
+        return readProperties(new File(new File(getSpaceDir(spaceId), PROPERTIES_DIR), encode(contentId)));
+    }
+
+    private File getSpaceDir(String spaceId) throws NotFoundException {
+        File dir = new File(root, spaceId);
+        if (spaceId == null || spaceId.contains("/") || !new File(dir, CONTENT_DIR).isDirectory()) {
+            throw new NotFoundException("Space " + spaceId + " does not exist.");
+        }
+        return dir;
+    }
+
+    private File getContentFile(String spaceId, String contentId) throws NotFoundException {
+        File file = new File(new File(getSpaceDir(spaceId), CONTENT_DIR), encode(contentId));
+        if (!file.isFile()) {
+            throw new NotFoundException(contentId + " does not exist in " + spaceId + ".");
+        }
+        return file;
+    }
+
+    private void fireUpdated(String spaceId, String contentId) {
+        for (ChangeListener l : listeners) {
+            l.contentUpdated(spaceId, contentId);
+        }
+    }
+
+    private void fireDeleted(String spaceId, String contentId) {
+        for (ChangeListener l : listeners) {
+            l.contentDeleted(spaceId, contentId);
+        }
+    }
+
+    private static Map<String, String> readProperties(File file) throws ContentStoreException {
+        Map<String, String> values = new HashMap<String, String>();
+        if (file.exists()) {
+            Properties p = new Properties();
+            try {
+                InputStream is = new FileInputStream(file);
+                try {
+                    p.load(is);
+                } finally {
+                    is.close();
+                }
+            } catch (IOException ex) {
+                throw new ContentStoreException("Unable to read " + file + "!", ex);
+            }
+            for (String name : p.stringPropertyNames()) {
+                values.put(name, p.getProperty(name));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Writes the given properties to a temporary file which then replaces the
+     * given file, so that readers never see a partial file.
+     */
+    private static void writeProperties(File file, Map<String, String> values) throws ContentStoreException {
+        Properties p = new Properties();
+        p.putAll(values);
+        File temp = new File(file.getParentFile(), "." + file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            OutputStream os = new FileOutputStream(temp);
+            try {
+                p.store(os, null);
+            } finally {
+                os.close();
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            temp.delete();
+            throw new ContentStoreException("Unable to write " + file + "!", ex);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static String encode(String contentId) {
+        try {
+            return URLEncoder.encode(contentId, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            // can't happen because UTF-8 is supported by all JVMs
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static String decode(String name) {
+        try {
+            return URLDecoder.decode(name, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            // can't happen because UTF-8 is supported by all JVMs
+            throw new RuntimeException(ex);
+        }
+    }
+}
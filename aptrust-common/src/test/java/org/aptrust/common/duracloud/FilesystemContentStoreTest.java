@@ -0,0 +1,168 @@
+package org.aptrust.common.duracloud;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.duracloud.error.ContentStoreException;
+import org.duracloud.error.NotFoundException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FilesystemContentStoreTest {
+
+    private File dir;
+
+    private FilesystemContentStore cs;
+
+    @Before
+    public void createStore() throws Exception {
+        dir = File.createTempFile("filesystem-content-store", "");
+        dir.delete();
+        cs = new FilesystemContentStore(dir);
+        cs.createSpace("uva");
+    }
+
+    @After
+    public void deleteStore() {
+        delete(dir);
+    }
+
+    @Test
+    public void testAddAndGetContent() throws Exception {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put("note", "x");
+        String checksum = cs.addContent("uva", "uva-lib:1/content?v=1", new ByteArrayInputStream("hello".getBytes("UTF-8")), 5, "text/plain", null, properties);
+        assertEquals("5d41402abc4b2a76b9719d911017c592", checksum);
+
+        Map<String, String> stored = cs.getContentProperties("uva", "uva-lib:1/content?v=1");
+        assertEquals(checksum, stored.get("content-checksum"));
+        assertEquals("5", stored.get("content-size"));
+        assertEquals("text/plain", stored.get("content-mimetype"));
+        assertEquals("x", stored.get("note"));
+        assertEquals("hello", read(cs.getContent("uva", "uva-lib:1/content?v=1").getStream()));
+        assertEquals(Collections.singletonList("uva"), cs.getSpaces());
+
+        try {
+            cs.addContent("uva", "bad", new ByteArrayInputStream(new byte[1]), 1, "text/plain", checksum, null);
+            fail();
+        } catch (ContentStoreException ex) {
+            // expected
+        }
+        try {
+            cs.getContent("uva", "bad");
+            fail("Content whose checksum didn't match shouldn't be stored.");
+        } catch (NotFoundException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testListing() throws Exception {
+        for (String id : Arrays.asList("c", "a/1", "a/2", "b")) {
+            cs.addContent("uva", id, new ByteArrayInputStream(new byte[0]), 0, null, null, null);
+        }
+        List<String> ids = new ArrayList<String>();
+        Iterator<String> it = cs.getSpaceContents("uva");
+        while (it.hasNext()) {
+            ids.add(it.next());
+        }
+        assertEquals(Arrays.asList("a/1", "a/2", "b", "c"), ids);
+        assertEquals(Arrays.asList("a/2", "b"), cs.getSpace("uva", null, 2, "a/1").getContentIds());
+        assertEquals(Arrays.asList("a/1", "a/2"), cs.getSpace("uva", "a/", 0, null).getContentIds());
+
+        cs.setContentProperties("uva", "b", Collections.singletonMap("note", "y"));
+        assertEquals("y", cs.getContentProperties("uva", "b").get("note"));
+        assertNotNull("System properties should be kept.", cs.getContentProperties("uva", "b").get("content-checksum"));
+
+        cs.moveContent("uva", "b", "uva", "d");
+        cs.deleteContent("uva", "c");
+        ids.clear();
+        it = cs.getSpaceContents("uva");
+        while (it.hasNext()) {
+            ids.add(it.next());
+        }
+        assertEquals(Arrays.asList("a/1", "a/2", "d"), ids);
+        assertEquals("y", cs.getContentProperties("uva", "d").get("note"));
+
+        try {
+            cs.getSpaceContents("unc");
+            fail();
+        } catch (NotFoundException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testChangeListener() throws Exception {
+        final List<String> events = new ArrayList<String>();
+        cs.addChangeListener(new FilesystemContentStore.ChangeListener() {
+            public void contentUpdated(String spaceId, String contentId) {
+                events.add("update:" + spaceId + "/" + contentId);
+            }
+
+            public void contentDeleted(String spaceId, String contentId) {
+                events.add("delete:" + spaceId + "/" + contentId);
+            }});
+        cs.addContent("uva", "a", new ByteArrayInputStream(new byte[0]), 0, null, null, null);
+        cs.copyContent("uva", "a", "uva", "b");
+        cs.deleteContent("uva", "a");
+        assertEquals(Arrays.asList("update:uva/a", "update:uva/b", "delete:uva/a"), events);
+    }
+
+    @Test
+    public void testInjectedFailuresAreRetryable() throws Exception {
+        cs.setFailureRate(1);
+        try {
+            cs.getSpaces();
+            fail();
+        } catch (ContentStoreException ex) {
+            assertTrue(new RetryPolicy().isRetryable(ex));
+        }
+        cs.setFailureRate(0.5);
+        cs.setRandomSeed(42);
+        int failures = 0;
+        for (int i = 0; i < 200; i ++) {
+            try {
+                cs.getSpaces();
+            } catch (ContentStoreException ex) {
+                failures ++;
+            }
+        }
+        assertTrue(failures > 50 && failures < 150);
+    }
+
+    private static String read(InputStream is) throws IOException {
+        try {
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = is.read()) != -1) {
+                sb.append((char) c);
+            }
+            return sb.toString();
+        } finally {
+            is.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,87 @@
+package org.aptrust.common.duracloud;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.duracloud.client.ContentStore;
+import org.duracloud.domain.Content;
+import org.duracloud.error.ContentStoreException;
+import org.junit.Test;
+
+public class InstrumentedContentStoreTest {
+
+    @Test
+    public void testCounts() throws Exception {
+        ContentStoreMetrics metrics = new ContentStoreMetrics("test", false);
+        ContentStore cs = new InstrumentedContentStore(createContentStore(), metrics);
+        cs.addContent("uva", "a", new ByteArrayInputStream(new byte[100]), 100, "text/plain", null, null);
+        InputStream content = cs.getContent("uva", "a").getStream();
+        while (content.read(new byte[7]) != -1) {
+        }
+        cs.getContent("unc", "a");
+        try {
+            cs.getSpaces();
+            fail();
+        } catch (ContentStoreException ex) {
+            // expected
+        }
+
+        assertEquals(2, metrics.getOperationStats("getContent").getCallCount());
+        assertEquals("Content should be counted as it's read.", 42, metrics.getOperationStats("getContent").getBytesTransferred());
+        assertEquals(100, metrics.getOperationStats("addContent", "uva").getBytesTransferred());
+        assertEquals(2, metrics.getSpaceStats("uva").getCallCount());
+        assertEquals(142, metrics.getSpaceStats("uva").getBytesTransferred());
+        assertEquals(1, metrics.getOperationStats("getContent", "unc").getCallCount());
+        assertEquals(1, metrics.getOperationStats("getSpaces").getErrorCount());
+        assertEquals(0, metrics.getOperationStats("getContent").getErrorCount());
+        assertEquals(5, metrics.getSummary().size());
+    }
+
+    @Test
+    public void testPercentiles() {
+        OperationStats stats = new OperationStats("test");
+        assertEquals(0, stats.getPercentile50Millis());
+        for (int i = 0; i < 90; i ++) {
+            stats.recordCall(3000000L, false);
+        }
+        for (int i = 0; i < 10; i ++) {
+            stats.recordCall(100000000L, false);
+        }
+        assertEquals("3ms falls in the bucket up to 4ms.", 4, stats.getPercentile50Millis());
+        assertEquals(128, stats.getPercentile95Millis());
+        assertEquals(100, stats.getMaxMillis());
+        assertEquals(12.7, stats.getMeanMillis(), 0.01);
+        assertEquals(0, OperationStats.getBucket(0));
+        assertEquals(1, OperationStats.getBucket(1));
+        assertEquals(11, OperationStats.getBucket(1024));
+    }
+
+    /**
+     * Creates a ContentStore whose getContent() returns 42 bytes, whose
+     * addContent() reads all of the content and whose getSpaces() fails.
+     */
+    private ContentStore createContentStore() {
+        return (ContentStore) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { ContentStore.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getContent")) {
+                    Content c = new Content();
+                    c.setId((String) args[1]);
+                    c.setStream(new ByteArrayInputStream(new byte[42]));
+                    return c;
+                } else if (method.getName().equals("addContent")) {
+                    InputStream content = (InputStream) args[2];
+                    while (content.read() != -1) {
+                    }
+                    return null;
+                } else if (method.getName().equals("getSpaces")) {
+                    throw new ContentStoreException("Error attempting to get spaces; response code was 503");
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }});
+    }
+}
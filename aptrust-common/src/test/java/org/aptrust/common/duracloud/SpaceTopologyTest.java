@@ -0,0 +1,121 @@
+package org.aptrust.common.duracloud;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.duracloud.client.ContentStore;
+import org.duracloud.domain.Content;
+import org.duracloud.error.NotFoundException;
+import org.junit.Test;
+
+public class SpaceTopologyTest {
+
+    @Test
+    public void testInstitutions() throws Exception {
+        FakeSpaces spaces = new FakeSpaces("uva", "uvastaging", "ncsu", "x-service-out", "unc", "uncstaging");
+        spaces.names.put("uva", "University of Virginia");
+        SpaceTopology topology = new SpaceTopology(spaces.createContentStore(), 0);
+        assertEquals(Arrays.asList(new String[] { "uva", "unc" }), topology.getInstitutionIds());
+        assertTrue(topology.isInstitutionId("uva"));
+        assertTrue("An institution needn't have a name.", topology.isInstitutionId("unc"));
+        assertFalse("An institution must have a staging space.", topology.isInstitutionId("ncsu"));
+        assertFalse(topology.isInstitutionId("uvastaging"));
+        assertEquals("University of Virginia", topology.getInstitutionName("uva"));
+        assertNull(topology.getInstitutionName("unc"));
+
+        int calls = spaces.calls;
+        for (int i = 0; i < 10; i ++) {
+            topology.isInstitutionId("uva");
+            topology.getInstitutionName("uva");
+        }
+        assertEquals("Lookups must not contact DuraCloud.", calls, spaces.calls);
+    }
+
+    @Test
+    public void testSpaceEvents() throws Exception {
+        FakeSpaces spaces = new FakeSpaces("uva", "uvastaging", "ncsu");
+        spaces.names.put("ncsu", "North Carolina State University");
+        final SpaceTopology topology = new SpaceTopology(spaces.createContentStore(), 0);
+        final List<String> added = new ArrayList<String>();
+        final boolean[] lockHeld = new boolean[1];
+        topology.addListener(new SpaceTopology.Listener() {
+            public void institutionAdded(String institutionId) {
+                lockHeld[0] |= Thread.holdsLock(topology);
+                added.add(institutionId);
+            }});
+
+        spaces.spaceIds.add("ncsustaging");
+        topology.notifySpaceCreated("ncsustaging");
+        assertTrue(topology.isInstitutionId("ncsu"));
+        assertEquals("North Carolina State University", topology.getInstitutionName("ncsu"));
+        assertEquals(Arrays.asList(new String[] { "ncsu" }), added);
+        assertFalse("Listeners must be notified outside the topology's lock.", lockHeld[0]);
+
+        topology.refresh();
+        assertEquals("A refresh mustn't report known institutions again.", 1, added.size());
+
+        topology.notifySpaceDeleted("uvastaging");
+        assertFalse(topology.isInstitutionId("uva"));
+        assertTrue(topology.getSpaceIds().contains("uva"));
+    }
+
+    @Test
+    public void testRefreshIfOlderThan() throws Exception {
+        FakeSpaces spaces = new FakeSpaces("uva", "uvastaging");
+        SpaceTopology topology = new SpaceTopology(spaces.createContentStore(), 0);
+        spaces.spaceIds.addAll(Arrays.asList(new String[] { "unc", "uncstaging" }));
+        topology.refreshIfOlderThan(60000);
+        assertFalse(topology.isInstitutionId("unc"));
+        Thread.sleep(5);
+        topology.refreshIfOlderThan(0);
+        assertTrue(topology.isInstitutionId("unc"));
+    }
+
+    /**
+     * A set of spaces exposed through the few ContentStore methods that
+     * SpaceTopology uses.
+     */
+    private static class FakeSpaces implements InvocationHandler {
+
+        private List<String> spaceIds;
+
+        private Map<String, String> names = new HashMap<String, String>();
+
+        private int calls;
+
+        private FakeSpaces(String ... spaceIds) {
+            this.spaceIds = new ArrayList<String>(Arrays.asList(spaceIds));
+        }
+
+        private ContentStore createContentStore() {
+            return (ContentStore) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { ContentStore.class }, this);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            calls ++;
+            if (method.getName().equals("getSpaces")) {
+                return new ArrayList<String>(spaceIds);
+            } else if (method.getName().equals("getContent") && args[1].equals(SpaceTopology.INSTITUTION_INFO_ID)) {
+                String name = names.get(args[0]);
+                if (name == null) {
+                    throw new NotFoundException(args[0] + "/" + args[1]);
+                }
+                Content c = new Content();
+                c.setId((String) args[1]);
+                c.setStream(new ByteArrayInputStream((name + "\n").getBytes("UTF-8")));
+                return c;
+            } else {
+                throw new UnsupportedOperationException(method.getName());
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package org.aptrust.common.duracloud;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.duracloud.client.ContentStore;
+import org.duracloud.error.ContentStoreException;
+import org.duracloud.error.NotFoundException;
+import org.junit.Test;
+
+public class StubbornContentStoreTest {
+
+    @Test
+    public void testClassification() {
+        RetryPolicy policy = new RetryPolicy();
+        assertTrue(policy.isRetryable(new ContentStoreException("Error attempting to get spaces; response code was 503, error message was 'unavailable'")));
+        assertFalse(policy.isRetryable(new ContentStoreException("Error attempting to get spaces; response code was 400, error message was 'bad request'")));
+        assertTrue("Timeouts should be retried.", policy.isRetryable(new ContentStoreException("get spaces", null, null, new SocketTimeoutException("Read timed out"))));
+        assertFalse(policy.isRetryable(new ContentStoreException("get spaces", null, null, new IOException("Unexpected end of stream"))));
+        assertFalse(policy.isRetryable(new NotFoundException("There is no space x.")));
+        assertFalse(policy.isRetryable(new CircuitOpenException("x", 0)));
+        assertEquals(500, RetryPolicy.getStatusCode(new ContentStoreException("Error", new Exception("Failure; response code was 500"))));
+    }
+
+    @Test
+    public void testDelays() {
+        RetryPolicy policy = new RetryPolicy(5, 1000, 6000);
+        long[] nominal = new long[] { 1000, 2000, 4000, 6000, 6000 };
+        for (int retries = 0; retries < nominal.length; retries ++) {
+            for (int i = 0; i < 100; i ++) {
+                long delay = policy.getDelay(retries);
+                assertTrue(delay >= nominal[retries] / 2 && delay <= nominal[retries]);
+            }
+        }
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        FlakyStore flaky = new FlakyStore(2, "response code was 503");
+        CircuitBreaker breaker = new CircuitBreaker("test", 5, 60000);
+        ContentStore cs = new StubbornContentStore(flaky.createContentStore(), new RetryPolicy(3, 1, 10), breaker);
+        assertEquals(Arrays.asList(new String[] { "space" }), cs.getSpaces());
+        assertEquals(3, flaky.calls);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        flaky = new FlakyStore(1, "response code was 404");
+        cs = new StubbornContentStore(flaky.createContentStore(), new RetryPolicy(3, 1, 10), breaker);
+        try {
+            cs.getSpaces();
+            fail("A client error shouldn't be retried.");
+        } catch (ContentStoreException ex) {
+            assertEquals(1, flaky.calls);
+        }
+    }
+
+    @Test
+    public void testCircuitBreaker() throws Exception {
+        FlakyStore flaky = new FlakyStore(Integer.MAX_VALUE, "response code was 503");
+        CircuitBreaker breaker = new CircuitBreaker("test", 3, 100);
+        ContentStore cs = new StubbornContentStore(flaky.createContentStore(), new RetryPolicy(10, 1, 10), breaker);
+        try {
+            cs.getSpaces();
+            fail();
+        } catch (ContentStoreException ex) {
+            assertEquals("Retries should stop once the breaker opens.", 3, flaky.calls);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        try {
+            cs.getSpaces();
+            fail();
+        } catch (CircuitOpenException ex) {
+            assertEquals("Requests should fail without contacting the store.", 3, flaky.calls);
+        }
+
+        Thread.sleep(150);
+        flaky.failures = 0;
+        assertEquals("A trial request should be allowed after the period.", 1, cs.getSpaces().size());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        FlakyStore flaky = new FlakyStore(2, "response code was 500");
+        StubbornContentStore cs = new StubbornContentStore(flaky.createContentStore(), new RetryPolicy(3, 1, 10), new CircuitBreaker("test", 5, 60000));
+        final List<?>[] completed = new List<?>[1];
+        Future<List<String>> f = cs.submit("getSpaces", new StubbornContentStore.ContentStoreOperation<List<String>>() {
+            public List<String> call(ContentStore cs) throws ContentStoreException {
+                return cs.getSpaces();
+            }}, new RetryExecutor.Callback<List<String>>() {
+            public void completed(List<String> result) {
+                completed[0] = result;
+            }
+            public void failed(ContentStoreException ex) {
+            }});
+        assertEquals(Arrays.asList(new String[] { "space" }), f.get(10, TimeUnit.SECONDS));
+        assertEquals(3, flaky.calls);
+        assertEquals(f.get(), completed[0]);
+
+        flaky = new FlakyStore(Integer.MAX_VALUE, "response code was 500");
+        cs = new StubbornContentStore(flaky.createContentStore(), new RetryPolicy(2, 1, 10), new CircuitBreaker("test", 5, 60000));
+        f = cs.submit("getSpaces", new StubbornContentStore.ContentStoreOperation<List<String>>() {
+            public List<String> call(ContentStore cs) throws ContentStoreException {
+                return cs.getSpaces();
+            }}, null);
+        try {
+            f.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof ContentStoreException);
+            assertEquals(3, flaky.calls);
+        }
+    }
+
+    @Test
+    public void testReplayableUpload() throws Exception {
+        File file = File.createTempFile("upload", ".bin");
+        try {
+            FileOutputStream fos = new FileOutputStream(file);
+            fos.write("0123456789".getBytes("UTF-8"));
+            fos.close();
+            FlakyStore flaky = new FlakyStore(2, "response code was 503");
+            StubbornContentStore cs = new StubbornContentStore(flaky.createContentStore(), new RetryPolicy(3, 1, 10), new CircuitBreaker("test", 5, 60000));
+            cs.addContent("space", "range", ContentSource.forRange(file, 2, 5), "text/plain", null, null);
+            assertEquals("Each attempt should read the content from its beginning.", "23456", flaky.uploaded);
+            assertEquals(3, flaky.calls);
+
+            flaky = new FlakyStore(1, "response code was 503");
+            cs = new StubbornContentStore(flaky.createContentStore(), new RetryPolicy(3, 1, 10), new CircuitBreaker("test", 5, 60000));
+            try {
+                cs.addContent("space", "stream", new FileInputStream(file), 10, "text/plain", null, null);
+                fail("A stream that can't be reset shouldn't be uploaded again.");
+            } catch (ContentStoreException ex) {
+                assertEquals(1, flaky.calls);
+            }
+            flaky = new FlakyStore(1, "response code was 503");
+            cs = new StubbornContentStore(flaky.createContentStore(), new RetryPolicy(3, 1, 10), new CircuitBreaker("test", 5, 60000));
+            cs.addContent("space", "stream", new ByteArrayInputStream("0123456789".getBytes("UTF-8")), 10, "text/plain", null, null);
+            assertEquals("0123456789", flaky.uploaded);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * A ContentStore with a single space whose getSpaces() and addContent()
+     * methods fail a given number of times before succeeding.  A failing
+     * addContent() call reads part of the content first.
+     */
+    private static class FlakyStore implements InvocationHandler {
+
+        volatile int failures;
+
+        volatile int calls;
+
+        volatile String uploaded;
+
+        private String message;
+
+        public FlakyStore(int failures, String message) {
+            this.failures = failures;
+            this.message = message;
+        }
+
+        public ContentStore createContentStore() {
+            return (ContentStore) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { ContentStore.class }, this);
+        }
+
+        public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("addContent")) {
+                InputStream content = (InputStream) args[2];
+                if (calls ++ < failures) {
+                    content.read(new byte[3]);
+                    throw new ContentStoreException("Error attempting to add content; " + message);
+                }
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                for (int b = content.read(); b != -1; b = content.read()) {
+                    bytes.write(b);
+                }
+                uploaded = bytes.toString("UTF-8");
+                return null;
+            } else if (method.getName().equals("getSpaces")) {
+                if (calls ++ < failures) {
+                    throw new ContentStoreException("Error attempting to get spaces; " + message);
+                }
+                return Arrays.asList(new String[] { "space" });
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+}
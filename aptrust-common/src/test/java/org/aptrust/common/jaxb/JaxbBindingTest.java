@@ -0,0 +1,77 @@
+package org.aptrust.common.jaxb;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.junit.Test;
+
+public class JaxbBindingTest {
+
+    @Test
+    public void testBindingsAreShared() {
+        assertSame(JaxbBinding.forClasses(Item.class), JaxbBinding.forClasses(Item.class));
+    }
+
+    @Test
+    public void testRoundtrip() throws Exception {
+        JaxbBinding binding = JaxbBinding.forClasses(Item.class);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        binding.marshal(new Item("test"), baos);
+        Item item = binding.unmarshal(new ByteArrayInputStream(baos.toByteArray()), Item.class);
+        assertEquals("test", item.name);
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        final JaxbBinding binding = JaxbBinding.forClasses(Item.class);
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i ++) {
+            final String name = "item-" + i;
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 200; j ++) {
+                            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                            binding.marshal(new Item(name + "-" + j), baos, j % 2 == 0);
+                            Item item = binding.unmarshal(new ByteArrayInputStream(baos.toByteArray()), Item.class);
+                            if (!item.name.equals(name + "-" + j)) {
+                                throw new IllegalStateException("Expected " + name + "-" + j + " but found " + item.name);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        synchronized (errors) {
+                            errors.add(t);
+                        }
+                    }
+                }});
+            t.start();
+            threads.add(t);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    @XmlRootElement(name = "item")
+    public static class Item {
+
+        @XmlAttribute
+        public String name;
+
+        public Item() {
+        }
+
+        public Item(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package org.aptrust.common.solr;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+
+public class BatchingSolrWriterTest {
+
+    @Test
+    public void testBatchesBySize() throws Exception {
+        RecordingSolrServer solr = new RecordingSolrServer();
+        BatchingSolrWriter writer = new BatchingSolrWriter(solr, 10, 0, 0, 0);
+        for (int i = 0; i < 25; i ++) {
+            writer.add(doc(i));
+        }
+        assertEquals(2, solr.batches.size());
+        assertEquals(10, solr.batches.get(0).size());
+        assertEquals(5, writer.getBufferedDocumentCount());
+        assertEquals(0, solr.commits);
+
+        writer.flush();
+        assertEquals(3, solr.batches.size());
+        assertEquals(25, writer.getSentDocumentCount());
+        assertEquals(0, writer.getBufferedDocumentCount());
+        assertEquals("Documents must be sent in the order they were added.", "24", solr.batches.get(2).get(4).getFieldValue("id"));
+    }
+
+    @Test
+    public void testCollectionsAreSentTogether() throws Exception {
+        RecordingSolrServer solr = new RecordingSolrServer();
+        BatchingSolrWriter writer = new BatchingSolrWriter(solr, 3, 0, 0, 0);
+        writer.add(doc(0));
+        List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
+        for (int i = 1; i < 6; i ++) {
+            docs.add(doc(i));
+        }
+        writer.add(docs);
+        assertEquals(1, solr.batches.size());
+        assertEquals(6, solr.batches.get(0).size());
+    }
+
+    @Test
+    public void testCommitOnlyWhenNeeded() throws Exception {
+        RecordingSolrServer solr = new RecordingSolrServer();
+        BatchingSolrWriter writer = new BatchingSolrWriter(solr, 10, 0, 0, 0);
+        writer.add(doc(0));
+        writer.commit();
+        assertEquals(1, solr.batches.size());
+        assertEquals(1, solr.commits);
+
+        writer.commit();
+        assertEquals("A commit with nothing new to commit should not reach solr.", 1, solr.commits);
+
+        writer.add(doc(1));
+        writer.close();
+        assertEquals(2, solr.batches.size());
+        assertEquals(2, solr.commits);
+    }
+
+    @Test
+    public void testScheduledFlushAndCommit() throws Exception {
+        RecordingSolrServer solr = new RecordingSolrServer();
+        BatchingSolrWriter writer = new BatchingSolrWriter(solr, 100, 50, 100, 0);
+        writer.add(doc(0));
+        long end = System.currentTimeMillis() + 5000;
+        while (writer.getCommitCount() == 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, solr.batches.size());
+        assertEquals(1, solr.commits);
+        writer.close();
+    }
+
+    @Test
+    public void testCommitWithin() throws Exception {
+        RecordingSolrServer solr = new RecordingSolrServer();
+        BatchingSolrWriter writer = new BatchingSolrWriter(solr, 1, 0, 100, 5000);
+        writer.add(doc(0));
+        Thread.sleep(300);
+        assertEquals(1, solr.batches.size());
+        assertEquals(5000, solr.lastCommitWithin);
+        assertEquals("Commits should be left to solr when commitWithin is used.", 0, solr.commits);
+    }
+
+    @Test
+    public void testFailedBatchesAreRetained() throws Exception {
+        RecordingSolrServer solr = new RecordingSolrServer();
+        BatchingSolrWriter writer = new BatchingSolrWriter(solr, 2, 0, 0, 0);
+        solr.failures = 1;
+        writer.add(doc(0));
+        writer.add(doc(1));
+        assertEquals(0, solr.batches.size());
+        assertEquals(2, writer.getBufferedDocumentCount());
+
+        writer.add(doc(2));
+        assertEquals(1, solr.batches.size());
+        assertEquals(3, solr.batches.get(0).size());
+        assertEquals("0", solr.batches.get(0).get(0).getFieldValue("id"));
+    }
+
+    @Test
+    public void testDocumentsWithTheSameIdAreCoalesced() throws Exception {
+        RecordingSolrServer solr = new RecordingSolrServer();
+        BatchingSolrWriter writer = new BatchingSolrWriter(solr, 10, 0, 0, 0);
+        writer.add(doc(0));
+        for (int i = 0; i < 5; i ++) {
+            SolrInputDocument progress = doc(1);
+            progress.addField("completed_object_count", i);
+            writer.add(progress);
+        }
+        writer.add(doc(2));
+        assertEquals(3, writer.getBufferedDocumentCount());
+        assertEquals(4, writer.getCoalescedDocumentCount());
+
+        writer.flush();
+        assertEquals(1, solr.batches.size());
+        assertEquals("1", solr.batches.get(0).get(1).getFieldValue("id"));
+        assertEquals("The latest version of a document should be sent.", 4, solr.batches.get(0).get(1).getFieldValue("completed_object_count"));
+    }
+
+    @Test
+    public void testRequeuedDocumentsDontReplaceNewerOnes() throws Exception {
+        RecordingSolrServer solr = new RecordingSolrServer();
+        BatchingSolrWriter writer = new BatchingSolrWriter(solr, 2, 0, 0, 0);
+        solr.failures = 1;
+        writer.add(doc(0));
+        SolrInputDocument older = doc(1);
+        older.addField("completed_object_count", 1);
+        writer.add(older);
+        assertEquals(0, solr.batches.size());
+
+        SolrInputDocument newer = doc(1);
+        newer.addField("completed_object_count", 2);
+        writer.add(newer);
+        assertEquals(1, solr.batches.size());
+        assertEquals(2, solr.batches.get(0).size());
+        assertEquals(2, solr.batches.get(0).get(1).getFieldValue("completed_object_count"));
+    }
+
+    @Test
+    public void testConcurrentCommitsAreShared() throws Exception {
+        final RecordingSolrServer solr = new RecordingSolrServer();
+        solr.commitDelay = 100;
+        final BatchingSolrWriter writer = new BatchingSolrWriter(solr, 100, 0, 0, 0);
+        final int threadCount = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < threadCount; i ++) {
+            final int id = i;
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        writer.add(doc(id));
+                        writer.commit();
+                    } catch (Throwable t) {
+                        synchronized (errors) {
+                            errors.add(t);
+                        }
+                    }
+                }});
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(errors.isEmpty());
+        assertEquals(threadCount, writer.getSentDocumentCount());
+        assertTrue("Concurrent commits should be shared (" + solr.commits + " commits).", solr.commits < threadCount);
+    }
+
+    @Test
+    public void testDeleteFollowsBufferedDocuments() throws Exception {
+        RecordingSolrServer solr = new RecordingSolrServer();
+        BatchingSolrWriter writer = new BatchingSolrWriter(solr, 10, 0, 0, 0);
+        writer.add(doc(0));
+        writer.commit();
+        writer.add(doc(1));
+        writer.deleteById("1");
+        assertEquals("Buffered documents must be sent before the delete.", 2, solr.batches.size());
+        assertEquals("1", solr.deletes.get(0));
+        writer.commit();
+        assertEquals("The delete must be committed.", 2, solr.commits);
+        writer.deleteById("0");
+        writer.commit();
+        assertEquals("A delete alone must be committed.", 3, solr.commits);
+    }
+
+    @Test
+    public void testOnlyRejectedDocumentsAreDropped() throws Exception {
+        RecordingSolrServer solr = new RecordingSolrServer();
+        solr.rejectedId = "5";
+        BatchingSolrWriter writer = new BatchingSolrWriter(solr, 8, 0, 0, 0);
+        for (int i = 0; i < 7; i ++) {
+            writer.add(doc(i));
+        }
+        // fills the buffer, the rejection mustn't reach this caller
+        writer.add(doc(7));
+        assertEquals(0, writer.getBufferedDocumentCount());
+        assertEquals(1, writer.getRejectedDocumentCount());
+        assertEquals("Every other document should be sent.", 7, writer.getSentDocumentCount());
+        List<String> sent = new ArrayList<String>();
+        for (List<SolrInputDocument> batch : solr.batches) {
+            for (SolrInputDocument doc : batch) {
+                sent.add((String) doc.getFieldValue("id"));
+            }
+        }
+        assertFalse(sent.contains("5"));
+        assertEquals(7, sent.size());
+    }
+
+    private static SolrInputDocument doc(int id) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("id", String.valueOf(id));
+        return doc;
+    }
+
+    /**
+     * A SolrServer that records the batches and commits it receives.
+     */
+    private static class RecordingSolrServer extends SolrServer {
+
+        private static final long serialVersionUID = 1L;
+
+        List<List<SolrInputDocument>> batches = new ArrayList<List<SolrInputDocument>>();
+
+        List<String> deletes = new ArrayList<String>();
+
+        int lastCommitWithin;
+
+        int failures;
+
+        String rejectedId;
+
+        volatile int commits;
+
+        long commitDelay;
+
+        public synchronized UpdateResponse add(Collection<SolrInputDocument> docs) throws SolrServerException, IOException {
+            return add(docs, -1);
+        }
+
+        public synchronized UpdateResponse add(Collection<SolrInputDocument> docs, int commitWithinMs) throws SolrServerException, IOException {
+            if (failures > 0) {
+                failures --;
+                throw new SolrServerException("Simulated failure");
+            }
+            for (SolrInputDocument doc : docs) {
+                if (doc.getFieldValue("id").equals(rejectedId)) {
+                    throw new RuntimeException("Simulated rejection of " + rejectedId);
+                }
+            }
+            batches.add(new ArrayList<SolrInputDocument>(docs));
+            lastCommitWithin = commitWithinMs;
+            return new UpdateResponse();
+        }
+
+        public synchronized UpdateResponse deleteById(String id) throws SolrServerException, IOException {
+            deletes.add(id);
+            return new UpdateResponse();
+        }
+
+        public UpdateResponse commit() throws SolrServerException, IOException {
+            try {
+                Thread.sleep(commitDelay);
+            } catch (InterruptedException ex) {
+                throw new SolrServerException(ex);
+            }
+            commits ++;
+            return new UpdateResponse();
+        }
+
+        public NamedList<Object> request(SolrRequest request) throws SolrServerException, IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        public void shutdown() {
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.aptrust.common.solr;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Test;
+
+public class SolrDocumentBinderTest {
+
+    @Test
+    public void testBinderIsShared() {
+        assertSame(SolrDocumentBinder.forClass(ContentSolrDocument.class), SolrDocumentBinder.forClass(ContentSolrDocument.class));
+    }
+
+    @Test
+    public void testDocumentMatchesReflectiveBinding() throws Exception {
+        ContentSolrDocument content = new ContentSolrDocument("uva", "uva:package", "uva-lib:1", "uva-lib:1+DS1+DS1.0", false, new Date());
+        SolrInputDocument doc = AptrustSolrDocument.createValidSolrDocument(content);
+
+        // the fields must be those (and in the order) reflection yields
+        List<String> names = new ArrayList<String>();
+        for (Method method : ContentSolrDocument.class.getMethods()) {
+            if (method.isAnnotationPresent(SolrField.class) && method.getParameterTypes().length == 0) {
+                String name = method.getAnnotation(SolrField.class).name();
+                assertEquals(method.invoke(content), doc.getFieldValue(name));
+                names.add(name);
+            }
+        }
+        assertEquals(names, new ArrayList<String>(doc.getFieldNames()));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        ContentSolrDocument content = new ContentSolrDocument("uva", "uva:package", "uva-lib:1", "uva-lib:1+DS1+DS1.0", false, new Date(0));
+        SolrInputDocument input = AptrustSolrDocument.createValidSolrDocument(content);
+        SolrDocument d = new SolrDocument();
+        for (String name : input.getFieldNames()) {
+            d.setField(name, input.getFieldValue(name));
+        }
+
+        ContentSolrDocument result = new ContentSolrDocument();
+        AptrustSolrDocument.populateFromSolrDocument(result, d);
+        assertEquals("uva", result.getInstitutionId());
+        assertEquals("uva:package", result.getPackageId());
+        assertEquals("uva-lib:1", result.getObjectId());
+        assertEquals(content.getId(), result.getId());
+        assertEquals("true", result.getFailedHealthCheck());
+        assertEquals(new Date(0), result.getHealthCheckDate());
+    }
+
+    @Test
+    public void testWrongFieldType() {
+        SolrDocument d = new SolrDocument();
+        d.setField(AptrustSolrDocument.LAST_HEALTH_CHECK_DATE, "not a date");
+        try {
+            AptrustSolrDocument.populateFromSolrDocument(new ContentSolrDocument(), d);
+            fail("A String was passed to a method taking a Date!");
+        } catch (RuntimeException ex) {
+            assertTrue(ex.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void testMissingRequiredField() {
+        try {
+            AptrustSolrDocument.createValidSolrDocument(new ContentSolrDocument("uva", "uva:package", "uva-lib:1", "uva-lib:1+DS1+DS1.0", true, null));
+            fail("A content record without a health check date was accepted!");
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage().contains(AptrustSolrDocument.LAST_HEALTH_CHECK_DATE));
+        }
+    }
+}
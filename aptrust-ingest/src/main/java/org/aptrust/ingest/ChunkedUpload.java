@@ -0,0 +1,204 @@
+package org.aptrust.ingest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.bind.JAXBException;
+
+import org.aptrust.common.duracloud.Checksums;
+import org.aptrust.common.duracloud.ContentSource;
+import org.aptrust.common.duracloud.StubbornContentStore;
+import org.aptrust.ingest.ips.DuraChunkManifest;
+import org.duracloud.error.ContentStoreException;
+import org.duracloud.error.NotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ *   Uploads a file to DuraCloud in a way that survives failures.  Each
+ *   attempt reads the file (or the part of it being sent) anew, and files
+ *   larger than the chunk size are stored the way DuraCloud's own tools
+ *   store them: as chunks named "[contentId].dura-chunk-NNNN" followed by a
+ *   manifest named "[contentId].dura-manifest" that lists them.
+ * </p>
+ * <p>
+ *   An upload of a chunked file that fails may be resumed by uploading the
+ *   same file again: chunks already stored with the right checksum are not
+ *   sent again.  Because the manifest is stored last, its presence means the
+ *   whole file was stored.
+ * </p>
+ */
+public class ChunkedUpload {
+
+    /**
+     * The chunk size used by the DuraCloud sync tool.
+     */
+    public static final long DEFAULT_CHUNK_SIZE = 1000L * 1024 * 1024;
+
+    private static final String MANIFEST_SUFFIX = ".dura-manifest";
+
+    private static final String CHUNK_INFIX = ".dura-chunk-";
+
+    private static final String CONTENT_CHECKSUM = "content-checksum";
+
+    final Logger logger = LoggerFactory.getLogger(ChunkedUpload.class);
+
+    private StubbornContentStore cs;
+
+    private long chunkSize;
+
+    private int uploadedChunkCount;
+
+    private int resumedChunkCount;
+
+    private AtomicLong sentByteCounter;
+
+    public ChunkedUpload(StubbornContentStore cs) {
+        this(cs, DEFAULT_CHUNK_SIZE);
+    }
+
+    public ChunkedUpload(StubbornContentStore cs, long chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size must be positive!");
+        }
+        this.cs = cs;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Sets a counter to which the size of each chunk (or of the whole file,
+     * if it isn't chunked) is added as soon as it has been stored, so that
+     * the progress of large files can be followed while they're uploaded.
+     * Chunks found already stored are not counted.  The counter may be
+     * shared by several uploads.
+     */
+    public void setSentByteCounter(AtomicLong sentByteCounter) {
+        this.sentByteCounter = sentByteCounter;
+    }
+
+    /**
+     * Uploads the given file.
+     * @param spaceId the space to which the file is added
+     * @param contentId the id of the content (or, if the file is chunked, of
+     * the content the manifest describes)
+     * @param file the file to upload
+     * @param mimetype the mimetype of the file
+     * @param properties the properties of the content (or, if the file is
+     * chunked, of the manifest), may be null
+     * @return the MD5 checksum of the file
+     */
+    public String upload(String spaceId, String contentId, File file, String mimetype, Map<String, String> properties) throws ContentStoreException, IOException, JAXBException {
+        uploadedChunkCount = 0;
+        resumedChunkCount = 0;
+        long size = file.length();
+        int chunkCount = size <= chunkSize ? 1 : (int) ((size + chunkSize - 1) / chunkSize);
+        String[] chunkChecksums = new String[chunkCount];
+        String checksum = computeChecksums(file, chunkChecksums);
+        if (chunkCount == 1) {
+            cs.addContent(spaceId, contentId, ContentSource.forFile(file), mimetype, checksum, properties);
+            countSentBytes(size);
+            return checksum;
+        }
+
+        DuraChunkManifest manifest = new DuraChunkManifest();
+        manifest.header = new DuraChunkManifest.Header();
+        manifest.header.schemaVersion = "0.2";
+        manifest.header.sourceContent = new DuraChunkManifest.SourceContent();
+        manifest.header.sourceContent.contentId = contentId;
+        manifest.header.sourceContent.mimetype = mimetype;
+        manifest.header.sourceContent.byteSize = String.valueOf(size);
+        manifest.header.sourceContent.md5 = checksum;
+        manifest.chunks = new DuraChunkManifest.Chunk[chunkCount];
+        for (int i = 0; i < chunkCount; i ++) {
+            DuraChunkManifest.Chunk chunk = new DuraChunkManifest.Chunk();
+            chunk.chunkId = contentId + CHUNK_INFIX + String.format("%04d", i);
+            chunk.index = i;
+            chunk.byteSize = Math.min(chunkSize, size - i * chunkSize);
+            chunk.md5 = chunkChecksums[i];
+            manifest.chunks[i] = chunk;
+            if (isStored(spaceId, chunk.chunkId, chunk.md5)) {
+                resumedChunkCount ++;
+            } else {
+                cs.addContent(spaceId, chunk.chunkId, ContentSource.forRange(file, i * chunkSize, chunk.byteSize), "application/octet-stream", chunk.md5, null);
+                uploadedChunkCount ++;
+                countSentBytes(chunk.byteSize);
+            }
+        }
+        if (resumedChunkCount > 0) {
+            logger.info("Resumed the upload of " + contentId + ", " + resumedChunkCount + " of " + chunkCount + " chunks were already stored.");
+        }
+        ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+        IngestXmlBindings.CHUNK_MANIFEST.marshal(manifest, manifestBytes);
+        cs.addContent(spaceId, contentId + MANIFEST_SUFFIX, ContentSource.forBytes(manifestBytes.toByteArray()), "application/xml", null, properties);
+        return checksum;
+    }
+
+    /**
+     * Gets the number of chunks sent by the last upload.
+     */
+    public int getUploadedChunkCount() {
+        return uploadedChunkCount;
+    }
+
+    /**
+     * Gets the number of chunks the last upload found already stored.
+     */
+    public int getResumedChunkCount() {
+        return resumedChunkCount;
+    }
+
+    private void countSentBytes(long bytes) {
+        if (sentByteCounter != null) {
+            sentByteCounter.addAndGet(bytes);
+        }
+    }
+
+    private boolean isStored(String spaceId, String chunkId, String checksum) throws ContentStoreException {
+        try {
+            return checksum.equalsIgnoreCase(cs.getContentProperties(spaceId, chunkId).get(CONTENT_CHECKSUM));
+        } catch (NotFoundException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Computes, in a single pass, the checksum of the given file and of each
+     * chunk of it.
+     * @param chunkChecksums populated with the checksums of the chunks
+     * @return the checksum of the whole file
+     */
+    private String computeChecksums(File file, String[] chunkChecksums) throws IOException {
+        MessageDigest whole = Checksums.createDigest();
+        MessageDigest chunk = Checksums.createDigest();
+        byte[] buffer = new byte[65536];
+        InputStream is = new FileInputStream(file);
+        try {
+            int index = 0;
+            long remaining = chunkSize;
+            int read;
+            while ((read = is.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                whole.update(buffer, 0, read);
+                chunk.update(buffer, 0, read);
+                remaining -= read;
+                if (remaining == 0) {
+                    if (index == chunkChecksums.length - 1) {
+                        break;
+                    }
+                    chunkChecksums[index ++] = Checksums.toHex(chunk.digest());
+                    remaining = chunkSize;
+                }
+            }
+            chunkChecksums[index] = Checksums.toHex(chunk.digest());
+        } finally {
+            is.close();
+        }
+        return Checksums.toHex(whole.digest());
+    }
+}
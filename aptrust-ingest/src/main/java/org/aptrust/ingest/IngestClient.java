@@ -6,7 +6,6 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
@@ -18,17 +17,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathFactory;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.output.NullOutputStream;
-import org.aptrust.common.metadata.APTrustMetadata;
+import org.aptrust.common.duracloud.ContentSource;
+import org.aptrust.common.duracloud.InstrumentedContentStore;
+import org.aptrust.common.duracloud.StubbornContentStore;
 import org.aptrust.ingest.api.DigitalObject;
 import org.aptrust.ingest.api.IngestClientConfiguration;
 import org.aptrust.ingest.api.IngestManifest;
@@ -36,7 +33,6 @@ import org.aptrust.ingest.api.IngestPackage;
 import org.aptrust.ingest.dspace.ManifestGenerator;
 import org.aptrust.ingest.fedora.LocalFedoraRepository;
 import org.aptrust.ingest.impl.PropertiesIngestClientConfiguration;
-import org.duracloud.client.ContentStore;
 import org.duracloud.client.ContentStoreImpl;
 import org.duracloud.common.model.Credential;
 import org.duracloud.common.web.RestHttpHelper;
@@ -127,6 +123,8 @@ public class IngestClient {
     private IngestClientConfiguration configuration;
 
     private CommandLineArguments arguments;
+
+    private StubbornContentStore contentStore;
     
     public IngestClient(IngestClientConfiguration c, CommandLineArguments a) {
         configuration = c;
@@ -167,11 +165,51 @@ public class IngestClient {
         queueDataTransfer(m);
     }
 
+    /**
+     * Ingests DSpace AIPs: transfers the manifest describing them and then
+     * the AIPs themselves, several at a time.  The result of each transfer
+     * is recorded in an upload log, along with the id of the manifest, so
+     * that running the same ingest again (once the failures have been dealt
+     * with) adds only the AIPs not yet transferred to the original
+     * operation.  A log whose last run transferred every AIP is only resumed
+     * if "--resume" is given; otherwise it's moved aside and a new operation
+     * is started.
+     * @param m a manifest describing the AIPs
+     * @param aips the AIP zip files
+     * @throws Exception 
+     */
     public void ingestDspace(IngestManifest m, List<File> aips) throws Exception {
         validateOperation(m);
-        m.setId(transferManifest(m));
-        for (File aip : aips) {
-            transferFile(aip);
+        UploadLog log = new UploadLog(arguments.getUploadLog());
+        if (log.getManifestId() != null && (!log.isComplete() || arguments.isResume())) {
+            m.setId(log.getManifestId());
+            System.out.println("Resuming ingest operation " + m.getId() + " (from " + log.getFile() + ").");
+        } else {
+            if (log.getManifestId() != null && !arguments.isDryRun()) {
+                String completedId = log.getManifestId();
+                File rotated = log.rotate();
+                System.out.println("Starting a new ingest operation (the log of completed operation " + completedId + " was moved to " + rotated + ").");
+            }
+            m.setId(transferManifest(m));
+            if (!arguments.isDryRun()) {
+                log.recordManifestId(m.getId());
+            }
+        }
+
+        if (!arguments.isDryRun()) {
+            ParallelUpload upload = new ParallelUpload(getContentStore(), configuration.getDuraCloudSpaceId(), arguments.getThreadCount(), log);
+            ParallelUpload.Summary summary = upload.upload(aips, "application/zip");
+            System.out.println(summary);
+            if (summary.getFailedFiles().isEmpty()) {
+                log.recordCompletion();
+            } else {
+                System.out.println("The following AIPs were not transferred (see " + log.getFile() + "); run the ingest again to retry them:");
+                for (File f : summary.getFailedFiles()) {
+                    System.out.println("  " + f.getName());
+                }
+            }
+        } else {
+            System.out.println("Skipping transfer of " + aips.size() + " AIPs (dry-run).");
         }
     }
 
@@ -212,24 +250,16 @@ public class IngestClient {
         // Step two, generate the manifest and compute its size and hash
         File manifestFile = getLocalManifestFile(contentId);
         HashOutputStream hos = new HashOutputStream(new FileOutputStream(manifestFile));
-        JAXBContext jc = JAXBContext.newInstance(IngestManifest.class, IngestPackage.class, DigitalObject.class, APTrustMetadata.class);
-        Marshaller marshaller = jc.createMarshaller();
-        marshaller.setProperty("jaxb.formatted.output", Boolean.TRUE);
-        marshaller.marshal(m, hos);
+        IngestXmlBindings.MANIFEST.marshal(m, hos, true);
         hos.close();
         
         // Step two, transfer the manifest
         if (!arguments.isDryRun()) {
-            InputStream is = new FileInputStream(manifestFile);
-            try {
-                ContentStore cs = new ContentStoreImpl(configuration.getDuraCloudUrl(), StorageProviderType.valueOf(configuration.getDuraCloudProviderName()), configuration.getDuraCloudProviderId(), new RestHttpHelper(new Credential(configuration.getDuraCloudUsername(), configuration.getDuraCloudPassword())));
-                // TODO: ensure uniqueness of content id, or at least prevent overwrites
-                Map<String, String> properties = new HashMap<String, String>();
-                properties.put("tags", "aptrust_manifest");
-                cs.addContent(configuration.getDuraCloudSpaceId(), contentId, is, manifestFile.length(), "text/xml", hos.getMD5Hash(), properties);
-            } finally {
-                is.close();
-            }
+            StubbornContentStore cs = getContentStore();
+            // TODO: ensure uniqueness of content id, or at least prevent overwrites
+            Map<String, String> properties = new HashMap<String, String>();
+            properties.put("tags", "aptrust_manifest");
+            cs.addContent(configuration.getDuraCloudSpaceId(), contentId, ContentSource.forFile(manifestFile), "text/xml", hos.getMD5Hash(), properties);
         } else {
             System.out.println("Skipping manifest transfer (dry-run).");
         }
@@ -238,26 +268,19 @@ public class IngestClient {
         return id;
     }
     
-    private void transferFile(File f) throws ContentStoreException, IOException, JAXBException {
-        // Step one, generate an ID
-        String contentId = f.getName();
-        HashOutputStream hos = new HashOutputStream(new NullOutputStream());
-        IOUtils.copy(new FileInputStream(f), hos);
-        String md5 = hos.getMD5Hash();
-        
-        // Step two, transfer the file
-        if (!arguments.isDryRun()) {
-            InputStream is = new FileInputStream(f);
-            try {
-                ContentStore cs = new ContentStoreImpl(configuration.getDuraCloudUrl(), StorageProviderType.valueOf(configuration.getDuraCloudProviderName()), configuration.getDuraCloudProviderId(), new RestHttpHelper(new Credential(configuration.getDuraCloudUsername(), configuration.getDuraCloudPassword())));
-                // TODO: ensure uniqueness of content id, or at least prevent overwrites
-                cs.addContent(configuration.getDuraCloudSpaceId(), contentId, is, f.length(), "text/xml", md5, null);
-            } finally {
-                is.close();
-            }
-        } else {
-            System.out.println("Skipping manifest transfer (dry-run).");
+    /**
+     * Gets the content store through which everything is transferred, which
+     * is created when first needed and shared by every transfer.
+     */
+    private synchronized StubbornContentStore getContentStore() {
+        if (contentStore == null) {
+            contentStore = createContentStore();
         }
+        return contentStore;
+    }
+
+    private StubbornContentStore createContentStore() {
+        return new StubbornContentStore(new InstrumentedContentStore(new ContentStoreImpl(configuration.getDuraCloudUrl(), StorageProviderType.valueOf(configuration.getDuraCloudProviderName()), configuration.getDuraCloudProviderId(), new RestHttpHelper(new Credential(configuration.getDuraCloudUsername(), configuration.getDuraCloudPassword())))));
     }
 
     /**
@@ -434,6 +457,12 @@ public class IngestClient {
 
         private String accessConditions="restricted";
 
+        private int threadCount = ParallelUpload.DEFAULT_THREAD_COUNT;
+
+        private File uploadLog;
+
+        private boolean resume;
+
         public CommandLineArguments(String [] originalArgs) {
             dryRun = false;
             List<String> args = processFlags(originalArgs);
@@ -455,8 +484,8 @@ public class IngestClient {
 
         /**
          * Walks through the arguments and pulls out any flags that may have
-         * be included.  The current implementation only identifies "--dry-run"
-         * and "--name".
+         * be included.  The current implementation identifies "--dry-run",
+         * "--name", "--dpn", "--threads", "--upload-log" and "--resume".
          * @param args the command line arguments
          * @return an updated list of command line arguments that excludes any
          * flags that were identified/processed.
@@ -464,16 +493,30 @@ public class IngestClient {
         private List<String> processFlags(String [] args) {
             ArrayList<String> newArgs = new ArrayList<String>();
             boolean nextIsName = false;
+            boolean nextIsThreads = false;
+            boolean nextIsUploadLog = false;
             for (String arg : args) {
                 if (nextIsName) {
                     operationName = arg;
                     nextIsName = false;
+                } else if (nextIsThreads) {
+                    threadCount = Integer.parseInt(arg);
+                    nextIsThreads = false;
+                } else if (nextIsUploadLog) {
+                    uploadLog = new File(arg);
+                    nextIsUploadLog = false;
                 } else if (arg.equals("--dry-run")) {
                     dryRun = true;
                 } else if (arg.equals("--name")) {
                     nextIsName = true;
                 } else if (arg.equals("--dpn")) {
                     dpnBound = true;
+                } else if (arg.equals("--threads")) {
+                    nextIsThreads = true;
+                } else if (arg.equals("--upload-log")) {
+                    nextIsUploadLog = true;
+                } else if (arg.equals("--resume")) {
+                    resume = true;
                 } else {
                     newArgs.add(arg);
                 }
@@ -509,6 +552,30 @@ public class IngestClient {
             return accessConditions;
         }
 
+        /**
+         * Returns the number of AIPs to transfer at once.
+         */
+        public int getThreadCount() {
+            return threadCount;
+        }
+
+        /**
+         * Returns the file in which the result of each AIP transfer is
+         * recorded, which unless otherwise specified is
+         * "aptrust-upload-log.tsv" in the AIP directory.
+         */
+        public File getUploadLog() {
+            return uploadLog != null ? uploadLog : new File(dspaceAipDir, "aptrust-upload-log.tsv");
+        }
+
+        /**
+         * Returns true if the operation in the upload log should be resumed
+         * even though its last run transferred every AIP.
+         */
+        public boolean isResume() {
+            return resume;
+        }
+
         /**
          * Returns the provided fedora URL.  If the provided URL included a 
          * trailing slash, that slash is omitted by this response.  For example
@@ -547,6 +614,10 @@ public class IngestClient {
                     + "\n --aip-dir [aip dir]\n"
                     + "  Optional Flags:\n    --dpn (sends all packages to DPN)\n"
                     + "    --name \"name\" (names the ingest operation)\n"
+                    + "    --threads n (the number of AIPs to transfer at once, " + ParallelUpload.DEFAULT_THREAD_COUNT + " by default)\n"
+                    + "    --upload-log file (records the result of each transfer so that a rerun retries only\n"
+                    + "                       the failures, aptrust-upload-log.tsv in the AIP dir by default)\n"
+                    + "    --resume (adds the AIPs to the operation in the upload log even if it was completed)\n"
                     + (errorMessage != null ? "\n" + errorMessage : "");
         }
 
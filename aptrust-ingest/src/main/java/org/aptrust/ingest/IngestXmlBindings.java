@@ -0,0 +1,41 @@
+package org.aptrust.ingest;
+
+import org.aptrust.common.jaxb.JaxbBinding;
+import org.aptrust.common.metadata.APTrustMetadata;
+import org.aptrust.ingest.api.DigitalObject;
+import org.aptrust.ingest.api.IngestManifest;
+import org.aptrust.ingest.api.IngestPackage;
+import org.aptrust.ingest.fedora.APTrustRelsExt;
+import org.aptrust.ingest.ips.DuraChunkManifest;
+import org.aptrust.ingest.ips.PackageRELSEXT;
+
+/**
+ * The JAXB bindings for each of the XML formats read or written during
+ * ingest.  Each is built once and may be used from any thread.
+ */
+public final class IngestXmlBindings {
+
+    /**
+     * The binding for IngestManifest (and the classes it contains).
+     */
+    public static final JaxbBinding MANIFEST = JaxbBinding.forClasses(IngestManifest.class, IngestPackage.class, DigitalObject.class, APTrustMetadata.class);
+
+    /**
+     * The binding for the RELS-EXT datastream written for new packages.
+     */
+    public static final JaxbBinding PACKAGE_RELS_EXT = JaxbBinding.forClasses(PackageRELSEXT.class);
+
+    /**
+     * The binding for the manifests DuraCloud writes for chunked content.
+     */
+    public static final JaxbBinding CHUNK_MANIFEST = JaxbBinding.forClasses(DuraChunkManifest.class);
+
+    /**
+     * The binding for the RELS-EXT datastream of a package in a local
+     * fedora repository.
+     */
+    public static final JaxbBinding APTRUST_RELS_EXT = JaxbBinding.forClasses(APTrustRelsExt.class);
+
+    private IngestXmlBindings() {
+    }
+}
@@ -0,0 +1,235 @@
+package org.aptrust.ingest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.aptrust.common.duracloud.StubbornContentStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ *   Uploads many files to one space, several at a time, through a single
+ *   shared StubbornContentStore.  Each file is stored by a ChunkedUpload
+ *   under its name, and the result of each is recorded in an UploadLog;
+ *   files the log shows were already uploaded (and haven't changed since)
+ *   are skipped, so running the same upload again retries only the files
+ *   that failed or weren't reached.
+ * </p>
+ * <p>
+ *   While the upload runs, the number of files stored, the bytes sent (as
+ *   each chunk of a large file is stored, rather than once the whole file
+ *   has been) and the aggregate throughput are printed periodically.  A file that fails
+ *   (after the retries StubbornContentStore makes) doesn't stop the others.
+ * </p>
+ */
+public class ParallelUpload {
+
+    public static final int DEFAULT_THREAD_COUNT = 4;
+
+    public static final long DEFAULT_PROGRESS_INTERVAL_MS = 10000;
+
+    final Logger logger = LoggerFactory.getLogger(ParallelUpload.class);
+
+    private StubbornContentStore cs;
+
+    private String spaceId;
+
+    private int threadCount;
+
+    private UploadLog log;
+
+    private long chunkSize = ChunkedUpload.DEFAULT_CHUNK_SIZE;
+
+    private long progressIntervalMs = DEFAULT_PROGRESS_INTERVAL_MS;
+
+    private AtomicInteger completedCount = new AtomicInteger();
+
+    private AtomicInteger failedCount = new AtomicInteger();
+
+    private AtomicLong completedBytes = new AtomicLong();
+
+    /**
+     * The bytes sent so far, counted chunk by chunk.
+     */
+    private AtomicLong sentBytes = new AtomicLong();
+
+    private List<File> failedFiles = Collections.synchronizedList(new ArrayList<File>());
+
+    /**
+     * @param cs the content store, shared by every upload
+     * @param spaceId the space to which the files are added
+     * @param threadCount the number of files uploaded at once
+     * @param log the log in which the result of each upload is recorded
+     */
+    public ParallelUpload(StubbornContentStore cs, String spaceId, int threadCount, UploadLog log) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("At least one thread is required!");
+        }
+        this.cs = cs;
+        this.spaceId = spaceId;
+        this.threadCount = threadCount;
+        this.log = log;
+    }
+
+    public void setChunkSize(long chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Sets the interval at which progress is printed.
+     */
+    public void setProgressIntervalMs(long progressIntervalMs) {
+        this.progressIntervalMs = progressIntervalMs;
+    }
+
+    /**
+     * Uploads each of the given files not already recorded as uploaded, and
+     * returns once every one has been stored or has failed.
+     * @return a summary of the upload
+     */
+    public Summary upload(List<File> files, final String mimetype) throws InterruptedException {
+        completedCount.set(0);
+        failedCount.set(0);
+        completedBytes.set(0);
+        sentBytes.set(0);
+        failedFiles.clear();
+        List<File> pending = new ArrayList<File>();
+        long pendingBytes = 0;
+        for (File f : files) {
+            if (!log.isUploaded(f.getName(), f)) {
+                pending.add(f);
+                pendingBytes += f.length();
+            }
+        }
+        int skipped = files.size() - pending.size();
+        System.out.println("Uploading " + pending.size() + " files (" + formatBytes(pendingBytes) + ") with " + threadCount + " threads"
+                + (skipped > 0 ? ", skipping " + skipped + " already uploaded according to " + log.getFile() : "") + ".");
+
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            private int count = 0;
+            public synchronized Thread newThread(Runnable r) {
+                return new Thread(r, "parallel-upload-" + (++ count));
+            }});
+        try {
+            for (final File f : pending) {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        uploadFile(f, mimetype);
+                    }});
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(progressIntervalMs, TimeUnit.MILLISECONDS)) {
+                printProgress(pending.size(), pendingBytes, start);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        printProgress(pending.size(), pendingBytes, start);
+        return new Summary(completedCount.get(), skipped, new ArrayList<File>(failedFiles), completedBytes.get(), System.currentTimeMillis() - start);
+    }
+
+    private void uploadFile(File f, String mimetype) {
+        String contentId = f.getName();
+        long start = System.currentTimeMillis();
+        try {
+            ChunkedUpload upload = new ChunkedUpload(cs, chunkSize);
+            upload.setSentByteCounter(sentBytes);
+            String checksum = upload.upload(spaceId, contentId, f, mimetype, null);
+            log.recordSuccess(contentId, f, checksum, System.currentTimeMillis() - start);
+            completedCount.incrementAndGet();
+            completedBytes.addAndGet(f.length());
+        } catch (Exception ex) {
+            logger.warn("Upload of " + f + " failed!", ex);
+            failedCount.incrementAndGet();
+            failedFiles.add(f);
+            try {
+                log.recordFailure(contentId, f, ex.getMessage(), System.currentTimeMillis() - start);
+            } catch (IOException logEx) {
+                logger.error("Unable to record the failure of " + f + " in " + log.getFile() + "!", logEx);
+            }
+        }
+    }
+
+    private void printProgress(int totalCount, long totalBytes, long start) {
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        long bytes = sentBytes.get();
+        System.out.println("  " + completedCount.get() + "/" + totalCount + " files (" + failedCount.get() + " failed), "
+                + formatBytes(bytes) + "/" + formatBytes(totalBytes) + " sent, "
+                + formatBytes(bytes * 1000 / elapsed) + "/s, " + (elapsed / 1000) + "s elapsed");
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        } else if (bytes < 1024L * 1024 * 1024) {
+            return String.format("%.1f MB", bytes / (1024.0 * 1024));
+        } else {
+            return String.format("%.2f GB", bytes / (1024.0 * 1024 * 1024));
+        }
+    }
+
+    /**
+     * The outcome of an upload.
+     */
+    public static class Summary {
+
+        private int uploadedCount;
+
+        private int skippedCount;
+
+        private List<File> failedFiles;
+
+        private long uploadedBytes;
+
+        private long elapsedMs;
+
+        public Summary(int uploadedCount, int skippedCount, List<File> failedFiles, long uploadedBytes, long elapsedMs) {
+            this.uploadedCount = uploadedCount;
+            this.skippedCount = skippedCount;
+            this.failedFiles = failedFiles;
+            this.uploadedBytes = uploadedBytes;
+            this.elapsedMs = elapsedMs;
+        }
+
+        public int getUploadedCount() {
+            return uploadedCount;
+        }
+
+        /**
+         * Gets the number of files skipped because they were already
+         * uploaded.
+         */
+        public int getSkippedCount() {
+            return skippedCount;
+        }
+
+        public List<File> getFailedFiles() {
+            return failedFiles;
+        }
+
+        public long getUploadedBytes() {
+            return uploadedBytes;
+        }
+
+        public long getElapsedMs() {
+            return elapsedMs;
+        }
+
+        public String toString() {
+            return uploadedCount + " files (" + formatBytes(uploadedBytes) + ") uploaded in " + (elapsedMs / 1000) + "s ("
+                    + formatBytes(uploadedBytes * 1000 / Math.max(1, elapsedMs)) + "/s), " + skippedCount + " skipped, "
+                    + failedFiles.size() + " failed";
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package org.aptrust.ingest;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ *   A record, kept in a tab-separated file, of the result of each attempt to
+ *   upload a file, so that a rerun of an interrupted or partly failed upload
+ *   can skip the files already stored.  Each line is appended (and flushed)
+ *   as soon as the attempt it records is over, and gives:
+ * </p>
+ * <ul>
+ *   <li>the result ("OK" or "FAILED")</li>
+ *   <li>the contentId</li>
+ *   <li>the size and last modified date of the file, so that a file changed
+ *       since it was uploaded is uploaded again</li>
+ *   <li>the MD5 checksum of the file (when the upload succeeded)</li>
+ *   <li>the number of milliseconds the attempt took</li>
+ *   <li>the error message (when the upload failed)</li>
+ * </ul>
+ * <p>
+ *   The log also records the id of the ingest manifest to which the files
+ *   belong, in a line beginning "#manifest", so that a rerun adds its files
+ *   to the original ingest operation rather than starting a new one, and
+ *   the completion of an upload in which every file was stored, in a line
+ *   beginning "#complete".  A log whose last upload completed may be moved
+ *   aside (see rotate()) so that the next upload starts a new operation.
+ * </p>
+ */
+public class UploadLog {
+
+    private static final String OK = "OK";
+
+    private static final String FAILED = "FAILED";
+
+    private static final String MANIFEST = "#manifest";
+
+    private static final String COMPLETE = "#complete";
+
+    private File file;
+
+    private String manifestId;
+
+    /**
+     * True if completion was the last thing recorded.
+     */
+    private boolean complete;
+
+    /**
+     * The last line recorded for each contentId, split into columns.
+     */
+    private Map<String, String[]> lastResults;
+
+    /**
+     * Opens the log in the given file, reading the results of any previous
+     * run from it.
+     */
+    public UploadLog(File file) throws IOException {
+        this.file = file;
+        lastResults = new HashMap<String, String[]>();
+        if (file.exists()) {
+            BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String line = null;
+                while ((line = r.readLine()) != null) {
+                    String[] cols = line.split("\t");
+                    if (cols.length == 2 && cols[0].equals(MANIFEST)) {
+                        manifestId = cols[1];
+                        complete = false;
+                    } else if (cols[0].equals(COMPLETE)) {
+                        complete = true;
+                    } else if (cols.length >= 4) {
+                        lastResults.put(cols[1], cols);
+                        complete = false;
+                    }
+                }
+            } finally {
+                r.close();
+            }
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Gets the id of the ingest manifest recorded in this log, or null if
+     * none has been recorded.
+     */
+    public synchronized String getManifestId() {
+        return manifestId;
+    }
+
+    public synchronized void recordManifestId(String id) throws IOException {
+        manifestId = id;
+        append(new String[] { MANIFEST, id });
+    }
+
+    /**
+     * Determines whether the last thing recorded in this log was the
+     * completion of an upload, rather than a failure or an upload that was
+     * interrupted.
+     */
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Records that an upload finished with every file stored.
+     */
+    public synchronized void recordCompletion() throws IOException {
+        append(new String[] { COMPLETE, String.valueOf(System.currentTimeMillis()) });
+    }
+
+    /**
+     * Moves the log file aside (appending ".1", ".2", etc. to its name) and
+     * empties this log, so that what's recorded from now on is recorded in a
+     * new file.
+     * @return the file to which the old log was moved, or null if there was
+     * no log file
+     */
+    public synchronized File rotate() throws IOException {
+        File rotated = null;
+        if (file.exists()) {
+            for (int i = 1; rotated == null || rotated.exists(); i ++) {
+                rotated = new File(file.getPath() + "." + i);
+            }
+            if (!file.renameTo(rotated)) {
+                throw new IOException("Unable to move " + file + " to " + rotated + "!");
+            }
+        }
+        manifestId = null;
+        complete = false;
+        lastResults.clear();
+        return rotated;
+    }
+
+    /**
+     * Determines whether the given file was last recorded as uploaded under
+     * the given contentId, and hasn't changed since.
+     */
+    public synchronized boolean isUploaded(String contentId, File f) {
+        String[] cols = lastResults.get(contentId);
+        return cols != null && cols[0].equals(OK) && cols[2].equals(String.valueOf(f.length())) && cols[3].equals(String.valueOf(f.lastModified()));
+    }
+
+    public synchronized void recordSuccess(String contentId, File f, String checksum, long millis) throws IOException {
+        append(new String[] { OK, contentId, String.valueOf(f.length()), String.valueOf(f.lastModified()), checksum, String.valueOf(millis) });
+    }
+
+    public synchronized void recordFailure(String contentId, File f, String message, long millis) throws IOException {
+        append(new String[] { FAILED, contentId, String.valueOf(f.length()), String.valueOf(f.lastModified()), "", String.valueOf(millis), String.valueOf(message).replaceAll("\\s+", " ") });
+    }
+
+    private void append(String[] cols) throws IOException {
+        StringBuffer line = new StringBuffer();
+        for (String col : cols) {
+            line.append(line.length() == 0 ? "" : "\t").append(col);
+        }
+        line.append("\n");
+        Writer w = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+        try {
+            w.write(line.toString());
+        } finally {
+            w.close();
+        }
+        if (cols.length > 2) {
+            lastResults.put(cols[1], cols);
+        }
+        complete = cols[0].equals(COMPLETE);
+    }
+}
@@ -0,0 +1,139 @@
+package org.aptrust.ingest.api;
+
+/**
+ * An interface that defines methods for the tunable settings of the Ingest
+ * Processing Service.  Every value has a reasonable default so that an
+ * installation need only specify the values it wishes to change.
+ */
+public interface IngestProcessingConfiguration {
+
+    /**
+     * Gets the number of worker threads that process DuraCloud change events.
+     * Events for a single space are always processed in order, so this is the
+     * maximum number of spaces that will be processed in parallel.
+     */
+    public int getDispatchThreadCount();
+
+    /**
+     * Gets the number of seconds between log entries summarizing the depth
+     * and lag of each space's event queue.  A value of zero or less disables
+     * the periodic summary.
+     */
+    public int getDispatchStatusIntervalSeconds();
+
+    /**
+     * Gets the directory in which the ingest processing service keeps state
+     * that should survive a restart (such as the analysis of the content in
+     * each staging space), or null if no state should be persisted.
+     */
+    public String getStateDirectory();
+
+    /**
+     * Gets the number of changes to a persisted content analysis cache after
+     * which its complete state is written to a new snapshot.
+     */
+    public int getCacheSnapshotInterval();
+
+    /**
+     * Returns true if the analysis of each staging space's content should be
+     * held in the compact representation (CompactContentAnalysisCache), which
+     * uses a fraction of the memory of InMemoryContentAnalysisCache.
+     */
+    public boolean isCompactCacheEnabled();
+
+    /**
+     * Gets the number of Solr documents that are buffered before being sent
+     * to Solr in a single request.
+     */
+    public int getSolrBatchSize();
+
+    /**
+     * Gets the maximum number of milliseconds that a Solr document is
+     * buffered before being sent to Solr.
+     */
+    public int getSolrFlushIntervalMillis();
+
+    /**
+     * Gets the maximum number of milliseconds that a document sent to Solr
+     * waits to be committed.  This is ignored if a "commitWithin" time is
+     * configured.
+     */
+    public int getSolrCommitIntervalMillis();
+
+    /**
+     * Gets the "commitWithin" time (in milliseconds) sent to Solr with each
+     * batch of documents, leaving the scheduling of commits to Solr, or zero
+     * if the Ingest Processing Service should schedule commits itself.
+     */
+    public int getSolrCommitWithinMillis();
+
+    /**
+     * Gets the number of threads (shared by all staging spaces) that copy
+     * content from staging to production spaces and delete it from staging.
+     */
+    public int getTransferThreadCount();
+
+    /**
+     * Gets the maximum number of parsed ingest manifests kept in memory.
+     */
+    public int getManifestCacheSize();
+
+    /**
+     * Gets the number of batches of a fixity report that are applied to Solr
+     * in parallel.
+     */
+    public int getFixityPartitionCount();
+
+    /**
+     * Gets the number of lines of a fixity report whose Solr records are
+     * fetched and updated together.
+     */
+    public int getFixityBatchSize();
+
+    /**
+     * Gets the number of days after which a fixity report rewrites the Solr
+     * record of content whose outcome is unchanged, to refresh its last
+     * health check date.  This should be well within the fixity window.
+     */
+    public int getFixityRefreshDays();
+
+    /**
+     * Gets the number of items whose fixity is verified in parallel when the
+     * content is verified locally (rather than by DuraCloud).
+     */
+    public int getFixityVerifierThreadCount();
+
+    /**
+     * Gets the number of days within which the fixity of every item should
+     * be verified by the fixity scheduler.
+     */
+    public int getFixityWindowDays();
+
+    /**
+     * Gets the number of megabytes of content the fixity scheduler may read
+     * each hour.  A value of zero or less disables the scheduler.
+     */
+    public int getFixityMegabytesPerHour();
+
+    /**
+     * Gets the number of minutes between each round of scheduled fixity
+     * verification.
+     */
+    public int getFixityScheduleIntervalMinutes();
+
+    /**
+     * Gets the number of seconds between complete refreshes of the list of
+     * spaces and the institutions they represent.  Spaces created in between
+     * are noticed as they are created.  A value of zero or less disables the
+     * periodic refresh.
+     */
+    public int getTopologyRefreshIntervalSeconds();
+
+    /**
+     * Gets the number of seconds between log messages summarizing the calls
+     * made to DuraCloud (which are also available over JMX).  A value of zero
+     * or less disables the summary.
+     */
+    public int getContentStoreMetricsLogIntervalSeconds();
+
+}
@@ -0,0 +1,217 @@
+package org.aptrust.ingest.dspace;
+
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * <p>
+ *   The few values from the METS document of a DSpace AIP that are needed to
+ *   identify it: the OBJID, the MODS title and the version of DSpace that
+ *   created it.
+ * </p>
+ * <p>
+ *   {@link #read} finds these in a single streaming pass rather than by
+ *   building a DOM.  Only the metsHdr and dmdSec elements are examined (the
+ *   fileSec, structMap and administrative metadata, which make up most of a
+ *   large AIP's METS, are skipped without being retained) and reading stops
+ *   as soon as all three values have been found.  Each value is the same as
+ *   the corresponding XPath below would select:
+ * </p>
+ * <ul>
+ *   <li>/mets:mets/@OBJID</li>
+ *   <li>/mets:mets/mets:dmdSec/mets:mdWrap[@MDTYPE='MODS']/mets:xmlData/mods:mods/mods:titleInfo/mods:title</li>
+ *   <li>/mets:mets/mets:metsHdr/mets:agent[@OTHERTYPE='DSpace Software']/mets:name
+ *       (without the leading "DSpace ")</li>
+ * </ul>
+ */
+public class METSSummary {
+
+    private static final String METS_NS = "http://www.loc.gov/METS/";
+
+    private static final String MODS_NS = "http://www.loc.gov/mods/v3";
+
+    private static final Step[] TITLE_PATH = new Step[] {
+        new Step(METS_NS, "mdWrap", "MDTYPE", "MODS"),
+        new Step(METS_NS, "xmlData", null, null),
+        new Step(MODS_NS, "mods", null, null),
+        new Step(MODS_NS, "titleInfo", null, null),
+        new Step(MODS_NS, "title", null, null) };
+
+    private static final Step[] VERSION_PATH = new Step[] {
+        new Step(METS_NS, "agent", "OTHERTYPE", "DSpace Software"),
+        new Step(METS_NS, "name", null, null) };
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private String id;
+
+    private String title;
+
+    private String dspaceVersion;
+
+    private METSSummary(String id, String title, String dspaceVersion) {
+        this.id = id;
+        this.title = title;
+        this.dspaceVersion = dspaceVersion;
+    }
+
+    /**
+     * Gets the OBJID, or an empty string if there is none.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Gets the MODS title, or an empty string if there is none.
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Gets the DSpace version, or an empty string if it isn't recorded.
+     */
+    public String getDspaceVersion() {
+        return dspaceVersion;
+    }
+
+    /**
+     * Reads the summary of the METS document in the given stream, which is
+     * not closed (and which may not have been read to the end).
+     * @throws XMLStreamException if the stream isn't well-formed XML or
+     * doesn't contain a METS document
+     */
+    public static METSSummary read(InputStream mets) throws XMLStreamException {
+        XMLStreamReader r = FACTORY.createXMLStreamReader(mets);
+        try {
+            r.nextTag();
+            if (!METS_NS.equals(r.getNamespaceURI()) || !r.getLocalName().equals("mets")) {
+                throw new XMLStreamException("Expected a METS document, found " + r.getName() + "!", r.getLocation());
+            }
+            String id = r.getAttributeValue(null, "OBJID");
+            String title = null;
+            String version = null;
+            while (title == null || version == null) {
+                int event = r.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (version == null && isElement(r, METS_NS, "metsHdr")) {
+                        version = readFirst(r, VERSION_PATH, 0);
+                    } else if (title == null && isElement(r, METS_NS, "dmdSec")) {
+                        title = readFirst(r, TITLE_PATH, 0);
+                    } else {
+                        skipElement(r);
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    // the end of the METS document
+                    break;
+                }
+            }
+            return new METSSummary(id == null ? "" : id, title == null ? "" : title, version == null ? "" : version.replace("DSpace ", ""));
+        } finally {
+            r.close();
+        }
+    }
+
+    /**
+     * Reads the remainder of the element on whose start the reader is
+     * positioned, returning the text of the first descendant found by
+     * following the given path (from the given index) or null if there is
+     * none.
+     */
+    private static String readFirst(XMLStreamReader r, Step[] path, int index) throws XMLStreamException {
+        String found = null;
+        while (true) {
+            int event = r.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (found == null && path[index].matches(r)) {
+                    found = index == path.length - 1 ? readText(r) : readFirst(r, path, index + 1);
+                } else {
+                    skipElement(r);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return found;
+            }
+        }
+    }
+
+    /**
+     * Reads the text content (including that of any descendants) of the
+     * element on whose start the reader is positioned.
+     */
+    private static String readText(XMLStreamReader r) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        int depth = 1;
+        while (depth > 0) {
+            int event = r.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth ++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth --;
+            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE) {
+                text.append(r.getText());
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Advances the reader past the end of the element whose start it is
+     * positioned on.
+     */
+    private static void skipElement(XMLStreamReader r) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = r.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth ++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth --;
+            }
+        }
+    }
+
+    private static boolean isElement(XMLStreamReader r, String namespace, String localName) {
+        return namespace.equals(r.getNamespaceURI()) && localName.equals(r.getLocalName());
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * One step of a path: an element name, and optionally the value one of
+     * its attributes must have.
+     */
+    private static final class Step {
+
+        private String namespace;
+
+        private String localName;
+
+        private String attributeName;
+
+        private String attributeValue;
+
+        private Step(String namespace, String localName, String attributeName, String attributeValue) {
+            this.namespace = namespace;
+            this.localName = localName;
+            this.attributeName = attributeName;
+            this.attributeValue = attributeValue;
+        }
+
+        private boolean matches(XMLStreamReader r) {
+            return isElement(r, namespace, localName)
+                    && (attributeName == null || attributeValue.equals(r.getAttributeValue(null, attributeName)));
+        }
+    }
+}
@@ -7,12 +7,11 @@ import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Date;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
 
 import org.aptrust.common.exception.AptrustException;
 import org.aptrust.common.metadata.APTrustMetadata;
+import org.aptrust.ingest.IngestXmlBindings;
 import org.aptrust.ingest.api.DigitalObject;
 import org.aptrust.ingest.api.DigitalObject.Type;
 import org.aptrust.ingest.api.IngestManifest;
@@ -43,10 +42,7 @@ public class ManifestGenerator {
         
         IngestManifest m = generateManifest(username, packageDir, dpnBound, accessConditions, "A manifest automatically generated by the ManifestGenerator tool.");
         
-        JAXBContext jc = JAXBContext.newInstance(IngestManifest.class, IngestPackage.class, DigitalObject.class, APTrustMetadata.class);
-        Marshaller marshaller = jc.createMarshaller();
-        marshaller.setProperty("jaxb.formatted.output", Boolean.TRUE);
-        marshaller.marshal(m, new FileOutputStream(args[1]));
+        IngestXmlBindings.MANIFEST.marshal(m, new FileOutputStream(args[1]), true);
         System.out.println("\nWrote manifest: " + new File(args[1]).getAbsolutePath());
     }
 
@@ -6,11 +6,10 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
 
 import org.aptrust.common.fedora.APTrustFedoraConstants;
+import org.aptrust.ingest.IngestXmlBindings;
 import org.aptrust.ingest.api.DigitalObject;
 import org.aptrust.ingest.api.IngestPackage;
 
@@ -44,9 +43,7 @@ public class FedoraIngestPackage extends IngestPackage {
         version = fedoraVersion;
         
         // Fetch and parse the metadata
-        JAXBContext jc = JAXBContext.newInstance(APTrustRelsExt.class);
-        Unmarshaller unmarshaller = jc.createUnmarshaller();
-        APTrustRelsExt relsExt = (APTrustRelsExt) unmarshaller.unmarshal(FedoraClient.getDatastreamDissemination(pid, "RELS-EXT").execute(fc).getEntityInputStream());
+        APTrustRelsExt relsExt = IngestXmlBindings.APTRUST_RELS_EXT.unmarshal(FedoraClient.getDatastreamDissemination(pid, "RELS-EXT").execute(fc).getEntityInputStream(), APTrustRelsExt.class);
         setMetadata(relsExt.getDescription());
 
         // query the digital objects
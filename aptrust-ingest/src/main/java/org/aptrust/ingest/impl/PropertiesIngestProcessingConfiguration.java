@@ -0,0 +1,113 @@
+package org.aptrust.ingest.impl;
+
+import java.util.Properties;
+
+import org.aptrust.ingest.api.IngestProcessingConfiguration;
+
+/**
+ * An implementation of IngestProcessingConfiguration that gets its values from
+ * well-named properties in a Properties object, falling back to defaults for
+ * any property that isn't specified.
+ */
+public class PropertiesIngestProcessingConfiguration implements IngestProcessingConfiguration {
+
+    private Properties p;
+
+    public PropertiesIngestProcessingConfiguration(Properties properties) {
+        p = properties;
+    }
+
+    public int getDispatchThreadCount() {
+        return getIntProperty("ips-dispatch-threads", 4);
+    }
+
+    public int getDispatchStatusIntervalSeconds() {
+        return getIntProperty("ips-dispatch-status-interval", 60);
+    }
+
+    public String getStateDirectory() {
+        String value = p.getProperty("ips-state-dir");
+        return value == null || value.trim().length() == 0 ? null : value.trim();
+    }
+
+    public int getCacheSnapshotInterval() {
+        return getIntProperty("ips-cache-snapshot-interval", 10000);
+    }
+
+    public boolean isCompactCacheEnabled() {
+        String value = p.getProperty("ips-compact-cache");
+        return value == null || value.trim().length() == 0 || Boolean.parseBoolean(value.trim());
+    }
+
+    public int getSolrBatchSize() {
+        return getIntProperty("ips-solr-batch-size", 100);
+    }
+
+    public int getSolrFlushIntervalMillis() {
+        return getIntProperty("ips-solr-flush-interval", 1000);
+    }
+
+    public int getSolrCommitIntervalMillis() {
+        return getIntProperty("ips-solr-commit-interval", 10000);
+    }
+
+    public int getSolrCommitWithinMillis() {
+        return getIntProperty("ips-solr-commit-within", 0);
+    }
+
+    public int getTransferThreadCount() {
+        return getIntProperty("ips-transfer-threads", 8);
+    }
+
+    public int getManifestCacheSize() {
+        return getIntProperty("ips-manifest-cache-size", 100);
+    }
+
+    public int getFixityPartitionCount() {
+        return getIntProperty("ips-fixity-partitions", 4);
+    }
+
+    public int getFixityBatchSize() {
+        return getIntProperty("ips-fixity-batch-size", 200);
+    }
+
+    public int getFixityRefreshDays() {
+        return getIntProperty("ips-fixity-refresh-days", 30);
+    }
+
+    public int getFixityVerifierThreadCount() {
+        return getIntProperty("ips-fixity-verifier-threads", 2);
+    }
+
+    public int getFixityWindowDays() {
+        return getIntProperty("ips-fixity-window-days", 90);
+    }
+
+    public int getFixityMegabytesPerHour() {
+        return getIntProperty("ips-fixity-megabytes-per-hour", 0);
+    }
+
+    public int getFixityScheduleIntervalMinutes() {
+        return getIntProperty("ips-fixity-schedule-interval", 15);
+    }
+
+    public int getTopologyRefreshIntervalSeconds() {
+        return getIntProperty("ips-topology-refresh-interval", 600);
+    }
+
+    public int getContentStoreMetricsLogIntervalSeconds() {
+        return getIntProperty("ips-content-store-metrics-log-interval", 300);
+    }
+
+    private int getIntProperty(String name, int defaultValue) {
+        String value = p.getProperty(name);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Property \"" + name + "\" must be an integer! (found \"" + value + "\")", ex);
+        }
+    }
+}
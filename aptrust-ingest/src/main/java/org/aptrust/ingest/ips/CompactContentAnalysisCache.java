@@ -0,0 +1,511 @@
+package org.aptrust.ingest.ips;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ *   A ContentAnalysisCache for staging spaces with millions of items.  It
+ *   tracks object completion the same way as InMemoryContentAnalysisCache
+ *   (with missing part and missing chunk counts and reverse indexes, so that
+ *   isObjectComplete() takes constant time) but stores its state far more
+ *   compactly.
+ * </p>
+ * <p>
+ *   Each contentId and objectId is interned in a ContentIdDictionary, which
+ *   stores it as a sequence of shared components and assigns it a small int
+ *   handle.  Everything else is kept in bit sets and primitive arrays indexed
+ *   by those handles, so there is no per-entry object overhead and no String
+ *   is retained for any id.  Handles that are no longer referenced are
+ *   released for reuse.  The common case of a part being required by a
+ *   single object (or a chunk belonging to a single chunked part) is stored
+ *   inline, with any additional values in an overflow map.
+ * </p>
+ * <p>
+ *   The chunk manifests passed to notifyChunkManifest() aren't retained,
+ *   only their chunk ids and sizes, so the manifests replayed by replayInto()
+ *   contain nothing else.  This class is not thread safe.
+ * </p>
+ */
+public class CompactContentAnalysisCache implements ContentAnalysisCache {
+
+    final Logger logger = LoggerFactory.getLogger(ContentAnalysisCache.class);
+
+    private static final String MANIFEST_SUFFIX = ".dura-manifest";
+
+    private ContentIdDictionary dictionary;
+
+    /**
+     * The handles of content known to exist.
+     */
+    private BitSet present;
+
+    /**
+     * The handles of content for which a chunk manifest is known.
+     */
+    private BitSet chunked;
+
+    /**
+     * The chunk handles from the manifest of each chunked content.
+     */
+    private int[][] manifestChunks;
+
+    /**
+     * The number of chunks of each chunked content that don't exist.
+     */
+    private int[] missingChunkCounts;
+
+    /**
+     * The size in bytes of each chunk, as given by the manifest that lists
+     * it.
+     */
+    private long[] chunkByteSizes;
+
+    /**
+     * The required part handles of each object whose parts were asserted.
+     */
+    private int[][] requiredParts;
+
+    /**
+     * The number of required parts of each object that aren't present.
+     */
+    private int[] missingPartCounts;
+
+    private String[] titles;
+
+    /**
+     * The objects whose asserted parts include each content.
+     */
+    private IntMultimap waitingObjects;
+
+    /**
+     * The chunked content whose manifest includes each chunk.
+     */
+    private IntMultimap chunkedContent;
+
+    public CompactContentAnalysisCache() {
+        dictionary = new ContentIdDictionary();
+        present = new BitSet();
+        chunked = new BitSet();
+        manifestChunks = new int[1024][];
+        missingChunkCounts = new int[1024];
+        chunkByteSizes = new long[1024];
+        requiredParts = new int[1024][];
+        missingPartCounts = new int[1024];
+        titles = new String[1024];
+        waitingObjects = new IntMultimap();
+        chunkedContent = new IntMultimap();
+    }
+
+    public void notifyContentId(String contentId) {
+        int handle = intern(contentId);
+        if (present.get(handle)) {
+            throw new RuntimeException();
+        }
+        boolean wasPresent = isPartPresent(handle);
+        present.set(handle);
+        logger.debug("+" + contentId);
+        if (!wasPresent) {
+            partArrived(handle);
+        }
+        for (int c = chunkedContent.first(handle); c >= 0; c = chunkedContent.next(handle, c)) {
+            boolean chunkedContentWasPresent = isPartPresent(c);
+            missingChunkCounts[c] --;
+            if (!chunkedContentWasPresent && isPartPresent(c)) {
+                partArrived(c);
+            }
+        }
+    }
+
+    public void forgetContentId(String contentId) {
+        int handle = dictionary.lookup(contentId);
+        if (handle < 0 || !present.get(handle)) {
+            return;
+        }
+        present.clear(handle);
+        logger.debug("-" + contentId);
+        if (!isPartPresent(handle)) {
+            partDeparted(handle);
+        }
+        for (int c = chunkedContent.first(handle); c >= 0; c = chunkedContent.next(handle, c)) {
+            boolean chunkedContentWasPresent = isPartPresent(c);
+            missingChunkCounts[c] ++;
+            if (chunkedContentWasPresent && !isPartPresent(c)) {
+                partDeparted(c);
+            }
+        }
+        releaseIfUnused(handle);
+    }
+
+    public void assertObjectParts(Collection<String> contentIds, String objectId) {
+        int object = intern(objectId);
+        int[] previous = removeObjectParts(object);
+        int[] parts = new int[contentIds.size()];
+        int count = 0;
+        int missing = 0;
+        for (String contentId : contentIds) {
+            int part = intern(contentId);
+            if (waitingObjects.put(part, object)) {
+                logger.debug("+" + contentId + " --> " + objectId);
+                parts[count ++] = part;
+                if (!isPartPresent(part)) {
+                    missing ++;
+                }
+            }
+        }
+        requiredParts[object] = count == parts.length ? parts : Arrays.copyOf(parts, count);
+        missingPartCounts[object] = missing;
+        if (missing == 0) {
+            logger.debug(objectId + " is complete");
+        }
+        releaseAllIfUnused(previous);
+    }
+
+    public void notifyChunkManifest(String contentId, DuraChunkManifest manifest) {
+        int handle = intern(contentId);
+        boolean wasPresent = isPartPresent(handle);
+        int[] previous = manifestChunks[handle];
+        if (previous != null) {
+            for (int chunk : previous) {
+                chunkedContent.remove(chunk, handle);
+            }
+        }
+        int chunkCount = manifest.chunks == null ? 0 : manifest.chunks.length;
+        int[] chunks = new int[chunkCount];
+        int count = 0;
+        int missing = 0;
+        for (int i = 0; i < chunkCount; i ++) {
+            int chunk = intern(manifest.chunks[i].chunkId);
+            chunkByteSizes[chunk] = manifest.chunks[i].byteSize;
+            if (chunkedContent.put(chunk, handle)) {
+                chunks[count ++] = chunk;
+                if (!present.get(chunk)) {
+                    missing ++;
+                }
+            }
+        }
+        manifestChunks[handle] = count == chunks.length ? chunks : Arrays.copyOf(chunks, count);
+        missingChunkCounts[handle] = missing;
+        chunked.set(handle);
+        boolean isPresent = isPartPresent(handle);
+        if (!wasPresent && isPresent) {
+            partArrived(handle);
+        } else if (wasPresent && !isPresent) {
+            partDeparted(handle);
+        }
+        releaseAllIfUnused(previous);
+    }
+
+    public boolean isObjectComplete(String objectId) {
+        int object = dictionary.lookup(objectId);
+        if (object < 0 || requiredParts[object] == null) {
+            logger.trace(objectId + " is not complete because its required parts have not been specified");
+            return false;
+        } else if (missingPartCounts[object] > 0) {
+            logger.trace(objectId + " is not complete because it lacks " + missingPartCounts[object] + " of its parts");
+            return false;
+        }
+        return true;
+    }
+
+    public Collection<String> getObjectContent(String objectId) {
+        Collection<String> result = new ArrayList<String>();
+        int object = dictionary.lookup(objectId);
+        if (object >= 0 && requiredParts[object] != null) {
+            for (int part : requiredParts[object]) {
+                if (present.get(part)) {
+                    result.add(dictionary.toString(part));
+                } else if (chunked.get(part)) {
+                    result.add(dictionary.toString(part) + MANIFEST_SUFFIX);
+                    for (int chunk : manifestChunks[part]) {
+                        if (present.get(chunk)) {
+                            result.add(dictionary.toString(chunk));
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    public long getObjectByteSize(String objectId) {
+        long size = 0;
+        int object = dictionary.lookup(objectId);
+        if (object >= 0 && requiredParts[object] != null) {
+            for (int part : requiredParts[object]) {
+                if (!present.get(part) && chunked.get(part)) {
+                    for (int chunk : manifestChunks[part]) {
+                        if (present.get(chunk)) {
+                            size += chunkByteSizes[chunk];
+                        }
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    public void cacheObjectTitle(String objectId, String title) {
+        int object = intern(objectId);
+        titles[object] = title;
+        if (title == null) {
+            releaseIfUnused(object);
+        }
+    }
+
+    public String getObjectTitle(String objectId) {
+        int object = dictionary.lookup(objectId);
+        return object < 0 ? null : titles[object];
+    }
+
+    public void forgetObject(String objectId) {
+        int object = dictionary.lookup(objectId);
+        if (object < 0) {
+            return;
+        }
+        titles[object] = null;
+        int[] previous = removeObjectParts(object);
+        releaseAllIfUnused(previous);
+        releaseIfUnused(object);
+    }
+
+    public Collection<String> getKnownContentIds() {
+        List<String> result = new ArrayList<String>(present.cardinality());
+        for (int handle = present.nextSetBit(0); handle >= 0; handle = present.nextSetBit(handle + 1)) {
+            result.add(dictionary.toString(handle));
+        }
+        return result;
+    }
+
+    public Collection<String> getKnownObjectIds() {
+        List<String> result = new ArrayList<String>();
+        for (int handle = 0; handle < dictionary.getHandleLimit(); handle ++) {
+            if (requiredParts[handle] != null) {
+                result.add(dictionary.toString(handle));
+            }
+        }
+        return result;
+    }
+
+    public void replayInto(ContentAnalysisListener target) {
+        for (int handle = present.nextSetBit(0); handle >= 0; handle = present.nextSetBit(handle + 1)) {
+            target.notifyContentId(dictionary.toString(handle));
+        }
+        for (int handle = chunked.nextSetBit(0); handle >= 0; handle = chunked.nextSetBit(handle + 1)) {
+            DuraChunkManifest manifest = new DuraChunkManifest();
+            manifest.chunks = new DuraChunkManifest.Chunk[manifestChunks[handle].length];
+            for (int i = 0; i < manifest.chunks.length; i ++) {
+                manifest.chunks[i] = new DuraChunkManifest.Chunk();
+                manifest.chunks[i].chunkId = dictionary.toString(manifestChunks[handle][i]);
+                manifest.chunks[i].index = i;
+                manifest.chunks[i].byteSize = chunkByteSizes[manifestChunks[handle][i]];
+            }
+            target.notifyChunkManifest(dictionary.toString(handle), manifest);
+        }
+        for (int handle = 0; handle < dictionary.getHandleLimit(); handle ++) {
+            if (requiredParts[handle] != null) {
+                List<String> parts = new ArrayList<String>(requiredParts[handle].length);
+                for (int part : requiredParts[handle]) {
+                    parts.add(dictionary.toString(part));
+                }
+                target.assertObjectParts(parts, dictionary.toString(handle));
+            }
+            if (titles[handle] != null) {
+                target.cacheObjectTitle(dictionary.toString(handle), titles[handle]);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of distinct ids currently held by this cache.
+     */
+    public int getIdCount() {
+        return dictionary.size();
+    }
+
+    private int intern(String id) {
+        int handle = dictionary.intern(id);
+        if (handle >= titles.length) {
+            int capacity = Math.max(handle + 1, titles.length * 2);
+            manifestChunks = Arrays.copyOf(manifestChunks, capacity);
+            missingChunkCounts = Arrays.copyOf(missingChunkCounts, capacity);
+            chunkByteSizes = Arrays.copyOf(chunkByteSizes, capacity);
+            requiredParts = Arrays.copyOf(requiredParts, capacity);
+            missingPartCounts = Arrays.copyOf(missingPartCounts, capacity);
+            titles = Arrays.copyOf(titles, capacity);
+        }
+        return handle;
+    }
+
+    private boolean isPartPresent(int handle) {
+        return present.get(handle) || (chunked.get(handle) && missingChunkCounts[handle] == 0);
+    }
+
+    private void partArrived(int handle) {
+        for (int o = waitingObjects.first(handle); o >= 0; o = waitingObjects.next(handle, o)) {
+            if (-- missingPartCounts[o] == 0) {
+                logger.debug(dictionary.toString(o) + " is complete");
+            }
+        }
+    }
+
+    private void partDeparted(int handle) {
+        for (int o = waitingObjects.first(handle); o >= 0; o = waitingObjects.next(handle, o)) {
+            missingPartCounts[o] ++;
+        }
+    }
+
+    /**
+     * Removes the parts asserted for the given object.
+     * @return the removed parts (which may now be unused), or null if none
+     * were asserted
+     */
+    private int[] removeObjectParts(int object) {
+        int[] previous = requiredParts[object];
+        if (previous != null) {
+            for (int part : previous) {
+                waitingObjects.remove(part, object);
+            }
+            requiredParts[object] = null;
+            missingPartCounts[object] = 0;
+        }
+        return previous;
+    }
+
+    private void releaseAllIfUnused(int[] handles) {
+        if (handles != null) {
+            for (int handle : handles) {
+                releaseIfUnused(handle);
+            }
+        }
+    }
+
+    /**
+     * Releases the handle if nothing in this cache refers to it any longer.
+     * A chunk manifest is never forgotten (as it isn't in the other
+     * implementation) so chunked content and its chunks are never released.
+     */
+    private void releaseIfUnused(int handle) {
+        if (dictionary.isAssigned(handle) && !present.get(handle) && !chunked.get(handle)
+                && requiredParts[handle] == null && titles[handle] == null
+                && !waitingObjects.containsKey(handle) && !chunkedContent.containsKey(handle)) {
+            chunkByteSizes[handle] = 0;
+            dictionary.release(handle);
+        }
+    }
+
+    /**
+     * A map from int keys to sets of int values optimized for keys with a
+     * single value: the first value is stored (plus one) in an array indexed
+     * by key, and any others in an overflow map.  Values are visited using
+     * first() and next().
+     */
+    static final class IntMultimap {
+
+        private int[] firstValues = new int[1024];
+
+        private Map<Integer, int[]> overflow = new HashMap<Integer, int[]>();
+
+        boolean containsKey(int key) {
+            return key < firstValues.length && firstValues[key] != 0;
+        }
+
+        /**
+         * Adds the value for the given key.
+         * @return false if the value was already present
+         */
+        boolean put(int key, int value) {
+            if (key >= firstValues.length) {
+                firstValues = Arrays.copyOf(firstValues, Math.max(key + 1, firstValues.length * 2));
+            }
+            if (firstValues[key] == 0) {
+                firstValues[key] = value + 1;
+                return true;
+            } else if (firstValues[key] == value + 1) {
+                return false;
+            }
+            int[] others = overflow.get(key);
+            if (others == null) {
+                overflow.put(key, new int[] { value });
+                return true;
+            }
+            for (int other : others) {
+                if (other == value) {
+                    return false;
+                }
+            }
+            others = Arrays.copyOf(others, others.length + 1);
+            others[others.length - 1] = value;
+            overflow.put(key, others);
+            return true;
+        }
+
+        void remove(int key, int value) {
+            if (!containsKey(key)) {
+                return;
+            }
+            int[] others = overflow.get(key);
+            if (firstValues[key] == value + 1) {
+                if (others == null) {
+                    firstValues[key] = 0;
+                    return;
+                }
+                firstValues[key] = others[others.length - 1] + 1;
+                value = others[others.length - 1];
+            } else if (others == null) {
+                return;
+            }
+            for (int i = 0; i < others.length; i ++) {
+                if (others[i] == value) {
+                    if (others.length == 1) {
+                        overflow.remove(key);
+                    } else {
+                        int[] remaining = new int[others.length - 1];
+                        System.arraycopy(others, 0, remaining, 0, i);
+                        System.arraycopy(others, i + 1, remaining, i, others.length - i - 1);
+                        overflow.put(key, remaining);
+                    }
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Gets the first value for the key, or -1 if there are none.
+         */
+        int first(int key) {
+            return containsKey(key) ? firstValues[key] - 1 : -1;
+        }
+
+        /**
+         * Gets the value following the given one for the key, or -1 if there
+         * are no more.
+         */
+        int next(int key, int value) {
+            if (overflow.isEmpty()) {
+                return -1;
+            }
+            int[] others = overflow.get(key);
+            if (others == null) {
+                return -1;
+            }
+            if (firstValues[key] == value + 1) {
+                return others[0];
+            }
+            for (int i = 0; i < others.length - 1; i ++) {
+                if (others[i] == value) {
+                    return others[i + 1];
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -9,35 +9,7 @@ import java.util.Collection;
  * information have required content read and parsed and there is a high value
  * to retaining that information.
  */
-public interface ContentAnalysisCache {
-
-    /**
-     * Makes note of the fact that the given contentId exists.
-     */
-    public void notifyContentId(String contentId);
-
-    /**
-     * Makes note that the given contentId no longer exists.
-     */
-    public void forgetContentId(String contentId);
-
-    /**
-     * Makes note of the fact that the given contentIds are expected in order
-     * to complete the object indicated by objectId.
-     */
-    public void assertObjectParts(Collection<String> contentIds, String objectId);
-
-    /**
-     * For objects that have human-readable titles, this method may be invoked
-     * to cache that title.
-     */
-    public void cacheObjectTitle(String objectId, String title);
-
-    /**
-     * Makes note of the fact that a DuraChunkManifest exists for the given 
-     * contentId.
-     */
-    public void notifyChunkManifest(String contentId, DuraChunkManifest manifest);
+public interface ContentAnalysisCache extends ContentAnalysisListener {
 
     /**
      * Queries this ContentAnalysisCache to determine if all the parts (as 
@@ -55,13 +27,37 @@ public interface ContentAnalysisCache {
      */
     public Collection<String> getObjectContent(String objectId);
 
+    /**
+     * Gets the total size, in bytes, of the chunks returned by
+     * getObjectContent() for the given objectId, as given by the chunk
+     * manifests that were cached.  Content that wasn't chunked has no cached
+     * size and isn't counted.
+     */
+    public long getObjectByteSize(String objectId);
+
     /**
      * Gets any previously cached title for the given object id.
      */
     public String getObjectTitle(String objectId);
 
     /**
-     * Removes anything cached (the content or title) for the given object.
+     * Gets every contentId that is currently known to exist.  The returned
+     * collection is a copy that won't reflect subsequent changes.
+     */
+    public Collection<String> getKnownContentIds();
+
+    /**
+     * Gets the id of every object whose required parts have been asserted
+     * and not since forgotten.  The returned collection is a copy that won't
+     * reflect subsequent changes.
+     */
+    public Collection<String> getKnownObjectIds();
+
+    /**
+     * Replays everything known by this cache as a series of calls to the
+     * given listener, such that afterwards a target cache (if it started out
+     * empty) answers every query identically.  This is used to copy or
+     * persist the state of a cache.
      */
-    public void forgetObject(String objectId);
+    public void replayInto(ContentAnalysisListener target);
 }
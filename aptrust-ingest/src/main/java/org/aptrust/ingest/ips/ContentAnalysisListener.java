@@ -0,0 +1,46 @@
+package org.aptrust.ingest.ips;
+
+import java.util.Collection;
+
+/**
+ * The callbacks through which a ContentAnalysisCache learns about the
+ * content of a space.  Besides each ContentAnalysisCache, anything that
+ * needs to receive the state of a cache as it's replayed (for instance to
+ * persist it) implements this interface.
+ * @see ContentAnalysisCache#replayInto(ContentAnalysisListener)
+ */
+public interface ContentAnalysisListener {
+
+    /**
+     * Makes note of the fact that the given contentId exists.
+     */
+    public void notifyContentId(String contentId);
+
+    /**
+     * Makes note that the given contentId no longer exists.
+     */
+    public void forgetContentId(String contentId);
+
+    /**
+     * Makes note of the fact that the given contentIds are expected in order
+     * to complete the object indicated by objectId.
+     */
+    public void assertObjectParts(Collection<String> contentIds, String objectId);
+
+    /**
+     * For objects that have human-readable titles, this method may be invoked
+     * to cache that title.
+     */
+    public void cacheObjectTitle(String objectId, String title);
+
+    /**
+     * Makes note of the fact that a DuraChunkManifest exists for the given 
+     * contentId.
+     */
+    public void notifyChunkManifest(String contentId, DuraChunkManifest manifest);
+
+    /**
+     * Removes anything cached (the content or title) for the given object.
+     */
+    public void forgetObject(String objectId);
+}
@@ -0,0 +1,296 @@
+package org.aptrust.ingest.ips;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ *   A dictionary that assigns a small integer handle to each distinct
+ *   contentId, storing each id as a sequence of shared components rather
+ *   than as a String.  Fedora CloudSync content ids (pid+DSID+DSID.0) repeat
+ *   the pid in every datastream version and the datastream ids in every
+ *   object, and chunk ids repeat the id of the content that was chunked, so
+ *   splitting ids at each "+" and before the ".dura-chunk-" or
+ *   ".dura-manifest" suffix lets most of their characters be stored once.
+ * </p>
+ * <p>
+ *   Handles are reused once released, so they remain dense and may be used
+ *   to index arrays.  Components are reference counted and discarded when no
+ *   id uses them.  This class is not thread safe.
+ * </p>
+ */
+final class ContentIdDictionary {
+
+    private static final int[] NO_COMPONENTS = new int[0];
+
+    private Map<String, Integer> componentHandles;
+
+    private String[] components;
+
+    private int[] componentReferences;
+
+    private int componentHighWater;
+
+    private IntStack freeComponents;
+
+    /**
+     * The component handles making up each id, indexed by id handle (null
+     * for unused handles).
+     */
+    private int[][] ids;
+
+    private int idHighWater;
+
+    private IntStack freeIds;
+
+    private int size;
+
+    /**
+     * An open addressing (linear probing) hash table of id handles plus one,
+     * with zero marking an empty slot.
+     */
+    private int[] table;
+
+    ContentIdDictionary() {
+        componentHandles = new HashMap<String, Integer>();
+        components = new String[256];
+        componentReferences = new int[256];
+        freeComponents = new IntStack();
+        ids = new int[1024][];
+        freeIds = new IntStack();
+        table = new int[2048];
+    }
+
+    /**
+     * Gets the handle for the given id, or -1 if it has no handle.
+     */
+    int lookup(String id) {
+        int[] key = split(id, false);
+        if (key == null) {
+            return -1;
+        }
+        int slot = find(key);
+        return table[slot] - 1;
+    }
+
+    /**
+     * Gets the handle for the given id, assigning one if necessary.
+     */
+    int intern(String id) {
+        int[] key = split(id, false);
+        if (key != null) {
+            int slot = find(key);
+            if (table[slot] != 0) {
+                return table[slot] - 1;
+            }
+        }
+        key = split(id, true);
+        int handle = freeIds.isEmpty() ? idHighWater ++ : freeIds.pop();
+        if (handle >= ids.length) {
+            ids = Arrays.copyOf(ids, ids.length * 2);
+        }
+        ids[handle] = key;
+        for (int component : key) {
+            componentReferences[component] ++;
+        }
+        size ++;
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        } else {
+            table[find(key)] = handle + 1;
+        }
+        return handle;
+    }
+
+    /**
+     * Gets the id represented by the given handle.
+     */
+    String toString(int handle) {
+        int[] key = ids[handle];
+        if (key.length == 1) {
+            return components[key[0]];
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int component : key) {
+            sb.append(components[component]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Releases the given handle, which may then be reassigned to another id.
+     */
+    void release(int handle) {
+        int[] key = ids[handle];
+        remove(find(key));
+        ids[handle] = null;
+        freeIds.push(handle);
+        size --;
+        for (int component : key) {
+            if (-- componentReferences[component] == 0) {
+                componentHandles.remove(components[component]);
+                components[component] = null;
+                freeComponents.push(component);
+            }
+        }
+    }
+
+    /**
+     * Gets an upper bound (exclusive) on the handles currently assigned.
+     */
+    int getHandleLimit() {
+        return idHighWater;
+    }
+
+    /**
+     * Returns true if the given handle is currently assigned to an id.
+     */
+    boolean isAssigned(int handle) {
+        return handle < idHighWater && ids[handle] != null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Splits the id into component handles.
+     * @param create if true, components that aren't in the dictionary are
+     * added (though not yet referenced); if false, null is returned if any
+     * component isn't in the dictionary
+     */
+    private int[] split(String id, boolean create) {
+        if (id.length() == 0) {
+            return NO_COMPONENTS;
+        }
+        int end = id.length();
+        int suffixStart = id.lastIndexOf(".dura-");
+        if (suffixStart <= 0 || !(id.startsWith("chunk-", suffixStart + 6) || id.startsWith("manifest", suffixStart + 6))) {
+            suffixStart = -1;
+        }
+        int count = suffixStart > 0 ? 2 : 1;
+        int headEnd = suffixStart > 0 ? suffixStart : end;
+        for (int i = 1; i < headEnd; i ++) {
+            if (id.charAt(i) == '+') {
+                count ++;
+            }
+        }
+        int[] key = new int[count];
+        int k = 0;
+        int start = 0;
+        for (int i = 1; i <= headEnd; i ++) {
+            if (i == headEnd || id.charAt(i) == '+') {
+                key[k] = component(id.substring(start, i), create);
+                if (key[k ++] < 0) {
+                    return null;
+                }
+                start = i;
+            }
+        }
+        if (suffixStart > 0) {
+            key[k] = component(id.substring(suffixStart), create);
+            if (key[k] < 0) {
+                return null;
+            }
+        }
+        return key;
+    }
+
+    private int component(String value, boolean create) {
+        Integer handle = componentHandles.get(value);
+        if (handle != null) {
+            return handle;
+        } else if (!create) {
+            return -1;
+        }
+        int h = freeComponents.isEmpty() ? componentHighWater ++ : freeComponents.pop();
+        if (h >= components.length) {
+            components = Arrays.copyOf(components, components.length * 2);
+            componentReferences = Arrays.copyOf(componentReferences, componentReferences.length * 2);
+        }
+        components[h] = value;
+        componentHandles.put(value, h);
+        return h;
+    }
+
+    /**
+     * Finds the slot that holds the given key, or the empty slot at which
+     * probing for it stopped.
+     */
+    private int find(int[] key) {
+        int mask = table.length - 1;
+        int slot = hash(key) & mask;
+        while (table[slot] != 0 && !Arrays.equals(ids[table[slot] - 1], key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Empties the given slot, shifting back any entries that would otherwise
+     * become unreachable.
+     */
+    private void remove(int slot) {
+        int mask = table.length - 1;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (table[next] == 0) {
+                break;
+            }
+            int home = hash(ids[table[next] - 1]) & mask;
+            // move the entry back unless its home lies cyclically in (slot, next]
+            boolean reachable = slot <= next ? (home > slot && home <= next) : (home > slot || home <= next);
+            if (!reachable) {
+                table[slot] = table[next];
+                slot = next;
+            }
+        }
+        table[slot] = 0;
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        int mask = capacity - 1;
+        for (int handle = 0; handle < idHighWater; handle ++) {
+            if (ids[handle] != null) {
+                int slot = hash(ids[handle]) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = handle + 1;
+            }
+        }
+    }
+
+    private static int hash(int[] key) {
+        int h = Arrays.hashCode(key) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * A minimal growable stack of ints.
+     */
+    static final class IntStack {
+
+        private int[] values = new int[16];
+
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void push(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size ++] = value;
+        }
+
+        int pop() {
+            return values[-- size];
+        }
+    }
+}
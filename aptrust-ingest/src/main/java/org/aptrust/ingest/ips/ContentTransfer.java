@@ -0,0 +1,265 @@
+package org.aptrust.ingest.ips;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.aptrust.common.exception.AptrustException;
+import org.duracloud.client.ContentStore;
+import org.duracloud.error.ContentStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ *   Moves the content that makes up an object from one space to another
+ *   using a bounded pool of worker threads, so that an object with many
+ *   parts needn't wait for hundreds of sequential DuraCloud round trips.  A
+ *   single instance may (and should) be shared by every DropboxProcessor, in
+ *   which case the pool bounds the number of concurrent requests made by the
+ *   whole ingest processing service.  An instance created without a thread
+ *   count has no pool and makes every request on the calling thread.
+ * </p>
+ * <p>
+ *   A move happens in two phases.  First every item is copied to the
+ *   destination space.  If any copy fails, the copies that were made are
+ *   deleted and an exception is thrown, leaving the source space as it was.
+ *   Only once every item has been copied is each deleted from the source
+ *   space.  Because the object is by then complete in the destination space,
+ *   a failure to delete an item doesn't fail the move; the items that were
+ *   deleted are reported so that the caller may account for any that remain.
+ * </p>
+ */
+public class ContentTransfer {
+
+    final Logger logger = LoggerFactory.getLogger(ContentTransfer.class);
+
+    private ExecutorService executor;
+
+    private int threadCount;
+
+    /**
+     * Creates a ContentTransfer that moves content on the calling thread, one
+     * item at a time, and needn't be shut down.
+     */
+    public ContentTransfer() {
+        threadCount = 1;
+    }
+
+    public ContentTransfer(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("At least one transfer thread is required!");
+        }
+        this.threadCount = threadCount;
+        executor = Executors.newFixedThreadPool(threadCount, new SpaceEventDispatcher.NamedThreadFactory("content-transfer"));
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Moves the given content from one space to another, retaining each
+     * item's contentId.  This method returns once every item has been moved
+     * (or has failed to be moved).
+     * @param cs the ContentStore through which the content is accessed
+     * @param sourceSpaceId the space from which the content is moved
+     * @param destinationSpaceId the space to which the content is moved
+     * @param contentIds the ids of the content to move
+     * @return a summary of the transfer
+     * @throws AptrustException if any item couldn't be copied, in which case
+     * no item has been copied or deleted.
+     */
+    public Result move(ContentStore cs, String sourceSpaceId, String destinationSpaceId, Collection<String> contentIds) throws AptrustException {
+        return move(cs, sourceSpaceId, destinationSpaceId, contentIds, -1);
+    }
+
+    /**
+     * Moves the given content from one space to another, as
+     * {@link #move(ContentStore, String, String, Collection)} does, reporting
+     * the given size (typically known from the chunk manifests in a
+     * ContentAnalysisCache) so that the result includes the transfer rate.
+     * @param byteCount the total size of the content in bytes, or -1 if it
+     * isn't known
+     */
+    public Result move(final ContentStore cs, final String sourceSpaceId, final String destinationSpaceId, Collection<String> contentIds, long byteCount) throws AptrustException {
+        long start = System.currentTimeMillis();
+        final List<String> copiedContentIds = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicBoolean aborted = new AtomicBoolean();
+
+        // 1. copy everything to the destination
+        List<Future<Void>> copies = new ArrayList<Future<Void>>();
+        for (final String contentId : contentIds) {
+            copies.add(submit(new Callable<Void>() {
+                public Void call() throws ContentStoreException {
+                    if (aborted.get()) {
+                        // don't make copies that would only be deleted again
+                        return null;
+                    }
+                    try {
+                        cs.copyContent(sourceSpaceId, contentId, destinationSpaceId, contentId);
+                    } catch (ContentStoreException ex) {
+                        aborted.set(true);
+                        throw ex;
+                    } catch (RuntimeException ex) {
+                        aborted.set(true);
+                        throw ex;
+                    }
+                    copiedContentIds.add(contentId);
+                    logger.debug("Copied content " + contentId + " from " + sourceSpaceId + " to " + destinationSpaceId + ".");
+                    return null;
+                }}));
+        }
+        Throwable failure = null;
+        for (Future<Void> copy : copies) {
+            try {
+                copy.get();
+            } catch (Throwable t) {
+                aborted.set(true);
+                if (failure == null) {
+                    failure = t instanceof ExecutionException ? t.getCause() : t;
+                }
+            }
+        }
+        if (failure != null) {
+            List<String> copied = new ArrayList<String>(copiedContentIds);
+            logger.warn("Copy to " + destinationSpaceId + " failed, removing the " + copied.size() + " items already copied.");
+            List<String> undeleted = deleteAll(cs, destinationSpaceId, copied);
+            if (!undeleted.isEmpty()) {
+                logger.error("Unable to remove partial copies from " + destinationSpaceId + ": " + undeleted);
+            }
+            throw new AptrustException("Unable to copy content from " + sourceSpaceId + " to " + destinationSpaceId + "!", failure);
+        }
+
+        // 2. delete everything from the source
+        List<String> deletedContentIds = new ArrayList<String>(contentIds);
+        List<String> undeleted = deleteAll(cs, sourceSpaceId, contentIds);
+        if (!undeleted.isEmpty()) {
+            logger.error("Content was copied to " + destinationSpaceId + " but could not be deleted from " + sourceSpaceId + ": " + undeleted);
+            deletedContentIds.removeAll(undeleted);
+        }
+        return new Result(deletedContentIds, contentIds.size(), byteCount, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Stops the worker threads once the moves in progress have completed.
+     */
+    public void shutdown() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(60, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Deletes the given content in parallel.
+     * @return the ids of content that couldn't be deleted
+     */
+    private List<String> deleteAll(final ContentStore cs, final String spaceId, Collection<String> contentIds) {
+        List<Future<Void>> deletes = new ArrayList<Future<Void>>();
+        for (final String contentId : contentIds) {
+            deletes.add(submit(new Callable<Void>() {
+                public Void call() throws ContentStoreException {
+                    cs.deleteContent(spaceId, contentId);
+                    logger.debug("Deleted content " + contentId + " from " + spaceId + ".");
+                    return null;
+                }}));
+        }
+        List<String> failed = new ArrayList<String>();
+        int i = 0;
+        for (String contentId : contentIds) {
+            try {
+                deletes.get(i ++).get();
+            } catch (Throwable t) {
+                logger.warn("Unable to delete " + contentId + " from " + spaceId + "!", t instanceof ExecutionException ? t.getCause() : t);
+                failed.add(contentId);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Runs the given task in the pool, or (if there's no pool) immediately.
+     */
+    private <T> Future<T> submit(Callable<T> task) {
+        if (executor != null) {
+            return executor.submit(task);
+        }
+        FutureTask<T> future = new FutureTask<T>(task);
+        future.run();
+        return future;
+    }
+
+    /**
+     * A summary of a completed move.
+     */
+    public static class Result {
+
+        private List<String> deletedContentIds;
+
+        private int contentCount;
+
+        private long byteCount;
+
+        private long elapsedMillis;
+
+        Result(List<String> deletedContentIds, int contentCount, long byteCount, long elapsedMillis) {
+            this.deletedContentIds = deletedContentIds;
+            this.contentCount = contentCount;
+            this.byteCount = byteCount;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * Gets the ids of the content that was deleted from the source space
+         * (which is normally all of it).
+         */
+        public List<String> getDeletedContentIds() {
+            return deletedContentIds;
+        }
+
+        public int getContentCount() {
+            return contentCount;
+        }
+
+        /**
+         * Gets the number of bytes moved, as given by the caller, or -1 if it
+         * isn't known.
+         */
+        public long getByteCount() {
+            return byteCount;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * Gets the transfer rate, or -1 if the number of bytes isn't known.
+         */
+        public long getBytesPerSecond() {
+            return byteCount < 0 ? -1 : byteCount * 1000 / Math.max(1, elapsedMillis);
+        }
+
+        public String toString() {
+            if (byteCount < 0) {
+                return contentCount + " items in " + elapsedMillis + "ms";
+            }
+            return contentCount + " items (" + byteCount + " bytes) in " + elapsedMillis + "ms (" + getBytesPerSecond() + " bytes/s)";
+        }
+    }
+}
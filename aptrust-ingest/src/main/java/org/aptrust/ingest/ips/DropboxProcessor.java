@@ -4,40 +4,46 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
-import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.aptrust.client.api.IngestStatus;
 import org.aptrust.client.impl.SolrQueryClause;
+import org.aptrust.common.duracloud.InstrumentedContentStore;
 import org.aptrust.common.duracloud.StubbornContentStore;
 import org.aptrust.common.exception.AptrustException;
-import org.aptrust.common.metadata.APTrustMetadata;
 import org.aptrust.common.solr.AptrustSolrDocument;
+import org.aptrust.common.solr.BatchingSolrWriter;
 import org.aptrust.common.solr.ContentSolrDocument;
+import org.aptrust.ingest.IngestXmlBindings;
 import org.aptrust.ingest.api.DigitalObject;
 import org.aptrust.ingest.api.IngestManifest;
 import org.aptrust.ingest.api.IngestPackage;
 import org.aptrust.ingest.dspace.DSpaceAIPPackage;
 import org.aptrust.ingest.exceptions.UnrecognizedContentException;
+import org.aptrust.ingest.ips.solr.IngestProgressSolrDocument;
 import org.aptrust.ingest.ips.solr.IngestSolrDocument;
 import org.aptrust.ingest.ips.solr.ObjectSolrDocument;
 import org.aptrust.ingest.ips.solr.PackageSolrDocument;
@@ -46,13 +52,7 @@ import org.duracloud.domain.Content;
 import org.duracloud.error.ContentStoreException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xml.sax.SAXException;
 
-import com.github.cwilper.fcrepo.dto.core.ControlGroup;
-import com.github.cwilper.fcrepo.dto.core.Datastream;
-import com.github.cwilper.fcrepo.dto.core.DatastreamVersion;
-import com.github.cwilper.fcrepo.dto.core.FedoraObject;
-import com.github.cwilper.fcrepo.dto.foxml.FOXMLReader;
 import com.yourmediashelf.fedora.client.FedoraClient;
 import com.yourmediashelf.fedora.client.FedoraClientException;
 
@@ -66,6 +66,15 @@ import com.yourmediashelf.fedora.client.FedoraClientException;
  *   running in parallel.
  * </p>
  * <p>
+ *   Solr updates are made through a BatchingSolrWriter, which may be shared
+ *   with the processors for other spaces.  The records written when an object
+ *   is ingested are sent together once the ingest succeeds, and are committed
+ *   on the writer's schedule.  Processing never waits for a commit, because
+ *   the in-progress manifests and the objects they await are tracked in a
+ *   PendingObjectIndex (populated from Solr only at startup) rather than
+ *   looked up in Solr.
+ * </p>
+ * <p>
  *   The normal use case is that this class is made aware of manifest files and
  *   the files pointed to by those AP Trust ingest manifests.  Once a complete
  *   object arrives, it is ingested into the AP Trust system, but only when the
@@ -106,12 +115,44 @@ public class DropboxProcessor implements SpaceListener {
 
     private SolrServer solr;
 
+    private BatchingSolrWriter solrWriter;
+
     private ContentStore contentStore;
 
     private ContentAnalysisCache cache;
 
-    public DropboxProcessor(String spaceId, FedoraClient fc, SolrServer solr, ContentStore cs) throws ContentStoreException, AptrustException, IOException {
-        contentStore = new StubbornContentStore(cs);
+    private ContentTransfer contentTransfer;
+
+    private ManifestCache manifestCache;
+
+    /**
+     * The objects awaited by each in-progress manifest for this institution
+     * and the progress of each such manifest.
+     */
+    private PendingObjectIndex pendingObjects;
+
+    /**
+     * Creates a DropboxProcessor that uses the given cache, which may already
+     * contain information about the content in the space (persisted from a
+     * previous run).  In that case only content that isn't already known to
+     * the cache is analyzed, and content known to the cache but no longer
+     * present in the space is forgotten.  Content is moved to production
+     * on the calling thread.
+     */
+    public DropboxProcessor(String spaceId, FedoraClient fc, BatchingSolrWriter solrWriter, ContentStore cs, ContentAnalysisCache cache) throws ContentStoreException, AptrustException, IOException {
+        this(spaceId, fc, solrWriter, cs, cache, new ContentTransfer(), new ManifestCache());
+    }
+
+    /**
+     * Creates a DropboxProcessor that uses the given cache, moves content
+     * from staging to production using the given (possibly shared)
+     * ContentTransfer and keeps recently used manifests in the given
+     * (possibly shared) ManifestCache.
+     */
+    public DropboxProcessor(String spaceId, FedoraClient fc, BatchingSolrWriter solrWriter, ContentStore cs, ContentAnalysisCache cache, ContentTransfer contentTransfer, ManifestCache manifestCache) throws ContentStoreException, AptrustException, IOException {
+        this.contentTransfer = contentTransfer;
+        this.manifestCache = manifestCache;
+        contentStore = new StubbornContentStore(new InstrumentedContentStore(cs));
         this.fc = fc;
         stagingSpaceId = spaceId;
         if (!isStagingSpace(spaceId)) {
@@ -119,13 +160,35 @@ public class DropboxProcessor implements SpaceListener {
         }
         institutionId = getInstitutionIdFromStagingSpaceId(spaceId);
         productionSpaceId = institutionId;
-        this.solr = solr;
-        cache = new InMemoryContentAnalysisCache();
-
-        // walk through all present content
+        this.solrWriter = solrWriter;
+        solr = solrWriter.getSolrServer();
+        this.cache = cache;
+        pendingObjects = new PendingObjectIndex();
+        loadPendingObjects();
+
+        // walk through all present content, reconciling it with the cache
+        Collection<String> restoredObjectIds = cache.getKnownObjectIds();
+        Set<String> knownContentIds = new HashSet<String>(cache.getKnownContentIds());
+        long newContentCount = 0;
         Iterator<String> contentIdIt = cs.getSpaceContents(spaceId);
         while (contentIdIt.hasNext()) {
-            processContentId(contentIdIt.next(), true);
+            String contentId = contentIdIt.next();
+            if (!knownContentIds.remove(contentId)) {
+                processContentId(contentId, true);
+                newContentCount ++;
+            }
+        }
+        for (String removedContentId : knownContentIds) {
+            cache.forgetContentId(removedContentId);
+        }
+        logger.info("Reconciled " + spaceId + ": " + newContentCount + " new items analyzed, " + knownContentIds.size() + " removed items forgotten.");
+
+        // objects that were complete when this processor last stopped may
+        // have been waiting on a manifest (or in the middle of ingest)
+        for (String objectId : restoredObjectIds) {
+            if (cache.isObjectComplete(objectId)) {
+                processCompleteObject(objectId, true);
+            }
         }
     }
 
@@ -187,8 +250,7 @@ public class DropboxProcessor implements SpaceListener {
 
             // 2. create any new package objects required by the manifest and
             //    validate/update any referenced packages
-            Unmarshaller u = JAXBContext.newInstance(IngestManifest.class, IngestPackage.class, DigitalObject.class, APTrustMetadata.class).createUnmarshaller();
-            manifest = (IngestManifest) u.unmarshal(manifestFile);
+            manifest = IngestXmlBindings.MANIFEST.unmarshal(manifestFile, IngestManifest.class);
             manifest.setId(pid);
             logger.trace("parsed manifest and set id");
             packagePids = new ArrayList<String>();
@@ -212,8 +274,7 @@ public class DropboxProcessor implements SpaceListener {
                     PackageRELSEXT relsExt = new PackageRELSEXT();
                     relsExt.setDescription(d);
                     File relsExtFile = File.createTempFile("RELS-EXT", "-rdf.xml");
-                    Marshaller m = JAXBContext.newInstance(PackageRELSEXT.class).createMarshaller();
-                    m.marshal(relsExt, relsExtFile);
+                    IngestXmlBindings.PACKAGE_RELS_EXT.marshal(relsExt, relsExtFile);
                     logger.trace("marshalled the metadata to the RELS-EXT temporary file {}", relsExtFile.getAbsolutePath());
                     FedoraClient.addDatastream(packagePid, "RELS-EXT").content(relsExtFile).controlGroup("X").formatURI("info:fedora/fedora-system:FedoraRELSExt-1.0").mimeType("application/rdf+xml").execute(fc);
                     relsExtFile.delete();
@@ -226,29 +287,31 @@ public class DropboxProcessor implements SpaceListener {
                 }
             }
 
-            // 3. move the manifest to the production space
+            // 3. write the manifest to Solr (which will be an "in-progress"
+            //    operation) and wait until it's committed, because once the
+            //    manifest has been moved the operation can only be recovered
+            //    (see loadPendingObjects()) from its record
+            IngestSolrDocument d = IngestSolrDocument.newIngest(institutionId, manifest);
+            solrWriter.add(AptrustSolrDocument.createValidSolrDocument(d));
+            solrWriter.commit();
+            logger.info("wrote manifest {} to solr", manifest.getId() );
+
+            // 4. move the manifest to the production space
             contentStore.moveContent(stagingSpaceId, contentId, productionSpaceId, pid);
 
-            // 4. store the updated manifest in fedora
-            Marshaller m = JAXBContext.newInstance(IngestManifest.class, IngestPackage.class, DigitalObject.class, APTrustMetadata.class).createMarshaller();
-            m.marshal(manifest, manifestFile);
+            // 5. store the updated manifest in fedora and note the objects
+            //    it's waiting for
+            IngestXmlBindings.MANIFEST.marshal(manifest, manifestFile);
             FedoraClient.addDatastream(pid, MANIFEST_DSID).content(manifestFile).execute(fc);
+            manifestCache.put(pid, manifest);
             logger.trace("updated manifest in ingest operation object {}", pid);
-
-            
-            // 5. write that manifest to Solr (which will be an "in-progress" 
-            //    operation
-            IngestSolrDocument d = IngestSolrDocument.newIngest(institutionId, manifest);
-            solr.add(AptrustSolrDocument.createValidSolrDocument(d));
-            solr.commit();
-            logger.info("wrote manifest {} to solr", manifest.getId() );
+            pendingObjects.addManifest(manifest, 0);
 
             // 6. see if any of the referenced objects have already arrived and 
             //    process them
-            long ingestedObjectCount = 0;
             for (String oPid : objectPids) {
                 if (cache.isObjectComplete(oPid)) {
-                    ingestObject(pid, ingestedObjectCount ++, oPid, offline);
+                    ingestObject(pid, oPid, offline);
                 }
             }
 
@@ -256,15 +319,15 @@ public class DropboxProcessor implements SpaceListener {
             try {
                 logger.error("Error while processing manifest", t);
                 if (pid != null) {
+                    pendingObjects.removeManifest(pid);
+                    manifestCache.remove(pid);
                     FedoraClient.purgeObject(pid).execute(fc);
                 }
-                solr.rollback();
 
-                // now log the error in Solr
+                // now log the error in Solr (replacing any in-progress record)
                 if (manifest != null) {
                     IngestSolrDocument doc = IngestSolrDocument.failedIngest(institutionId, manifest, "System error while processing manifest!" + t.getMessage() != null ? " (" + t.getMessage() + ")" : "");
-                    solr.add(AptrustSolrDocument.createValidSolrDocument(doc));
-                    solr.commit();
+                    solrWriter.add(AptrustSolrDocument.createValidSolrDocument(doc));
                 }
             } catch (Throwable t2) {
                 throw new AptrustException("Exception while attempting to recover from previous exception." + pid + "!", t2);
@@ -296,41 +359,29 @@ public class DropboxProcessor implements SpaceListener {
             throw new RuntimeException(ex);
         }
 
-        if (!cache.isObjectComplete(objectId)) {
-            return;
+        if (cache.isObjectComplete(objectId)) {
+            processCompleteObject(objectId, offline);
         }
+    }
 
-        // 3.  query SOLR to determine if there's a manifest waiting for this
-        //     object
-        ModifiableSolrParams params = new ModifiableSolrParams();
-        SolrQueryClause ingestRecords = new SolrQueryClause(AptrustSolrDocument.RECORD_TYPE, "ingest");
-        SolrQueryClause currentInstitution = new SolrQueryClause(AptrustSolrDocument.INSTITUTION_ID, institutionId);
-        SolrQueryClause inProgress = new SolrQueryClause(AptrustSolrDocument.OPERATION_STATUS, IngestStatus.IN_PROGRESS.name());
-        SolrQueryClause hasPid = new SolrQueryClause(AptrustSolrDocument.INCLUDED_PID, objectId);
-        String query = ingestRecords.and(currentInstitution).and(inProgress).and(hasPid).getQueryString();
-        params.set("q", query);
-        QueryResponse solrResponse = null;
-        try {
-            logger.trace("searching for \"{}\"", query);
-            solrResponse = solr.query(params);
-            logger.trace(solrResponse.getResults().getNumFound() + " items found");
-            if (solrResponse.getResults().getNumFound() > 1) {
-                throw new AptrustException("There are more than one manifest expecting the object " + objectId);
-            }
-        } catch (SolrServerException ex) {
-            throw new AptrustException(ex);
-        }
+    /**
+     * Ingests the given object if an in-progress manifest is waiting for it.
+     * This method must only be called once it has been verified that every
+     * part of the object has arrived.
+     */
+    private void processCompleteObject(String objectId, boolean offline) throws AptrustException {
+        // 3.  determine if there's a manifest waiting for this object
+        String manifestId = pendingObjects.getManifestId(objectId);
 
         // 3a. if not, return.  When the manifest arrives it will be ingested.
-        if (solrResponse.getResults().getNumFound() == 0) {
+        if (manifestId == null) {
             logger.trace("no manifest found for complete object " + objectId);
             return;
         } else {
             // 3b. if so, process this object and update the "ingest" record as
             //     well as the "package" and "object" records
-            String manifestId = (String) solrResponse.getResults().get(0).getFieldValue(AptrustSolrDocument.ID); 
             try {
-                ingestObject(manifestId, ((Integer) solrResponse.getResults().get(0).getFieldValue(AptrustSolrDocument.COMPLETED_OBJECT_COUNT)).longValue(), objectId, offline);
+                ingestObject(manifestId, objectId, offline);
             } catch (Exception ex) {
                 logger.error("Error ingesting object " + objectId, ex);
                 // 4.  if any sort of error occurs while processing the file, update
@@ -338,7 +389,7 @@ public class DropboxProcessor implements SpaceListener {
                 //     (also this should be noted somewhere in the provenance record
                 //     for safekeeping)
                 try {
-                    reportIngestError(ex, pullManifestFromFedora(manifestId));
+                    reportIngestError(ex, getManifest(manifestId));
                 } catch (Exception exe) {
                     throw new RuntimeException(exe);
                 }
@@ -348,19 +399,51 @@ public class DropboxProcessor implements SpaceListener {
 
     /**
      * Stores a record in Solr indicating an exception that occurred while
-     * processing a manifest or file.
+     * processing a manifest or file.  The manifest is no longer in progress,
+     * so no further objects will be ingested for it.
      * @throws IOException 
      * @throws SolrServerException 
      */
     private void reportIngestError(Throwable t, IngestManifest m) {
         try {
-            solr.add(AptrustSolrDocument.createValidSolrDocument(IngestSolrDocument.failedIngest(institutionId, m, t.getMessage())));
-            solr.commit();
+            pendingObjects.removeManifest(m.getId());
+            solrWriter.add(AptrustSolrDocument.createValidSolrDocument(IngestSolrDocument.failedIngest(institutionId, m, t.getMessage())));
+            deleteIngestProgress(m.getId());
         } catch (Throwable thrown) {
             logger.error("Error while reporting error!", thrown);
         }
     }
 
+    /**
+     * Waits until the records of an object that has been moved to production
+     * are committed, since the move can't be undone and the ingest can't be
+     * recovered (see loadPendingObjects()) without them.  If they can't be
+     * committed they remain buffered and are sent again by the writer, so the
+     * ingest isn't reported as failed.
+     */
+    private void commitMovedObject(String pid) {
+        try {
+            solrWriter.commit();
+        } catch (Exception ex) {
+            logger.error("Unable to commit the records of " + pid + ", which was moved to production (they will be sent again)!", ex);
+        }
+    }
+
+    /**
+     * Deletes the progress record of an ingest operation that is no longer
+     * in progress.  A record that can't be deleted is harmless (a completed
+     * or failed ingest record is never read with its progress) so a failure
+     * is only logged.
+     */
+    private void deleteIngestProgress(String manifestId) {
+        String id = new IngestProgressSolrDocument(institutionId, manifestId, 0).getId();
+        try {
+            solrWriter.deleteById(id);
+        } catch (Exception ex) {
+            logger.warn("Unable to delete the progress record " + id + "!", ex);
+        }
+    }
+
     /**
      * <p>
      * A helper method that maintains the idToContentMap, foxmlCache and 
@@ -369,33 +452,35 @@ public class DropboxProcessor implements SpaceListener {
      * pieces or manifest arrive.
      * </p>
      * <p>
-     * The current implementation stores this information in memory.  That is 
-     * short-term solution.  To scale up, this should use some other mechanism
-     * (perhaps Solr or a RDBMS).
+     * Where this information is stored depends on the ContentAnalysisCache
+     * implementation with which this processor was constructed; a
+     * JournaledContentAnalysisCache retains it across restarts.
      * </p>
      * @throws ContentStoreException 
      * @throws IOException 
      * @throws JAXBException 
-     * @throws ParserConfigurationException 
-     * @throws SAXException 
+     * @throws XMLStreamException 
      */
-    private void addRecognizedContent(String contentId, String objectId) throws ContentStoreException, IOException, JAXBException, SAXException, ParserConfigurationException {
+    private void addRecognizedContent(String contentId, String objectId) throws ContentStoreException, IOException, JAXBException, XMLStreamException {
         // parse and add it to the foxmlCache if appropriate
         Matcher m = FOXML_CONTENTID_PATTERN.matcher(contentId);
         if (m.matches()) {
             Content foxml = contentStore.getContent(stagingSpaceId, contentId);
             logger.debug("parsing and caching foxml for " +  objectId);
-            FedoraObject o = new FOXMLReader().readObject(foxml.getStream());
-            cache.cacheObjectTitle(o.pid(), o.label());
-            cache.assertObjectParts(getRequiredContentIdsFromFedoraObject(o), o.pid());
+            FOXMLSummary o = null;
+            try {
+                o = FOXMLSummary.read(foxml.getStream());
+            } finally {
+                foxml.getStream().close();
+            }
+            cache.cacheObjectTitle(o.getPid(), o.getLabel());
+            cache.assertObjectParts(o.getRequiredContentIds(), o.getPid());
         }
 
         // parse and add it to the manifest cache if appropriate
         if (contentId.endsWith(".dura-manifest")) {
             Content manifest = contentStore.getContent(stagingSpaceId, contentId);
-            JAXBContext jc = JAXBContext.newInstance(DuraChunkManifest.class);
-            Unmarshaller u = jc.createUnmarshaller();
-            DuraChunkManifest chunkManifest = (DuraChunkManifest) u.unmarshal(manifest.getStream());
+            DuraChunkManifest chunkManifest = IngestXmlBindings.CHUNK_MANIFEST.unmarshal(manifest.getStream(), DuraChunkManifest.class);
             cache.notifyChunkManifest(contentId.replace(".dura-manifest", ""), chunkManifest);
         }
 
@@ -403,24 +488,6 @@ public class DropboxProcessor implements SpaceListener {
         cache.notifyContentId(contentId);
     }
 
-    /**
-     * Walks through the fedora object and for each version of each MANAGED 
-     * datastream, creates the contentId that FedoraCloudSync would use for that
-     * datastream version.
-     */
-    private Collection<String> getRequiredContentIdsFromFedoraObject(FedoraObject o) {
-        List<String> requiredContentIds = new ArrayList<String>();
-        requiredContentIds.add(o.pid());
-        for (Datastream ds : o.datastreams().values()) {
-            if (ds.controlGroup().equals(ControlGroup.MANAGED)) {
-                for (DatastreamVersion v : ds.versions()) {
-                    requiredContentIds.add(o.pid() + "+" + ds.id() + "+" + v.id());
-                }
-            }
-        }
-        return requiredContentIds;
-    }
-
     public static final Pattern FEDORA_CLOUDSYNC_CONTENTID_PATTERN = Pattern.compile("^(([A-Za-z0-9]|-|\\.)+:(([A-Za-z0-9])|-|\\.|~|_|(%[0-9A-F]{2}))+)(\\+.*)*$");
     public static final Pattern FOXML_CONTENTID_PATTERN = Pattern.compile("^(([A-Za-z0-9]|-|\\.)+:(([A-Za-z0-9])|-|\\.|~|_|(%[0-9A-F]{2}))+)$");
     
@@ -450,7 +517,13 @@ public class DropboxProcessor implements SpaceListener {
         m = zipFilePattern.matcher(contentId);
         if (m.matches()) {
             try {
-                DSpaceAIPPackage p = new DSpaceAIPPackage(contentStore.getContent(stagingSpaceId, contentId).getStream());
+                InputStream aip = contentStore.getContent(stagingSpaceId, contentId).getStream();
+                DSpaceAIPPackage p = null;
+                try {
+                    p = new DSpaceAIPPackage(aip);
+                } finally {
+                    IOUtils.closeQuietly(aip);
+                }
                 cache.cacheObjectTitle(p.getId(), p.getTitle());
                 cache.assertObjectParts(Collections.singleton(contentId), p.getId());
                 return p.getId();
@@ -476,11 +549,13 @@ public class DropboxProcessor implements SpaceListener {
      * @throws JAXBException 
      * @throws FedoraClientException 
      */
-    private void ingestObject(String manifestId, long ingestedObjectCount, String pid, boolean offline) {
+    private void ingestObject(String manifestId, String pid, boolean offline) {
         IngestManifest manifest = null;
+        // the solr updates are sent together, once the ingest has succeeded
+        List<SolrInputDocument> solrDocs = new ArrayList<SolrInputDocument>();
         try {
             // 1.  pull the manifest from fedora
-            manifest = pullManifestFromFedora(manifestId);
+            manifest = getManifest(manifestId);
     
             IngestPackage ingestPackage = null;
             for (IngestPackage p : manifest.getPackagesToSubmit()) {
@@ -492,55 +567,152 @@ public class DropboxProcessor implements SpaceListener {
                 }
             }
     
-            // 2.  move the content to production)
-            for (String contentId : cache.getObjectContent(pid)) {
-                contentStore.copyContent(stagingSpaceId, contentId, productionSpaceId, contentId);
+            // 2.  move the content to production (all of it or none of it)
+            //     (only the size of chunked content is known, from its chunk
+            //     manifests, so the reported size excludes unchunked
+            //     parts)
+            Collection<String> contentIds = cache.getObjectContent(pid);
+            long byteCount = cache.getObjectByteSize(pid);
+            ContentTransfer.Result transfer = contentTransfer.move(contentStore, stagingSpaceId, productionSpaceId, contentIds, byteCount);
+            logger.info("Moved object " + pid + " from staging to production: " + transfer + ".");
+            Date ingestDate = new Date();
+            for (String contentId : contentIds) {
                 // TODO: ensure that fixity checking is part of the copy operation in DuraCloud
-                solr.add(AptrustSolrDocument.createValidSolrDocument(new ContentSolrDocument(institutionId, ingestPackage.getMetadata().getId(), pid, contentId, true, new Date())));
-                logger.info("Copied content {} from staging to production.", contentId);
+                solrDocs.add(AptrustSolrDocument.createValidSolrDocument(new ContentSolrDocument(institutionId, ingestPackage.getMetadata().getId(), pid, contentId, true, ingestDate)));
             }
-
-            for (String contentId : cache.getObjectContent(pid)) {
-                contentStore.deleteContent(stagingSpaceId, contentId);
-                if (offline) {
+            if (offline) {
+                for (String contentId : transfer.getDeletedContentIds()) {
                     cache.forgetContentId(contentId);
                 }
-                logger.info("Deleted content {} from staging.", contentId);
             }
 
-            // 3.  update the manifest in Solr
-            ingestedObjectCount ++;
+            // 3.  update the manifest's progress in Solr (the ingest record
+            //     itself, with its lists of pids and packages, is only
+            //     rewritten when the operation completes, at which point the
+            //     progress record is deleted)
+            long ingestedObjectCount = pendingObjects.objectIngested(manifestId, pid);
             if (ingestedObjectCount == manifest.getTotalObjectsToSubmit()) {
                 // create all the package and object records in Solr
                 for (IngestPackage p : manifest.getPackagesToSubmit()) {
                     PackageSolrDocument pDoc = new PackageSolrDocument(p);
-                    solr.add(AptrustSolrDocument.createValidSolrDocument(pDoc));
+                    solrDocs.add(AptrustSolrDocument.createValidSolrDocument(pDoc));
                     for (DigitalObject o : p.getDigitalObjects()) {
                         ObjectSolrDocument oDoc = new ObjectSolrDocument(o.getId(), p, cache.getObjectTitle(o.getId()));
-                        solr.add(AptrustSolrDocument.createValidSolrDocument(oDoc));
-                        cache.forgetObject(o.getId());
+                        solrDocs.add(AptrustSolrDocument.createValidSolrDocument(oDoc));
                     }
                 }
                 // update the ingest object in Solr
                 IngestSolrDocument solrDoc = IngestSolrDocument.completedIngest(institutionId, manifest, new Date());
-                solr.add(AptrustSolrDocument.createValidSolrDocument(solrDoc));
-                solr.commit();
+                solrDocs.add(AptrustSolrDocument.createValidSolrDocument(solrDoc));
+                solrWriter.add(solrDocs);
+                commitMovedObject(pid);
+                deleteIngestProgress(manifestId);
+                pendingObjects.removeManifest(manifestId);
+                manifestCache.remove(manifestId);
+                for (IngestPackage p : manifest.getPackagesToSubmit()) {
+                    for (DigitalObject o : p.getDigitalObjects()) {
+                        cache.forgetObject(o.getId());
+                    }
+                }
             } else {
-                IngestSolrDocument solrDoc = IngestSolrDocument.updateIngest(institutionId, manifest, (int) ingestedObjectCount);
-                solr.add(AptrustSolrDocument.createValidSolrDocument(solrDoc));
-                solr.commit();
+                IngestProgressSolrDocument progressDoc = new IngestProgressSolrDocument(institutionId, manifestId, (int) ingestedObjectCount);
+                solrDocs.add(AptrustSolrDocument.createValidSolrDocument(progressDoc));
+                solrWriter.add(solrDocs);
+                commitMovedObject(pid);
             }
         } catch (Throwable t) {
             logger.error("Exception while ingesting object " + pid + ".", t);
-            try {
-                solr.rollback();
+            // nothing from this object was sent to solr, so there's nothing
+            // to roll back
+            if (manifest != null) {
                 reportIngestError(t, manifest);
-            } catch (Exception ex) {
-                logger.error("Exception while rolling back solr!", ex);
             }
         }
     }
 
+    /**
+     * Populates the index of pending objects from the in-progress ingest
+     * records in Solr for this institution (and their progress records) and
+     * their manifests.
+     */
+    private void loadPendingObjects() throws AptrustException {
+        Map<String, Integer> progress = loadIngestProgress();
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        SolrQueryClause ingestRecords = new SolrQueryClause(AptrustSolrDocument.RECORD_TYPE, "ingest");
+        SolrQueryClause currentInstitution = new SolrQueryClause(AptrustSolrDocument.INSTITUTION_ID, institutionId);
+        SolrQueryClause inProgress = new SolrQueryClause(AptrustSolrDocument.OPERATION_STATUS, IngestStatus.IN_PROGRESS.name());
+        params.set("q", ingestRecords.and(currentInstitution).and(inProgress).getQueryString());
+        params.set("fl", AptrustSolrDocument.ID + "," + AptrustSolrDocument.COMPLETED_OBJECT_COUNT);
+        params.set("rows", 500);
+        try {
+            int start = 0;
+            SolrDocumentList results = null;
+            do {
+                params.set("start", start);
+                results = solr.query(params).getResults();
+                for (SolrDocument result : results) {
+                    String manifestId = (String) result.getFieldValue(AptrustSolrDocument.ID);
+                    Integer ingestedObjectCount = progress.get(manifestId);
+                    if (ingestedObjectCount == null) {
+                        ingestedObjectCount = (Integer) result.getFieldValue(AptrustSolrDocument.COMPLETED_OBJECT_COUNT);
+                    }
+                    pendingObjects.addManifest(getManifest(manifestId), ingestedObjectCount);
+                }
+                start += results.size();
+            } while (!results.isEmpty() && start < results.getNumFound());
+        } catch (SolrServerException ex) {
+            throw new AptrustException(ex);
+        } catch (JAXBException ex) {
+            throw new AptrustException(ex);
+        } catch (FedoraClientException ex) {
+            throw new AptrustException(ex);
+        }
+        logger.info("Found " + pendingObjects.getManifestIds().size() + " in-progress manifests awaiting " + pendingObjects.getPendingObjectCount() + " objects for " + institutionId + ".");
+    }
+
+    /**
+     * Gets the number of objects ingested for each ingest operation of this
+     * institution that has a progress record in Solr, by ingest id.
+     */
+    private Map<String, Integer> loadIngestProgress() throws AptrustException {
+        Map<String, Integer> progress = new HashMap<String, Integer>();
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        SolrQueryClause progressRecords = new SolrQueryClause(AptrustSolrDocument.RECORD_TYPE, "ingest_progress");
+        SolrQueryClause currentInstitution = new SolrQueryClause(AptrustSolrDocument.INSTITUTION_ID, institutionId);
+        params.set("q", progressRecords.and(currentInstitution).getQueryString());
+        params.set("fl", AptrustSolrDocument.INGEST_ID + "," + AptrustSolrDocument.COMPLETED_OBJECT_COUNT);
+        params.set("rows", 500);
+        try {
+            int start = 0;
+            SolrDocumentList results = null;
+            do {
+                params.set("start", start);
+                results = solr.query(params).getResults();
+                for (SolrDocument result : results) {
+                    progress.put((String) result.getFieldValue(AptrustSolrDocument.INGEST_ID), (Integer) result.getFieldValue(AptrustSolrDocument.COMPLETED_OBJECT_COUNT));
+                }
+                start += results.size();
+            } while (!results.isEmpty() && start < results.getNumFound());
+        } catch (SolrServerException ex) {
+            throw new AptrustException(ex);
+        }
+        return progress;
+    }
+
+    /**
+     * Gets the specified IngestManifest from the manifest cache, or from
+     * fedora (caching it) if it isn't cached.  The returned manifest must not
+     * be modified.
+     */
+    private IngestManifest getManifest(String manifestId) throws JAXBException, FedoraClientException {
+        IngestManifest manifest = manifestCache.get(manifestId);
+        if (manifest == null) {
+            manifest = pullManifestFromFedora(manifestId);
+            manifestCache.put(manifestId, manifest);
+        }
+        return manifest;
+    }
+
     /**
      * A helper method to fetch (and parse) the specified IngestManifest from 
      * fedora.
@@ -551,9 +723,7 @@ public class DropboxProcessor implements SpaceListener {
      * @throws FedoraClientException if an error occurs accessing fedora
      */
     private IngestManifest pullManifestFromFedora(String manifestId) throws JAXBException, FedoraClientException {
-        JAXBContext jc = JAXBContext.newInstance(IngestManifest.class, IngestPackage.class, DigitalObject.class, APTrustMetadata.class);
-        Unmarshaller u = jc.createUnmarshaller();
-        IngestManifest manifest = (IngestManifest) u.unmarshal(FedoraClient.getDatastreamDissemination((String) manifestId, MANIFEST_DSID).execute(fc).getEntityInputStream());
+        IngestManifest manifest = IngestXmlBindings.MANIFEST.unmarshal(FedoraClient.getDatastreamDissemination((String) manifestId, MANIFEST_DSID).execute(fc).getEntityInputStream(), IngestManifest.class);
         manifest.setId(manifestId);
         return manifest;
     }
@@ -0,0 +1,156 @@
+package org.aptrust.ingest.ips;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * <p>
+ *   The few facts about a Fedora object that are needed to recognize its
+ *   parts in a staging space: its pid, its label and the contentId that
+ *   Fedora CloudSync uses for each version of each of its MANAGED
+ *   datastreams.
+ * </p>
+ * <p>
+ *   {@link #read} gathers these with a single streaming pass over the FOXML
+ *   rather than building a complete FedoraObject.  Inline (X) datastreams,
+ *   including the audit trail, and the content of every datastream version
+ *   are skipped without being retained, so the cost of reading an object no
+ *   longer grows with the size of its inline metadata or the length of its
+ *   version history.  Reading stops at the end of the digitalObject
+ *   element.
+ * </p>
+ */
+public class FOXMLSummary {
+
+    private static final String LABEL_PROPERTY = "info:fedora/fedora-system:def/model#label";
+
+    private static final String MANAGED = "M";
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private String pid;
+
+    private String label;
+
+    private List<String> requiredContentIds;
+
+    private FOXMLSummary(String pid, String label, List<String> requiredContentIds) {
+        this.pid = pid;
+        this.label = label;
+        this.requiredContentIds = Collections.unmodifiableList(requiredContentIds);
+    }
+
+    public String getPid() {
+        return pid;
+    }
+
+    /**
+     * Gets the object's label, or null if it has none.
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Gets the contentIds (as written by Fedora CloudSync) of every part of
+     * the object: the FOXML itself followed by each version of each MANAGED
+     * datastream.
+     */
+    public List<String> getRequiredContentIds() {
+        return requiredContentIds;
+    }
+
+    /**
+     * Reads the summary of the object serialized as FOXML in the given
+     * stream, which is not closed.
+     * @throws XMLStreamException if the stream isn't well-formed XML or
+     * doesn't contain a FOXML digitalObject
+     */
+    public static FOXMLSummary read(InputStream foxml) throws XMLStreamException {
+        XMLStreamReader r = FACTORY.createXMLStreamReader(foxml);
+        try {
+            String pid = null;
+            String label = null;
+            List<String> contentIds = new ArrayList<String>();
+            String managedDatastreamId = null;
+            while (r.hasNext()) {
+                int event = r.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = r.getLocalName();
+                    if (name.equals("digitalObject")) {
+                        pid = r.getAttributeValue(null, "PID");
+                        if (pid == null) {
+                            throw new XMLStreamException("The digitalObject has no PID!", r.getLocation());
+                        }
+                        contentIds.add(pid);
+                    } else if (pid == null) {
+                        throw new XMLStreamException("Expected a FOXML digitalObject, found " + name + "!", r.getLocation());
+                    } else if (name.equals("objectProperties")) {
+                        // descend into the properties
+                    } else if (name.equals("property")) {
+                        if (LABEL_PROPERTY.equals(r.getAttributeValue(null, "NAME"))) {
+                            label = r.getAttributeValue(null, "VALUE");
+                        }
+                        skipElement(r);
+                    } else if (name.equals("datastream")) {
+                        if (MANAGED.equals(r.getAttributeValue(null, "CONTROL_GROUP"))) {
+                            managedDatastreamId = r.getAttributeValue(null, "ID");
+                        } else {
+                            skipElement(r);
+                        }
+                    } else if (name.equals("datastreamVersion") && managedDatastreamId != null) {
+                        contentIds.add(pid + "+" + managedDatastreamId + "+" + r.getAttributeValue(null, "ID"));
+                        skipElement(r);
+                    } else {
+                        skipElement(r);
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String name = r.getLocalName();
+                    if (name.equals("datastream")) {
+                        managedDatastreamId = null;
+                    } else if (name.equals("digitalObject")) {
+                        break;
+                    }
+                }
+            }
+            if (pid == null) {
+                throw new XMLStreamException("No FOXML digitalObject was found!");
+            }
+            return new FOXMLSummary(pid, label, contentIds);
+        } finally {
+            r.close();
+        }
+    }
+
+    /**
+     * Advances the reader past the end of the element whose start it is
+     * positioned on.
+     */
+    private static void skipElement(XMLStreamReader r) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = r.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth ++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth --;
+            }
+        }
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+}
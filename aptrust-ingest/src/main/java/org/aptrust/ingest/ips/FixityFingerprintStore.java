@@ -0,0 +1,241 @@
+package org.aptrust.ingest.ips;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ *   A compact record of the outcome of the most recent fixity check of each
+ *   item of content: whether it passed, a 128-bit fingerprint of its checksum
+ *   and the check date written to its Solr record.  FixityReportApplier
+ *   consults this store so that only content whose outcome has changed since
+ *   the previous report (or whose record's date is due to be refreshed) needs
+ *   its Solr record rewritten.
+ * </p>
+ * <p>
+ *   Ids are held in a ContentIdDictionary and fingerprints in parallel arrays
+ *   indexed by the id's handle, so each item costs a few dozen bytes rather
+ *   than several objects.  If a file is given the store is loaded from it on
+ *   construction and written to it (atomically) by {@link #save}; otherwise
+ *   it lives only as long as the process.  This class is thread safe.
+ * </p>
+ */
+public class FixityFingerprintStore {
+
+    private static final int MAGIC = 0x46505332; // "FPS2"
+
+    /**
+     * The format written before check dates were recorded, which is still
+     * read (with no check dates).
+     */
+    private static final int MAGIC_WITHOUT_DATES = 0x46505331; // "FPS1"
+
+    private static final byte PRESENT = 1;
+
+    private static final byte PASSED = 2;
+
+    final Logger logger = LoggerFactory.getLogger(FixityFingerprintStore.class);
+
+    private File file;
+
+    private ContentIdDictionary ids;
+
+    private long[] fingerprintHigh;
+
+    private long[] fingerprintLow;
+
+    private byte[] flags;
+
+    private long[] checkDates;
+
+    /**
+     * Creates a store that is held only in memory.
+     */
+    public FixityFingerprintStore() {
+        ids = new ContentIdDictionary();
+        fingerprintHigh = new long[1024];
+        fingerprintLow = new long[1024];
+        flags = new byte[1024];
+        checkDates = new long[1024];
+    }
+
+    /**
+     * Creates a store that is loaded from (if it exists) and saved to the
+     * given file.
+     */
+    public FixityFingerprintStore(File file) throws IOException {
+        this();
+        this.file = file;
+        if (file.exists()) {
+            load();
+        }
+    }
+
+    /**
+     * Determines whether the given outcome is the same as the one last
+     * recorded for the given id.
+     * @return false if it differs or if nothing is recorded for the id
+     */
+    public synchronized boolean isUnchanged(String id, String checksum, boolean passed) {
+        int handle = ids.lookup(id);
+        if (handle < 0 || (flags[handle] & PRESENT) == 0) {
+            return false;
+        }
+        long[] fingerprint = fingerprint(checksum);
+        return fingerprintHigh[handle] == fingerprint[0] && fingerprintLow[handle] == fingerprint[1]
+                && ((flags[handle] & PASSED) != 0) == passed;
+    }
+
+    /**
+     * Gets the check date recorded with the outcome for the given id.
+     * @return the date, or null if nothing (or no date) is recorded
+     */
+    public synchronized Date getCheckDate(String id) {
+        int handle = ids.lookup(id);
+        if (handle < 0 || (flags[handle] & PRESENT) == 0 || checkDates[handle] == 0) {
+            return null;
+        }
+        return new Date(checkDates[handle]);
+    }
+
+    /**
+     * Records the outcome of the latest fixity check for the given id, and
+     * the check date written to its record.
+     */
+    public synchronized void update(String id, String checksum, boolean passed, Date checkDate) {
+        long[] fingerprint = fingerprint(checksum);
+        put(id, fingerprint[0], fingerprint[1], passed, checkDate.getTime());
+    }
+
+    /**
+     * Forgets whatever is recorded for the given id.
+     */
+    public synchronized void forget(String id) {
+        int handle = ids.lookup(id);
+        if (handle >= 0) {
+            flags[handle] = 0;
+            ids.release(handle);
+        }
+    }
+
+    public synchronized int size() {
+        return ids.size();
+    }
+
+    /**
+     * Writes the store to its file, if it has one.
+     */
+    public synchronized void save() throws IOException {
+        if (file == null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tempFile);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(ids.size());
+            for (int handle = 0; handle < ids.getHandleLimit(); handle ++) {
+                if (ids.isAssigned(handle)) {
+                    out.writeUTF(ids.toString(handle));
+                    out.writeLong(fingerprintHigh[handle]);
+                    out.writeLong(fingerprintLow[handle]);
+                    out.writeBoolean((flags[handle] & PASSED) != 0);
+                    out.writeLong(checkDates[handle]);
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            out.close();
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.debug("Saved " + ids.size() + " fixity fingerprints in " + (System.currentTimeMillis() - start) + "ms.");
+    }
+
+    private void load() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int magic = in.readInt();
+            if (magic != MAGIC && magic != MAGIC_WITHOUT_DATES) {
+                throw new IOException(file.getAbsolutePath() + " is not a fixity fingerprint store!");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i ++) {
+                put(in.readUTF(), in.readLong(), in.readLong(), in.readBoolean(), magic == MAGIC ? in.readLong() : 0);
+            }
+        } finally {
+            in.close();
+        }
+        logger.info("Loaded " + ids.size() + " fixity fingerprints from " + file.getAbsolutePath() + ".");
+    }
+
+    private void put(String id, long high, long low, boolean passed, long checkDate) {
+        int handle = ids.intern(id);
+        if (handle >= flags.length) {
+            int capacity = Math.max(handle + 1, flags.length * 2);
+            fingerprintHigh = Arrays.copyOf(fingerprintHigh, capacity);
+            fingerprintLow = Arrays.copyOf(fingerprintLow, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+            checkDates = Arrays.copyOf(checkDates, capacity);
+        }
+        fingerprintHigh[handle] = high;
+        fingerprintLow[handle] = low;
+        flags[handle] = (byte) (PRESENT | (passed ? PASSED : 0));
+        checkDates[handle] = checkDate;
+    }
+
+    /**
+     * Gets a 128-bit fingerprint of the given checksum: the checksum itself
+     * if it's a hex-encoded MD5, otherwise the MD5 of the checksum.
+     */
+    static long[] fingerprint(String checksum) {
+        if (checksum == null) {
+            checksum = "";
+        }
+        if (checksum.length() == 32) {
+            long[] value = new long[2];
+            boolean hex = true;
+            for (int i = 0; i < 32 && hex; i ++) {
+                int digit = Character.digit(checksum.charAt(i), 16);
+                if (digit < 0) {
+                    hex = false;
+                } else {
+                    value[i / 16] = (value[i / 16] << 4) | digit;
+                }
+            }
+            if (hex) {
+                return value;
+            }
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(checksum.getBytes("UTF-8"));
+            long[] value = new long[2];
+            for (int i = 0; i < 16; i ++) {
+                value[i / 8] = (value[i / 8] << 8) | (digest[i] & 0xff);
+            }
+            return value;
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        } catch (UnsupportedEncodingException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
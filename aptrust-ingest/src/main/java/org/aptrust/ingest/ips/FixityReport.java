@@ -23,10 +23,12 @@ public class FixityReport {
 
     private Map<String, FixityCheck> contentIdToCheckMap;
 
+    private static final String REPORT_DATE_FORMAT = "yyyy-MM-dd'T'hh:mm";
+
     public static final Pattern REPORT_CONTENT_ID_PATTERN = Pattern.compile("bit-integrity/fixity-report-fingerprints-([^-]+)-(\\d\\d\\d\\d-\\d\\d-\\d\\dT\\d\\d:\\d\\d)-vs-manifest-(\\d\\d\\d\\d-\\d\\d-\\d\\dT\\d\\d:\\d\\d)\\.tsv");
 
     public FixityReport(String contentId, InputStream is) throws IOException {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'hh:mm");
+        SimpleDateFormat dateFormat = new SimpleDateFormat(REPORT_DATE_FORMAT);
         Matcher m = REPORT_CONTENT_ID_PATTERN.matcher(contentId);
         if (m.matches()) {
             try {
@@ -38,12 +40,8 @@ public class FixityReport {
                 BufferedReader r = new BufferedReader(new InputStreamReader(is));
                 String line = r.readLine(); // reads the header line
                 while ((line = r.readLine()) != null) {
-                    String[] cols = line.split("\t");
-                    FixityCheck c = new FixityCheck();
-                    c.checksum = cols[3];
-                    c.previousChecksum = cols[2];
-                    c.passed = "VALID".equals(cols[4]);
-                    contentIdToCheckMap.put(cols[1], c);
+                    FixityCheck c = parseFixityCheck(line);
+                    contentIdToCheckMap.put(c.contentId, c);
                 }
             } catch (ParseException ex) {
                 throw new IllegalArgumentException("Provided contentId does not have parsible dates!", ex);
@@ -93,7 +91,9 @@ public class FixityReport {
         this.contentIdToCheckMap = contentIdToCheckMap;
     }
 
-    public class FixityCheck {
+    public static class FixityCheck {
+
+        public String contentId;
 
         public String checksum;
 
@@ -103,6 +103,36 @@ public class FixityReport {
 
     }
 
+    /**
+     * Parses one (non-header) line of a fixity report.
+     */
+    public static FixityCheck parseFixityCheck(String line) {
+        String[] cols = line.split("\t");
+        FixityCheck c = new FixityCheck();
+        c.contentId = cols[1];
+        c.checksum = cols[3];
+        c.previousChecksum = cols[2];
+        c.passed = "VALID".equals(cols[4]);
+        return c;
+    }
+
+    /**
+     * Gets the date of the report with the given contentId, or null if the
+     * contentId isn't that of a fixity report.
+     */
+    public static Date getReportDateFromReportContentId(String contentId) {
+        Matcher m = REPORT_CONTENT_ID_PATTERN.matcher(contentId);
+        if (m.matches()) {
+            try {
+                return new SimpleDateFormat(REPORT_DATE_FORMAT).parse(m.group(2));
+            } catch (ParseException ex) {
+                throw new IllegalArgumentException("Provided contentId does not have parsible dates!", ex);
+            }
+        } else {
+            return null;
+        }
+    }
+
     public static String getSpaceIdFromReportContentId(String contentId) {
         Matcher m = REPORT_CONTENT_ID_PATTERN.matcher(contentId);
         if (m.matches()) {
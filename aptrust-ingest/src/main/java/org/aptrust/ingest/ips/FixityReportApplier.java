@@ -0,0 +1,430 @@
+package org.aptrust.ingest.ips;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.aptrust.common.exception.AptrustException;
+import org.aptrust.common.solr.AptrustSolrDocument;
+import org.aptrust.common.solr.BatchingSolrWriter;
+import org.aptrust.common.solr.ContentSolrDocument;
+import org.aptrust.ingest.ips.FixityReport.FixityCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ *   Applies a DuraCloud bit-integrity (fixity) report to the "content"
+ *   records in Solr in bulk.  The report is read as a stream, a line at a
+ *   time, and its lines are gathered into batches.  The records for each
+ *   batch are fetched with a single query for all of their ids, updated with
+ *   the results of the fixity check and passed together to the (shared)
+ *   BatchingSolrWriter.  Batches are processed in parallel by a fixed number
+ *   of partitions (worker threads), and only a few batches per partition are
+ *   held in memory at once, so a report for a space with millions of items
+ *   needs neither millions of Solr round trips nor a map of every line.
+ * </p>
+ * <p>
+ *   Lines for content that has no record in Solr (because it was never
+ *   ingested) are skipped.  A batch that can't be applied (because Solr is
+ *   unavailable, for instance) is logged and counted as failed rather than
+ *   failing the whole report.
+ * </p>
+ * <p>
+ *   Because nearly every line of a report repeats the outcome of the
+ *   previous one, the outcome last applied for each item is kept in a
+ *   FixityFingerprintStore and only content whose status or checksum has
+ *   changed is queried for and rewritten.  The fingerprints are only updated
+ *   once the rewritten records have been committed, and only for batches
+ *   that were applied, so content whose change didn't reach the index is
+ *   rewritten again by the next report.
+ * </p>
+ * <p>
+ *   Solr 3.6 can't update a single field of a document, so refreshing the
+ *   last health check date of an unchanged record costs as much as
+ *   rewriting it.  An unchanged record is therefore only rewritten (in the
+ *   same batches as the changed ones) once the date it holds is older than
+ *   the refresh interval, which is kept well within the fixity scheduler's
+ *   window.  Only content that appears in a report is refreshed, so content
+ *   missing from the reports goes stale and is verified by the scheduler.
+ * </p>
+ */
+public class FixityReportApplier {
+
+    public static final int DEFAULT_PARTITION_COUNT = 4;
+
+    /**
+     * The default number of ids per query, which must stay below Solr's
+     * maxBooleanClauses (1024 by default).
+     */
+    public static final int DEFAULT_BATCH_SIZE = 200;
+
+    /**
+     * The default number of days after which the date held by the record of
+     * unchanged content is refreshed.
+     */
+    public static final int DEFAULT_REFRESH_DAYS = 30;
+
+    final Logger logger = LoggerFactory.getLogger(FixityReportApplier.class);
+
+    private SolrServer solr;
+
+    private BatchingSolrWriter solrWriter;
+
+    private int partitionCount;
+
+    private int batchSize;
+
+    private FixityFingerprintStore fingerprints;
+
+    private long refreshMillis;
+
+    private ExecutorService executor;
+
+    public FixityReportApplier(BatchingSolrWriter solrWriter) {
+        this(solrWriter, DEFAULT_PARTITION_COUNT, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates an applier whose fingerprints are held only in memory, so that
+     * the first report applied after a restart is applied in full.
+     */
+    public FixityReportApplier(BatchingSolrWriter solrWriter, int partitionCount, int batchSize) {
+        this(solrWriter, partitionCount, batchSize, new FixityFingerprintStore());
+    }
+
+    public FixityReportApplier(BatchingSolrWriter solrWriter, int partitionCount, int batchSize, FixityFingerprintStore fingerprints) {
+        this(solrWriter, partitionCount, batchSize, fingerprints, DEFAULT_REFRESH_DAYS);
+    }
+
+    /**
+     * @param solrWriter the writer through which updated records are sent,
+     * whose SolrServer is used for queries
+     * @param partitionCount the number of batches applied in parallel
+     * @param batchSize the number of report lines in each batch
+     * @param fingerprints the outcomes last applied, which is updated (and
+     * saved) as each report is applied
+     * @param refreshDays the number of days after which the record of
+     * content whose outcome is unchanged is rewritten with a new date
+     */
+    public FixityReportApplier(BatchingSolrWriter solrWriter, int partitionCount, int batchSize, FixityFingerprintStore fingerprints, int refreshDays) {
+        if (partitionCount < 1) {
+            throw new IllegalArgumentException("At least one partition is required!");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be at least one!");
+        }
+        this.solrWriter = solrWriter;
+        solr = solrWriter.getSolrServer();
+        this.partitionCount = partitionCount;
+        this.batchSize = batchSize;
+        this.fingerprints = fingerprints;
+        refreshMillis = refreshDays * 24L * 60 * 60 * 1000;
+        executor = Executors.newFixedThreadPool(partitionCount, new SpaceEventDispatcher.NamedThreadFactory("fixity-applier"));
+    }
+
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Applies the given report to Solr, returning once every line has been
+     * applied (or has failed to be applied) and the updated records have been
+     * committed.  Only then are the fingerprints of the applied lines updated
+     * and saved.
+     * @param reportId the contentId of the report, from which the space and
+     * date of the report are determined
+     * @param report the report itself, which is not closed
+     * @return a summary of the lines that were applied
+     * @throws AptrustException if the updated records couldn't be committed,
+     * in which case no fingerprint is updated
+     */
+    public Result apply(String reportId, InputStream report) throws IOException, AptrustException {
+        final String spaceId = FixityReport.getSpaceIdFromReportContentId(reportId);
+        final Date reportDate = FixityReport.getReportDateFromReportContentId(reportId);
+        if (spaceId == null) {
+            throw new IllegalArgumentException(reportId + " does not appear to be a fixity report!");
+        }
+        final Date refreshCutoff = new Date(reportDate.getTime() - refreshMillis);
+        final Result result = new Result();
+        final Map<String, FixityCheck> applied = Collections.synchronizedMap(new HashMap<String, FixityCheck>());
+        final Semaphore pendingBatches = new Semaphore(partitionCount * 2);
+        List<Future<?>> batches = new ArrayList<Future<?>>();
+        BufferedReader r = new BufferedReader(new InputStreamReader(report, "UTF-8"));
+        try {
+            r.readLine(); // the header line
+            String line = null;
+            List<FixityCheck> batch = new ArrayList<FixityCheck>(batchSize);
+            while ((line = r.readLine()) != null) {
+                if (line.trim().length() == 0) {
+                    continue;
+                }
+                FixityCheck c = FixityReport.parseFixityCheck(line);
+                String id = ContentSolrDocument.getId(spaceId, c.contentId);
+                if (fingerprints.isUnchanged(id, c.checksum, c.passed)) {
+                    Date checkDate = fingerprints.getCheckDate(id);
+                    if (checkDate != null && !checkDate.before(refreshCutoff)) {
+                        result.rowCount.incrementAndGet();
+                        result.unchangedCount.incrementAndGet();
+                        continue;
+                    }
+                    // unchanged, but the date its record holds is due to be
+                    // refreshed
+                    result.refreshedCount.incrementAndGet();
+                }
+                batch.add(c);
+                if (batch.size() == batchSize) {
+                    batches.add(submit(spaceId, reportDate, batch, result, applied, pendingBatches));
+                    batch = new ArrayList<FixityCheck>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                batches.add(submit(spaceId, reportDate, batch, result, applied, pendingBatches));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new AptrustException("Interrupted while applying " + reportId + "!", ex);
+        } finally {
+            for (Future<?> f : batches) {
+                try {
+                    f.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException ex) {
+                    // already logged and counted by the batch
+                }
+            }
+        }
+        try {
+            solrWriter.commit();
+        } catch (SolrServerException ex) {
+            throw new AptrustException("Unable to commit the records updated by " + reportId + "!", ex);
+        }
+        for (Map.Entry<String, FixityCheck> entry : applied.entrySet()) {
+            fingerprints.update(entry.getKey(), entry.getValue().checksum, entry.getValue().passed, reportDate);
+        }
+        fingerprints.save();
+        result.finish();
+        logger.info("Applied fixity report " + reportId + ": " + result + ".");
+        return result;
+    }
+
+    /**
+     * Applies the given checks of content in the given space to Solr in the
+     * calling thread, whether or not their outcome has changed.  The records
+     * aren't committed, so the fingerprints of the checked content are
+     * forgotten rather than updated, and the next report rewrites their
+     * records.
+     * @param checkDate the date on which the checks were made
+     * @return a summary of the checks that were applied
+     */
+    public Result applyChecks(String spaceId, Date checkDate, List<FixityCheck> checks) throws SolrServerException {
+        Result result = new Result();
+        result.rowCount.addAndGet(checks.size());
+        for (int i = 0; i < checks.size(); i += batchSize) {
+            for (String id : applyBatch(spaceId, checkDate, checks.subList(i, Math.min(checks.size(), i + batchSize)), result).keySet()) {
+                fingerprints.forget(id);
+            }
+        }
+        result.finish();
+        return result;
+    }
+
+    /**
+     * Stops the worker threads once the batches in progress have completed.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(60, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Future<?> submit(final String spaceId, final Date reportDate, final List<FixityCheck> batch, final Result result, final Map<String, FixityCheck> applied, final Semaphore pendingBatches) throws InterruptedException {
+        pendingBatches.acquire();
+        result.rowCount.addAndGet(batch.size());
+        return executor.submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                try {
+                    applied.putAll(applyBatch(spaceId, reportDate, batch, result));
+                    return null;
+                } catch (Exception ex) {
+                    result.failedCount.addAndGet(batch.size());
+                    logger.warn("Error applying the fixity checks for " + batch.size() + " items in space " + spaceId + "!", ex);
+                    throw ex;
+                } finally {
+                    pendingBatches.release();
+                }
+            }});
+    }
+
+    /**
+     * Rewrites the records of the content in the given batch, returning the
+     * check applied to each record, by id.
+     */
+    private Map<String, FixityCheck> applyBatch(String spaceId, Date reportDate, List<FixityCheck> batch, Result result) throws SolrServerException {
+        Map<String, FixityCheck> checks = new LinkedHashMap<String, FixityCheck>();
+        for (FixityCheck c : batch) {
+            checks.put(ContentSolrDocument.getId(spaceId, c.contentId), c);
+        }
+        Map<String, FixityCheck> idToCheck = new LinkedHashMap<String, FixityCheck>(checks);
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set("q", buildIdQuery(idToCheck.keySet()));
+        params.set("rows", idToCheck.size());
+        // the query is far too long for a GET request
+        List<SolrInputDocument> updatedRecords = new ArrayList<SolrInputDocument>();
+        for (SolrDocument doc : solr.query(params, SolrRequest.METHOD.POST).getResults()) {
+            FixityCheck c = idToCheck.remove((String) doc.getFirstValue(AptrustSolrDocument.ID));
+            if (c != null) {
+                ContentSolrDocument updatedRecord = new ContentSolrDocument();
+                AptrustSolrDocument.populateFromSolrDocument(updatedRecord, doc);
+                updatedRecord.setFailedHealthCheck(String.valueOf(!c.passed));
+                updatedRecord.setHealthCheckDate(reportDate);
+                updatedRecords.add(AptrustSolrDocument.createValidSolrDocument(updatedRecord));
+            }
+        }
+        solrWriter.add(updatedRecords);
+        Map<String, FixityCheck> applied = new HashMap<String, FixityCheck>();
+        for (SolrInputDocument doc : updatedRecords) {
+            String id = (String) doc.getFieldValue(AptrustSolrDocument.ID);
+            applied.put(id, checks.get(id));
+        }
+        result.updatedCount.addAndGet(updatedRecords.size());
+        result.unregisteredCount.addAndGet(idToCheck.size());
+        for (FixityCheck c : idToCheck.values()) {
+            logger.debug("Skipping fixity report for un-registered content: " + c.contentId);
+        }
+        return applied;
+    }
+
+    /**
+     * Builds a query that matches the records with any of the given ids.
+     */
+    static String buildIdQuery(Collection<String> ids) {
+        StringBuilder q = new StringBuilder();
+        q.append(AptrustSolrDocument.ID).append(":(");
+        boolean first = true;
+        for (String id : ids) {
+            if (!first) {
+                q.append(" OR ");
+            }
+            first = false;
+            q.append('"').append(id.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return q.append(')').toString();
+    }
+
+    /**
+     * A summary of an applied report.
+     */
+    public static class Result {
+
+        private AtomicLong rowCount = new AtomicLong();
+
+        private AtomicLong updatedCount = new AtomicLong();
+
+        private AtomicLong unchangedCount = new AtomicLong();
+
+        private AtomicLong refreshedCount = new AtomicLong();
+
+        private AtomicLong unregisteredCount = new AtomicLong();
+
+        private AtomicLong failedCount = new AtomicLong();
+
+        private long start = System.currentTimeMillis();
+
+        private long elapsedMillis;
+
+        private void finish() {
+            elapsedMillis = System.currentTimeMillis() - start;
+        }
+
+        /**
+         * Gets the number of lines (excluding the header) in the report.
+         */
+        public long getRowCount() {
+            return rowCount.get();
+        }
+
+        /**
+         * Gets the number of content records that were updated.
+         */
+        public long getUpdatedCount() {
+            return updatedCount.get();
+        }
+
+        /**
+         * Gets the number of lines skipped because they repeat the outcome
+         * last applied for their content.
+         */
+        public long getUnchangedCount() {
+            return unchangedCount.get();
+        }
+
+        /**
+         * Gets the number of lines that repeat the outcome last applied for
+         * their content but were applied anyway, to refresh the date held by
+         * its record.
+         */
+        public long getRefreshedCount() {
+            return refreshedCount.get();
+        }
+
+        /**
+         * Gets the number of lines skipped because their content has no
+         * record in Solr.
+         */
+        public long getUnregisteredCount() {
+            return unregisteredCount.get();
+        }
+
+        /**
+         * Gets the number of lines in batches that couldn't be applied.
+         */
+        public long getFailedCount() {
+            return failedCount.get();
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public long getRowsPerSecond() {
+            return getRowCount() * 1000 / Math.max(1, elapsedMillis);
+        }
+
+        public String toString() {
+            return getRowCount() + " rows (" + getUpdatedCount() + " updated, " + getUnchangedCount() + " unchanged, " + getRefreshedCount() + " refreshed, " + getUnregisteredCount() + " unregistered, "
+                    + getFailedCount() + " failed) in " + elapsedMillis + "ms (" + getRowsPerSecond() + " rows/s)";
+        }
+    }
+}
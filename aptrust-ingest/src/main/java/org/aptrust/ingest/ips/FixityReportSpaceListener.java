@@ -1,16 +1,11 @@
 package org.aptrust.ingest.ips;
 
+import java.io.InputStream;
 import java.util.Iterator;
-import java.util.List;
 
-import org.apache.solr.client.solrj.SolrServer;
-import org.apache.solr.common.SolrDocumentList;
-import org.apache.solr.common.params.ModifiableSolrParams;
-import org.aptrust.common.solr.AptrustSolrDocument;
-import org.aptrust.common.solr.ContentSolrDocument;
-import org.aptrust.ingest.ips.FixityReport.FixityCheck;
+import org.aptrust.common.duracloud.InstrumentedContentStore;
+import org.aptrust.common.duracloud.SpaceTopology;
 import org.duracloud.client.ContentStore;
-import org.duracloud.error.ContentStoreException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,15 +13,32 @@ public class FixityReportSpaceListener implements SpaceListener {
 
     final Logger logger = LoggerFactory.getLogger(DropboxProcessor.class);
 
-    private SolrServer solr;
+    private FixityReportApplier applier;
 
     private ContentStore cs;
 
+    private SpaceTopology topology;
+
     private String reportingSpaceId;
     
-    public FixityReportSpaceListener(String spaceId, SolrServer solr, ContentStore cs) throws Exception {
-        this.solr = solr;
-        this.cs = cs;
+    /**
+     * Creates a listener that applies each report to Solr with the given
+     * (possibly shared) applier, which the caller is responsible for
+     * shutting down.
+     */
+    public FixityReportSpaceListener(String spaceId, FixityReportApplier applier, ContentStore cs) throws Exception {
+        this(spaceId, applier, cs, new SpaceTopology(cs));
+    }
+
+    /**
+     * Creates a listener that applies each report to Solr with the given
+     * applier, skipping reports for spaces that aren't institutions in the
+     * given (possibly shared) topology.
+     */
+    public FixityReportSpaceListener(String spaceId, FixityReportApplier applier, ContentStore cs, SpaceTopology topology) throws Exception {
+        this.applier = applier;
+        this.cs = new InstrumentedContentStore(cs);
+        this.topology = topology;
         reportingSpaceId = spaceId;
 
         // walk through all present content
@@ -37,42 +49,20 @@ public class FixityReportSpaceListener implements SpaceListener {
     }
 
     public void notifyUpdate(String reportId) throws Exception {
-        try {
-            if (reportId.startsWith("bit-integrity/fixity-report")) {
-                String spaceId = FixityReport.getSpaceIdFromReportContentId(reportId);
-                if (spaceId != null && isInstitutionId(spaceId, cs)) {
-                    FixityReport r = new FixityReport(reportId, cs.getContent(reportingSpaceId, reportId).getStream());
-                    for (String cId : r.getContentIds()) {
-                        try {
-                            FixityCheck c = r.getFixityCheck(cId);
-                            ModifiableSolrParams params = new ModifiableSolrParams();
-                            String id = ContentSolrDocument.getId(r.getSpaceId(), cId);
-                            params.set("q", AptrustSolrDocument.ID + ":\"" + id + "\"");
-                            SolrDocumentList results = solr.query(params).getResults();
-                            if (results.getNumFound() == 0) {
-                                logger.info("Skipping fixity report for un-registered content: " + cId);
-                            } else if (results.getNumFound() > 1) {
-                                logger.error("Solr returned multiple records for a search for the unique id: " + id);
-                            } else {
-                                ContentSolrDocument updatedRecord = new ContentSolrDocument();
-                                AptrustSolrDocument.populateFromSolrDocument(updatedRecord, results.get(0));
-                                updatedRecord.setFailedHealthCheck(String.valueOf(!c.passed));
-                                updatedRecord.setHealthCheckDate(r.getReportDate());
-                                solr.add(AptrustSolrDocument.createValidSolrDocument(updatedRecord));
-                                logger.debug("Added health check report for " + cId + ". (part of object " + updatedRecord.getObjectId() + " and package " + updatedRecord.getPackageId() + ")");
-                            }
-                        } catch (Throwable t) {
-                            logger.warn("Error processing fixity check for " + cId + " in space " + r.getSpaceId() + "!", t);
-                        }
-                    }
-                } else {
-                    logger.debug("Skipping " + reportId + ": " + spaceId + " is not a known institution.");
+        if (reportId.startsWith("bit-integrity/fixity-report")) {
+            String spaceId = FixityReport.getSpaceIdFromReportContentId(reportId);
+            if (spaceId != null && topology.isInstitutionId(spaceId)) {
+                InputStream report = cs.getContent(reportingSpaceId, reportId).getStream();
+                try {
+                    applier.apply(reportId, report);
+                } finally {
+                    report.close();
                 }
             } else {
-                logger.trace("Skipping " + reportId + ": not a fixity report");
+                logger.debug("Skipping " + reportId + ": " + spaceId + " is not a known institution.");
             }
-        } finally {
-            solr.commit();
+        } else {
+            logger.trace("Skipping " + reportId + ": not a fixity report");
         }
     }
 
@@ -83,9 +73,4 @@ public class FixityReportSpaceListener implements SpaceListener {
         // do nothing
     }
 
-    private boolean isInstitutionId(String id, ContentStore cs) throws ContentStoreException {
-        List<String> spaceIds = cs.getSpaces();
-        return spaceIds.contains(id) && spaceIds.contains(id + "staging");
-    }
-
 }
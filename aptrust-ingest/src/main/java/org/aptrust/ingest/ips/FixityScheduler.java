@@ -0,0 +1,301 @@
+package org.aptrust.ingest.ips;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.FacetField;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.aptrust.client.impl.SolrQueryClause;
+import org.aptrust.common.duracloud.SpaceTopology;
+import org.aptrust.common.exception.AptrustException;
+import org.aptrust.common.solr.AptrustSolrDocument;
+import org.aptrust.common.solr.ContentSolrDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ *   Verifies content continuously, a little at a time, so that every item
+ *   is checked at least once within a window of a given number of days
+ *   without ever checking everything at once.  At a fixed interval the
+ *   scheduler finds, for each institution in turn, the content that is due
+ *   (whose last health check is older than the window) and passes the
+ *   stalest of it to a FixityVerifier, whose thread count bounds the number
+ *   of items read at once.  Content in packages that failed their last
+ *   health check is verified first, at most once a day, to confirm or clear
+ *   the failure.
+ * </p>
+ * <p>
+ *   The bytes read are limited by an hourly budget.  Each round adds the
+ *   share of the budget for its interval (unused budget isn't saved for
+ *   later) and verifies a batch from each institution in turn until it has
+ *   been spent, so that no institution's content falls behind another's.
+ *   A batch that overruns the budget is paid for by the following rounds.
+ * </p>
+ * <p>
+ *   An item's last health check is the date in its record, which fixity
+ *   reports keep current for the content they cover (see
+ *   FixityReportApplier), so content missing from the reports comes due
+ *   here.  Coverage (the percentage of content checked within the window) is
+ *   measured from the same dates.
+ * </p>
+ */
+public class FixityScheduler {
+
+    public static final int DEFAULT_WINDOW_DAYS = 90;
+
+    public static final int DEFAULT_INTERVAL_MINUTES = 15;
+
+    /**
+     * The number of items verified from one institution before moving on
+     * to the next.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private static final long FAILED_RECHECK_MILLIS = 24L * 60 * 60 * 1000;
+
+    private static final String MANIFEST_SUFFIX = ".dura-manifest";
+
+    private static final String CHUNK_INFIX = ".dura-chunk-";
+
+    final Logger logger = LoggerFactory.getLogger(FixityScheduler.class);
+
+    private FixityVerifier verifier;
+
+    private SolrServer solr;
+
+    private SpaceTopology topology;
+
+    private int windowDays;
+
+    private long bytesPerRound;
+
+    private int intervalMinutes;
+
+    private int batchSize;
+
+    /**
+     * The bytes that may be read before the budget is spent, which is
+     * negative while an overrun is being paid for.
+     */
+    private long budget;
+
+    private volatile double coverage = -1;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param verifier the verifier through which content is read
+     * @param solr the Solr server from which due content is found
+     * @param topology the institutions whose content is verified
+     * @param windowDays the number of days within which every item should
+     * be verified
+     * @param bytesPerHour the number of bytes that may be read each hour
+     * @param intervalMinutes the number of minutes between rounds
+     */
+    public FixityScheduler(FixityVerifier verifier, SolrServer solr, SpaceTopology topology, int windowDays, long bytesPerHour, int intervalMinutes) {
+        if (windowDays < 1) {
+            throw new IllegalArgumentException("The window must be at least one day!");
+        }
+        if (intervalMinutes < 1) {
+            throw new IllegalArgumentException("The interval must be at least one minute!");
+        }
+        this.verifier = verifier;
+        this.solr = solr;
+        this.topology = topology;
+        this.windowDays = windowDays;
+        this.intervalMinutes = intervalMinutes;
+        bytesPerRound = bytesPerHour * intervalMinutes / 60;
+        batchSize = DEFAULT_BATCH_SIZE;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Starts running rounds at the configured interval.
+     */
+    public synchronized void start() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new SpaceEventDispatcher.NamedThreadFactory("fixity-scheduler"));
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        runRound();
+                    } catch (Throwable t) {
+                        logger.error("Error verifying scheduled content!", t);
+                    }
+                }}, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Gets the percentage of content that had been checked within the window
+     * at the end of the last round, or -1 if no round has completed.
+     */
+    public double getCoverage() {
+        return coverage;
+    }
+
+    /**
+     * Verifies due content until this round's share of the budget is spent
+     * or no content is due.
+     * @return the number of items verified
+     */
+    public synchronized long runRound() throws AptrustException {
+        budget = Math.min(budget + bytesPerRound, bytesPerRound);
+        long itemCount = 0;
+        long byteCount = 0;
+        try {
+            Date cutoff = getCutoff();
+            List<String> institutionIds = topology.getInstitutionIds();
+            Map<String, Set<String>> attempted = new HashMap<String, Set<String>>();
+            for (String institutionId : institutionIds) {
+                attempted.put(institutionId, new HashSet<String>());
+            }
+            while (budget > 0 && !attempted.isEmpty()) {
+                for (String institutionId : institutionIds) {
+                    Set<String> attemptedIds = attempted.get(institutionId);
+                    if (budget <= 0 || attemptedIds == null) {
+                        continue;
+                    }
+                    List<String> due = findDueContent(institutionId, cutoff, batchSize);
+                    due.removeAll(attemptedIds);
+                    if (due.isEmpty()) {
+                        // nothing is due, or nothing due can be updated
+                        attempted.remove(institutionId);
+                        continue;
+                    }
+                    attemptedIds.addAll(due);
+                    FixityVerifier.Result result = verifier.verify(institutionId, due);
+                    budget -= result.getByteCount();
+                    itemCount += result.getItemCount();
+                    byteCount += result.getByteCount();
+                }
+            }
+            coverage = computeCoverage(institutionIds, cutoff);
+        } catch (SolrServerException ex) {
+            throw new AptrustException("Unable to find the content due to be verified!", ex);
+        }
+        logger.info("Verified " + itemCount + " scheduled items (" + byteCount + " bytes), " + String.format("%.2f", coverage)
+                + "% of content has been checked in the last " + windowDays + " days.");
+        return itemCount;
+    }
+
+    /**
+     * Gets the (production) content ids of up to the given number of items
+     * in the given institution that are due to be verified, those from
+     * failed packages first and then the stalest.  Chunks are given as
+     * their manifests, through which they're verified.
+     */
+    List<String> findDueContent(String institutionId, Date cutoff, int rows) throws SolrServerException {
+        Set<String> due = new LinkedHashSet<String>();
+        SolrQueryClause content = new SolrQueryClause(AptrustSolrDocument.RECORD_TYPE, "content")
+                .and(new SolrQueryClause(AptrustSolrDocument.INSTITUTION_ID, institutionId));
+        List<String> failedPackageIds = getFailedPackageIds(institutionId, rows);
+        if (!failedPackageIds.isEmpty()) {
+            Date recheckCutoff = new Date(System.currentTimeMillis() - FAILED_RECHECK_MILLIS);
+            addContentIds(due, content.and(SolrQueryClause.anyOf(AptrustSolrDocument.PACKAGE_ID, failedPackageIds))
+                    .and(SolrQueryClause.dateRange(AptrustSolrDocument.LAST_HEALTH_CHECK_DATE, null, recheckCutoff)), rows);
+        }
+        if (due.size() < rows) {
+            addContentIds(due, content.and(SolrQueryClause.dateRange(AptrustSolrDocument.LAST_HEALTH_CHECK_DATE, null, cutoff)), rows - due.size());
+        }
+        return new ArrayList<String>(due);
+    }
+
+    /**
+     * Computes the percentage of the content of the given institutions that
+     * was checked after the given date.
+     */
+    double computeCoverage(List<String> institutionIds, Date cutoff) throws SolrServerException {
+        long total = 0;
+        long covered = 0;
+        for (String institutionId : institutionIds) {
+            SolrQueryClause content = new SolrQueryClause(AptrustSolrDocument.RECORD_TYPE, "content")
+                    .and(new SolrQueryClause(AptrustSolrDocument.INSTITUTION_ID, institutionId));
+            total += count(content);
+            covered += count(content.and(SolrQueryClause.dateRange(AptrustSolrDocument.LAST_HEALTH_CHECK_DATE, cutoff, null)));
+        }
+        return total == 0 ? 100 : covered * 100.0 / total;
+    }
+
+    /**
+     * Gets the id of the item through which the given item is verified:
+     * the manifest, for a chunk, or the item itself.
+     */
+    static String getVerifiableContentId(String contentId) {
+        int chunk = contentId.lastIndexOf(CHUNK_INFIX);
+        return chunk == -1 ? contentId : contentId.substring(0, chunk) + MANIFEST_SUFFIX;
+    }
+
+    private Date getCutoff() {
+        return new Date(System.currentTimeMillis() - windowDays * 24L * 60 * 60 * 1000);
+    }
+
+    private void addContentIds(Set<String> contentIds, SolrQueryClause query, int rows) throws SolrServerException {
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set("q", query.toString());
+        params.set("fl", AptrustSolrDocument.ID);
+        params.set("sort", AptrustSolrDocument.LAST_HEALTH_CHECK_DATE + " asc");
+        params.set("rows", String.valueOf(rows));
+        for (SolrDocument doc : solr.query(params).getResults()) {
+            ContentSolrDocument c = new ContentSolrDocument();
+            c.setId((String) doc.getFirstValue(AptrustSolrDocument.ID));
+            contentIds.add(getVerifiableContentId(c.getContentId()));
+        }
+    }
+
+    /**
+     * Gets the ids of up to the given number of packages in the given
+     * institution with content that failed its last health check.  Package
+     * records don't carry the outcome of health checks, so the failed
+     * content records are faceted by their package_id.
+     */
+    private List<String> getFailedPackageIds(String institutionId, int rows) throws SolrServerException {
+        SolrQueryClause query = new SolrQueryClause(AptrustSolrDocument.RECORD_TYPE, "content")
+                .and(new SolrQueryClause(AptrustSolrDocument.FAILED_HEALTH_CHECK, "true"))
+                .and(new SolrQueryClause(AptrustSolrDocument.INSTITUTION_ID, institutionId));
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set("q", query.toString());
+        params.set("rows", "0");
+        params.set("facet", "true");
+        params.set("facet.field", AptrustSolrDocument.PACKAGE_ID);
+        params.set("facet.mincount", "1");
+        params.set("facet.limit", String.valueOf(rows));
+        List<String> ids = new ArrayList<String>();
+        FacetField packageIds = solr.query(params).getFacetField(AptrustSolrDocument.PACKAGE_ID);
+        if (packageIds != null && packageIds.getValues() != null) {
+            for (FacetField.Count c : packageIds.getValues()) {
+                ids.add(c.getName());
+            }
+        }
+        return ids;
+    }
+
+    private long count(SolrQueryClause query) throws SolrServerException {
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set("q", query.toString());
+        params.set("rows", "0");
+        return solr.query(params).getResults().getNumFound();
+    }
+}
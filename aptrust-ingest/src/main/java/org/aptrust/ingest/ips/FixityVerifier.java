@@ -0,0 +1,445 @@
+package org.aptrust.ingest.ips;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.aptrust.common.duracloud.Checksums;
+import org.aptrust.common.exception.AptrustException;
+import org.aptrust.ingest.IngestXmlBindings;
+import org.aptrust.ingest.ips.FixityReport.FixityCheck;
+import org.duracloud.client.ContentStore;
+import org.duracloud.domain.Content;
+import org.duracloud.error.ContentStoreException;
+import org.duracloud.error.NotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ *   Verifies the fixity of content in a production space without waiting
+ *   for DuraCloud's bit-integrity reports.  Each item is streamed through the
+ *   ContentStore and its MD5 computed and compared with the checksum
+ *   DuraCloud stored for it.  Items are verified in parallel by a fixed
+ *   number of worker threads, and only a few items per thread are queued at
+ *   once, so the load placed on DuraCloud is bounded however large the
+ *   space.
+ * </p>
+ * <p>
+ *   Chunked content is verified a chunk at a time: the manifest is verified
+ *   like any other item and each chunk it lists is then verified (in
+ *   parallel) against the MD5 recorded for it in the manifest, so that a
+ *   single corrupt chunk is identified as such.  Chunks are only verified
+ *   through their manifest, and not at all if the manifest itself fails.
+ * </p>
+ * <p>
+ *   The outcome of each check is recorded in the "content" records in Solr
+ *   through a FixityReportApplier, exactly as the lines of a bit-integrity
+ *   report would be.  Items that couldn't be read (or have no stored
+ *   checksum) are logged and counted as errors but not recorded.
+ * </p>
+ */
+public class FixityVerifier {
+
+    /**
+     * The content property (set by DuraCloud) that holds the MD5 checksum
+     * of the content.
+     */
+    private static final String CONTENT_CHECKSUM = "content-checksum";
+
+    private static final String MANIFEST_SUFFIX = ".dura-manifest";
+
+    private static final String CHUNK_INFIX = ".dura-chunk-";
+
+    public static final int DEFAULT_THREAD_COUNT = 2;
+
+    final Logger logger = LoggerFactory.getLogger(FixityVerifier.class);
+
+    private ContentStore cs;
+
+    private FixityReportApplier applier;
+
+    private int threadCount;
+
+    private int batchSize;
+
+    private ExecutorService executor;
+
+    public FixityVerifier(ContentStore cs, FixityReportApplier applier) {
+        this(cs, applier, DEFAULT_THREAD_COUNT);
+    }
+
+    /**
+     * @param cs the ContentStore through which content is read
+     * @param applier the applier through which outcomes are recorded in Solr
+     * @param threadCount the number of items verified in parallel
+     */
+    public FixityVerifier(ContentStore cs, FixityReportApplier applier, int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("At least one verifier thread is required!");
+        }
+        this.cs = cs;
+        this.applier = applier;
+        this.threadCount = threadCount;
+        batchSize = applier.getBatchSize();
+        executor = Executors.newFixedThreadPool(threadCount, new SpaceEventDispatcher.NamedThreadFactory("fixity-verifier"));
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Verifies every item in the given space.
+     */
+    public Result verifySpace(String spaceId) throws AptrustException {
+        try {
+            return verify(spaceId, cs.getSpaceContents(spaceId));
+        } catch (ContentStoreException ex) {
+            throw new AptrustException("Unable to list the contents of \"" + spaceId + "\"!", ex);
+        }
+    }
+
+    /**
+     * Verifies the given items in the given space, returning once each has
+     * been verified and its outcome recorded.  Chunks are skipped, as they
+     * are verified through their manifests.
+     */
+    public Result verify(String spaceId, Collection<String> contentIds) throws AptrustException {
+        return verify(spaceId, contentIds.iterator());
+    }
+
+    private Result verify(final String spaceId, Iterator<String> contentIds) throws AptrustException {
+        final Run run = new Run(spaceId);
+        try {
+            while (contentIds.hasNext()) {
+                final String contentId = contentIds.next();
+                if (contentId.contains(CHUNK_INFIX)) {
+                    continue;
+                }
+                run.queued.acquire();
+                run.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            verifyItem(run, contentId);
+                        } finally {
+                            run.queued.release();
+                        }
+                    }});
+            }
+            run.awaitCompletion();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new AptrustException("Interrupted while verifying content in \"" + spaceId + "\"!", ex);
+        }
+        run.flush();
+        run.result.finish();
+        logger.info("Verified content in \"" + spaceId + "\": " + run.result + ".");
+        return run.result;
+    }
+
+    /**
+     * Stops the worker threads once the items in progress are verified.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(60, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void verifyItem(final Run run, String contentId) {
+        try {
+            Content content = cs.getContent(run.spaceId, contentId);
+            String expected = getStoredChecksum(content);
+            if (expected == null) {
+                content.getStream().close();
+                run.result.errorCount.incrementAndGet();
+                logger.warn("Unable to verify " + contentId + " in \"" + run.spaceId + "\": it has no stored checksum.");
+                return;
+            }
+            if (contentId.endsWith(MANIFEST_SUFFIX)) {
+                ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+                FixityCheck check = check(contentId, content.getStream(), expected, manifest, run.result);
+                run.record(check);
+                if (check.passed) {
+                    DuraChunkManifest m = IngestXmlBindings.CHUNK_MANIFEST.unmarshal(new ByteArrayInputStream(manifest.toByteArray()), DuraChunkManifest.class);
+                    if (m.chunks != null) {
+                        for (final DuraChunkManifest.Chunk chunk : m.chunks) {
+                            run.submit(new Runnable() {
+                                public void run() {
+                                    verifyChunk(run, chunk);
+                                }});
+                        }
+                    }
+                }
+            } else {
+                run.record(check(contentId, content.getStream(), expected, null, run.result));
+            }
+        } catch (NotFoundException ex) {
+            logger.debug("Skipping " + contentId + ": it was removed from \"" + run.spaceId + "\".");
+        } catch (Exception ex) {
+            run.result.errorCount.incrementAndGet();
+            logger.warn("Unable to verify " + contentId + " in \"" + run.spaceId + "\"!", ex);
+        }
+    }
+
+    private void verifyChunk(Run run, DuraChunkManifest.Chunk chunk) {
+        try {
+            Content content = cs.getContent(run.spaceId, chunk.chunkId);
+            String expected = chunk.md5 != null ? chunk.md5 : getStoredChecksum(content);
+            if (expected == null) {
+                content.getStream().close();
+                run.result.errorCount.incrementAndGet();
+                logger.warn("Unable to verify chunk " + chunk.chunkId + " in \"" + run.spaceId + "\": it has no checksum.");
+                return;
+            }
+            run.record(check(chunk.chunkId, content.getStream(), expected, null, run.result));
+        } catch (NotFoundException ex) {
+            // a missing chunk fails as surely as a corrupt one
+            FixityCheck check = new FixityCheck();
+            check.contentId = chunk.chunkId;
+            check.checksum = chunk.md5;
+            check.previousChecksum = "";
+            check.passed = false;
+            run.result.itemCount.incrementAndGet();
+            run.result.failedCount.incrementAndGet();
+            run.record(check);
+        } catch (Exception ex) {
+            run.result.errorCount.incrementAndGet();
+            logger.warn("Unable to verify chunk " + chunk.chunkId + " in \"" + run.spaceId + "\"!", ex);
+        }
+    }
+
+    /**
+     * Reads the given stream (which is closed) computing its MD5 and compares
+     * it with the expected checksum.
+     * @param copy if not null, the stream's bytes are also written here
+     */
+    static FixityCheck check(String contentId, InputStream stream, String expected, ByteArrayOutputStream copy, Result result) throws IOException {
+        MessageDigest md5 = Checksums.createDigest();
+        byte[] buffer = new byte[65536];
+        long size = 0;
+        try {
+            int read = 0;
+            while ((read = stream.read(buffer)) != -1) {
+                md5.update(buffer, 0, read);
+                if (copy != null) {
+                    copy.write(buffer, 0, read);
+                }
+                size += read;
+            }
+        } finally {
+            stream.close();
+        }
+        FixityCheck check = new FixityCheck();
+        check.contentId = contentId;
+        check.checksum = expected;
+        check.previousChecksum = Checksums.toHex(md5.digest());
+        check.passed = check.previousChecksum.equalsIgnoreCase(expected);
+        if (result != null) {
+            result.itemCount.incrementAndGet();
+            result.byteCount.addAndGet(size);
+            if (!check.passed) {
+                result.failedCount.incrementAndGet();
+            }
+        }
+        return check;
+    }
+
+    private static String getStoredChecksum(Content content) {
+        Map<String, String> properties = content.getProperties();
+        return properties == null ? null : properties.get(CONTENT_CHECKSUM);
+    }
+
+    /**
+     * The state of a single call to verify: the outstanding tasks (which
+     * include chunks queued by the worker threads themselves) and the checks
+     * not yet recorded.
+     */
+    private class Run {
+
+        private String spaceId;
+
+        private Result result = new Result();
+
+        private Semaphore queued = new Semaphore(threadCount * 2);
+
+        private int outstanding;
+
+        private List<FixityCheck> checks = new ArrayList<FixityCheck>();
+
+        private Run(String spaceId) {
+            this.spaceId = spaceId;
+        }
+
+        private void submit(final Runnable task) {
+            synchronized (this) {
+                outstanding ++;
+            }
+            executor.submit(new Runnable() {
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        synchronized (Run.this) {
+                            if (-- outstanding == 0) {
+                                Run.this.notifyAll();
+                            }
+                        }
+                    }
+                }});
+        }
+
+        private synchronized void awaitCompletion() throws InterruptedException {
+            while (outstanding > 0) {
+                wait();
+            }
+        }
+
+        /**
+         * Adds the check to those to be recorded, recording them (in the
+         * calling thread) once there are enough for a batch.
+         */
+        private void record(FixityCheck check) {
+            List<FixityCheck> batch = null;
+            synchronized (this) {
+                checks.add(check);
+                if (checks.size() >= batchSize) {
+                    batch = checks;
+                    checks = new ArrayList<FixityCheck>();
+                }
+            }
+            if (batch != null) {
+                apply(batch);
+            }
+        }
+
+        private void flush() {
+            List<FixityCheck> batch = null;
+            synchronized (this) {
+                batch = checks;
+                checks = new ArrayList<FixityCheck>();
+            }
+            if (!batch.isEmpty()) {
+                apply(batch);
+            }
+        }
+
+        private void apply(List<FixityCheck> batch) {
+            try {
+                FixityReportApplier.Result applied = applier.applyChecks(spaceId, new Date(), batch);
+                result.updatedCount.addAndGet(applied.getUpdatedCount());
+                result.unregisteredCount.addAndGet(applied.getUnregisteredCount());
+            } catch (Exception ex) {
+                result.unrecordedCount.addAndGet(batch.size());
+                logger.warn("Error recording the fixity of " + batch.size() + " items in \"" + spaceId + "\"!", ex);
+            }
+        }
+    }
+
+    /**
+     * A summary of the items verified by a call to verify.
+     */
+    public static class Result {
+
+        private AtomicLong itemCount = new AtomicLong();
+
+        private AtomicLong failedCount = new AtomicLong();
+
+        private AtomicLong errorCount = new AtomicLong();
+
+        private AtomicLong byteCount = new AtomicLong();
+
+        private AtomicLong updatedCount = new AtomicLong();
+
+        private AtomicLong unregisteredCount = new AtomicLong();
+
+        private AtomicLong unrecordedCount = new AtomicLong();
+
+        private long start = System.currentTimeMillis();
+
+        private long elapsedMillis;
+
+        private void finish() {
+            elapsedMillis = System.currentTimeMillis() - start;
+        }
+
+        /**
+         * Gets the number of items (including chunks) that were verified.
+         */
+        public long getItemCount() {
+            return itemCount.get();
+        }
+
+        /**
+         * Gets the number of items whose MD5 didn't match the stored checksum
+         * (or, for chunks, that were missing).
+         */
+        public long getFailedCount() {
+            return failedCount.get();
+        }
+
+        /**
+         * Gets the number of items that couldn't be verified.
+         */
+        public long getErrorCount() {
+            return errorCount.get();
+        }
+
+        public long getByteCount() {
+            return byteCount.get();
+        }
+
+        /**
+         * Gets the number of content records updated with the outcome.
+         */
+        public long getUpdatedCount() {
+            return updatedCount.get();
+        }
+
+        /**
+         * Gets the number of verified items that have no record in Solr.
+         */
+        public long getUnregisteredCount() {
+            return unregisteredCount.get();
+        }
+
+        /**
+         * Gets the number of verified items whose outcome couldn't be
+         * recorded.
+         */
+        public long getUnrecordedCount() {
+            return unrecordedCount.get();
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public long getBytesPerSecond() {
+            return getByteCount() * 1000 / Math.max(1, elapsedMillis);
+        }
+
+        public String toString() {
+            return getItemCount() + " items (" + getFailedCount() + " failed, " + getErrorCount() + " errors), " + getByteCount() + " bytes in "
+                    + elapsedMillis + "ms (" + getBytesPerSecond() + " bytes/s), " + getUpdatedCount() + " records updated, "
+                    + getUnregisteredCount() + " unregistered, " + getUnrecordedCount() + " unrecorded";
+        }
+    }
+}
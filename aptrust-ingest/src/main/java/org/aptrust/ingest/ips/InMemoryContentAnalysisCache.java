@@ -2,6 +2,7 @@ package org.aptrust.ingest.ips;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -10,6 +11,26 @@ import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * <p>
+ *   A ContentAnalysisCache that keeps everything in memory.
+ * </p>
+ * <p>
+ *   Rather than examining every part of an object (and every chunk of every
+ *   chunked part) each time isObjectComplete() is called, this implementation
+ *   maintains a count of the missing parts of each object and of the missing
+ *   chunks of each chunked part, along with reverse indexes from each
+ *   contentId to the objects waiting on it and from each chunk to the content
+ *   it's part of.  Each change updates only the affected counts, so the cost
+ *   of tracking an object is proportional to its size rather than to the
+ *   square of its size, and isObjectComplete() takes constant time.
+ * </p>
+ * <p>
+ *   A required part is considered present if the content itself exists, or
+ *   if a chunk manifest for it is known and every chunk listed in that
+ *   manifest exists.
+ * </p>
+ */
 public class InMemoryContentAnalysisCache implements ContentAnalysisCache {
 
     final Logger logger = LoggerFactory.getLogger(ContentAnalysisCache.class);
@@ -21,58 +42,124 @@ public class InMemoryContentAnalysisCache implements ContentAnalysisCache {
     private Map<String, String> objectIdToTitleCache;
 
     private Map<String, DuraChunkManifest> contentIdToChunkManifestMap;
-    
+
+    /**
+     * The objects whose asserted parts include each contentId.
+     */
+    private Map<String, Set<String>> contentIdToWaitingObjectsMap;
+
+    /**
+     * The content whose known chunk manifest includes each chunk id.
+     */
+    private Map<String, Set<String>> chunkIdToChunkedContentMap;
+
+    /**
+     * The number of required parts of each object that aren't present.
+     */
+    private Map<String, Counter> objectIdToMissingPartCount;
+
+    /**
+     * The number of chunks of each chunked content that don't exist.
+     */
+    private Map<String, Counter> contentIdToMissingChunkCount;
+
     public InMemoryContentAnalysisCache() {
         contentIds = new HashSet<String>();
         objectIdToRequiredContentMap = new HashMap<String, Set<String>>();
         objectIdToTitleCache = new HashMap<String, String>();
         contentIdToChunkManifestMap = new HashMap<String, DuraChunkManifest>();
+        contentIdToWaitingObjectsMap = new HashMap<String, Set<String>>();
+        chunkIdToChunkedContentMap = new HashMap<String, Set<String>>();
+        objectIdToMissingPartCount = new HashMap<String, Counter>();
+        contentIdToMissingChunkCount = new HashMap<String, Counter>();
     }
 
     public void notifyContentId(String contentId) {
         if (contentIds.contains(contentId)) {
             throw new RuntimeException();
         }
+        boolean wasPresent = isPartPresent(contentId);
         contentIds.add(contentId);
         logger.debug("+" + contentId);
+        if (!wasPresent) {
+            partArrived(contentId);
+        }
+        for (String chunkedContentId : get(chunkIdToChunkedContentMap, contentId)) {
+            boolean chunkedContentWasPresent = isPartPresent(chunkedContentId);
+            contentIdToMissingChunkCount.get(chunkedContentId).count --;
+            if (!chunkedContentWasPresent && isPartPresent(chunkedContentId)) {
+                partArrived(chunkedContentId);
+            }
+        }
     }
 
     public void forgetContentId(String contentId) {
-        contentIds.remove(contentId);
+        if (!contentIds.remove(contentId)) {
+            return;
+        }
         logger.debug("-" + contentId);
+        if (!isPartPresent(contentId)) {
+            partDeparted(contentId);
+        }
+        for (String chunkedContentId : get(chunkIdToChunkedContentMap, contentId)) {
+            boolean chunkedContentWasPresent = isPartPresent(chunkedContentId);
+            contentIdToMissingChunkCount.get(chunkedContentId).count ++;
+            if (chunkedContentWasPresent && !isPartPresent(chunkedContentId)) {
+                partDeparted(chunkedContentId);
+            }
+        }
     }
 
     public void assertObjectParts(Collection<String> contentIds, String objectId) {
-        for (String contentId : contentIds) {
+        removeObjectParts(objectId);
+        Set<String> requiredContentIds = new HashSet<String>(contentIds);
+        Counter missing = new Counter();
+        for (String contentId : requiredContentIds) {
             logger.debug("+" + contentId + " --> " + objectId);
+            add(contentIdToWaitingObjectsMap, contentId, objectId);
+            if (!isPartPresent(contentId)) {
+                missing.count ++;
+            }
+        }
+        objectIdToRequiredContentMap.put(objectId, requiredContentIds);
+        objectIdToMissingPartCount.put(objectId, missing);
+        if (missing.count == 0) {
+            logger.debug(objectId + " is complete");
         }
-        objectIdToRequiredContentMap.put(objectId, new HashSet<String>(contentIds));
     }
 
     public void notifyChunkManifest(String contentId, DuraChunkManifest manifest) {
-        contentIdToChunkManifestMap.put(contentId, manifest);
+        boolean wasPresent = isPartPresent(contentId);
+        DuraChunkManifest previous = contentIdToChunkManifestMap.put(contentId, manifest);
+        if (previous != null) {
+            for (String chunkId : getChunkIds(previous)) {
+                remove(chunkIdToChunkedContentMap, chunkId, contentId);
+            }
+        }
+        Counter missing = new Counter();
+        for (String chunkId : getChunkIds(manifest)) {
+            add(chunkIdToChunkedContentMap, chunkId, contentId);
+            if (!contentIds.contains(chunkId)) {
+                missing.count ++;
+            }
+        }
+        contentIdToMissingChunkCount.put(contentId, missing);
+        boolean isPresent = isPartPresent(contentId);
+        if (!wasPresent && isPresent) {
+            partArrived(contentId);
+        } else if (wasPresent && !isPresent) {
+            partDeparted(contentId);
+        }
     }
 
     public boolean isObjectComplete(String objectId) {
-        if (objectIdToRequiredContentMap.containsKey(objectId)) {
-            for (String contentId : objectIdToRequiredContentMap.get(objectId)) {
-                if (!contentIds.contains(contentId)) {
-                    if (!contentIdToChunkManifestMap.containsKey(contentId)) {
-                        logger.trace(objectId + " is not complete because it lacks " + contentId);
-                        return false;
-                    } else {
-                        for (DuraChunkManifest.Chunk chunk : contentIdToChunkManifestMap.get(contentId).chunks) {
-                            if (!contentIds.contains(chunk.chunkId)) {
-                                logger.trace(objectId + " is not complete because it lacks " + contentId);
-                                return false;
-                            }
-                        }
-                    }
-                }
-            }
-        } else {
+        Counter missing = objectIdToMissingPartCount.get(objectId);
+        if (missing == null) {
             logger.trace(objectId + " is not complete because its required parts have not been specified");
             return false;
+        } else if (missing.count > 0) {
+            logger.trace(objectId + " is not complete because it lacks " + missing.count + " of its parts");
+            return false;
         }
         return true;
     }
@@ -96,6 +183,22 @@ public class InMemoryContentAnalysisCache implements ContentAnalysisCache {
         return result;
     }
 
+    public long getObjectByteSize(String objectId) {
+        long size = 0;
+        if (objectIdToRequiredContentMap.containsKey(objectId)) {
+            for (String contentId : objectIdToRequiredContentMap.get(objectId)) {
+                if (!contentIds.contains(contentId) && contentIdToChunkManifestMap.containsKey(contentId)) {
+                    for (DuraChunkManifest.Chunk chunk : contentIdToChunkManifestMap.get(contentId).chunks) {
+                        if (contentIds.contains(chunk.chunkId)) {
+                            size += chunk.byteSize;
+                        }
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
     public void cacheObjectTitle(String objectId, String title) {
         objectIdToTitleCache.put(objectId, title);
     }
@@ -106,7 +209,112 @@ public class InMemoryContentAnalysisCache implements ContentAnalysisCache {
 
     public void forgetObject(String objectId) {
         objectIdToTitleCache.remove(objectId);
-        objectIdToRequiredContentMap.remove(objectId);
+        removeObjectParts(objectId);
+    }
+
+    public Collection<String> getKnownContentIds() {
+        return new ArrayList<String>(contentIds);
+    }
+
+    public Collection<String> getKnownObjectIds() {
+        return new ArrayList<String>(objectIdToRequiredContentMap.keySet());
+    }
+
+    public void replayInto(ContentAnalysisListener target) {
+        for (String contentId : contentIds) {
+            target.notifyContentId(contentId);
+        }
+        for (Map.Entry<String, DuraChunkManifest> entry : contentIdToChunkManifestMap.entrySet()) {
+            target.notifyChunkManifest(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Set<String>> entry : objectIdToRequiredContentMap.entrySet()) {
+            target.assertObjectParts(entry.getValue(), entry.getKey());
+        }
+        for (Map.Entry<String, String> entry : objectIdToTitleCache.entrySet()) {
+            target.cacheObjectTitle(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Determines whether the given content would satisfy an object that
+     * requires it: either it exists or all of its chunks exist.
+     */
+    private boolean isPartPresent(String contentId) {
+        if (contentIds.contains(contentId)) {
+            return true;
+        }
+        Counter missingChunks = contentIdToMissingChunkCount.get(contentId);
+        return missingChunks != null && missingChunks.count == 0;
+    }
+
+    /**
+     * Updates the missing part count for every object waiting on content
+     * that has just become present.
+     */
+    private void partArrived(String contentId) {
+        for (String objectId : get(contentIdToWaitingObjectsMap, contentId)) {
+            if (-- objectIdToMissingPartCount.get(objectId).count == 0) {
+                logger.debug(objectId + " is complete");
+            }
+        }
+    }
+
+    /**
+     * Updates the missing part count for every object waiting on content
+     * that is no longer present.
+     */
+    private void partDeparted(String contentId) {
+        for (String objectId : get(contentIdToWaitingObjectsMap, contentId)) {
+            objectIdToMissingPartCount.get(objectId).count ++;
+        }
+    }
+
+    private void removeObjectParts(String objectId) {
+        Set<String> previous = objectIdToRequiredContentMap.remove(objectId);
+        if (previous != null) {
+            for (String contentId : previous) {
+                remove(contentIdToWaitingObjectsMap, contentId, objectId);
+            }
+        }
+        objectIdToMissingPartCount.remove(objectId);
+    }
+
+    private static Set<String> getChunkIds(DuraChunkManifest manifest) {
+        Set<String> chunkIds = new HashSet<String>();
+        if (manifest.chunks != null) {
+            for (DuraChunkManifest.Chunk chunk : manifest.chunks) {
+                chunkIds.add(chunk.chunkId);
+            }
+        }
+        return chunkIds;
+    }
+
+    private static Set<String> get(Map<String, Set<String>> index, String key) {
+        Set<String> values = index.get(key);
+        return values == null ? Collections.<String>emptySet() : values;
+    }
+
+    private static void add(Map<String, Set<String>> index, String key, String value) {
+        Set<String> values = index.get(key);
+        if (values == null) {
+            values = new HashSet<String>();
+            index.put(key, values);
+        }
+        values.add(value);
+    }
+
+    private static void remove(Map<String, Set<String>> index, String key, String value) {
+        Set<String> values = index.get(key);
+        if (values != null) {
+            values.remove(value);
+            if (values.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static final class Counter {
+        private int count;
     }
 
 }
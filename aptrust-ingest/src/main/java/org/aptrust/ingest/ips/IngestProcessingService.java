@@ -3,10 +3,10 @@ package org.aptrust.ingest.ips;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import javax.jms.Connection;
 import javax.jms.Destination;
@@ -21,12 +21,15 @@ import javax.jms.Session;
 import org.apache.activemq.ActiveMQConnectionFactory;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
-import org.aptrust.common.exception.AptrustException;
+import org.aptrust.common.duracloud.ContentStoreMetrics;
+import org.aptrust.common.duracloud.SpaceTopology;
+import org.aptrust.common.solr.BatchingSolrWriter;
+import org.aptrust.ingest.api.IngestProcessingConfiguration;
+import org.aptrust.ingest.impl.PropertiesIngestProcessingConfiguration;
 import org.duracloud.client.ContentStore;
 import org.duracloud.client.ContentStoreImpl;
 import org.duracloud.common.model.Credential;
 import org.duracloud.common.web.RestHttpHelper;
-import org.duracloud.error.ContentStoreException;
 import org.duracloud.storage.domain.StorageProviderType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,18 +56,108 @@ public class IngestProcessingService implements MessageListener, ExceptionListen
         SolrServer s = new HttpSolrServer(p.getProperty("solr-url"));
         FedoraClient fc = new FedoraClient(new FedoraCredentials(p.getProperty("fedora-url"), p.getProperty("fedora-username"), p.getProperty("fedora-password")));
 
-        new IngestProcessingService(fc, s, cs, p.getProperty("duracloud-jms-broker-url"));
+        final IngestProcessingService service = new IngestProcessingService(fc, s, cs, p.getProperty("duracloud-jms-broker-url"), new PropertiesIngestProcessingConfiguration(p));
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                service.shutdown();
+            }}, "ingest-shutdown"));
     }
 
     /**
-     * A map to allows one SpaceLIstener to be assigned to each space.
-     * Messages originating from that space will be routed to the appropriate
-     * listener.
+     * The number of seconds that shutdown() waits for queued events to be
+     * processed.
      */
-    private Map<String, SpaceListener> spaceToListenerMap;
+    private static final int SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+    /**
+     * The connection to the JMS broker through which changes are received.
+     */
+    private Connection connection;
+
+    /**
+     * A dispatcher that allows one SpaceListener to be assigned to each space.
+     * Messages originating from that space will be queued for the appropriate
+     * listener and processed in order, while messages for different spaces
+     * are processed in parallel.
+     */
+    private SpaceEventDispatcher dispatcher;
+
+    /**
+     * The writer through which every listener updates Solr, so that updates
+     * from all spaces are batched and committed together.
+     */
+    private BatchingSolrWriter solrWriter;
+
+    /**
+     * The pool of threads through which every DropboxProcessor moves content
+     * from staging to production.
+     */
+    private ContentTransfer contentTransfer;
+
+    /**
+     * The recently used ingest manifests, shared by every DropboxProcessor.
+     */
+    private ManifestCache manifestCache;
+
+    /**
+     * Applies fixity reports to the content records in Solr.
+     */
+    private FixityReportApplier fixityReportApplier;
+
+    /**
+     * Verifies the fixity of production content without waiting for
+     * DuraCloud's reports, recording the outcome through the applier.
+     */
+    private FixityVerifier fixityVerifier;
+
+    /**
+     * Feeds the stalest content to the verifier within an hourly budget.
+     */
+    private FixityScheduler fixityScheduler;
+
+    /**
+     * The institutions and their staging spaces, which is kept current by
+     * space creation and deletion events.
+     */
+    private SpaceTopology topology;
+
+    /**
+     * The thread on which a processor is created and registered for each new
+     * institution, so that reading its staging space (or restoring its
+     * journaled cache) never holds up the JMS or topology threads.
+     */
+    private ExecutorService registrar;
 
     public IngestProcessingService(FedoraClient fc, SolrServer solr, ContentStore cs, String jmsUrl) throws Exception {
-        initializeDropboxProcessors(fc, solr, cs);
+        this(fc, solr, cs, jmsUrl, new PropertiesIngestProcessingConfiguration(new Properties()));
+    }
+
+    public IngestProcessingService(final FedoraClient fc, SolrServer solr, final ContentStore cs, String jmsUrl, final IngestProcessingConfiguration config) throws Exception {
+        dispatcher = new SpaceEventDispatcher(config.getDispatchThreadCount(), config.getDispatchStatusIntervalSeconds());
+        solrWriter = new BatchingSolrWriter(solr, config.getSolrBatchSize(), config.getSolrFlushIntervalMillis(), config.getSolrCommitIntervalMillis(), config.getSolrCommitWithinMillis());
+        contentTransfer = new ContentTransfer(config.getTransferThreadCount());
+        manifestCache = new ManifestCache(config.getManifestCacheSize());
+        fixityReportApplier = new FixityReportApplier(solrWriter, config.getFixityPartitionCount(), config.getFixityBatchSize(), createFixityFingerprintStore(config), config.getFixityRefreshDays());
+        fixityVerifier = new FixityVerifier(cs, fixityReportApplier, config.getFixityVerifierThreadCount());
+        ContentStoreMetrics.getInstance().startLogging(config.getContentStoreMetricsLogIntervalSeconds());
+        topology = new SpaceTopology(cs, config.getTopologyRefreshIntervalSeconds());
+        fixityScheduler = new FixityScheduler(fixityVerifier, solr, topology, config.getFixityWindowDays(), config.getFixityMegabytesPerHour() * 1024L * 1024L, config.getFixityScheduleIntervalMinutes());
+        if (config.getFixityMegabytesPerHour() > 0) {
+            fixityScheduler.start();
+        }
+        initializeDropboxProcessors(fc, cs, config);
+        registrar = Executors.newSingleThreadExecutor(new SpaceEventDispatcher.NamedThreadFactory("processor-registration"));
+        topology.addListener(new SpaceTopology.Listener() {
+            public void institutionAdded(final String institutionId) {
+                registrar.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            registerDropboxProcessor(SpaceTopology.getStagingSpaceId(institutionId), fc, cs, config);
+                        } catch (Exception ex) {
+                            logger.error("Unable to register processor for new institution \"" + institutionId + "\"!", ex);
+                        }
+                    }});
+            }});
         
         // Create a ConnectionFactory
         logger.trace("creating connection factory");
@@ -72,7 +165,7 @@ public class IngestProcessingService implements MessageListener, ExceptionListen
 
         // Create a Connection
         logger.trace("Creating connection...");
-        Connection connection = connectionFactory.createConnection();
+        connection = connectionFactory.createConnection();
         connection.setExceptionListener(this);
         logger.trace("Starting connection...");
         connection.start();
@@ -88,53 +181,88 @@ public class IngestProcessingService implements MessageListener, ExceptionListen
         // Create a MessageConsumer from the Session to the Topic or Queue
         MessageConsumer consumer = session.createConsumer(destination);
         consumer.setMessageListener(this);
+
+        // Keep the topology current as spaces are created and deleted
+        MessageConsumer spaceConsumer = session.createConsumer(session.createTopic("org.duracloud.topic.change.space.*"));
+        spaceConsumer.setMessageListener(this);
     }
 
-    private void initializeDropboxProcessors(FedoraClient fc, SolrServer solr, ContentStore cs) throws Exception {
-        spaceToListenerMap = new HashMap<String, SpaceListener>();
-        List<String> spaceIds = cs.getSpaces();
-        for (String spaceId : spaceIds) {
-            String stagingSpaceId = spaceId + "staging";
-            if (spaceIds.contains(stagingSpaceId)) {
-                spaceToListenerMap.put(stagingSpaceId, new DropboxProcessor(stagingSpaceId, fc, solr, cs));
-                logger.info("Registered processor for space \"" + stagingSpaceId + "\".");
-            }
+    private void initializeDropboxProcessors(FedoraClient fc, ContentStore cs, IngestProcessingConfiguration config) throws Exception {
+        for (String institutionId : topology.getInstitutionIds()) {
+            registerDropboxProcessor(SpaceTopology.getStagingSpaceId(institutionId), fc, cs, config);
+        }
+        dispatcher.registerListener("x-service-out", new FixityReportSpaceListener("x-service-out", fixityReportApplier, cs, topology));
+    }
+
+    private void registerDropboxProcessor(String stagingSpaceId, FedoraClient fc, ContentStore cs, IngestProcessingConfiguration config) throws Exception {
+        if (!dispatcher.isRegistered(stagingSpaceId)) {
+            dispatcher.registerListener(stagingSpaceId, new DropboxProcessor(stagingSpaceId, fc, solrWriter, cs, createContentAnalysisCache(stagingSpaceId, config), contentTransfer, manifestCache));
+            logger.info("Registered processor for space \"" + stagingSpaceId + "\".");
+        }
+    }
+
+    /**
+     * Creates the cache for the given staging space, which is persisted in a
+     * subdirectory of the state directory if one is configured.
+     */
+    private ContentAnalysisCache createContentAnalysisCache(String stagingSpaceId, IngestProcessingConfiguration config) throws IOException {
+        ContentAnalysisCache cache = config.isCompactCacheEnabled() ? new CompactContentAnalysisCache() : new InMemoryContentAnalysisCache();
+        if (config.getStateDirectory() == null) {
+            return cache;
+        } else {
+            File cacheDir = new File(new File(config.getStateDirectory(), "content-analysis"), stagingSpaceId);
+            return new JournaledContentAnalysisCache(cacheDir, cache, config.getCacheSnapshotInterval());
         }
-        spaceToListenerMap.put("x-service-out", new FixityReportSpaceListener("x-service-out", solr, cs));
     }
 
+    /**
+     * Creates the store of the fixity outcomes last applied, which is
+     * persisted in the state directory if one is configured.
+     */
+    private FixityFingerprintStore createFixityFingerprintStore(IngestProcessingConfiguration config) throws IOException {
+        if (config.getStateDirectory() == null) {
+            return new FixityFingerprintStore();
+        } else {
+            File fixityDir = new File(config.getStateDirectory(), "fixity");
+            fixityDir.mkdirs();
+            return new FixityFingerprintStore(new File(fixityDir, "fingerprints"));
+        }
+    }
+
+    /**
+     * Queues the change described by the message for the listener registered
+     * for its space.  This returns as soon as the change is queued so that
+     * a long-running operation in one space never delays the delivery of
+     * messages for other spaces.  Space creation and deletion events instead
+     * update the topology, whose listener hands the registration of a
+     * processor for the staging space of each new institution to a separate
+     * thread.
+     */
     public void onMessage(Message message) {
         if (message instanceof MapMessage) {
             try {
                 MapMessage m = (MapMessage) message;
                 
                 String spaceId = m.getString("spaceId");
-                if (spaceToListenerMap.containsKey(spaceId)) {
-                    String contentId = m.getString("contentId");
-                    String storeId = m.getString("storeId");
-                    String destination = m.getJMSDestination().toString();
+                String contentId = m.getString("contentId");
+                String destination = m.getJMSDestination().toString();
+                if (destination.contains(".change.space.")) {
                     if (destination.endsWith("delete")) {
-                        logger.debug("Passing delete message on to process for space \"" + spaceId +  "\". (" + m.getJMSMessageID() + ")");
-                        spaceToListenerMap.get(spaceId).notifyDelete(contentId);
-                    } else { // ingest or copy
-                        logger.debug("Passing update message on to process for space \"" + spaceId +  "\". (" + m.getJMSMessageID() + ")");
-                        spaceToListenerMap.get(spaceId).notifyUpdate(contentId);
+                        topology.notifySpaceDeleted(spaceId);
+                    } else {
+                        topology.notifySpaceCreated(spaceId);
                     }
+                    return;
+                }
+                // deletes are processed as such, ingests or copies as updates
+                if (dispatcher.dispatch(spaceId, contentId, destination.endsWith("delete"))) {
+                    logger.trace("Queued message for space \"" + spaceId +  "\". (" + m.getJMSMessageID() + ", " + dispatcher.getQueueDepth(spaceId) + " queued)");
                 } else {
                     logger.debug("Skipping update to content in space \"" + spaceId +  "\". (" + m.getJMSMessageID() + ")");
                 }
             } catch (JMSException ex) {
                 // TODO: handle this
                 throw new RuntimeException(ex);
-            } catch (ContentStoreException ex) {
-                // TODO: handle this
-                throw new RuntimeException(ex);
-            } catch (AptrustException ex) {
-                // TODO: handle this
-                throw new RuntimeException(ex);
-            } catch (IOException ex) {
-                // TODO: handle this
-                throw new RuntimeException(ex);
             } catch (Throwable t) {
                 logger.error("Unexpected error while processing message\"" + message + "\"", t);
             }
@@ -143,6 +271,87 @@ public class IngestProcessingService implements MessageListener, ExceptionListen
         }
     }
 
+    /**
+     * Stops the service: stops receiving messages and watching the topology,
+     * finishes registering processors for new institutions, processes the
+     * events already queued, stops the fixity and transfer threads and
+     * finally sends and commits everything still buffered for Solr.  Each
+     * step is attempted even if an earlier one fails.
+     */
+    public void shutdown() {
+        logger.info("Shutting down...");
+        try {
+            connection.close();
+        } catch (JMSException ex) {
+            logger.error("Unable to close the JMS connection!", ex);
+        }
+        topology.shutdown();
+        registrar.shutdown();
+        try {
+            registrar.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (!dispatcher.shutdown(SHUTDOWN_TIMEOUT_SECONDS)) {
+                logger.warn("Queued events were not all processed within " + SHUTDOWN_TIMEOUT_SECONDS + " seconds!");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        fixityScheduler.shutdown();
+        fixityVerifier.shutdown();
+        fixityReportApplier.shutdown();
+        contentTransfer.shutdown();
+        ContentStoreMetrics.getInstance().stopLogging();
+        try {
+            solrWriter.close();
+        } catch (IOException ex) {
+            logger.error("Unable to send the last updates to Solr!", ex);
+        }
+        logger.info("Shut down.");
+    }
+
+    /**
+     * Gets the dispatcher through which messages are passed to the listener
+     * for each space, which reports the depth and lag of each space's queue.
+     */
+    public SpaceEventDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Gets the verifier with which the fixity of production content may be
+     * checked on demand.
+     */
+    public FixityVerifier getFixityVerifier() {
+        return fixityVerifier;
+    }
+
+    /**
+     * Gets the scheduler that verifies the stalest content, which reports
+     * the percentage of content checked within its window.
+     */
+    public FixityScheduler getFixityScheduler() {
+        return fixityScheduler;
+    }
+
+    /**
+     * Gets the topology of institutions and staging spaces from which the
+     * processors for each space were registered.
+     */
+    public SpaceTopology getSpaceTopology() {
+        return topology;
+    }
+
+    /**
+     * Gets the writer through which Solr is updated, which reports the
+     * number of documents, requests and commits sent to Solr.
+     */
+    public BatchingSolrWriter getSolrWriter() {
+        return solrWriter;
+    }
+
     @Override
     public void onException(JMSException ex) {
         logger.error("JMS Exception", ex);
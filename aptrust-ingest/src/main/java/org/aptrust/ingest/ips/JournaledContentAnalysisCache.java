@@ -0,0 +1,533 @@
+package org.aptrust.ingest.ips;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ *   A ContentAnalysisCache that survives restarts.  Every call is passed to
+ *   a delegate cache (which answers all queries) and every change is appended
+ *   to a journal file on local disk.  Once the journal grows beyond a
+ *   configurable number of entries, the complete state of the delegate is
+ *   written to a snapshot file and the journal is started over.  When
+ *   constructed, the snapshot and then the journal are replayed into the
+ *   delegate, restoring everything that was known when the process stopped.
+ * </p>
+ * <p>
+ *   Each snapshot is given a generation number, which is also written at the
+ *   start of the journal that follows it.  A journal from any other
+ *   generation (left over if the process stopped between writing a snapshot
+ *   and starting a new journal) is ignored.  A partially written entry at the
+ *   end of the journal (left over if the process stopped while writing it) is
+ *   discarded.
+ * </p>
+ * <p>
+ *   Like the other implementations, this class is not thread safe.
+ * </p>
+ */
+public class JournaledContentAnalysisCache implements ContentAnalysisCache, Closeable {
+
+    final Logger logger = LoggerFactory.getLogger(JournaledContentAnalysisCache.class);
+
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 10000;
+
+    private static final String SNAPSHOT_FILENAME = "content-analysis-cache.snapshot";
+    private static final String JOURNAL_FILENAME = "content-analysis-cache.journal";
+
+    private static final int MAGIC = 0x41505443;
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte END = 0;
+    private static final byte CONTENT_ADDED = 1;
+    private static final byte CONTENT_REMOVED = 2;
+    private static final byte OBJECT_PARTS = 3;
+    private static final byte OBJECT_TITLE = 4;
+    private static final byte CHUNK_MANIFEST = 5;
+    private static final byte OBJECT_REMOVED = 6;
+    private static final byte CHUNK_MANIFEST_WITH_SIZES = 7;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private ContentAnalysisCache delegate;
+
+    private File snapshotFile;
+
+    private File journalFile;
+
+    private int snapshotInterval;
+
+    private long generation;
+
+    private JournalWriter journal;
+
+    private long journalEntries;
+
+    private boolean restored;
+
+    /**
+     * Opens (or creates) the journal in the given directory with the default
+     * snapshot interval.
+     */
+    public JournaledContentAnalysisCache(File directory, ContentAnalysisCache delegate) throws IOException {
+        this(directory, delegate, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    /**
+     * Opens (or creates) the journal in the given directory, replaying any
+     * previously persisted state into the delegate.
+     * @param directory a directory used exclusively by this cache
+     * @param delegate an empty cache that will hold the state in memory and
+     * answer queries
+     * @param snapshotInterval the number of journal entries after which the
+     * complete state is written to a new snapshot
+     */
+    public JournaledContentAnalysisCache(File directory, ContentAnalysisCache delegate, int snapshotInterval) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory.getAbsolutePath() + "!");
+        }
+        this.delegate = delegate;
+        this.snapshotInterval = snapshotInterval;
+        snapshotFile = new File(directory, SNAPSHOT_FILENAME);
+        journalFile = new File(directory, JOURNAL_FILENAME);
+
+        long start = System.currentTimeMillis();
+        long entries = 0;
+        if (snapshotFile.exists()) {
+            entries += loadSnapshot();
+            restored = true;
+        }
+        if (journalFile.exists()) {
+            long journalEntries = loadJournal();
+            if (journalEntries >= 0) {
+                entries += journalEntries;
+                restored = true;
+                this.journalEntries = journalEntries;
+                journal = new JournalWriter(new FileOutputStream(journalFile, true), true);
+            }
+        }
+        if (journal == null) {
+            startJournal();
+        }
+        logger.info("Restored " + entries + " entries from " + directory.getAbsolutePath() + " in " + (System.currentTimeMillis() - start) + "ms.");
+    }
+
+    /**
+     * Returns true if any state was restored from disk when this cache was
+     * constructed.
+     */
+    public boolean isRestored() {
+        return restored;
+    }
+
+    public void notifyContentId(String contentId) {
+        delegate.notifyContentId(contentId);
+        journal.notifyContentId(contentId);
+        afterJournalEntry();
+    }
+
+    public void forgetContentId(String contentId) {
+        delegate.forgetContentId(contentId);
+        journal.forgetContentId(contentId);
+        afterJournalEntry();
+    }
+
+    public void assertObjectParts(Collection<String> contentIds, String objectId) {
+        delegate.assertObjectParts(contentIds, objectId);
+        journal.assertObjectParts(contentIds, objectId);
+        afterJournalEntry();
+    }
+
+    public void cacheObjectTitle(String objectId, String title) {
+        delegate.cacheObjectTitle(objectId, title);
+        journal.cacheObjectTitle(objectId, title);
+        afterJournalEntry();
+    }
+
+    public void notifyChunkManifest(String contentId, DuraChunkManifest manifest) {
+        delegate.notifyChunkManifest(contentId, manifest);
+        journal.notifyChunkManifest(contentId, manifest);
+        afterJournalEntry();
+    }
+
+    public void forgetObject(String objectId) {
+        delegate.forgetObject(objectId);
+        journal.forgetObject(objectId);
+        afterJournalEntry();
+    }
+
+    public boolean isObjectComplete(String objectId) {
+        return delegate.isObjectComplete(objectId);
+    }
+
+    public Collection<String> getObjectContent(String objectId) {
+        return delegate.getObjectContent(objectId);
+    }
+
+    public long getObjectByteSize(String objectId) {
+        return delegate.getObjectByteSize(objectId);
+    }
+
+    public String getObjectTitle(String objectId) {
+        return delegate.getObjectTitle(objectId);
+    }
+
+    public Collection<String> getKnownContentIds() {
+        return delegate.getKnownContentIds();
+    }
+
+    public Collection<String> getKnownObjectIds() {
+        return delegate.getKnownObjectIds();
+    }
+
+    public void replayInto(ContentAnalysisListener target) {
+        delegate.replayInto(target);
+    }
+
+    /**
+     * Writes the current state to a new snapshot and starts a new, empty
+     * journal.
+     */
+    public void snapshot() throws IOException {
+        long start = System.currentTimeMillis();
+        File tempFile = new File(snapshotFile.getParentFile(), snapshotFile.getName() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tempFile);
+        JournalWriter snapshot = new JournalWriter(fos, false);
+        try {
+            snapshot.writeHeader(generation + 1);
+            delegate.replayInto(snapshot);
+            snapshot.writeEnd();
+            snapshot.out.flush();
+            fos.getFD().sync();
+        } finally {
+            snapshot.close();
+        }
+        Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        generation ++;
+        journal.close();
+        startJournal();
+        logger.debug("Wrote snapshot " + generation + " in " + (System.currentTimeMillis() - start) + "ms.");
+    }
+
+    /**
+     * Flushes and closes the journal.  Nothing is lost by not calling this
+     * method, because every entry is flushed as it is written.
+     */
+    public void close() throws IOException {
+        journal.close();
+    }
+
+    private void afterJournalEntry() {
+        if (++ journalEntries >= snapshotInterval) {
+            try {
+                snapshot();
+            } catch (IOException ex) {
+                throw new RuntimeException("Unable to write snapshot to " + snapshotFile.getAbsolutePath() + "!", ex);
+            }
+        }
+    }
+
+    private void startJournal() throws IOException {
+        journal = new JournalWriter(new FileOutputStream(journalFile, false), true);
+        journal.writeHeader(generation);
+        journal.out.flush();
+        journalEntries = 0;
+    }
+
+    /**
+     * Replays the snapshot into the delegate.
+     * @return the number of entries replayed
+     */
+    private long loadSnapshot() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+        try {
+            generation = readHeader(in, snapshotFile);
+            long count = 0;
+            while (readEntry(in, delegate)) {
+                count ++;
+            }
+            return count;
+        } catch (EOFException ex) {
+            throw new IOException("Snapshot " + snapshotFile.getAbsolutePath() + " is incomplete!", ex);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Replays the journal into the delegate, truncating any partially written
+     * entry from the end of the file.
+     * @return the number of entries replayed, or -1 if the journal belongs to
+     * a different snapshot generation and was ignored
+     */
+    private long loadJournal() throws IOException {
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+        DataInputStream in = new DataInputStream(counter);
+        long count = 0;
+        long validLength = 0;
+        try {
+            try {
+                long journalGeneration = readHeader(in, journalFile);
+                if (journalGeneration != generation) {
+                    logger.warn("Ignoring journal from generation " + journalGeneration + " (the snapshot is from generation " + generation + ").");
+                    return -1;
+                }
+            } catch (EOFException ex) {
+                logger.warn("Ignoring journal with an incomplete header.");
+                return -1;
+            }
+            validLength = counter.getByteCount();
+            try {
+                while (readEntry(in, delegate)) {
+                    count ++;
+                    validLength = counter.getByteCount();
+                }
+            } catch (EOFException ex) {
+                // the last entry was only partially written
+            }
+        } finally {
+            in.close();
+        }
+        if (validLength < journalFile.length()) {
+            logger.warn("Discarding " + (journalFile.length() - validLength) + " bytes of incomplete entries from the end of the journal.");
+            RandomAccessFile f = new RandomAccessFile(journalFile, "rw");
+            try {
+                f.setLength(validLength);
+            } finally {
+                f.close();
+            }
+        }
+        return count;
+    }
+
+    private static long readHeader(DataInputStream in, File file) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException(file.getAbsolutePath() + " is not a content analysis cache file!");
+        }
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException(file.getAbsolutePath() + " is in an unsupported format (version " + version + ")!");
+        }
+        return in.readLong();
+    }
+
+    /**
+     * Reads a single entry and applies it to the given cache.
+     * @return false if the entry marked the end of the file
+     */
+    private static boolean readEntry(DataInputStream in, ContentAnalysisListener target) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case END:
+                return false;
+            case CONTENT_ADDED:
+                target.notifyContentId(readString(in));
+                return true;
+            case CONTENT_REMOVED:
+                target.forgetContentId(readString(in));
+                return true;
+            case OBJECT_PARTS: {
+                String objectId = readString(in);
+                target.assertObjectParts(readStrings(in), objectId);
+                return true;
+            }
+            case OBJECT_TITLE: {
+                String objectId = readString(in);
+                target.cacheObjectTitle(objectId, readString(in));
+                return true;
+            }
+            case CHUNK_MANIFEST:
+            case CHUNK_MANIFEST_WITH_SIZES: {
+                // entries written before chunk sizes were journaled have none
+                String contentId = readString(in);
+                List<String> chunkIds = readStrings(in);
+                DuraChunkManifest manifest = new DuraChunkManifest();
+                manifest.chunks = new DuraChunkManifest.Chunk[chunkIds.size()];
+                for (int i = 0; i < manifest.chunks.length; i ++) {
+                    manifest.chunks[i] = new DuraChunkManifest.Chunk();
+                    manifest.chunks[i].chunkId = chunkIds.get(i);
+                    manifest.chunks[i].index = i;
+                }
+                if (type == CHUNK_MANIFEST_WITH_SIZES) {
+                    for (DuraChunkManifest.Chunk chunk : manifest.chunks) {
+                        chunk.byteSize = in.readLong();
+                    }
+                }
+                target.notifyChunkManifest(contentId, manifest);
+                return true;
+            }
+            case OBJECT_REMOVED:
+                target.forgetObject(readString(in));
+                return true;
+            default:
+                throw new IOException("Unknown entry type " + type + "!");
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> values = new ArrayList<String>(count);
+        for (int i = 0; i < count; i ++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+    /**
+     * A ContentAnalysisListener that records each change as an entry in a
+     * file rather than maintaining any state.
+     */
+    private static class JournalWriter implements ContentAnalysisListener, Closeable {
+
+        private DataOutputStream out;
+
+        private boolean autoFlush;
+
+        /**
+         * @param autoFlush if true, each entry is flushed as it's written
+         */
+        private JournalWriter(FileOutputStream fos, boolean autoFlush) {
+            out = new DataOutputStream(new BufferedOutputStream(fos));
+            this.autoFlush = autoFlush;
+        }
+
+        private void endEntry() throws IOException {
+            if (autoFlush) {
+                out.flush();
+            }
+        }
+
+        private void writeHeader(long generation) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(generation);
+        }
+
+        private void writeEnd() throws IOException {
+            out.writeByte(END);
+        }
+
+        private void writeString(String value) throws IOException {
+            if (value == null) {
+                out.writeInt(-1);
+            } else {
+                byte[] bytes = value.getBytes(UTF8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        private void writeStrings(Collection<String> values) throws IOException {
+            out.writeInt(values.size());
+            for (String value : values) {
+                writeString(value);
+            }
+        }
+
+        private void write(byte type, String value) {
+            try {
+                out.writeByte(type);
+                writeString(value);
+                endEntry();
+            } catch (IOException ex) {
+                throw new RuntimeException("Unable to write to journal!", ex);
+            }
+        }
+
+        private void write(byte type, String value, String otherValue) {
+            try {
+                out.writeByte(type);
+                writeString(value);
+                writeString(otherValue);
+                endEntry();
+            } catch (IOException ex) {
+                throw new RuntimeException("Unable to write to journal!", ex);
+            }
+        }
+
+        private void write(byte type, String value, Collection<String> values) {
+            try {
+                out.writeByte(type);
+                writeString(value);
+                writeStrings(values);
+                endEntry();
+            } catch (IOException ex) {
+                throw new RuntimeException("Unable to write to journal!", ex);
+            }
+        }
+
+        public void notifyContentId(String contentId) {
+            write(CONTENT_ADDED, contentId);
+        }
+
+        public void forgetContentId(String contentId) {
+            write(CONTENT_REMOVED, contentId);
+        }
+
+        public void assertObjectParts(Collection<String> contentIds, String objectId) {
+            write(OBJECT_PARTS, objectId, contentIds);
+        }
+
+        public void cacheObjectTitle(String objectId, String title) {
+            write(OBJECT_TITLE, objectId, title);
+        }
+
+        public void notifyChunkManifest(String contentId, DuraChunkManifest manifest) {
+            List<String> chunkIds = new ArrayList<String>();
+            if (manifest.chunks != null) {
+                for (DuraChunkManifest.Chunk chunk : manifest.chunks) {
+                    chunkIds.add(chunk.chunkId);
+                }
+            }
+            try {
+                out.writeByte(CHUNK_MANIFEST_WITH_SIZES);
+                writeString(contentId);
+                writeStrings(chunkIds);
+                if (manifest.chunks != null) {
+                    for (DuraChunkManifest.Chunk chunk : manifest.chunks) {
+                        out.writeLong(chunk.byteSize);
+                    }
+                }
+                endEntry();
+            } catch (IOException ex) {
+                throw new RuntimeException("Unable to write to journal!", ex);
+            }
+        }
+
+        public void forgetObject(String objectId) {
+            write(OBJECT_REMOVED, objectId);
+        }
+
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
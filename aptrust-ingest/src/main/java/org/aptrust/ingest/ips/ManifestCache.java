@@ -0,0 +1,89 @@
+package org.aptrust.ingest.ips;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.aptrust.ingest.api.IngestManifest;
+
+/**
+ * <p>
+ *   A bounded cache of parsed ingest manifests, keyed by the pid of the
+ *   fedora object that holds each manifest, from which the least recently
+ *   used manifest is evicted when the cache is full.  Without it, every
+ *   object ingested would require that its (possibly very large) manifest
+ *   be fetched from fedora and parsed again.
+ * </p>
+ * <p>
+ *   The cache is only correct if every change to a manifest in fedora is
+ *   accompanied by a call to {@link #put} (or {@link #remove}), which
+ *   DropboxProcessor does each time it writes a manifest.  Manifests
+ *   returned by {@link #get} are shared and must not be modified.  This
+ *   class is thread safe.
+ * </p>
+ */
+public class ManifestCache {
+
+    public static final int DEFAULT_CAPACITY = 100;
+
+    private Map<String, IngestManifest> manifests;
+
+    private long hitCount;
+
+    private long missCount;
+
+    public ManifestCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ManifestCache(final int capacity) {
+        manifests = new LinkedHashMap<String, IngestManifest>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<String, IngestManifest> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Gets the cached manifest with the given pid, or null if it isn't
+     * cached.
+     */
+    public synchronized IngestManifest get(String manifestId) {
+        IngestManifest manifest = manifests.get(manifestId);
+        if (manifest == null) {
+            missCount ++;
+        } else {
+            hitCount ++;
+        }
+        return manifest;
+    }
+
+    /**
+     * Caches the manifest, which must be identical to the version just
+     * read from or written to fedora.
+     */
+    public synchronized void put(String manifestId, IngestManifest manifest) {
+        manifests.put(manifestId, manifest);
+    }
+
+    /**
+     * Removes the manifest from the cache, which should be done when it's
+     * purged from fedora or will no longer be needed.
+     */
+    public synchronized void remove(String manifestId) {
+        manifests.remove(manifestId);
+    }
+
+    public synchronized int size() {
+        return manifests.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+}
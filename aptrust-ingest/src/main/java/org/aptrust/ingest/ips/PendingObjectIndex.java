@@ -0,0 +1,163 @@
+package org.aptrust.ingest.ips;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.aptrust.common.exception.AptrustException;
+import org.aptrust.ingest.api.DigitalObject;
+import org.aptrust.ingest.api.IngestManifest;
+import org.aptrust.ingest.api.IngestPackage;
+
+/**
+ * <p>
+ *   An index of the in-progress ingest operations for a single institution:
+ *   for each object that an in-progress manifest is waiting for, the id of
+ *   that manifest, and for each in-progress manifest, the number of its
+ *   objects that have been ingested.  DropboxProcessor consults this index
+ *   rather than searching Solr when an object is complete, so that neither
+ *   the lookup nor the progress count depends on what has been committed to
+ *   Solr.
+ * </p>
+ * <p>
+ *   If two in-progress manifests claim the same object, the object is
+ *   recorded as ambiguous and {@link #getManifestId} throws an exception for
+ *   it.  This class is not thread safe.
+ * </p>
+ */
+public class PendingObjectIndex {
+
+    private Map<String, String> objectIdToManifestId;
+
+    private Set<String> ambiguousObjectIds;
+
+    private Map<String, Progress> manifestIdToProgress;
+
+    public PendingObjectIndex() {
+        objectIdToManifestId = new HashMap<String, String>();
+        ambiguousObjectIds = new HashSet<String>();
+        manifestIdToProgress = new HashMap<String, Progress>();
+    }
+
+    /**
+     * Adds an in-progress manifest to the index.
+     * @param manifest the manifest, whose id must be set
+     * @param ingestedObjectCount the number of the manifest's objects that
+     * have already been ingested
+     */
+    public void addManifest(IngestManifest manifest, long ingestedObjectCount) {
+        String manifestId = manifest.getId();
+        removeManifest(manifestId);
+        Progress progress = new Progress(ingestedObjectCount);
+        for (IngestPackage p : manifest.getPackagesToSubmit()) {
+            for (DigitalObject o : p.getDigitalObjects()) {
+                progress.pendingObjectIds.add(o.getId());
+                String existing = objectIdToManifestId.put(o.getId(), manifestId);
+                if (existing != null && !existing.equals(manifestId)) {
+                    ambiguousObjectIds.add(o.getId());
+                }
+            }
+        }
+        manifestIdToProgress.put(manifestId, progress);
+    }
+
+    /**
+     * Gets the id of the in-progress manifest waiting for the given object.
+     * @return the manifest id, or null if no manifest is waiting for it
+     * @throws AptrustException if more than one manifest is waiting for it
+     */
+    public String getManifestId(String objectId) throws AptrustException {
+        if (ambiguousObjectIds.contains(objectId)) {
+            throw new AptrustException("There are more than one manifest expecting the object " + objectId);
+        }
+        return objectIdToManifestId.get(objectId);
+    }
+
+    /**
+     * Gets the number of objects ingested for the given in-progress manifest.
+     */
+    public long getIngestedObjectCount(String manifestId) {
+        Progress progress = manifestIdToProgress.get(manifestId);
+        if (progress == null) {
+            throw new IllegalArgumentException(manifestId + " is not an in-progress manifest!");
+        }
+        return progress.ingestedObjectCount;
+    }
+
+    /**
+     * Records that an object has been ingested for the given manifest, which
+     * stops waiting for it.
+     * @return the updated number of objects ingested for the manifest
+     */
+    public long objectIngested(String manifestId, String objectId) {
+        Progress progress = manifestIdToProgress.get(manifestId);
+        if (progress == null) {
+            throw new IllegalArgumentException(manifestId + " is not an in-progress manifest!");
+        }
+        if (progress.pendingObjectIds.remove(objectId)) {
+            removeObject(objectId, manifestId);
+        }
+        return ++ progress.ingestedObjectCount;
+    }
+
+    /**
+     * Removes a manifest (which has completed or failed) from the index.
+     */
+    public void removeManifest(String manifestId) {
+        Progress progress = manifestIdToProgress.remove(manifestId);
+        if (progress != null) {
+            for (String objectId : progress.pendingObjectIds) {
+                removeObject(objectId, manifestId);
+            }
+        }
+    }
+
+    /**
+     * Gets the ids of the in-progress manifests.
+     */
+    public Collection<String> getManifestIds() {
+        return new HashSet<String>(manifestIdToProgress.keySet());
+    }
+
+    public int getPendingObjectCount() {
+        return objectIdToManifestId.size();
+    }
+
+    private void removeObject(String objectId, String manifestId) {
+        if (!ambiguousObjectIds.contains(objectId)) {
+            objectIdToManifestId.remove(objectId);
+            return;
+        }
+        // find whichever other manifests still claim the object
+        String claimant = null;
+        int claimants = 0;
+        for (Map.Entry<String, Progress> entry : manifestIdToProgress.entrySet()) {
+            if (!entry.getKey().equals(manifestId) && entry.getValue().pendingObjectIds.contains(objectId)) {
+                claimant = entry.getKey();
+                claimants ++;
+            }
+        }
+        if (claimants <= 1) {
+            ambiguousObjectIds.remove(objectId);
+        }
+        if (claimant == null) {
+            objectIdToManifestId.remove(objectId);
+        } else {
+            objectIdToManifestId.put(objectId, claimant);
+        }
+    }
+
+    private static final class Progress {
+
+        private long ingestedObjectCount;
+
+        private Set<String> pendingObjectIds;
+
+        private Progress(long ingestedObjectCount) {
+            this.ingestedObjectCount = ingestedObjectCount;
+            pendingObjectIds = new HashSet<String>();
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package org.aptrust.ingest.ips;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Routes DuraCloud change events to the SpaceListener registered for the
+ * space in which they occurred.  Each space has its own ordered queue of
+ * pending events which is drained by a bounded pool of worker threads.  At
+ * most one worker processes the events for any given space at a time, so
+ * SpaceListener implementations (which are not thread safe) see events in
+ * the order they were received, while a slow operation in one space doesn't
+ * hold up the processing of events for the others.
+ */
+public class SpaceEventDispatcher {
+
+    final Logger logger = LoggerFactory.getLogger(SpaceEventDispatcher.class);
+
+    /**
+     * The maximum number of events that a worker will process for one space
+     * before yielding so that the other spaces get a turn.
+     */
+    private static final int MAX_EVENTS_PER_TURN = 100;
+
+    private Map<String, SpaceQueue> queues;
+
+    private ExecutorService workers;
+
+    /**
+     * The number of events ever queued, by which awaitIdle() detects events
+     * queued (by listeners, for instance) while it checks the queues.
+     */
+    private AtomicLong offeredCount = new AtomicLong();
+
+    /**
+     * Set once shutdown() begins, after which no event is accepted.
+     */
+    private volatile boolean stopped;
+
+    private ScheduledExecutorService statusReporter;
+
+    /**
+     * @param threadCount the maximum number of spaces whose events will be
+     * processed in parallel
+     * @param statusIntervalSeconds the number of seconds between log entries
+     * summarizing the state of each queue (zero or less to disable)
+     */
+    public SpaceEventDispatcher(int threadCount, int statusIntervalSeconds) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("At least one dispatch thread is required!");
+        }
+        queues = new ConcurrentHashMap<String, SpaceQueue>();
+        workers = Executors.newFixedThreadPool(threadCount, new NamedThreadFactory("space-dispatch"));
+        if (statusIntervalSeconds > 0) {
+            statusReporter = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("space-dispatch-status"));
+            statusReporter.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    logStatus();
+                }}, statusIntervalSeconds, statusIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Registers the listener to which events for the given space will be
+     * passed.  Any listener previously registered for the space is replaced,
+     * though events already queued for that space are passed to the new one.
+     */
+    public void registerListener(String spaceId, SpaceListener listener) {
+        SpaceQueue queue = queues.get(spaceId);
+        if (queue == null) {
+            queues.put(spaceId, new SpaceQueue(spaceId, listener));
+        } else {
+            queue.setListener(listener);
+        }
+    }
+
+    /**
+     * Returns true if a listener is registered for the given space.
+     */
+    public boolean isRegistered(String spaceId) {
+        return queues.containsKey(spaceId);
+    }
+
+    /**
+     * Queues an event for the listener registered for the given space.  This
+     * method returns immediately; the event is processed by a worker thread
+     * after all events previously queued for the same space.
+     * @param spaceId the space in which the change occurred
+     * @param contentId the content that was added, updated or deleted
+     * @param delete true if the content was deleted
+     * @return false if no listener is registered for the space or the
+     * dispatcher has been shut down, in which case the event is ignored
+     */
+    public boolean dispatch(String spaceId, String contentId, boolean delete) {
+        SpaceQueue queue = queues.get(spaceId);
+        if (queue == null || stopped) {
+            return false;
+        }
+        if (queue.offer(new SpaceEvent(contentId, delete))) {
+            try {
+                workers.execute(queue);
+            } catch (RejectedExecutionException ex) {
+                // shutdown() finished between the check above and the offer
+                logger.warn("Event for \"" + contentId + "\" in space \"" + spaceId + "\" arrived after shutdown and was not processed.");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of events waiting to be processed for the given space.
+     */
+    public int getQueueDepth(String spaceId) {
+        SpaceQueue queue = queues.get(spaceId);
+        return queue == null ? 0 : queue.getStatus().getDepth();
+    }
+
+    /**
+     * Gets the number of milliseconds that the oldest unprocessed event for
+     * the given space has been waiting, or zero if the queue is empty.
+     */
+    public long getLag(String spaceId) {
+        SpaceQueue queue = queues.get(spaceId);
+        return queue == null ? 0 : queue.getStatus().getLag();
+    }
+
+    /**
+     * Gets a snapshot of the state of every space's queue, keyed and sorted
+     * by space id.
+     */
+    public Map<String, SpaceQueueStatus> getStatus() {
+        Map<String, SpaceQueueStatus> status = new TreeMap<String, SpaceQueueStatus>();
+        for (SpaceQueue queue : queues.values()) {
+            status.put(queue.spaceId, queue.getStatus());
+        }
+        return Collections.unmodifiableMap(status);
+    }
+
+    /**
+     * Writes the state of every space's queue to the log.  Spaces with pending
+     * events are reported at the info level, idle ones only at debug.
+     */
+    public void logStatus() {
+        for (Map.Entry<String, SpaceQueueStatus> entry : getStatus().entrySet()) {
+            SpaceQueueStatus s = entry.getValue();
+            if (s.getDepth() > 0) {
+                logger.info("Space \"" + entry.getKey() + "\": " + s);
+            } else {
+                logger.debug("Space \"" + entry.getKey() + "\": " + s);
+            }
+        }
+    }
+
+    /**
+     * Waits up to the given number of milliseconds for every queue to be
+     * drained, without stopping the dispatcher.  Because processing an event
+     * in one space may queue events in another that was already found empty,
+     * the queues are checked repeatedly until one pass finds every queue
+     * empty and no event queued since the pass began.
+     * @return true if all queued events were processed before the timeout
+     * elapsed
+     */
+    public boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        boolean idle = false;
+        while (!idle) {
+            long offered = offeredCount.get();
+            idle = true;
+            for (SpaceQueue queue : queues.values()) {
+                if (!queue.isEmpty()) {
+                    idle = false;
+                    if (!queue.awaitEmpty(deadline - System.currentTimeMillis())) {
+                        return false;
+                    }
+                }
+            }
+            if (offeredCount.get() != offered) {
+                idle = false;
+            }
+            if (!idle && System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting events and waits up to the given number of seconds for
+     * those already queued to be processed.  The queues are drained as by
+     * awaitIdle(), so an event that was being queued as dispatch() stopped
+     * accepting them is processed too.
+     * @return true if all events were processed before the timeout elapsed
+     */
+    public boolean shutdown(long timeoutSeconds) throws InterruptedException {
+        stopped = true;
+        if (statusReporter != null) {
+            statusReporter.shutdownNow();
+        }
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        if (!awaitIdle(TimeUnit.SECONDS.toMillis(timeoutSeconds))) {
+            workers.shutdownNow();
+            return false;
+        }
+        workers.shutdown();
+        return workers.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    private static class SpaceEvent {
+
+        private String contentId;
+
+        private boolean delete;
+
+        private long received;
+
+        private SpaceEvent(String contentId, boolean delete) {
+            this.contentId = contentId;
+            this.delete = delete;
+            received = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * The queue of pending events for a single space.  When submitted to the
+     * worker pool it processes queued events until the queue is empty or its
+     * turn is over, in which case it resubmits itself.  The "scheduled" flag
+     * (guarded by the queue's monitor) ensures that only one worker at a time
+     * processes events for the space.
+     */
+    private class SpaceQueue implements Runnable {
+
+        private String spaceId;
+
+        private SpaceListener listener;
+
+        private LinkedList<SpaceEvent> events;
+
+        private boolean scheduled;
+
+        private boolean processing;
+
+        private long processedCount;
+
+        private long errorCount;
+
+        private long lastLag;
+
+        private SpaceQueue(String spaceId, SpaceListener listener) {
+            this.spaceId = spaceId;
+            this.listener = listener;
+            events = new LinkedList<SpaceEvent>();
+        }
+
+        private synchronized void setListener(SpaceListener listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * Adds an event to the queue.
+         * @return true if the caller must submit this queue to the worker pool
+         */
+        private synchronized boolean offer(SpaceEvent event) {
+            events.add(event);
+            offeredCount.incrementAndGet();
+            if (scheduled) {
+                return false;
+            } else {
+                scheduled = true;
+                return true;
+            }
+        }
+
+        public void run() {
+            for (int i = 0; i < MAX_EVENTS_PER_TURN; i ++) {
+                SpaceEvent event = null;
+                SpaceListener l = null;
+                synchronized (this) {
+                    event = events.poll();
+                    if (event == null) {
+                        scheduled = false;
+                        notifyAll();
+                        return;
+                    }
+                    processing = true;
+                    l = listener;
+                    lastLag = System.currentTimeMillis() - event.received;
+                }
+                boolean failed = false;
+                try {
+                    if (event.delete) {
+                        logger.debug("Passing delete message on to process for space \"" + spaceId +  "\". (" + event.contentId + ")");
+                        l.notifyDelete(event.contentId);
+                    } else { // ingest or copy
+                        logger.debug("Passing update message on to process for space \"" + spaceId +  "\". (" + event.contentId + ")");
+                        l.notifyUpdate(event.contentId);
+                    }
+                } catch (Throwable t) {
+                    failed = true;
+                    logger.error("Error processing " + (event.delete ? "delete" : "update") + " of \"" + event.contentId + "\" in space \"" + spaceId + "\"!", t);
+                } finally {
+                    synchronized (this) {
+                        processing = false;
+                        processedCount ++;
+                        if (failed) {
+                            errorCount ++;
+                        }
+                    }
+                }
+            }
+            // this space's turn is over, go to the back of the line
+            workers.execute(this);
+        }
+
+        private synchronized SpaceQueueStatus getStatus() {
+            SpaceEvent oldest = events.peek();
+            return new SpaceQueueStatus(events.size(), oldest == null ? 0 : System.currentTimeMillis() - oldest.received, lastLag, processedCount, errorCount, processing);
+        }
+
+        /**
+         * Determines whether every event queued for this space has been
+         * processed.
+         */
+        private synchronized boolean isEmpty() {
+            return !scheduled;
+        }
+
+        private synchronized boolean awaitEmpty(long timeoutMs) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            while (scheduled) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * An immutable snapshot of the state of one space's event queue.
+     */
+    public static class SpaceQueueStatus {
+
+        private int depth;
+
+        private long lag;
+
+        private long lastLag;
+
+        private long processedCount;
+
+        private long errorCount;
+
+        private boolean busy;
+
+        private SpaceQueueStatus(int depth, long lag, long lastLag, long processedCount, long errorCount, boolean busy) {
+            this.depth = depth;
+            this.lag = lag;
+            this.lastLag = lastLag;
+            this.processedCount = processedCount;
+            this.errorCount = errorCount;
+            this.busy = busy;
+        }
+
+        /**
+         * Gets the number of events waiting to be processed.
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * Gets the age in milliseconds of the oldest waiting event.
+         */
+        public long getLag() {
+            return lag;
+        }
+
+        /**
+         * Gets the number of milliseconds the most recently started event
+         * waited in the queue before being processed.
+         */
+        public long getLastLag() {
+            return lastLag;
+        }
+
+        public long getProcessedCount() {
+            return processedCount;
+        }
+
+        public long getErrorCount() {
+            return errorCount;
+        }
+
+        /**
+         * Returns true if an event was being processed when this snapshot
+         * was taken.
+         */
+        public boolean isBusy() {
+            return busy;
+        }
+
+        public String toString() {
+            return depth + " queued, lag " + lag + "ms (last event waited " + lastLag + "ms), "
+                    + processedCount + " processed, " + errorCount + " failed" + (busy ? ", busy" : "");
+        }
+    }
+
+    static class NamedThreadFactory implements ThreadFactory {
+
+        private String prefix;
+
+        private AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable r) {
+            return new Thread(r, prefix + "-" + count.incrementAndGet());
+        }
+    }
+}
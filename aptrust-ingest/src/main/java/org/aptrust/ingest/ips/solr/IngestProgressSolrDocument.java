@@ -0,0 +1,53 @@
+package org.aptrust.ingest.ips.solr;
+
+import org.aptrust.common.solr.AptrustSolrDocument;
+import org.aptrust.common.solr.SolrField;
+
+/**
+ * A simple class that exposes annotated methods that allow for easy creation
+ * of Solr Documents for "ingest_progress" records.  Each in-progress ingest
+ * operation has one such record holding the number of its objects that have
+ * been ingested, which is rewritten as each object is ingested in place of
+ * the (much larger) "ingest" record.
+ *
+ * @see org.aptrust.common.solr.AptrustSolrDocument#createValidSolrDocument(Object)
+ */
+public class IngestProgressSolrDocument {
+
+    private String institutionId;
+
+    private String ingestId;
+
+    private int progress;
+
+    public IngestProgressSolrDocument(String institutionId, String ingestId, int progress) {
+        this.institutionId = institutionId;
+        this.ingestId = ingestId;
+        this.progress = progress;
+    }
+
+    @SolrField(name=AptrustSolrDocument.RECORD_TYPE)
+    public String getRecordType() {
+        return "ingest_progress";
+    }
+
+    @SolrField(name=AptrustSolrDocument.INSTITUTION_ID)
+    public String getInstitutionId() {
+        return institutionId;
+    }
+
+    @SolrField(name=AptrustSolrDocument.ID)
+    public String getId() {
+        return institutionId + "-ingest-progress:" + ingestId;
+    }
+
+    @SolrField(name=AptrustSolrDocument.INGEST_ID)
+    public String getIngestId() {
+        return ingestId;
+    }
+
+    @SolrField(name=AptrustSolrDocument.COMPLETED_OBJECT_COUNT)
+    public int getIngestedObjects() {
+        return progress;
+    }
+}
@@ -54,23 +54,6 @@ public class IngestSolrDocument {
         return d;
     }
 
-    /**
-     * Gets a IngestSolrDocument that describes an in-progress ingest operation
-     * for the given institution with the given manifest.
-     */
-    public static IngestSolrDocument updateIngest(String institutionId, IngestManifest m, int progress) {
-        IngestSolrDocument d = new IngestSolrDocument();
-        d.institutionId = institutionId;
-        d.m = m;
-        d.total = 0;
-        for (IngestPackage p : m.getPackagesToSubmit()) {
-            d.total += p.getDigitalObjects().length;
-        }
-        d.progress = progress;
-        d.operationStatus = IngestStatus.IN_PROGRESS;
-        return d;
-    }
-
     /**
      * Gets a IngestSolrDocument that describes a failed ingest operation for
      * the given institution with the given manifest and error message.
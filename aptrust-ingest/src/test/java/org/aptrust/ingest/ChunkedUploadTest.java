@@ -0,0 +1,85 @@
+package org.aptrust.ingest;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.Assert;
+
+import org.aptrust.common.duracloud.CircuitBreaker;
+import org.aptrust.common.duracloud.RetryPolicy;
+import org.aptrust.common.duracloud.StubbornContentStore;
+import org.aptrust.ingest.ips.DuraChunkManifest;
+import org.aptrust.ingest.ips.InMemoryContentStore;
+import org.duracloud.error.ContentStoreException;
+import org.junit.Test;
+
+public class ChunkedUploadTest {
+
+    @Test
+    public void testResume() throws Exception {
+        File file = File.createTempFile("aip", ".zip");
+        try {
+            byte[] bytes = new byte[2500];
+            for (int i = 0; i < bytes.length; i ++) {
+                bytes[i] = (byte) i;
+            }
+            FileOutputStream fos = new FileOutputStream(file);
+            fos.write(bytes);
+            fos.close();
+
+            InMemoryContentStore store = new InMemoryContentStore();
+            store.createSpace("uvastaging");
+            StubbornContentStore cs = new StubbornContentStore(store.createContentStore(), new RetryPolicy(0, 1, 1), new CircuitBreaker("test", 5, 60000));
+            store.failNextAdd("aip.zip.dura-chunk-0001");
+            ChunkedUpload upload = new ChunkedUpload(cs, 1000);
+            AtomicLong sent = new AtomicLong();
+            upload.setSentByteCounter(sent);
+            try {
+                upload.upload("uvastaging", "aip.zip", file, "application/zip", null);
+                Assert.fail("The upload of the second chunk should fail.");
+            } catch (ContentStoreException ex) {
+                Assert.assertEquals(1, store.getAddCount());
+                Assert.assertEquals("The stored chunk should be counted.", 1000, sent.get());
+            }
+
+            String checksum = upload.upload("uvastaging", "aip.zip", file, "application/zip", null);
+            Assert.assertEquals("Only the missing chunks should be sent.", 2, upload.getUploadedChunkCount());
+            Assert.assertEquals(1, upload.getResumedChunkCount());
+            Assert.assertEquals("Chunks already stored shouldn't be counted again.", 2500, sent.get());
+            Assert.assertEquals("Three chunks and a manifest should be stored.", 4, store.getAddCount());
+
+            DuraChunkManifest manifest = IngestXmlBindings.CHUNK_MANIFEST.unmarshal(new ByteArrayInputStream(store.get("uvastaging", "aip.zip.dura-manifest")), DuraChunkManifest.class);
+            Assert.assertEquals(checksum, manifest.header.sourceContent.md5);
+            Assert.assertEquals(3, manifest.chunks.length);
+            Assert.assertEquals(500, manifest.chunks[2].byteSize);
+            Assert.assertTrue(Arrays.equals(Arrays.copyOfRange(bytes, 1000, 2000), store.get("uvastaging", manifest.chunks[1].chunkId)));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testUnchunked() throws Exception {
+        File file = File.createTempFile("aip", ".zip");
+        try {
+            FileOutputStream fos = new FileOutputStream(file);
+            fos.write(new byte[1000]);
+            fos.close();
+            InMemoryContentStore store = new InMemoryContentStore();
+            store.createSpace("uvastaging");
+            StubbornContentStore cs = new StubbornContentStore(store.createContentStore(), new RetryPolicy(0, 1, 1), new CircuitBreaker("test", 5, 60000));
+            ChunkedUpload upload = new ChunkedUpload(cs, 1000);
+            AtomicLong sent = new AtomicLong();
+            upload.setSentByteCounter(sent);
+            upload.upload("uvastaging", "aip.zip", file, "application/zip", null);
+            Assert.assertEquals(1000, sent.get());
+            Assert.assertEquals("A file no larger than a chunk shouldn't be chunked.", 1000, store.get("uvastaging", "aip.zip").length);
+            Assert.assertEquals(1, store.getAddCount());
+        } finally {
+            file.delete();
+        }
+    }
+}
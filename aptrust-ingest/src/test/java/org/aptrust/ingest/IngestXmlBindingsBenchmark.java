@@ -0,0 +1,76 @@
+package org.aptrust.ingest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+
+import javax.xml.bind.JAXBContext;
+
+import org.apache.commons.io.IOUtils;
+import org.aptrust.common.metadata.APTrustMetadata;
+import org.aptrust.ingest.api.DigitalObject;
+import org.aptrust.ingest.api.IngestManifest;
+import org.aptrust.ingest.api.IngestPackage;
+
+/**
+ * <p>
+ *   Measures the time spent parsing and serializing an ingest manifest when
+ *   a new JAXBContext is built for each operation (as the ingest code once
+ *   did) and when the shared IngestXmlBindings.MANIFEST binding is used.
+ *   This isn't a unit test; run it from the aptrust-ingest directory with
+ *   something like:
+ * </p>
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.aptrust.ingest.IngestXmlBindingsBenchmark \
+ *     -Dexec.args="500"
+ * </pre>
+ * <p>
+ *   The argument is the number of manifests to process.  Each is
+ *   unmarshalled and marshalled twice, which is roughly what processing a
+ *   new manifest involves.
+ * </p>
+ */
+public class IngestXmlBindingsBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        byte[] xml = IOUtils.toByteArray(new FileInputStream(new File("src/test/resources/manifest-fedora-sample.xml")));
+
+        // warm up both approaches
+        perManifestContexts(xml, 20);
+        sharedBinding(xml, 20);
+
+        long start = System.nanoTime();
+        perManifestContexts(xml, count);
+        long contextPerOperation = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        sharedBinding(xml, count);
+        long shared = System.nanoTime() - start;
+
+        System.out.println("New JAXBContext per operation: " + (contextPerOperation / count / 1000) + " microseconds per manifest");
+        System.out.println("Shared binding: " + (shared / count / 1000) + " microseconds per manifest");
+    }
+
+    private static void perManifestContexts(byte[] xml, int count) throws Exception {
+        for (int i = 0; i < count; i ++) {
+            for (int j = 0; j < 2; j ++) {
+                JAXBContext jc = JAXBContext.newInstance(IngestManifest.class, IngestPackage.class, DigitalObject.class, APTrustMetadata.class);
+                IngestManifest m = (IngestManifest) jc.createUnmarshaller().unmarshal(new ByteArrayInputStream(xml));
+                jc = JAXBContext.newInstance(IngestManifest.class, IngestPackage.class, DigitalObject.class, APTrustMetadata.class);
+                jc.createMarshaller().marshal(m, new ByteArrayOutputStream());
+            }
+        }
+    }
+
+    private static void sharedBinding(byte[] xml, int count) throws Exception {
+        for (int i = 0; i < count; i ++) {
+            for (int j = 0; j < 2; j ++) {
+                IngestManifest m = IngestXmlBindings.MANIFEST.unmarshal(new ByteArrayInputStream(xml), IngestManifest.class);
+                IngestXmlBindings.MANIFEST.marshal(m, new ByteArrayOutputStream());
+            }
+        }
+    }
+}
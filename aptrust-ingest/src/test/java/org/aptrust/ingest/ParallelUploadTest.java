@@ -0,0 +1,75 @@
+package org.aptrust.ingest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.aptrust.common.duracloud.CircuitBreaker;
+import org.aptrust.common.duracloud.RetryPolicy;
+import org.aptrust.common.duracloud.StubbornContentStore;
+import org.aptrust.ingest.ips.InMemoryContentStore;
+import org.junit.Test;
+
+public class ParallelUploadTest {
+
+    @Test
+    public void testRerunRetriesOnlyFailures() throws Exception {
+        File dir = File.createTempFile("aips", "");
+        dir.delete();
+        dir.mkdirs();
+        try {
+            List<File> aips = new ArrayList<File>();
+            for (int i = 0; i < 6; i ++) {
+                File aip = new File(dir, "aip" + i + ".zip");
+                // only aip4 is large enough to be chunked
+                byte[] bytes = new byte[i == 4 ? 2500 : 1500 + i];
+                Arrays.fill(bytes, (byte) i);
+                FileUtils.writeByteArrayToFile(aip, bytes);
+                aips.add(aip);
+            }
+
+            InMemoryContentStore store = new InMemoryContentStore();
+            store.createSpace("uvastaging");
+            StubbornContentStore cs = new StubbornContentStore(store.createContentStore(), new RetryPolicy(0, 1, 1), new CircuitBreaker("test", 5, 60000));
+            store.failNextAdd("aip2.zip");
+            store.failNextAdd("aip4.zip.dura-chunk-0001");
+
+            File logFile = new File(dir, "upload-log.tsv");
+            UploadLog log = new UploadLog(logFile);
+            log.recordManifestId("abc123");
+            ParallelUpload upload = new ParallelUpload(cs, "uvastaging", 3, log);
+            upload.setChunkSize(2000);
+            ParallelUpload.Summary summary = upload.upload(aips, "application/zip");
+            Assert.assertEquals(4, summary.getUploadedCount());
+            Assert.assertEquals(0, summary.getSkippedCount());
+            Assert.assertEquals(2, summary.getFailedFiles().size());
+            Assert.assertTrue(summary.getFailedFiles().contains(aips.get(2)));
+            Assert.assertTrue(summary.getFailedFiles().contains(aips.get(4)));
+
+            // a rerun (with the log read anew) sends only the failures
+            log = new UploadLog(logFile);
+            Assert.assertEquals("abc123", log.getManifestId());
+            int addCount = store.getAddCount();
+            upload = new ParallelUpload(cs, "uvastaging", 3, log);
+            upload.setChunkSize(2000);
+            summary = upload.upload(aips, "application/zip");
+            Assert.assertEquals(2, summary.getUploadedCount());
+            Assert.assertEquals(4, summary.getSkippedCount());
+            Assert.assertTrue(summary.getFailedFiles().isEmpty());
+            Assert.assertEquals("Only aip2.zip and the missing chunk and manifest of aip4.zip should be sent.", addCount + 3, store.getAddCount());
+            for (int i = 0; i < 6; i ++) {
+                Assert.assertTrue(new UploadLog(logFile).isUploaded("aip" + i + ".zip", aips.get(i)));
+            }
+
+            // a changed file is sent again
+            FileUtils.writeByteArrayToFile(aips.get(0), new byte[10]);
+            Assert.assertFalse(new UploadLog(logFile).isUploaded("aip0.zip", aips.get(0)));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
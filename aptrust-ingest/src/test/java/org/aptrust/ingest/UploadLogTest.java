@@ -0,0 +1,65 @@
+package org.aptrust.ingest;
+
+import java.io.File;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UploadLogTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("upload-log", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testCompletion() throws Exception {
+        File aip = new File(dir, "aip.zip");
+        FileUtils.writeByteArrayToFile(aip, new byte[10]);
+        File logFile = new File(dir, "upload-log.tsv");
+        UploadLog log = new UploadLog(logFile);
+        log.recordManifestId("abc123");
+        log.recordFailure("aip.zip", aip, "unavailable", 10);
+        Assert.assertFalse(new UploadLog(logFile).isComplete());
+        log.recordSuccess("aip.zip", aip, "checksum", 10);
+        log.recordCompletion();
+        Assert.assertTrue(log.isComplete());
+        log = new UploadLog(logFile);
+        Assert.assertTrue("Completion should be read from the file.", log.isComplete());
+
+        // a resumed upload isn't complete until it's recorded as such
+        log.recordFailure("aip.zip", aip, "unavailable", 10);
+        Assert.assertFalse(new UploadLog(logFile).isComplete());
+    }
+
+    @Test
+    public void testRotate() throws Exception {
+        File aip = new File(dir, "aip.zip");
+        FileUtils.writeByteArrayToFile(aip, new byte[10]);
+        File logFile = new File(dir, "upload-log.tsv");
+        for (int i = 1; i <= 2; i ++) {
+            UploadLog log = new UploadLog(logFile);
+            log.recordManifestId("operation" + i);
+            log.recordSuccess("aip.zip", aip, "checksum", 10);
+            log.recordCompletion();
+            Assert.assertEquals(new File(dir, "upload-log.tsv." + i), log.rotate());
+            Assert.assertNull(log.getManifestId());
+            Assert.assertFalse(log.isUploaded("aip.zip", aip));
+            Assert.assertFalse(logFile.exists());
+            Assert.assertEquals("operation" + i, new UploadLog(new File(dir, "upload-log.tsv." + i)).getManifestId());
+        }
+    }
+}
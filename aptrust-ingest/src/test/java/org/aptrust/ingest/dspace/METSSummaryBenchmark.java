@@ -0,0 +1,145 @@
+package org.aptrust.ingest.dspace;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+
+import org.w3c.dom.Document;
+
+/**
+ * <p>
+ *   Compares the time taken to identify a DSpace AIP by building a DOM of
+ *   its METS and evaluating XPath expressions (as DSpaceAIPPackage once did)
+ *   with the time taken by METSSummary, on the METS from the test AIP and on
+ *   synthetic METS with a large fileSec and structMap.  This isn't a unit
+ *   test; run it with something like:
+ * </p>
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.aptrust.ingest.dspace.METSSummaryBenchmark \
+ *     -Dexec.args="1000 20000"
+ * </pre>
+ * <p>
+ *   The arguments are the number of times each METS document is read by
+ *   each reader and the number of files described by the synthetic METS.
+ * </p>
+ */
+public class METSSummaryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int readCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int fileCount = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        byte[] aipMets = readMetsEntry(METSSummaryBenchmark.class.getClassLoader().getResourceAsStream("22675554.zip"));
+        compare("test AIP", aipMets, readCount);
+        compare("synthetic METS with " + fileCount + " files", createMets(fileCount), Math.max(1, readCount / 100));
+    }
+
+    private static void compare(String name, byte[] mets, int readCount) throws Exception {
+        System.out.println(name + ": " + (mets.length / 1024) + " KB, " + readCount + " reads");
+        String[] expected = readWithXPath(mets);
+        METSSummary summary = METSSummary.read(new ByteArrayInputStream(mets));
+        if (!expected[0].equals(summary.getId()) || !expected[1].equals(summary.getTitle()) || !expected[2].equals(summary.getDspaceVersion())) {
+            throw new IllegalStateException("METSSummary doesn't agree with the XPath expressions!");
+        }
+        for (int round = 0; round < 2; round ++) {
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < readCount; i ++) {
+                readWithXPath(mets);
+            }
+            long xpathElapsed = System.currentTimeMillis() - start;
+            start = System.currentTimeMillis();
+            for (int i = 0; i < readCount; i ++) {
+                METSSummary.read(new ByteArrayInputStream(mets));
+            }
+            long summaryElapsed = System.currentTimeMillis() - start;
+            System.out.println("  " + (round == 0 ? "warm-up: " : "measured: ") + "DOM and XPath " + xpathElapsed + "ms, METSSummary " + summaryElapsed + "ms");
+        }
+    }
+
+    private static byte[] readMetsEntry(InputStream aip) throws Exception {
+        ZipInputStream zis = new ZipInputStream(aip);
+        try {
+            ZipEntry z = null;
+            while ((z = zis.getNextEntry()) != null) {
+                if (z.getName().equals("mets.xml")) {
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[8192];
+                    int read = 0;
+                    while ((read = zis.read(buffer)) != -1) {
+                        baos.write(buffer, 0, read);
+                    }
+                    return baos.toByteArray();
+                }
+            }
+            throw new IllegalStateException("The AIP has no mets.xml!");
+        } finally {
+            zis.close();
+        }
+    }
+
+    /**
+     * Identifies an AIP from its METS as DSpaceAIPPackage once did.
+     */
+    private static String[] readWithXPath(byte[] bytes) throws Exception {
+        DocumentBuilderFactory f = DocumentBuilderFactory.newInstance();
+        f.setNamespaceAware(true);
+        Document mets = f.newDocumentBuilder().parse(new ByteArrayInputStream(bytes));
+        XPath xpath = XPathFactory.newInstance().newXPath();
+        xpath.setNamespaceContext(new NamespaceContext() {
+            public String getNamespaceURI(String prefix) {
+                return prefix.equals("mets") ? "http://www.loc.gov/METS/" : prefix.equals("mods") ? "http://www.loc.gov/mods/v3" : null;
+            }
+
+            public String getPrefix(String namespaceURI) {
+                return null;
+            }
+
+            public Iterator getPrefixes(String namespaceURI) {
+                return Collections.emptyList().iterator();
+            }});
+        return new String[] {
+            (String) xpath.evaluate("/mets:mets/@OBJID", mets, XPathConstants.STRING),
+            (String) xpath.evaluate("/mets:mets/mets:dmdSec/mets:mdWrap[@MDTYPE='MODS']/mets:xmlData/mods:mods/mods:titleInfo/mods:title", mets, XPathConstants.STRING),
+            ((String) xpath.evaluate("/mets:mets/mets:metsHdr/mets:agent[@OTHERTYPE='DSpace Software']/mets:name", mets, XPathConstants.STRING)).replace("DSpace ", "") };
+    }
+
+    private static byte[] createMets(int fileCount) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        sb.append("<mets OBJID=\"hdl:123456789/1\" xmlns=\"http://www.loc.gov/METS/\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">\n");
+        sb.append("<metsHdr><agent ROLE=\"CREATOR\" TYPE=\"OTHER\" OTHERTYPE=\"DSpace Software\"><name>DSpace 1.8.2</name></agent></metsHdr>\n");
+        sb.append("<dmdSec ID=\"dmdSec_1\"><mdWrap MDTYPE=\"MODS\"><xmlData xmlns:mods=\"http://www.loc.gov/mods/v3\"><mods:mods>");
+        sb.append("<mods:titleInfo><mods:title>A Large Item</mods:title></mods:titleInfo></mods:mods></xmlData></mdWrap></dmdSec>\n");
+        for (int i = 0; i < fileCount; i ++) {
+            sb.append("<amdSec ID=\"amd_" + i + "\"><techMD ID=\"tech_" + i + "\"><mdWrap MDTYPE=\"PREMIS\"><xmlData>"
+                    + "<premis:premis xmlns:premis=\"http://www.loc.gov/standards/premis\"><premis:object><premis:objectIdentifier>"
+                    + "<premis:objectIdentifierType>URL</premis:objectIdentifierType><premis:objectIdentifierValue>http://example.edu/bitstream/" + i
+                    + "</premis:objectIdentifierValue></premis:objectIdentifier><premis:objectCharacteristics><premis:fixity>"
+                    + "<premis:messageDigestAlgorithm>MD5</premis:messageDigestAlgorithm><premis:messageDigest>499b0e1e3936582ca4981163db5442b9</premis:messageDigest>"
+                    + "</premis:fixity><premis:size>10201</premis:size></premis:objectCharacteristics></premis:object></premis:premis>"
+                    + "</xmlData></mdWrap></techMD></amdSec>\n");
+        }
+        sb.append("<fileSec><fileGrp USE=\"ORIGINAL\">\n");
+        for (int i = 0; i < fileCount; i ++) {
+            sb.append("<file ID=\"bitstream_" + i + "\" MIMETYPE=\"application/pdf\" ADMID=\"amd_" + i + "\">"
+                    + "<FLocat LOCTYPE=\"URL\" xlink:href=\"bitstream_" + i + ".pdf\"/></file>\n");
+        }
+        sb.append("</fileGrp></fileSec>\n<structMap><div TYPE=\"DSpace Item\">\n");
+        for (int i = 0; i < fileCount; i ++) {
+            sb.append("<fptr FILEID=\"bitstream_" + i + "\"/>\n");
+        }
+        sb.append("</div></structMap>\n</mets>\n");
+        return sb.toString().getBytes("UTF-8");
+    }
+}
@@ -0,0 +1,61 @@
+package org.aptrust.ingest.dspace;
+
+import java.io.ByteArrayInputStream;
+
+import javax.xml.stream.XMLStreamException;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class METSSummaryTest {
+
+    @Test
+    public void testFirstMatchingValues() throws Exception {
+        String mets = "<mets OBJID=\"hdl:1/2\" xmlns=\"http://www.loc.gov/METS/\" xmlns:mods=\"http://www.loc.gov/mods/v3\">"
+                + "<metsHdr>"
+                + "<agent OTHERTYPE=\"DSpace Archive\"><name>1/0</name></agent>"
+                + "<agent OTHERTYPE=\"DSpace Software\"><name>DSpace 3.1</name></agent>"
+                + "</metsHdr>"
+                + "<dmdSec><mdWrap MDTYPE=\"DIM\"><xmlData><mods:mods><mods:titleInfo><mods:title>Not MODS</mods:title></mods:titleInfo></mods:mods></xmlData></mdWrap></dmdSec>"
+                + "<dmdSec><mdWrap MDTYPE=\"MODS\"><xmlData><mods:mods><mods:name><mods:namePart>Someone</mods:namePart></mods:name></mods:mods></xmlData></mdWrap></dmdSec>"
+                + "<dmdSec><mdWrap MDTYPE=\"MODS\"><xmlData><mods:mods><mods:titleInfo><mods:title>The <![CDATA[Title]]></mods:title></mods:titleInfo></mods:mods></xmlData></mdWrap></dmdSec>"
+                + "<dmdSec><mdWrap MDTYPE=\"MODS\"><xmlData><mods:mods><mods:titleInfo><mods:title>Another Title</mods:title></mods:titleInfo></mods:mods></xmlData></mdWrap></dmdSec>"
+                + "<fileSec/>"
+                + "</mets>";
+        METSSummary summary = METSSummary.read(new ByteArrayInputStream(mets.getBytes("UTF-8")));
+        Assert.assertEquals("hdl:1/2", summary.getId());
+        Assert.assertEquals("The Title", summary.getTitle());
+        Assert.assertEquals("3.1", summary.getDspaceVersion());
+    }
+
+    @Test
+    public void testStopsOnceFound() throws Exception {
+        // everything after the dmdSec is malformed, which must go unnoticed
+        String mets = "<mets OBJID=\"hdl:1/2\" xmlns=\"http://www.loc.gov/METS/\" xmlns:mods=\"http://www.loc.gov/mods/v3\">"
+                + "<metsHdr><agent OTHERTYPE=\"DSpace Software\"><name>DSpace 3.1</name></agent></metsHdr>"
+                + "<dmdSec><mdWrap MDTYPE=\"MODS\"><xmlData><mods:mods><mods:titleInfo><mods:title>Title</mods:title></mods:titleInfo></mods:mods></xmlData></mdWrap></dmdSec>"
+                + "<fileSec><fileGrp></fileSec>";
+        METSSummary summary = METSSummary.read(new ByteArrayInputStream(mets.getBytes("UTF-8")));
+        Assert.assertEquals("Title", summary.getTitle());
+    }
+
+    @Test
+    public void testMissingValues() throws Exception {
+        String mets = "<mets xmlns=\"http://www.loc.gov/METS/\"><structMap/></mets>";
+        METSSummary summary = METSSummary.read(new ByteArrayInputStream(mets.getBytes("UTF-8")));
+        Assert.assertEquals("", summary.getId());
+        Assert.assertEquals("", summary.getTitle());
+        Assert.assertEquals("", summary.getDspaceVersion());
+    }
+
+    @Test
+    public void testNotMETS() throws Exception {
+        try {
+            METSSummary.read(new ByteArrayInputStream("<mets/>".getBytes("UTF-8")));
+            Assert.fail("A document without the METS namespace should be rejected.");
+        } catch (XMLStreamException ex) {
+            // expected
+        }
+    }
+}
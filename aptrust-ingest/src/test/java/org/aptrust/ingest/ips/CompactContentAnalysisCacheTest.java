@@ -0,0 +1,178 @@
+package org.aptrust.ingest.ips;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class CompactContentAnalysisCacheTest {
+
+    @Test
+    public void testDictionaryRoundTrip() {
+        ContentIdDictionary d = new ContentIdDictionary();
+        String[] ids = new String[] { "uva-lib:602179", "uva-lib:602179+DS1+DS1.0", "uva-lib:602179+DS1+DS1.0.dura-manifest",
+                "uva-lib:602179+DS1+DS1.0.dura-chunk-0000", "+leading", "trailing+", "a++b", "", "x.dura-other", ".dura-chunk-0001" };
+        int[] handles = new int[ids.length];
+        for (int i = 0; i < ids.length; i ++) {
+            handles[i] = d.intern(ids[i]);
+            Assert.assertEquals(handles[i], d.intern(ids[i]));
+        }
+        for (int i = 0; i < ids.length; i ++) {
+            Assert.assertEquals(ids[i], d.toString(handles[i]));
+            Assert.assertEquals(handles[i], d.lookup(ids[i]));
+        }
+        Assert.assertEquals(-1, d.lookup("uva-lib:602179+DS2+DS2.0"));
+        d.release(handles[1]);
+        Assert.assertEquals(-1, d.lookup(ids[1]));
+        Assert.assertEquals(handles[2], d.lookup(ids[2]));
+        Assert.assertEquals(handles[1], d.intern("uva-lib:1+DS3"));
+    }
+
+    @Test
+    public void testDictionaryGrowthAndRemoval() {
+        ContentIdDictionary d = new ContentIdDictionary();
+        for (int i = 0; i < 50000; i ++) {
+            Assert.assertEquals(i, d.intern("test:" + (i / 10) + "+DS" + (i % 10) + "+DS" + (i % 10) + ".0"));
+        }
+        for (int i = 0; i < 50000; i += 2) {
+            d.release(i);
+        }
+        Assert.assertEquals(25000, d.size());
+        for (int i = 1; i < 50000; i += 2) {
+            Assert.assertEquals(i, d.lookup("test:" + (i / 10) + "+DS" + (i % 10) + "+DS" + (i % 10) + ".0"));
+        }
+    }
+
+    @Test
+    public void testHandlesAreReleased() {
+        CompactContentAnalysisCache cache = new CompactContentAnalysisCache();
+        for (int o = 0; o < 100; o ++) {
+            List<String> parts = new ArrayList<String>();
+            for (int p = 0; p < 10; p ++) {
+                parts.add("test:" + o + "+DS" + p + "+DS" + p + ".0");
+            }
+            cache.assertObjectParts(parts, "test:" + o);
+            cache.cacheObjectTitle("test:" + o, "Object " + o);
+            for (String part : parts) {
+                cache.notifyContentId(part);
+            }
+            Assert.assertTrue(cache.isObjectComplete("test:" + o));
+        }
+        Assert.assertEquals(1100, cache.getIdCount());
+        for (int o = 0; o < 100; o ++) {
+            for (String contentId : cache.getObjectContent("test:" + o)) {
+                cache.forgetContentId(contentId);
+            }
+            cache.forgetObject("test:" + o);
+        }
+        Assert.assertEquals(0, cache.getIdCount());
+        Assert.assertTrue(cache.getKnownContentIds().isEmpty());
+    }
+
+    /**
+     * Applies a long random sequence of changes to this cache and to an
+     * InMemoryContentAnalysisCache and compares their answers after each.
+     */
+    @Test
+    public void testAgreementWithInMemoryCache() {
+        Random r = new Random(7);
+        CompactContentAnalysisCache cache = new CompactContentAnalysisCache();
+        InMemoryContentAnalysisCache reference = new InMemoryContentAnalysisCache();
+        for (int i = 0; i < 20000; i ++) {
+            String objectId = "test:" + r.nextInt(5);
+            String contentId = objectId + "+DS" + r.nextInt(4) + "+DS.0";
+            if (r.nextBoolean()) {
+                contentId = contentId + ".dura-chunk-000" + r.nextInt(3);
+            }
+            switch (r.nextInt(5)) {
+                case 0:
+                    if (reference.getKnownContentIds().contains(contentId)) {
+                        reference.forgetContentId(contentId);
+                        cache.forgetContentId(contentId);
+                    } else {
+                        reference.notifyContentId(contentId);
+                        cache.notifyContentId(contentId);
+                    }
+                    break;
+                case 1:
+                    List<String> required = new ArrayList<String>();
+                    for (int p = 0; p < 4; p ++) {
+                        if (r.nextBoolean()) {
+                            required.add(objectId + "+DS" + p + "+DS.0");
+                        }
+                    }
+                    reference.assertObjectParts(required, objectId);
+                    cache.assertObjectParts(required, objectId);
+                    break;
+                case 2:
+                    String chunked = objectId + "+DS" + r.nextInt(4) + "+DS.0";
+                    DuraChunkManifest m = manifest(chunked, 1 + r.nextInt(3));
+                    reference.notifyChunkManifest(chunked, m);
+                    cache.notifyChunkManifest(chunked, m);
+                    break;
+                case 3:
+                    String title = r.nextBoolean() ? null : "title " + i;
+                    reference.cacheObjectTitle(objectId, title);
+                    cache.cacheObjectTitle(objectId, title);
+                    break;
+                default:
+                    if (r.nextInt(10) == 0) {
+                        reference.forgetObject(objectId);
+                        cache.forgetObject(objectId);
+                    }
+            }
+            for (int o = 0; o < 5; o ++) {
+                String id = "test:" + o;
+                Assert.assertEquals("after change " + i, reference.isObjectComplete(id), cache.isObjectComplete(id));
+                Assert.assertEquals("after change " + i, reference.getObjectTitle(id), cache.getObjectTitle(id));
+                Assert.assertEquals("after change " + i, new HashSet<String>(reference.getObjectContent(id)), new HashSet<String>(cache.getObjectContent(id)));
+            }
+            Assert.assertEquals(new HashSet<String>(reference.getKnownContentIds()), new HashSet<String>(cache.getKnownContentIds()));
+            Assert.assertEquals(new HashSet<String>(reference.getKnownObjectIds()), new HashSet<String>(cache.getKnownObjectIds()));
+        }
+
+        // a copy made by replaying the cache must agree too
+        InMemoryContentAnalysisCache copy = new InMemoryContentAnalysisCache();
+        cache.replayInto(copy);
+        for (int o = 0; o < 5; o ++) {
+            String id = "test:" + o;
+            Assert.assertEquals(reference.isObjectComplete(id), copy.isObjectComplete(id));
+            Assert.assertEquals(new HashSet<String>(reference.getObjectContent(id)), new HashSet<String>(copy.getObjectContent(id)));
+        }
+    }
+
+    @Test
+    public void testChunkedPartCompletion() {
+        ContentAnalysisCache cache = new CompactContentAnalysisCache();
+        cache.assertObjectParts(Arrays.asList(new String[] { "test:1", "test:1+DS1+DS1.0" }), "test:1");
+        cache.notifyContentId("test:1");
+        cache.notifyContentId("test:1+DS1+DS1.0.dura-chunk-0000");
+        cache.notifyChunkManifest("test:1+DS1+DS1.0", manifest("test:1+DS1+DS1.0", 2));
+        Assert.assertFalse(cache.isObjectComplete("test:1"));
+        cache.notifyContentId("test:1+DS1+DS1.0.dura-chunk-0001");
+        Assert.assertTrue(cache.isObjectComplete("test:1"));
+        Assert.assertEquals(2000, cache.getObjectByteSize("test:1"));
+        InMemoryContentAnalysisCache copy = new InMemoryContentAnalysisCache();
+        cache.replayInto(copy);
+        Assert.assertEquals("Chunk sizes should be replayed.", 2000, copy.getObjectByteSize("test:1"));
+        cache.forgetContentId("test:1+DS1+DS1.0.dura-chunk-0000");
+        Assert.assertFalse(cache.isObjectComplete("test:1"));
+    }
+
+    private DuraChunkManifest manifest(String contentId, int chunkCount) {
+        DuraChunkManifest m = new DuraChunkManifest();
+        m.chunks = new DuraChunkManifest.Chunk[chunkCount];
+        for (int i = 0; i < chunkCount; i ++) {
+            m.chunks[i] = new DuraChunkManifest.Chunk();
+            m.chunks[i].chunkId = contentId + ".dura-chunk-000" + i;
+            m.chunks[i].index = i;
+            m.chunks[i].byteSize = 1000;
+        }
+        return m;
+    }
+}
@@ -0,0 +1,102 @@
+package org.aptrust.ingest.ips;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ *   Measures the heap used by each ContentAnalysisCache implementation to
+ *   track a synthetic staging space full of Fedora CloudSync content.  This
+ *   isn't a unit test (it takes a while and needs a large heap); run it with
+ *   something like:
+ * </p>
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.aptrust.ingest.ips.ContentAnalysisCacheMemoryBenchmark \
+ *     -Dexec.args="200000 10 4"
+ * </pre>
+ * <p>
+ *   The arguments are the number of objects, the number of managed
+ *   datastream versions per object and the number of chunks for every tenth
+ *   datastream version.  Every object's parts are asserted and all but the
+ *   last of them are present, which is the state of a space in which many
+ *   objects are waiting for their final part or for a manifest.
+ * </p>
+ */
+public class ContentAnalysisCacheMemoryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int objectCount = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int versionCount = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int chunkCount = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        System.out.println("Objects: " + objectCount + ", datastream versions per object: " + versionCount + ", chunks per chunked version: " + chunkCount);
+        measure("InMemoryContentAnalysisCache", new InMemoryContentAnalysisCache(), objectCount, versionCount, chunkCount);
+        measure("CompactContentAnalysisCache", new CompactContentAnalysisCache(), objectCount, versionCount, chunkCount);
+    }
+
+    private static void measure(String name, ContentAnalysisCache cache, int objectCount, int versionCount, int chunkCount) {
+        long before = usedHeap();
+        long start = System.currentTimeMillis();
+        long contentCount = populate(cache, objectCount, versionCount, chunkCount);
+        long elapsed = System.currentTimeMillis() - start;
+        long used = usedHeap() - before;
+        System.out.println(name + ": " + (used / (1024 * 1024)) + " MB for " + contentCount + " content ids ("
+                + (used / contentCount) + " bytes each), populated in " + elapsed + "ms");
+        // keep the cache reachable until it has been measured
+        if (cache.isObjectComplete("not:an-object")) {
+            throw new IllegalStateException();
+        }
+    }
+
+    private static long populate(ContentAnalysisCache cache, int objectCount, int versionCount, int chunkCount) {
+        long contentCount = 0;
+        for (int o = 0; o < objectCount; o ++) {
+            // build each id freshly, as it would arrive from DuraCloud
+            String pid = "uva-lib:" + (600000 + o);
+            List<String> parts = new ArrayList<String>();
+            parts.add(new String(pid));
+            for (int v = 0; v < versionCount; v ++) {
+                parts.add(pid + "+preservationMaster" + v + "+preservationMaster" + v + ".0");
+            }
+            cache.assertObjectParts(parts, new String(pid));
+            cache.cacheObjectTitle(new String(pid), "Synthetic object number " + o);
+            for (int p = 0; p < parts.size() - 1; p ++) {
+                String contentId = new String(parts.get(p));
+                if (p % 10 == 9) {
+                    DuraChunkManifest m = new DuraChunkManifest();
+                    m.chunks = new DuraChunkManifest.Chunk[chunkCount];
+                    for (int c = 0; c < chunkCount; c ++) {
+                        m.chunks[c] = new DuraChunkManifest.Chunk();
+                        m.chunks[c].chunkId = contentId + ".dura-chunk-000" + c;
+                        m.chunks[c].index = c;
+                    }
+                    cache.notifyChunkManifest(contentId, m);
+                    cache.notifyContentId(contentId + ".dura-manifest");
+                    contentCount ++;
+                    for (int c = 0; c < chunkCount; c ++) {
+                        cache.notifyContentId(contentId + ".dura-chunk-000" + c);
+                        contentCount ++;
+                    }
+                } else {
+                    cache.notifyContentId(contentId);
+                    contentCount ++;
+                }
+            }
+        }
+        return contentCount;
+    }
+
+    private static long usedHeap() {
+        Runtime r = Runtime.getRuntime();
+        for (int i = 0; i < 5; i ++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return r.totalMemory() - r.freeMemory();
+    }
+}
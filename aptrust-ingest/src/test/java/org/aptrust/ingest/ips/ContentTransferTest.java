@@ -0,0 +1,119 @@
+package org.aptrust.ingest.ips;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.aptrust.common.exception.AptrustException;
+import org.duracloud.client.ContentStore;
+import org.duracloud.error.ContentStoreException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ContentTransferTest {
+
+    private ContentTransfer transfer;
+
+    private Map<String, Set<String>> spaces;
+
+    private Set<String> failingContentIds;
+
+    private ContentStore cs;
+
+    @Before
+    public void setUp() {
+        transfer = new ContentTransfer(4);
+        spaces = new HashMap<String, Set<String>>();
+        spaces.put("teststaging", Collections.synchronizedSet(new HashSet<String>()));
+        spaces.put("test", Collections.synchronizedSet(new HashSet<String>()));
+        failingContentIds = new HashSet<String>();
+        cs = (ContentStore) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { ContentStore.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("copyContent")) {
+                    if (failingContentIds.contains(args[1])) {
+                        throw new ContentStoreException("Simulated failure");
+                    }
+                    if (!spaces.get(args[0]).contains(args[1])) {
+                        throw new ContentStoreException(args[1] + " does not exist");
+                    }
+                    spaces.get(args[2]).add((String) args[3]);
+                    return "checksum";
+                } else if (method.getName().equals("deleteContent")) {
+                    spaces.get(args[0]).remove(args[1]);
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }});
+    }
+
+    @After
+    public void tearDown() {
+        transfer.shutdown();
+    }
+
+    @Test
+    public void testMove() throws Exception {
+        List<String> contentIds = createContent(50);
+        ContentTransfer.Result result = transfer.move(cs, "teststaging", "test", contentIds, 50000);
+        Assert.assertTrue("Staging should be empty after a move.", spaces.get("teststaging").isEmpty());
+        Assert.assertEquals(new HashSet<String>(contentIds), spaces.get("test"));
+        Assert.assertEquals(50, result.getContentCount());
+        Assert.assertEquals(50000, result.getByteCount());
+        Assert.assertTrue(result.getBytesPerSecond() > 0);
+        Assert.assertEquals(new HashSet<String>(contentIds), new HashSet<String>(result.getDeletedContentIds()));
+    }
+
+    @Test
+    public void testInlineMove() throws Exception {
+        List<String> contentIds = createContent(10);
+        failingContentIds.add(contentIds.get(5));
+        ContentTransfer inline = new ContentTransfer();
+        try {
+            inline.move(cs, "teststaging", "test", contentIds);
+            Assert.fail("A failed copy should fail the move.");
+        } catch (AptrustException ex) {
+            // expected
+        }
+        Assert.assertTrue("Partial copies should be removed when a copy fails.", spaces.get("test").isEmpty());
+
+        failingContentIds.clear();
+        ContentTransfer.Result result = inline.move(cs, "teststaging", "test", contentIds);
+        Assert.assertEquals(new HashSet<String>(contentIds), spaces.get("test"));
+        Assert.assertEquals(10, result.getDeletedContentIds().size());
+        Assert.assertEquals("An unknown size should have no rate.", -1, result.getBytesPerSecond());
+    }
+
+    @Test
+    public void testFailedCopyLeavesSpacesUnchanged() throws Exception {
+        List<String> contentIds = createContent(50);
+        failingContentIds.add(contentIds.get(25));
+        try {
+            transfer.move(cs, "teststaging", "test", contentIds);
+            Assert.fail("A failed copy should fail the move.");
+        } catch (AptrustException ex) {
+            // expected
+        }
+        Assert.assertEquals("Nothing should be deleted from staging when a copy fails.", 50, spaces.get("teststaging").size());
+        Assert.assertTrue("Partial copies should be removed when a copy fails.", spaces.get("test").isEmpty());
+    }
+
+    private List<String> createContent(int count) {
+        List<String> contentIds = new ArrayList<String>();
+        for (int i = 0; i < count; i ++) {
+            String contentId = "test:1+DS" + i + "+DS" + i + ".0";
+            contentIds.add(contentId);
+            spaces.get("teststaging").add(contentId);
+        }
+        return contentIds;
+    }
+}
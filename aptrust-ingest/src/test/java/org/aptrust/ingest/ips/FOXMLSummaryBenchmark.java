@@ -0,0 +1,115 @@
+package org.aptrust.ingest.ips;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.cwilper.fcrepo.dto.core.ControlGroup;
+import com.github.cwilper.fcrepo.dto.core.Datastream;
+import com.github.cwilper.fcrepo.dto.core.DatastreamVersion;
+import com.github.cwilper.fcrepo.dto.core.FedoraObject;
+import com.github.cwilper.fcrepo.dto.foxml.FOXMLReader;
+
+/**
+ * <p>
+ *   Compares the time taken to find the parts of a Fedora object using
+ *   FOXMLReader (which builds a complete FedoraObject) with the time taken
+ *   by FOXMLSummary, on synthetic FOXML with large inline metadata and a
+ *   long version history.  This isn't a unit test; run it with something
+ *   like:
+ * </p>
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.aptrust.ingest.ips.FOXMLSummaryBenchmark \
+ *     -Dexec.args="200 50 200"
+ * </pre>
+ * <p>
+ *   The arguments are the number of objects read by each reader, the number
+ *   of versions of each datastream and the size (in kilobytes) of each inline
+ *   XML datastream version.
+ * </p>
+ */
+public class FOXMLSummaryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int objectCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int versionCount = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int inlineKilobytes = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        byte[] foxml = createFOXML(versionCount, inlineKilobytes);
+        System.out.println("FOXML size: " + (foxml.length / 1024) + " KB, " + objectCount + " reads");
+
+        // the readers must agree before their speed is worth comparing
+        List<String> expected = readWithFOXMLReader(foxml);
+        List<String> actual = FOXMLSummary.read(new ByteArrayInputStream(foxml)).getRequiredContentIds();
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException("FOXMLSummary found " + actual + " but FOXMLReader found " + expected);
+        }
+
+        for (int round = 0; round < 2; round ++) {
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < objectCount; i ++) {
+                readWithFOXMLReader(foxml);
+            }
+            long readerElapsed = System.currentTimeMillis() - start;
+            start = System.currentTimeMillis();
+            for (int i = 0; i < objectCount; i ++) {
+                FOXMLSummary.read(new ByteArrayInputStream(foxml));
+            }
+            long summaryElapsed = System.currentTimeMillis() - start;
+            System.out.println((round == 0 ? "warm-up: " : "measured: ") + "FOXMLReader " + readerElapsed + "ms, FOXMLSummary " + summaryElapsed + "ms");
+        }
+    }
+
+    /**
+     * Finds the parts of an object as DropboxProcessor once did.
+     */
+    private static List<String> readWithFOXMLReader(byte[] foxml) throws Exception {
+        FedoraObject o = new FOXMLReader().readObject(new ByteArrayInputStream(foxml));
+        List<String> requiredContentIds = new ArrayList<String>();
+        requiredContentIds.add(o.pid());
+        for (Datastream ds : o.datastreams().values()) {
+            if (ds.controlGroup().equals(ControlGroup.MANAGED)) {
+                for (DatastreamVersion v : ds.versions()) {
+                    requiredContentIds.add(o.pid() + "+" + ds.id() + "+" + v.id());
+                }
+            }
+        }
+        return requiredContentIds;
+    }
+
+    private static byte[] createFOXML(int versionCount, int inlineKilobytes) throws Exception {
+        StringBuilder inline = new StringBuilder();
+        while (inline.length() < inlineKilobytes * 1024) {
+            inline.append("<dc:description>Lorem ipsum dolor sit amet, consectetur adipiscing elit.</dc:description>\n");
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<foxml:digitalObject VERSION=\"1.1\" PID=\"bench:1\" xmlns:foxml=\"info:fedora/fedora-system:def/foxml#\">\n");
+        sb.append("<foxml:objectProperties><foxml:property NAME=\"info:fedora/fedora-system:def/model#label\" VALUE=\"Benchmark\"/></foxml:objectProperties>\n");
+        sb.append("<foxml:datastream ID=\"AUDIT\" CONTROL_GROUP=\"X\" STATE=\"A\" VERSIONABLE=\"false\">");
+        sb.append("<foxml:datastreamVersion ID=\"AUDIT.0\" MIMETYPE=\"text/xml\"><foxml:xmlContent><audit:auditTrail xmlns:audit=\"info:fedora/fedora-system:def/audit#\">\n");
+        for (int i = 0; i < versionCount * 3; i ++) {
+            sb.append("<audit:record ID=\"AUDREC" + i + "\"><audit:process type=\"Fedora API-M\"/><audit:action>modifyDatastreamByValue</audit:action>"
+                    + "<audit:componentID>DESC</audit:componentID><audit:responsibility>fedoraAdmin</audit:responsibility>"
+                    + "<audit:date>2013-01-01T00:00:00.000Z</audit:date><audit:justification></audit:justification></audit:record>\n");
+        }
+        sb.append("</audit:auditTrail></foxml:xmlContent></foxml:datastreamVersion></foxml:datastream>\n");
+        sb.append("<foxml:datastream ID=\"DESC\" CONTROL_GROUP=\"X\" STATE=\"A\" VERSIONABLE=\"true\">\n");
+        for (int i = 0; i < versionCount; i ++) {
+            sb.append("<foxml:datastreamVersion ID=\"DESC." + i + "\" MIMETYPE=\"text/xml\"><foxml:xmlContent>");
+            sb.append("<oai_dc:dc xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\">\n");
+            sb.append(inline);
+            sb.append("</oai_dc:dc></foxml:xmlContent></foxml:datastreamVersion>\n");
+        }
+        sb.append("</foxml:datastream>\n");
+        sb.append("<foxml:datastream ID=\"IMAGE\" CONTROL_GROUP=\"M\" STATE=\"A\" VERSIONABLE=\"true\">\n");
+        for (int i = 0; i < versionCount; i ++) {
+            sb.append("<foxml:datastreamVersion ID=\"IMAGE." + i + "\" MIMETYPE=\"image/jpeg\">");
+            sb.append("<foxml:contentLocation TYPE=\"INTERNAL_ID\" REF=\"bench:1+IMAGE+IMAGE." + i + "\"/></foxml:datastreamVersion>\n");
+        }
+        sb.append("</foxml:datastream>\n");
+        sb.append("</foxml:digitalObject>\n");
+        return sb.toString().getBytes("UTF-8");
+    }
+}
@@ -0,0 +1,70 @@
+package org.aptrust.ingest.ips;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLStreamException;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class FOXMLSummaryTest {
+
+    static final String FOXML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<foxml:digitalObject VERSION=\"1.1\" PID=\"test:1\" xmlns:foxml=\"info:fedora/fedora-system:def/foxml#\">\n"
+            + "  <foxml:objectProperties>\n"
+            + "    <foxml:property NAME=\"info:fedora/fedora-system:def/model#state\" VALUE=\"Active\"/>\n"
+            + "    <foxml:property NAME=\"info:fedora/fedora-system:def/model#label\" VALUE=\"A test object\"/>\n"
+            + "  </foxml:objectProperties>\n"
+            + "  <foxml:datastream ID=\"AUDIT\" CONTROL_GROUP=\"X\" STATE=\"A\" VERSIONABLE=\"false\">\n"
+            + "    <foxml:datastreamVersion ID=\"AUDIT.0\" MIMETYPE=\"text/xml\">\n"
+            + "      <foxml:xmlContent><audit:auditTrail xmlns:audit=\"info:fedora/fedora-system:def/audit#\"/></foxml:xmlContent>\n"
+            + "    </foxml:datastreamVersion>\n"
+            + "  </foxml:datastream>\n"
+            + "  <foxml:datastream ID=\"DC\" CONTROL_GROUP=\"X\" STATE=\"A\" VERSIONABLE=\"true\">\n"
+            + "    <foxml:datastreamVersion ID=\"DC1.0\" MIMETYPE=\"text/xml\">\n"
+            + "      <foxml:xmlContent><foxml:datastreamVersion ID=\"not-a-version\"/></foxml:xmlContent>\n"
+            + "    </foxml:datastreamVersion>\n"
+            + "  </foxml:datastream>\n"
+            + "  <foxml:datastream ID=\"IMAGE\" CONTROL_GROUP=\"M\" STATE=\"A\" VERSIONABLE=\"true\">\n"
+            + "    <foxml:datastreamVersion ID=\"IMAGE.0\" MIMETYPE=\"image/jpeg\">\n"
+            + "      <foxml:contentLocation TYPE=\"INTERNAL_ID\" REF=\"test:1+IMAGE+IMAGE.0\"/>\n"
+            + "    </foxml:datastreamVersion>\n"
+            + "    <foxml:datastreamVersion ID=\"IMAGE.1\" MIMETYPE=\"image/jpeg\">\n"
+            + "      <foxml:binaryContent>AAAA</foxml:binaryContent>\n"
+            + "    </foxml:datastreamVersion>\n"
+            + "  </foxml:datastream>\n"
+            + "  <foxml:datastream ID=\"THUMB\" CONTROL_GROUP=\"E\" STATE=\"A\" VERSIONABLE=\"true\">\n"
+            + "    <foxml:datastreamVersion ID=\"THUMB.0\" MIMETYPE=\"image/jpeg\">\n"
+            + "      <foxml:contentLocation TYPE=\"URL\" REF=\"http://example.com/thumb.jpg\"/>\n"
+            + "    </foxml:datastreamVersion>\n"
+            + "  </foxml:datastream>\n"
+            + "</foxml:digitalObject>\n";
+
+    @Test
+    public void testRead() throws Exception {
+        FOXMLSummary summary = FOXMLSummary.read(new ByteArrayInputStream(FOXML.getBytes("UTF-8")));
+        Assert.assertEquals("test:1", summary.getPid());
+        Assert.assertEquals("A test object", summary.getLabel());
+        Assert.assertEquals(Arrays.asList(new String[] { "test:1", "test:1+IMAGE+IMAGE.0", "test:1+IMAGE+IMAGE.1" }), summary.getRequiredContentIds());
+    }
+
+    @Test
+    public void testUnlabeledObject() throws Exception {
+        String foxml = FOXML.replace("info:fedora/fedora-system:def/model#label", "info:fedora/fedora-system:def/model#ownerId");
+        FOXMLSummary summary = FOXMLSummary.read(new ByteArrayInputStream(foxml.getBytes("UTF-8")));
+        Assert.assertNull(summary.getLabel());
+        Assert.assertEquals(3, summary.getRequiredContentIds().size());
+    }
+
+    @Test
+    public void testNotFOXML() throws Exception {
+        try {
+            FOXMLSummary.read(new ByteArrayInputStream("<mets xmlns=\"http://www.loc.gov/METS/\"/>".getBytes("UTF-8")));
+            Assert.fail("A document that isn't a digitalObject should be rejected.");
+        } catch (XMLStreamException ex) {
+            // expected
+        }
+    }
+}
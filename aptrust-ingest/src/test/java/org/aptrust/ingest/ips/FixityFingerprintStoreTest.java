@@ -0,0 +1,86 @@
+package org.aptrust.ingest.ips;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FixityFingerprintStoreTest {
+
+    private static final String MD5 = "499b0e1e3936582ca4981163db5442b9";
+
+    private static final Date CHECK_DATE = new Date(1360378260000L);
+
+    private File dir;
+
+    @Before
+    public void createDirectory() throws IOException {
+        dir = File.createTempFile("fixity-fingerprints", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testChanges() {
+        FixityFingerprintStore store = new FixityFingerprintStore();
+        Assert.assertFalse("Nothing is recorded yet.", store.isUnchanged("uva-content:uva-lib:1+DS+DS.0", MD5, true));
+        store.update("uva-content:uva-lib:1+DS+DS.0", MD5, true, CHECK_DATE);
+        Assert.assertTrue(store.isUnchanged("uva-content:uva-lib:1+DS+DS.0", MD5, true));
+        Assert.assertEquals(CHECK_DATE, store.getCheckDate("uva-content:uva-lib:1+DS+DS.0"));
+        Assert.assertTrue("Hex case is insignificant.", store.isUnchanged("uva-content:uva-lib:1+DS+DS.0", MD5.toUpperCase(), true));
+        Assert.assertFalse(store.isUnchanged("uva-content:uva-lib:1+DS+DS.0", MD5, false));
+        Assert.assertFalse(store.isUnchanged("uva-content:uva-lib:1+DS+DS.0", MD5.replace('4', '5'), true));
+        Assert.assertFalse(store.isUnchanged("uva-content:uva-lib:1+DS+DS.1", MD5, true));
+
+        store.update("uva-content:uva-lib:1+DS+DS.0", MD5, false, CHECK_DATE);
+        Assert.assertTrue(store.isUnchanged("uva-content:uva-lib:1+DS+DS.0", MD5, false));
+        Assert.assertEquals(1, store.size());
+
+        store.forget("uva-content:uva-lib:1+DS+DS.0");
+        Assert.assertFalse(store.isUnchanged("uva-content:uva-lib:1+DS+DS.0", MD5, false));
+        Assert.assertNull(store.getCheckDate("uva-content:uva-lib:1+DS+DS.0"));
+        Assert.assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testOtherChecksums() {
+        FixityFingerprintStore store = new FixityFingerprintStore();
+        String sha256 = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+        store.update("a", sha256, true, CHECK_DATE);
+        store.update("b", null, true, CHECK_DATE);
+        Assert.assertTrue(store.isUnchanged("a", sha256, true));
+        Assert.assertFalse(store.isUnchanged("a", sha256.replace('9', '8'), true));
+        Assert.assertTrue(store.isUnchanged("b", null, true));
+        Assert.assertTrue(store.isUnchanged("b", "", true));
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        File file = new File(dir, "fingerprints");
+        FixityFingerprintStore store = new FixityFingerprintStore(file);
+        for (int i = 0; i < 2000; i ++) {
+            store.update("uva-content:uva-lib:" + i + "+DS+DS.0", MD5, i % 7 != 0, CHECK_DATE);
+        }
+        store.forget("uva-content:uva-lib:5+DS+DS.0");
+        store.save();
+
+        FixityFingerprintStore loaded = new FixityFingerprintStore(file);
+        Assert.assertEquals(1999, loaded.size());
+        for (int i = 0; i < 2000; i ++) {
+            Assert.assertEquals(i != 5, loaded.isUnchanged("uva-content:uva-lib:" + i + "+DS+DS.0", MD5, i % 7 != 0));
+            Assert.assertEquals(i != 5 ? CHECK_DATE : null, loaded.getCheckDate("uva-content:uva-lib:" + i + "+DS+DS.0"));
+        }
+        Assert.assertFalse(new File(dir, "fingerprints.tmp").exists());
+    }
+}
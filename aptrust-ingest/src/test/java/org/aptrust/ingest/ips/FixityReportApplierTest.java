@@ -0,0 +1,199 @@
+package org.aptrust.ingest.ips;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+
+import junit.framework.Assert;
+
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.aptrust.common.exception.AptrustException;
+import org.aptrust.common.solr.AptrustSolrDocument;
+import org.aptrust.common.solr.BatchingSolrWriter;
+import org.aptrust.common.solr.ContentSolrDocument;
+import org.aptrust.ingest.ips.solr.AptrustSolrTestEnvironment;
+import org.junit.Test;
+
+public class FixityReportApplierTest extends AptrustSolrTestEnvironment {
+
+    private static final String REPORT_ID = "bit-integrity/fixity-report-fingerprints-uva-2013-02-09T02:51-vs-manifest-2013-02-09T02:52.tsv";
+
+    private static final String NEXT_REPORT_ID = "bit-integrity/fixity-report-fingerprints-uva-2013-03-09T02:51-vs-manifest-2013-03-09T02:52.tsv";
+
+    private static final String LATER_REPORT_ID = "bit-integrity/fixity-report-fingerprints-uva-2013-04-09T02:51-vs-manifest-2013-04-09T02:52.tsv";
+
+    @Test
+    public void testBuildIdQuery() {
+        Assert.assertEquals("id:(\"uva-content:a:1+DS+DS.0\" OR \"uva-content:a\\\"b\")", FixityReportApplier.buildIdQuery(Arrays.asList(new String[] { "uva-content:a:1+DS+DS.0", "uva-content:a\"b" })));
+    }
+
+    @Test
+    public void testApply() throws Exception {
+        SolrServer server = getSolrServer();
+        Date ingestDate = new Date(0);
+        for (int i = 0; i < 5; i ++) {
+            server.add(AptrustSolrDocument.createValidSolrDocument(new ContentSolrDocument("uva", "uva:package", "uva-lib:1", "uva-lib:1+DS" + i + "+DS" + i + ".0", true, ingestDate)));
+        }
+        server.commit();
+
+        StringBuilder report = new StringBuilder("space-id\tcontent-id\t0:fingerprints\t1:manifest\tstatus\n");
+        for (int i = 0; i < 6; i ++) {
+            report.append("uva\tuva-lib:1+DS" + i + "+DS" + i + ".0\tchecksum\tchecksum\t" + (i == 2 ? "MISMATCH" : "VALID") + "\n");
+        }
+        BatchingSolrWriter writer = new BatchingSolrWriter(server);
+        FixityReportApplier applier = new FixityReportApplier(writer, 2, 2);
+        try {
+            FixityReportApplier.Result result = applier.apply(REPORT_ID, new ByteArrayInputStream(report.toString().getBytes("UTF-8")));
+            writer.commit();
+            Assert.assertEquals(6, result.getRowCount());
+            Assert.assertEquals(5, result.getUpdatedCount());
+            Assert.assertEquals("The line for content without a record should be skipped.", 1, result.getUnregisteredCount());
+            Assert.assertEquals(0, result.getFailedCount());
+        } finally {
+            applier.shutdown();
+            writer.close();
+        }
+
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set("q", AptrustSolrDocument.FAILED_HEALTH_CHECK + ":true");
+        SolrDocumentList results = server.query(params).getResults();
+        Assert.assertEquals(1, results.getNumFound());
+        Assert.assertEquals(ContentSolrDocument.getId("uva", "uva-lib:1+DS2+DS2.0"), results.get(0).getFirstValue(AptrustSolrDocument.ID));
+
+        params.set("q", AptrustSolrDocument.RECORD_TYPE + ":content");
+        results = server.query(params).getResults();
+        Assert.assertEquals("No records should be added for unregistered content.", 5, results.getNumFound());
+        for (int i = 0; i < results.size(); i ++) {
+            Assert.assertFalse("Every record should have the report date.", ingestDate.equals(results.get(i).getFirstValue(AptrustSolrDocument.LAST_HEALTH_CHECK_DATE)));
+        }
+    }
+
+    @Test
+    public void testOnlyChangesAreRewritten() throws Exception {
+        SolrServer server = getSolrServer();
+        for (int i = 0; i < 4; i ++) {
+            server.add(AptrustSolrDocument.createValidSolrDocument(new ContentSolrDocument("uva", "uva:package", "uva-lib:1", "uva-lib:1+DS" + i + "+DS" + i + ".0", true, new Date(0))));
+        }
+        server.commit();
+
+        BatchingSolrWriter writer = new BatchingSolrWriter(server);
+        FixityReportApplier applier = new FixityReportApplier(writer, 2, 2, new FixityFingerprintStore());
+        try {
+            Assert.assertEquals(4, applier.apply(REPORT_ID, createReport(-1)).getUpdatedCount());
+            writer.commit();
+            FixityReportApplier.Result result = applier.apply(NEXT_REPORT_ID, createReport(3));
+            writer.commit();
+            Assert.assertEquals(4, result.getRowCount());
+            Assert.assertEquals(3, result.getUnchangedCount());
+            Assert.assertEquals("Only the item that failed should be rewritten.", 1, result.getUpdatedCount());
+        } finally {
+            applier.shutdown();
+            writer.close();
+        }
+
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set("q", AptrustSolrDocument.FAILED_HEALTH_CHECK + ":false");
+        SolrDocumentList results = server.query(params).getResults();
+        Assert.assertEquals(3, results.getNumFound());
+        for (int i = 0; i < results.size(); i ++) {
+            Assert.assertEquals("Unchanged records should keep the date they were written with.", FixityReport.getReportDateFromReportContentId(REPORT_ID),
+                    results.get(i).getFirstValue(AptrustSolrDocument.LAST_HEALTH_CHECK_DATE));
+        }
+
+        params.set("q", AptrustSolrDocument.FAILED_HEALTH_CHECK + ":true");
+        results = server.query(params).getResults();
+        Assert.assertEquals(1, results.getNumFound());
+        Assert.assertEquals(FixityReport.getReportDateFromReportContentId(NEXT_REPORT_ID), results.get(0).getFirstValue(AptrustSolrDocument.LAST_HEALTH_CHECK_DATE));
+    }
+
+    @Test
+    public void testOnlyReportedContentIsRefreshed() throws Exception {
+        SolrServer server = getSolrServer();
+        for (int i = 0; i < 4; i ++) {
+            server.add(AptrustSolrDocument.createValidSolrDocument(new ContentSolrDocument("uva", "uva:package", "uva-lib:1", "uva-lib:1+DS" + i + "+DS" + i + ".0", true, new Date(0))));
+        }
+        server.commit();
+
+        BatchingSolrWriter writer = new BatchingSolrWriter(server);
+        FixityReportApplier applier = new FixityReportApplier(writer, 2, 2, new FixityFingerprintStore(), 30);
+        try {
+            Assert.assertEquals(4, applier.apply(REPORT_ID, createReport(-1, 4)).getUpdatedCount());
+            // two months later, and without the last item
+            FixityReportApplier.Result result = applier.apply(LATER_REPORT_ID, createReport(-1, 3));
+            Assert.assertEquals(0, result.getUnchangedCount());
+            Assert.assertEquals(3, result.getRefreshedCount());
+            Assert.assertEquals(3, result.getUpdatedCount());
+        } finally {
+            applier.shutdown();
+            writer.close();
+        }
+
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set("q", AptrustSolrDocument.RECORD_TYPE + ":content");
+        params.set("sort", AptrustSolrDocument.ID + " asc");
+        SolrDocumentList results = server.query(params).getResults();
+        Assert.assertEquals(4, results.getNumFound());
+        for (int i = 0; i < 3; i ++) {
+            Assert.assertEquals(FixityReport.getReportDateFromReportContentId(LATER_REPORT_ID), results.get(i).getFirstValue(AptrustSolrDocument.LAST_HEALTH_CHECK_DATE));
+        }
+        Assert.assertEquals("Content missing from the report should not be refreshed.", FixityReport.getReportDateFromReportContentId(REPORT_ID),
+                results.get(3).getFirstValue(AptrustSolrDocument.LAST_HEALTH_CHECK_DATE));
+    }
+
+    @Test
+    public void testChangesAreReappliedAfterFailedCommit() throws Exception {
+        SolrServer server = getSolrServer();
+        for (int i = 0; i < 4; i ++) {
+            server.add(AptrustSolrDocument.createValidSolrDocument(new ContentSolrDocument("uva", "uva:package", "uva-lib:1", "uva-lib:1+DS" + i + "+DS" + i + ".0", true, new Date(0))));
+        }
+        server.commit();
+
+        final boolean[] failCommit = new boolean[] { true };
+        BatchingSolrWriter writer = new BatchingSolrWriter(server) {
+            public void commit() throws SolrServerException, IOException {
+                if (failCommit[0]) {
+                    throw new SolrServerException("Solr is unavailable.");
+                }
+                super.commit();
+            }};
+        FixityReportApplier applier = new FixityReportApplier(writer, 2, 2, new FixityFingerprintStore());
+        try {
+            try {
+                applier.apply(REPORT_ID, createReport(3));
+                Assert.fail("The failed commit should be reported!");
+            } catch (AptrustException ex) {
+                // expected
+            }
+            failCommit[0] = false;
+            FixityReportApplier.Result result = applier.apply(NEXT_REPORT_ID, createReport(3));
+            Assert.assertEquals("No outcome should be treated as applied.", 0, result.getUnchangedCount());
+            Assert.assertEquals(4, result.getUpdatedCount());
+            Assert.assertEquals("Committed outcomes should be treated as applied.", 4, applier.apply(NEXT_REPORT_ID, createReport(3)).getUnchangedCount());
+        } finally {
+            applier.shutdown();
+            writer.close();
+        }
+
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set("q", AptrustSolrDocument.FAILED_HEALTH_CHECK + ":true");
+        SolrDocumentList results = server.query(params).getResults();
+        Assert.assertEquals(1, results.getNumFound());
+        Assert.assertEquals(ContentSolrDocument.getId("uva", "uva-lib:1+DS3+DS3.0"), results.get(0).getFirstValue(AptrustSolrDocument.ID));
+    }
+
+    private ByteArrayInputStream createReport(int failedIndex) throws Exception {
+        return createReport(failedIndex, 4);
+    }
+
+    private ByteArrayInputStream createReport(int failedIndex, int itemCount) throws Exception {
+        StringBuilder report = new StringBuilder("space-id\tcontent-id\t0:fingerprints\t1:manifest\tstatus\n");
+        for (int i = 0; i < itemCount; i ++) {
+            report.append("uva\tuva-lib:1+DS" + i + "+DS" + i + ".0\tchecksum\tchecksum\t" + (i == failedIndex ? "MISMATCH" : "VALID") + "\n");
+        }
+        return new ByteArrayInputStream(report.toString().getBytes("UTF-8"));
+    }
+}
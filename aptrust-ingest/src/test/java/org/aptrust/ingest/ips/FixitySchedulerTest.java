@@ -0,0 +1,119 @@
+package org.aptrust.ingest.ips;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+
+import junit.framework.Assert;
+
+import org.apache.solr.client.solrj.SolrServer;
+import org.aptrust.common.duracloud.SpaceTopology;
+import org.aptrust.common.solr.AptrustSolrDocument;
+import org.aptrust.common.solr.BatchingSolrWriter;
+import org.aptrust.common.solr.ContentSolrDocument;
+import org.aptrust.ingest.ips.solr.AptrustSolrTestEnvironment;
+import org.junit.Test;
+
+public class FixitySchedulerTest extends AptrustSolrTestEnvironment {
+
+    @Test
+    public void testGetVerifiableContentId() {
+        Assert.assertEquals("uva-lib:1+DS+DS.0", FixityScheduler.getVerifiableContentId("uva-lib:1+DS+DS.0"));
+        Assert.assertEquals("uva-lib:1+DS+DS.0.dura-manifest", FixityScheduler.getVerifiableContentId("uva-lib:1+DS+DS.0.dura-manifest"));
+        Assert.assertEquals("uva-lib:1+DS+DS.0.dura-manifest", FixityScheduler.getVerifiableContentId("uva-lib:1+DS+DS.0.dura-chunk-0003"));
+    }
+
+    @Test
+    public void testRoundsCoverEveryInstitution() throws Exception {
+        InMemoryContentStore store = createStore();
+        SolrServer server = getSolrServer();
+        BatchingSolrWriter writer = new BatchingSolrWriter(server);
+        FixityReportApplier applier = new FixityReportApplier(writer, 1, 10);
+        FixityVerifier verifier = new FixityVerifier(store.createContentStore(), applier, 2);
+        SpaceTopology topology = new SpaceTopology(store.createContentStore(), 0);
+        try {
+            FixityScheduler scheduler = new FixityScheduler(verifier, server, topology, 30, 1024 * 1024, 60);
+            scheduler.setBatchSize(2);
+            Date cutoff = new Date(System.currentTimeMillis() - 30L * 24 * 60 * 60 * 1000);
+            Assert.assertEquals(20.0, scheduler.computeCoverage(topology.getInstitutionIds(), cutoff), 0.01);
+            Assert.assertEquals("Only the stale items should be verified.", 4, scheduler.runRound());
+            writer.commit();
+            Assert.assertEquals(100.0, scheduler.computeCoverage(topology.getInstitutionIds(), cutoff), 0.01);
+            Assert.assertEquals("Nothing more is due.", 0, scheduler.runRound());
+            Assert.assertEquals(100.0, scheduler.getCoverage(), 0.01);
+        } finally {
+            verifier.shutdown();
+            applier.shutdown();
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testBudget() throws Exception {
+        InMemoryContentStore store = createStore();
+        SolrServer server = getSolrServer();
+        BatchingSolrWriter writer = new BatchingSolrWriter(server);
+        FixityReportApplier applier = new FixityReportApplier(writer, 1, 10);
+        FixityVerifier verifier = new FixityVerifier(store.createContentStore(), applier, 2);
+        try {
+            // a budget of a byte per round is overrun by the first item
+            FixityScheduler scheduler = new FixityScheduler(verifier, server, new SpaceTopology(store.createContentStore(), 0), 30, 60, 1);
+            scheduler.setBatchSize(1);
+            Assert.assertEquals(1, scheduler.runRound());
+            Assert.assertEquals("The overrun must be paid for before more is verified.", 0, scheduler.runRound());
+        } finally {
+            verifier.shutdown();
+            applier.shutdown();
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testFailedPackagesAreVerifiedFirst() throws Exception {
+        InMemoryContentStore store = createStore();
+        SolrServer server = getSolrServer();
+        // neither item is due, but one failed its last check
+        Date recent = new Date(System.currentTimeMillis() - 2L * 24 * 60 * 60 * 1000);
+        for (int i = 0; i < 2; i ++) {
+            store.put("uva", "uva-lib:2+DS" + i + "+DS" + i + ".0", ("uva failed " + i).getBytes("UTF-8"));
+            server.add(AptrustSolrDocument.createValidSolrDocument(new ContentSolrDocument("uva", "uva:failed-package", "uva-lib:2", "uva-lib:2+DS" + i + "+DS" + i + ".0", i != 0, recent)));
+        }
+        server.commit();
+        BatchingSolrWriter writer = new BatchingSolrWriter(server);
+        FixityReportApplier applier = new FixityReportApplier(writer, 1, 10);
+        FixityVerifier verifier = new FixityVerifier(store.createContentStore(), applier, 2);
+        try {
+            FixityScheduler scheduler = new FixityScheduler(verifier, server, new SpaceTopology(store.createContentStore(), 0), 30, 1024 * 1024, 60);
+            Date cutoff = new Date(System.currentTimeMillis() - 30L * 24 * 60 * 60 * 1000);
+            Assert.assertEquals("The content of the failed package should be verified first.",
+                    new HashSet<String>(Arrays.asList(new String[] { "uva-lib:2+DS0+DS0.0", "uva-lib:2+DS1+DS1.0" })), new HashSet<String>(scheduler.findDueContent("uva", cutoff, 2)));
+            Assert.assertEquals("The stale content should follow.", 4, scheduler.findDueContent("uva", cutoff, 10).size());
+        } finally {
+            verifier.shutdown();
+            applier.shutdown();
+            writer.close();
+        }
+    }
+
+    /**
+     * Creates two institutions with five items between them, only one of
+     * which was checked recently, and registers them in Solr.
+     */
+    private InMemoryContentStore createStore() throws Exception {
+        InMemoryContentStore store = new InMemoryContentStore();
+        SolrServer server = getSolrServer();
+        for (String spaceId : Arrays.asList(new String[] { "uva", "uvastaging", "unc", "uncstaging" })) {
+            store.createSpace(spaceId);
+        }
+        for (int i = 0; i < 3; i ++) {
+            store.put("uva", "uva-lib:1+DS" + i + "+DS" + i + ".0", ("uva " + i).getBytes("UTF-8"));
+            server.add(AptrustSolrDocument.createValidSolrDocument(new ContentSolrDocument("uva", "uva:package", "uva-lib:1", "uva-lib:1+DS" + i + "+DS" + i + ".0", true, i == 0 ? new Date() : new Date(0))));
+        }
+        for (int i = 0; i < 2; i ++) {
+            store.put("unc", "unc-lib:1+DS" + i + "+DS" + i + ".0", ("unc " + i).getBytes("UTF-8"));
+            server.add(AptrustSolrDocument.createValidSolrDocument(new ContentSolrDocument("unc", "unc:package", "unc-lib:1", "unc-lib:1+DS" + i + "+DS" + i + ".0", true, new Date(0))));
+        }
+        server.commit();
+        return store;
+    }
+}
@@ -0,0 +1,92 @@
+package org.aptrust.ingest.ips;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.aptrust.common.solr.AptrustSolrDocument;
+import org.aptrust.common.solr.BatchingSolrWriter;
+import org.aptrust.common.solr.ContentSolrDocument;
+import org.aptrust.ingest.IngestXmlBindings;
+import org.aptrust.ingest.ips.FixityReport.FixityCheck;
+import org.aptrust.ingest.ips.solr.AptrustSolrTestEnvironment;
+import org.junit.Test;
+
+public class FixityVerifierTest extends AptrustSolrTestEnvironment {
+
+    @Test
+    public void testCheck() throws Exception {
+        byte[] bytes = "test".getBytes("UTF-8");
+        FixityCheck c = FixityVerifier.check("a", new ByteArrayInputStream(bytes), "098F6BCD4621D373CADE4E832627B4F6", null, null);
+        Assert.assertTrue("Hex case is insignificant.", c.passed);
+        Assert.assertEquals("098f6bcd4621d373cade4e832627b4f6", c.previousChecksum);
+
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        c = FixityVerifier.check("a", new ByteArrayInputStream(bytes), "d41d8cd98f00b204e9800998ecf8427e", copy, null);
+        Assert.assertFalse(c.passed);
+        Assert.assertEquals("d41d8cd98f00b204e9800998ecf8427e", c.checksum);
+        Assert.assertEquals("test", copy.toString("UTF-8"));
+    }
+
+    @Test
+    public void testVerifySpace() throws Exception {
+        InMemoryContentStore store = new InMemoryContentStore();
+        store.put("uva", "uva-lib:1+DS1+DS1.0", "unchunked".getBytes("UTF-8"));
+        String chunked = "uva-lib:1+DS2+DS2.0";
+        DuraChunkManifest manifest = new DuraChunkManifest();
+        manifest.chunks = new DuraChunkManifest.Chunk[3];
+        for (int i = 0; i < manifest.chunks.length; i ++) {
+            manifest.chunks[i] = new DuraChunkManifest.Chunk();
+            manifest.chunks[i].chunkId = chunked + ".dura-chunk-000" + i;
+            manifest.chunks[i].index = i;
+            manifest.chunks[i].md5 = FixityVerifier.check(null, new ByteArrayInputStream(("chunk " + i).getBytes("UTF-8")), "", null, null).previousChecksum;
+            store.put("uva", manifest.chunks[i].chunkId, ("chunk " + i).getBytes("UTF-8"));
+        }
+        ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+        IngestXmlBindings.CHUNK_MANIFEST.marshal(manifest, manifestBytes);
+        store.put("uva", chunked + ".dura-manifest", manifestBytes.toByteArray());
+        store.corrupt("uva", chunked + ".dura-chunk-0001", "chunk x".getBytes("UTF-8"));
+        store.remove("uva", chunked + ".dura-chunk-0002");
+
+        SolrServer server = getSolrServer();
+        String[] contentIds = new String[] { "uva-lib:1+DS1+DS1.0", chunked + ".dura-manifest", chunked + ".dura-chunk-0000", chunked + ".dura-chunk-0001", chunked + ".dura-chunk-0002" };
+        for (String contentId : contentIds) {
+            server.add(AptrustSolrDocument.createValidSolrDocument(new ContentSolrDocument("uva", "uva:package", "uva-lib:1", contentId, true, new Date(0))));
+        }
+        server.commit();
+
+        BatchingSolrWriter writer = new BatchingSolrWriter(server);
+        FixityReportApplier applier = new FixityReportApplier(writer, 1, 2);
+        FixityVerifier verifier = new FixityVerifier(store.createContentStore(), applier, 2);
+        try {
+            FixityVerifier.Result result = verifier.verifySpace("uva");
+            writer.commit();
+            Assert.assertEquals("Every chunk should be verified through its manifest.", 5, result.getItemCount());
+            Assert.assertEquals(2, result.getFailedCount());
+            Assert.assertEquals(0, result.getErrorCount());
+            Assert.assertEquals(5, result.getUpdatedCount());
+        } finally {
+            verifier.shutdown();
+            applier.shutdown();
+            writer.close();
+        }
+
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set("q", AptrustSolrDocument.FAILED_HEALTH_CHECK + ":true");
+        SolrDocumentList results = server.query(params).getResults();
+        Set<Object> failedIds = new HashSet<Object>();
+        for (int i = 0; i < results.size(); i ++) {
+            failedIds.add(results.get(i).getFirstValue(AptrustSolrDocument.ID));
+        }
+        Assert.assertEquals(2, failedIds.size());
+        Assert.assertTrue("The corrupt chunk should fail.", failedIds.contains(ContentSolrDocument.getId("uva", chunked + ".dura-chunk-0001")));
+        Assert.assertTrue("The missing chunk should fail.", failedIds.contains(ContentSolrDocument.getId("uva", chunked + ".dura-chunk-0002")));
+    }
+}
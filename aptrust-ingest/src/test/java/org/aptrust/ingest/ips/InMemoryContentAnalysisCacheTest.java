@@ -0,0 +1,144 @@
+package org.aptrust.ingest.ips;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class InMemoryContentAnalysisCacheTest {
+
+    @Test
+    public void testObjectCompletion() {
+        ContentAnalysisCache cache = new InMemoryContentAnalysisCache();
+        Assert.assertFalse(cache.isObjectComplete("test:1"));
+        cache.notifyContentId("test:1+DS1+DS1.0");
+        cache.assertObjectParts(Arrays.asList(new String[] { "test:1", "test:1+DS1+DS1.0", "test:1+DS2+DS2.0" }), "test:1");
+        Assert.assertFalse(cache.isObjectComplete("test:1"));
+        cache.notifyContentId("test:1");
+        Assert.assertFalse(cache.isObjectComplete("test:1"));
+        cache.notifyContentId("test:1+DS2+DS2.0");
+        Assert.assertTrue(cache.isObjectComplete("test:1"));
+        cache.forgetContentId("test:1+DS1+DS1.0");
+        Assert.assertFalse(cache.isObjectComplete("test:1"));
+        cache.forgetObject("test:1");
+        Assert.assertFalse(cache.isObjectComplete("test:1"));
+    }
+
+    @Test
+    public void testChunkedPartCompletion() {
+        ContentAnalysisCache cache = new InMemoryContentAnalysisCache();
+        cache.assertObjectParts(Arrays.asList(new String[] { "test:1", "test:1+DS1+DS1.0" }), "test:1");
+        cache.notifyContentId("test:1");
+        cache.notifyContentId("test:1+DS1+DS1.0.dura-chunk-0000");
+        cache.notifyChunkManifest("test:1+DS1+DS1.0", manifest("test:1+DS1+DS1.0", 2));
+        cache.notifyContentId("test:1+DS1+DS1.0.dura-manifest");
+        Assert.assertFalse(cache.isObjectComplete("test:1"));
+        cache.notifyContentId("test:1+DS1+DS1.0.dura-chunk-0001");
+        Assert.assertTrue(cache.isObjectComplete("test:1"));
+        Assert.assertEquals(new HashSet<String>(Arrays.asList(new String[] { "test:1", "test:1+DS1+DS1.0.dura-manifest",
+                "test:1+DS1+DS1.0.dura-chunk-0000", "test:1+DS1+DS1.0.dura-chunk-0001" })),
+                new HashSet<String>(cache.getObjectContent("test:1")));
+        Assert.assertEquals(2000, cache.getObjectByteSize("test:1"));
+
+        // a replacement manifest with more chunks makes the part incomplete
+        cache.notifyChunkManifest("test:1+DS1+DS1.0", manifest("test:1+DS1+DS1.0", 3));
+        Assert.assertFalse(cache.isObjectComplete("test:1"));
+        cache.notifyContentId("test:1+DS1+DS1.0.dura-chunk-0002");
+        Assert.assertTrue(cache.isObjectComplete("test:1"));
+        Assert.assertEquals(3000, cache.getObjectByteSize("test:1"));
+    }
+
+    /**
+     * Applies a long random sequence of changes and compares the result of
+     * isObjectComplete() after each with that of a full scan of the parts.
+     */
+    @Test
+    public void testAgreementWithFullScan() {
+        Random r = new Random(42);
+        InMemoryContentAnalysisCache cache = new InMemoryContentAnalysisCache();
+        Set<String> present = new HashSet<String>();
+        Map<String, List<String>> parts = new HashMap<String, List<String>>();
+        Map<String, DuraChunkManifest> manifests = new HashMap<String, DuraChunkManifest>();
+        for (int i = 0; i < 20000; i ++) {
+            String objectId = "test:" + r.nextInt(5);
+            String contentId = objectId + "+DS" + r.nextInt(4) + "+DS.0";
+            if (r.nextBoolean()) {
+                contentId = contentId + ".dura-chunk-000" + r.nextInt(3);
+            }
+            switch (r.nextInt(4)) {
+                case 0:
+                    if (present.add(contentId)) {
+                        cache.notifyContentId(contentId);
+                    } else {
+                        present.remove(contentId);
+                        cache.forgetContentId(contentId);
+                    }
+                    break;
+                case 1:
+                    List<String> required = new ArrayList<String>();
+                    for (int p = 0; p < 4; p ++) {
+                        if (r.nextBoolean()) {
+                            required.add(objectId + "+DS" + p + "+DS.0");
+                        }
+                    }
+                    parts.put(objectId, required);
+                    cache.assertObjectParts(required, objectId);
+                    break;
+                case 2:
+                    String chunked = objectId + "+DS" + r.nextInt(4) + "+DS.0";
+                    DuraChunkManifest m = manifest(chunked, 1 + r.nextInt(3));
+                    manifests.put(chunked, m);
+                    cache.notifyChunkManifest(chunked, m);
+                    break;
+                default:
+                    if (r.nextInt(10) == 0) {
+                        parts.remove(objectId);
+                        cache.forgetObject(objectId);
+                    }
+            }
+            for (int o = 0; o < 5; o ++) {
+                String id = "test:" + o;
+                Assert.assertEquals("after change " + i, isCompleteByScan(parts.get(id), present, manifests), cache.isObjectComplete(id));
+            }
+        }
+    }
+
+    private boolean isCompleteByScan(List<String> required, Set<String> present, Map<String, DuraChunkManifest> manifests) {
+        if (required == null) {
+            return false;
+        }
+        for (String contentId : required) {
+            if (!present.contains(contentId)) {
+                if (!manifests.containsKey(contentId)) {
+                    return false;
+                }
+                for (DuraChunkManifest.Chunk chunk : manifests.get(contentId).chunks) {
+                    if (!present.contains(chunk.chunkId)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private DuraChunkManifest manifest(String contentId, int chunkCount) {
+        DuraChunkManifest m = new DuraChunkManifest();
+        m.chunks = new DuraChunkManifest.Chunk[chunkCount];
+        for (int i = 0; i < chunkCount; i ++) {
+            m.chunks[i] = new DuraChunkManifest.Chunk();
+            m.chunks[i].chunkId = contentId + ".dura-chunk-000" + i;
+            m.chunks[i].index = i;
+            m.chunks[i].byteSize = 1000;
+        }
+        return m;
+    }
+}
@@ -0,0 +1,141 @@
+package org.aptrust.ingest.ips;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.duracloud.client.ContentStore;
+import org.duracloud.domain.Content;
+import org.duracloud.error.ContentStoreException;
+import org.duracloud.error.NotFoundException;
+
+/**
+ * A stand-in for a DuraCloud instance that holds its spaces in memory and
+ * implements (through a dynamic proxy) just the ContentStore methods needed
+ * to list, read and add content.  Each item is given the "content-checksum"
+ * and "content-size" properties DuraCloud would compute for it.
+ */
+public class InMemoryContentStore implements InvocationHandler {
+
+    private Map<String, TreeMap<String, byte[]>> spaces = new TreeMap<String, TreeMap<String, byte[]>>();
+
+    private Map<String, String> checksums = new HashMap<String, String>();
+
+    private Set<String> failingIds = new HashSet<String>();
+
+    private int addCount;
+
+    public synchronized void createSpace(String spaceId) {
+        if (!spaces.containsKey(spaceId)) {
+            spaces.put(spaceId, new TreeMap<String, byte[]>());
+        }
+    }
+
+    /**
+     * Adds (or replaces) an item, storing its actual MD5 as its checksum.
+     */
+    public synchronized void put(String spaceId, String contentId, byte[] bytes) throws Exception {
+        createSpace(spaceId);
+        spaces.get(spaceId).put(contentId, bytes);
+        StringBuilder md5 = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("MD5").digest(bytes)) {
+            md5.append(String.format("%02x", b));
+        }
+        checksums.put(spaceId + "/" + contentId, md5.toString());
+    }
+
+    /**
+     * Replaces the bytes of an item without changing its stored checksum, as
+     * if it had been corrupted.
+     */
+    public synchronized void corrupt(String spaceId, String contentId, byte[] bytes) {
+        spaces.get(spaceId).put(contentId, bytes);
+    }
+
+    public synchronized void remove(String spaceId, String contentId) {
+        spaces.get(spaceId).remove(contentId);
+    }
+
+    /**
+     * Causes the next attempt to add the given item to fail, after reading
+     * part of its content.
+     */
+    public synchronized void failNextAdd(String contentId) {
+        failingIds.add(contentId);
+    }
+
+    /**
+     * Gets the number of items that have been added through addContent().
+     */
+    public synchronized int getAddCount() {
+        return addCount;
+    }
+
+    public synchronized byte[] get(String spaceId, String contentId) {
+        return spaces.get(spaceId).get(contentId);
+    }
+
+    public ContentStore createContentStore() {
+        return (ContentStore) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { ContentStore.class }, this);
+    }
+
+    public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (name.equals("getSpaces")) {
+            return new ArrayList<String>(spaces.keySet());
+        } else if (name.equals("getSpaceContents")) {
+            return new ArrayList<String>(getSpace((String) args[0]).keySet()).iterator();
+        } else if (name.equals("addContent")) {
+            getSpace((String) args[0]);
+            InputStream content = (InputStream) args[2];
+            if (failingIds.remove(args[1])) {
+                content.read(new byte[1]);
+                throw new ContentStoreException("Error attempting to add content; response code was 400");
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int read = content.read(buffer); read != -1; read = content.read(buffer)) {
+                bytes.write(buffer, 0, read);
+            }
+            put((String) args[0], (String) args[1], bytes.toByteArray());
+            addCount ++;
+            return checksums.get(args[0] + "/" + args[1]);
+        } else if (name.equals("getContent") || name.equals("getContentProperties")) {
+            byte[] bytes = getSpace((String) args[0]).get(args[1]);
+            if (bytes == null) {
+                throw new NotFoundException(args[0] + "/" + args[1] + " does not exist.");
+            }
+            Map<String, String> properties = new HashMap<String, String>();
+            properties.put("content-checksum", checksums.get(args[0] + "/" + args[1]));
+            properties.put("content-size", String.valueOf(bytes.length));
+            if (name.equals("getContentProperties")) {
+                return properties;
+            }
+            Content c = new Content();
+            c.setId((String) args[1]);
+            c.setStream(new ByteArrayInputStream(bytes));
+            c.setProperties(properties);
+            return c;
+        } else {
+            throw new UnsupportedOperationException(name);
+        }
+    }
+
+    private Map<String, byte[]> getSpace(String spaceId) throws NotFoundException {
+        Map<String, byte[]> space = spaces.get(spaceId);
+        if (space == null) {
+            throw new NotFoundException(spaceId + " does not exist.");
+        }
+        return space;
+    }
+}
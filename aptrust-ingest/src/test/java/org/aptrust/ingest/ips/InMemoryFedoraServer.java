@@ -0,0 +1,217 @@
+package org.aptrust.ingest.ips;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.yourmediashelf.fedora.client.FedoraClient;
+import com.yourmediashelf.fedora.client.FedoraCredentials;
+
+/**
+ * <p>
+ *   A stand-in for a Fedora repository that answers the few REST API calls
+ *   DropboxProcessor makes (ingest, addRelationship, addDatastream,
+ *   getDatastreamDissemination and purgeObject) from memory, on an HTTP
+ *   server bound to a free local port.  Because DropboxProcessor uses the
+ *   FedoraClient's static request builders, serving HTTP is the only way to
+ *   stand in for Fedora without changing the code under test.
+ * </p>
+ * <p>
+ *   Objects are only a map of datastream contents; relationships, object
+ *   properties and versions aren't retained.  A latency may be added to
+ *   every request to approximate a remote repository.
+ * </p>
+ */
+public class InMemoryFedoraServer {
+
+    private HttpServer server;
+
+    private String pidNamespace;
+
+    private AtomicInteger nextPid = new AtomicInteger(1);
+
+    private Map<String, Map<String, byte[]>> objects = new ConcurrentHashMap<String, Map<String, byte[]>>();
+
+    private AtomicLong requestCount = new AtomicLong();
+
+    private volatile long latencyMillis;
+
+    public InMemoryFedoraServer() throws IOException {
+        this("aptrust");
+    }
+
+    /**
+     * @param pidNamespace the namespace of the pids assigned to new objects
+     */
+    public InMemoryFedoraServer(String pidNamespace) throws IOException {
+        this.pidNamespace = pidNamespace;
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 50);
+        server.createContext("/fedora/", new FedoraHandler());
+        server.setExecutor(Executors.newCachedThreadPool(new SpaceEventDispatcher.NamedThreadFactory("fedora-stand-in")));
+        server.start();
+    }
+
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    public String getBaseURL() {
+        return "http://localhost:" + server.getAddress().getPort() + "/fedora";
+    }
+
+    /**
+     * Creates a FedoraClient for this repository.
+     */
+    public FedoraClient createClient() throws IOException {
+        return new FedoraClient(new FedoraCredentials(getBaseURL(), "fedoraAdmin", "fedoraAdmin"));
+    }
+
+    /**
+     * Gets the number of objects that currently exist.
+     */
+    public int getObjectCount() {
+        return objects.size();
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Gets the content of the given datastream, or null if it doesn't exist.
+     */
+    public byte[] getDatastream(String pid, String dsid) {
+        Map<String, byte[]> datastreams = objects.get(pid);
+        return datastreams == null ? null : datastreams.get(dsid);
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private class FedoraHandler implements HttpHandler {
+
+        public void handle(HttpExchange exchange) throws IOException {
+            requestCount.incrementAndGet();
+            try {
+                if (latencyMillis > 0) {
+                    Thread.sleep(latencyMillis);
+                }
+                String[] path = exchange.getRequestURI().getPath().substring("/fedora/".length()).split("/");
+                for (int i = 0; i < path.length; i ++) {
+                    path[i] = URLDecoder.decode(path[i], "UTF-8");
+                }
+                String method = exchange.getRequestMethod();
+                if (path[0].equals("describe")) {
+                    respond(exchange, 200, "text/xml", "<fedoraRepository xmlns=\"http://www.fedora.info/definitions/1/0/access/\">"
+                            + "<repositoryName>In-memory stand-in</repositoryName><repositoryBaseURL>" + getBaseURL() + "</repositoryBaseURL>"
+                            + "<repositoryVersion>3.5</repositoryVersion></fedoraRepository>");
+                } else if (!path[0].equals("objects") || path.length < 2) {
+                    respond(exchange, 404, "text/plain", "Not found");
+                } else if (path.length == 2 && method.equals("POST")) {
+                    String pid = path[1].equals("new") ? pidNamespace + ":" + nextPid.getAndIncrement() : path[1];
+                    objects.put(pid, new ConcurrentHashMap<String, byte[]>());
+                    exchange.getResponseHeaders().set("Location", getBaseURL() + "/objects/" + pid);
+                    respond(exchange, 201, "text/plain", pid);
+                } else if (!objects.containsKey(path[1])) {
+                    respond(exchange, 404, "text/plain", "Object " + path[1] + " not found");
+                } else if (path.length == 2 && method.equals("DELETE")) {
+                    objects.remove(path[1]);
+                    respond(exchange, 200, "text/plain", String.valueOf(System.currentTimeMillis()));
+                } else if (path.length == 4 && path[2].equals("relationships") && method.equals("POST")) {
+                    respond(exchange, 200, "text/plain", "true");
+                } else if (path.length == 4 && path[2].equals("datastreams") && method.equals("POST")) {
+                    objects.get(path[1]).put(path[3], readContent(exchange));
+                    respond(exchange, 201, "text/xml", "<datastreamProfile pid=\"" + path[1] + "\" dsID=\"" + path[3] + "\" xmlns=\"http://www.fedora.info/definitions/1/0/management/\">"
+                            + "<dsState>A</dsState></datastreamProfile>");
+                } else if (path.length == 5 && path[2].equals("datastreams") && path[4].equals("content") && method.equals("GET")) {
+                    byte[] content = objects.get(path[1]).get(path[3]);
+                    if (content == null) {
+                        respond(exchange, 404, "text/plain", "Datastream " + path[3] + " not found");
+                    } else {
+                        exchange.getResponseHeaders().set("Content-Type", "text/xml");
+                        exchange.sendResponseHeaders(200, content.length);
+                        OutputStream os = exchange.getResponseBody();
+                        os.write(content);
+                        os.close();
+                    }
+                } else {
+                    respond(exchange, 405, "text/plain", method + " " + exchange.getRequestURI() + " is not supported by the stand-in.");
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                respond(exchange, 503, "text/plain", "Interrupted");
+            } finally {
+                exchange.close();
+            }
+        }
+
+        /**
+         * Reads the datastream content from the request, which is either
+         * the request body or, if the client sent a multipart form, its
+         * first part.
+         */
+        private byte[] readContent(HttpExchange exchange) throws IOException {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            InputStream is = exchange.getRequestBody();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                baos.write(buffer, 0, read);
+            }
+            byte[] body = baos.toByteArray();
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            if (contentType == null || !contentType.startsWith("multipart/")) {
+                return body;
+            }
+            Map<String, String> params = new HashMap<String, String>();
+            for (String param : contentType.split(";")) {
+                int equals = param.indexOf('=');
+                if (equals > 0) {
+                    params.put(param.substring(0, equals).trim(), param.substring(equals + 1).trim().replace("\"", ""));
+                }
+            }
+            byte[] delimiter = ("\r\n--" + params.get("boundary")).getBytes("ISO-8859-1");
+            byte[] headerEnd = "\r\n\r\n".getBytes("ISO-8859-1");
+            int start = indexOf(body, headerEnd, 0) + headerEnd.length;
+            int end = indexOf(body, delimiter, start);
+            byte[] content = new byte[end - start];
+            System.arraycopy(body, start, content, 0, content.length);
+            return content;
+        }
+
+        private void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+            byte[] bytes = body.getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(status, bytes.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(bytes);
+            os.close();
+        }
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern, int from) {
+        for (int i = from; i <= bytes.length - pattern.length; i ++) {
+            int j = 0;
+            while (j < pattern.length && bytes[i + j] == pattern[j]) {
+                j ++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Malformed multipart request!");
+    }
+}
@@ -0,0 +1,209 @@
+package org.aptrust.ingest.ips;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.aptrust.common.duracloud.ContentStoreMetrics;
+import org.aptrust.common.duracloud.FilesystemContentStore;
+import org.aptrust.common.duracloud.StubbornContentStore;
+import org.aptrust.common.solr.BatchingSolrWriter;
+import org.aptrust.ingest.ips.solr.AptrustSolrTestEnvironment;
+import org.aptrust.ingest.ips.solr.RecordingSolrServer;
+
+/**
+ * <p>
+ *   Measures the throughput of the whole ingest processing pipeline.
+ *   Synthetic submissions (see SyntheticSubmission) are stored in the
+ *   staging spaces of a FilesystemContentStore, whose changes are passed by
+ *   a LocalSpaceEventSource to a DropboxProcessor for each space, which
+ *   writes to the embedded Solr test environment and to an
+ *   InMemoryFedoraServer.  For each submission the manifest is stored first,
+ *   then each object in turn.
+ * </p>
+ * <p>
+ *   The report gives the number of objects indexed per second (from the
+ *   first content stored until the last object's content records were
+ *   committed), the distribution of the time from each object's last part
+ *   being stored to its content records being committed, and the documents,
+ *   update requests and commits sent to Solr.  This isn't a unit test; run
+ *   it from the aptrust-ingest directory with something like:
+ * </p>
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.aptrust.ingest.ips.IngestThroughputBenchmark \
+ *     -Dexec.args="institutions=2 manifests=5 fedora=100 dspace=20 versions=3 chunk=16384"
+ * </pre>
+ * <p>
+ *   Every argument is optional:
+ * </p>
+ * <ul>
+ *   <li>institutions: the number of staging spaces (1)</li>
+ *   <li>manifests: the number of submissions to each space (1)</li>
+ *   <li>fedora: the number of Fedora objects in each submission (100)</li>
+ *   <li>dspace: the number of DSpace objects in each submission (0)</li>
+ *   <li>datastreams: the number of MANAGED datastreams of each Fedora object (2)</li>
+ *   <li>versions: the number of versions of each datastream (1)</li>
+ *   <li>size: the size in bytes of each datastream version and AIP bitstream (65536)</li>
+ *   <li>chunk: the size of the chunks in which datastream versions are stored, 0 to store them whole (0)</li>
+ *   <li>threads: the number of spaces whose events are processed in parallel (4)</li>
+ *   <li>transfer: the number of threads moving content to production (4)</li>
+ *   <li>latency: milliseconds added to every content store call (0)</li>
+ *   <li>fedoraLatency: milliseconds added to every Fedora request (0)</li>
+ *   <li>failures: the fraction of content store calls that fail (0)</li>
+ *   <li>commit: the Solr commit interval in milliseconds (1000)</li>
+ *   <li>timeout: the number of seconds to wait for every object to be indexed (600)</li>
+ * </ul>
+ */
+public class IngestThroughputBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Properties p = new Properties();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 1) {
+                throw new IllegalArgumentException("Expected name=value, found \"" + arg + "\"!");
+            }
+            p.setProperty(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        int institutionCount = getInt(p, "institutions", 1);
+        int manifestCount = getInt(p, "manifests", 1);
+        int fedoraCount = getInt(p, "fedora", 100);
+        int dspaceCount = getInt(p, "dspace", 0);
+        int datastreamCount = getInt(p, "datastreams", 2);
+        int versionCount = getInt(p, "versions", 1);
+        int contentSize = getInt(p, "size", 65536);
+        int chunkSize = getInt(p, "chunk", 0);
+        int threadCount = getInt(p, "threads", 4);
+        int transferThreadCount = getInt(p, "transfer", 4);
+        int latency = getInt(p, "latency", 0);
+        int fedoraLatency = getInt(p, "fedoraLatency", 0);
+        double failureRate = Double.parseDouble(p.getProperty("failures", "0"));
+        int commitInterval = getInt(p, "commit", 1000);
+        int timeout = getInt(p, "timeout", 600);
+
+        File dir = File.createTempFile("ingest-benchmark", "");
+        dir.delete();
+        AptrustSolrTestEnvironment env = new AptrustSolrTestEnvironment() {};
+        InMemoryFedoraServer fedora = new InMemoryFedoraServer();
+        fedora.setLatencyMillis(fedoraLatency);
+        SpaceEventDispatcher dispatcher = new SpaceEventDispatcher(threadCount, 0);
+        ContentTransfer transfer = new ContentTransfer(transferThreadCount);
+        ExecutorService uploaders = Executors.newFixedThreadPool(institutionCount, new SpaceEventDispatcher.NamedThreadFactory("benchmark-upload"));
+        try {
+            RecordingSolrServer solr = new RecordingSolrServer(env.getSolrServer());
+            BatchingSolrWriter writer = new BatchingSolrWriter(solr, BatchingSolrWriter.DEFAULT_BATCH_SIZE, BatchingSolrWriter.DEFAULT_FLUSH_INTERVAL_MS, commitInterval, 0);
+            FilesystemContentStore cs = new FilesystemContentStore(dir);
+            ManifestCache manifestCache = new ManifestCache();
+            for (int i = 1; i <= institutionCount; i ++) {
+                String institutionId = "inst" + i;
+                cs.createSpace(institutionId);
+                cs.createSpace(institutionId + "staging");
+                dispatcher.registerListener(institutionId + "staging", new DropboxProcessor(institutionId + "staging", fedora.createClient(), writer, cs, new InMemoryContentAnalysisCache(), transfer, manifestCache));
+            }
+            new LocalSpaceEventSource(dispatcher, cs);
+            cs.setLatencyMillis(latency);
+            cs.setFailureRate(failureRate);
+            cs.setRandomSeed(0);
+
+            // each institution's submissions are stored by its own thread
+            final StubbornContentStore uploadStore = new StubbornContentStore(cs);
+            final Map<String, Long> lastPartTimes = Collections.synchronizedMap(new HashMap<String, Long>());
+            List<String> objectIds = new ArrayList<String>();
+            List<Future<Integer>> uploads = new ArrayList<Future<Integer>>();
+            long start = System.currentTimeMillis();
+            for (int i = 1; i <= institutionCount; i ++) {
+                final String spaceId = "inst" + i + "staging";
+                final List<SyntheticSubmission> submissions = new ArrayList<SyntheticSubmission>();
+                for (int m = 1; m <= manifestCount; m ++) {
+                    SyntheticSubmission s = new SyntheticSubmission("bench-" + i + "-" + m, fedoraCount, dspaceCount);
+                    s.setDatastreamCount(datastreamCount);
+                    s.setVersionCount(versionCount);
+                    s.setContentSize(contentSize);
+                    s.setChunkSize(chunkSize);
+                    objectIds.addAll(s.getObjectIds());
+                    submissions.add(s);
+                }
+                uploads.add(uploaders.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        int stored = 0;
+                        for (SyntheticSubmission s : submissions) {
+                            s.storeManifest(uploadStore, spaceId);
+                            stored ++;
+                            for (String objectId : s.getObjectIds()) {
+                                stored += s.storeObject(uploadStore, spaceId, objectId);
+                                lastPartTimes.put(objectId, System.currentTimeMillis());
+                            }
+                        }
+                        return stored;
+                    }}));
+            }
+            int storedCount = 0;
+            for (Future<Integer> upload : uploads) {
+                storedCount += upload.get();
+            }
+            long stored = System.currentTimeMillis();
+            boolean complete = solr.awaitIndexed(objectIds, timeout * 1000L);
+            long end = System.currentTimeMillis();
+
+            List<Long> latencies = new ArrayList<Long>();
+            long lastIndexed = start;
+            for (String objectId : objectIds) {
+                Long indexed = solr.getIndexedTime(objectId);
+                if (indexed != null) {
+                    latencies.add(indexed - lastPartTimes.get(objectId));
+                    lastIndexed = Math.max(lastIndexed, indexed);
+                }
+            }
+            Collections.sort(latencies);
+            long errorCount = 0;
+            for (SpaceEventDispatcher.SpaceQueueStatus status : dispatcher.getStatus().values()) {
+                errorCount += status.getErrorCount();
+            }
+
+            System.out.println(objectIds.size() + " objects (" + institutionCount + " spaces x " + manifestCount + " manifests x (" + fedoraCount + " Fedora + " + dspaceCount + " DSpace)) in "
+                    + storedCount + " pieces of content, stored in " + (stored - start) + "ms");
+            if (!complete) {
+                System.out.println("Only " + latencies.size() + " objects were indexed within " + timeout + "s!");
+            }
+            System.out.println("Indexed " + latencies.size() + " objects in " + (lastIndexed - start) + "ms: "
+                    + String.format("%.1f", latencies.size() * 1000.0 / Math.max(1, lastIndexed - start)) + " objects/s");
+            if (!latencies.isEmpty()) {
+                System.out.println("Last part to indexed: " + percentile(latencies, 50) + "ms p50, " + percentile(latencies, 95) + "ms p95, "
+                        + latencies.get(latencies.size() - 1) + "ms max");
+            }
+            System.out.println("Solr documents written: " + solr.getDocumentCounts() + ", " + solr.getUpdateRequestCount() + " update requests, " + solr.getCommitCount() + " commits ("
+                    + writer.getCoalescedDocumentCount() + " documents coalesced by the writer)");
+            System.out.println("Fedora: " + fedora.getRequestCount() + " requests, " + fedora.getObjectCount() + " objects");
+            System.out.println("Listener errors: " + errorCount + ", waited " + (end - stored) + "ms after the last content was stored");
+            for (String line : ContentStoreMetrics.getInstance().getSummary()) {
+                System.out.println(line);
+            }
+            writer.close();
+        } finally {
+            uploaders.shutdownNow();
+            dispatcher.shutdown(10);
+            transfer.shutdown();
+            fedora.stop();
+            env.removeSolrServer();
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    private static int getInt(Properties p, String name, int defaultValue) {
+        return p.containsKey(name) ? Integer.parseInt(p.getProperty(name)) : defaultValue;
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+        return sorted.get(Math.max(0, (int) Math.ceil(sorted.size() * percentile / 100.0) - 1));
+    }
+}
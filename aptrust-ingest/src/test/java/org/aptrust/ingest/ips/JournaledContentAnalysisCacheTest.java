@@ -0,0 +1,115 @@
+package org.aptrust.ingest.ips;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JournaledContentAnalysisCacheTest {
+
+    private File dir;
+
+    @Before
+    public void createDirectory() throws IOException {
+        dir = File.createTempFile("content-analysis-cache", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testStateIsRestoredFromJournal() throws IOException {
+        JournaledContentAnalysisCache cache = new JournaledContentAnalysisCache(dir, new InMemoryContentAnalysisCache());
+        Assert.assertFalse(cache.isRestored());
+        populate(cache);
+        cache.close();
+
+        JournaledContentAnalysisCache restored = new JournaledContentAnalysisCache(dir, new InMemoryContentAnalysisCache());
+        Assert.assertTrue(restored.isRestored());
+        assertPopulated(restored);
+    }
+
+    @Test
+    public void testStateIsRestoredFromSnapshotAndJournal() throws IOException {
+        // a snapshot is written after every third change
+        JournaledContentAnalysisCache cache = new JournaledContentAnalysisCache(dir, new InMemoryContentAnalysisCache(), 3);
+        populate(cache);
+        cache.close();
+
+        JournaledContentAnalysisCache restored = new JournaledContentAnalysisCache(dir, new InMemoryContentAnalysisCache(), 3);
+        assertPopulated(restored);
+        restored.notifyContentId("test:2");
+        restored.close();
+
+        restored = new JournaledContentAnalysisCache(dir, new InMemoryContentAnalysisCache(), 3);
+        Assert.assertTrue(restored.isObjectComplete("test:1"));
+        Assert.assertEquals(5, restored.getKnownContentIds().size());
+        Assert.assertTrue(restored.getKnownContentIds().contains("test:2"));
+    }
+
+    @Test
+    public void testIncompleteJournalEntryIsDiscarded() throws IOException {
+        JournaledContentAnalysisCache cache = new JournaledContentAnalysisCache(dir, new InMemoryContentAnalysisCache());
+        populate(cache);
+        cache.notifyContentId("test:2");
+        cache.close();
+
+        // chop off part of the last entry, as if the process died writing it
+        File journal = new File(dir, "content-analysis-cache.journal");
+        RandomAccessFile f = new RandomAccessFile(journal, "rw");
+        f.setLength(f.length() - 2);
+        f.close();
+
+        JournaledContentAnalysisCache restored = new JournaledContentAnalysisCache(dir, new InMemoryContentAnalysisCache());
+        assertPopulated(restored);
+        Assert.assertFalse(restored.getKnownContentIds().contains("test:2"));
+
+        // the journal remains usable
+        restored.notifyContentId("test:3");
+        restored.close();
+        restored = new JournaledContentAnalysisCache(dir, new InMemoryContentAnalysisCache());
+        Assert.assertTrue(restored.getKnownContentIds().contains("test:3"));
+    }
+
+    private void populate(ContentAnalysisCache cache) {
+        cache.assertObjectParts(Arrays.asList(new String[] { "test:1", "test:1+content+content.0" }), "test:1");
+        cache.cacheObjectTitle("test:1", "Test Object");
+        cache.notifyContentId("test:1");
+        DuraChunkManifest m = new DuraChunkManifest();
+        m.chunks = new DuraChunkManifest.Chunk[2];
+        for (int i = 0; i < m.chunks.length; i ++) {
+            m.chunks[i] = new DuraChunkManifest.Chunk();
+            m.chunks[i].chunkId = "test:1+content+content.0.dura-chunk-000" + i;
+            m.chunks[i].byteSize = 1000;
+        }
+        cache.notifyChunkManifest("test:1+content+content.0", m);
+        cache.notifyContentId("test:1+content+content.0.dura-manifest");
+        cache.notifyContentId("test:1+content+content.0.dura-chunk-0000");
+        cache.notifyContentId("test:1+content+content.0.dura-chunk-0001");
+        cache.notifyContentId("unrelated");
+        cache.forgetContentId("unrelated");
+    }
+
+    private void assertPopulated(ContentAnalysisCache cache) {
+        Assert.assertTrue(cache.isObjectComplete("test:1"));
+        Assert.assertEquals("Test Object", cache.getObjectTitle("test:1"));
+        Assert.assertEquals(new HashSet<String>(Arrays.asList(new String[] { "test:1", "test:1+content+content.0.dura-manifest",
+                "test:1+content+content.0.dura-chunk-0000", "test:1+content+content.0.dura-chunk-0001" })),
+                new HashSet<String>(cache.getObjectContent("test:1")));
+        Assert.assertEquals(2000, cache.getObjectByteSize("test:1"));
+        Assert.assertEquals(4, cache.getKnownContentIds().size());
+        Assert.assertEquals(Arrays.asList(new String[] { "test:1" }), cache.getKnownObjectIds());
+    }
+}
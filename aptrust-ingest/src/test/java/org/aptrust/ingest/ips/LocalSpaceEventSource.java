@@ -0,0 +1,93 @@
+package org.aptrust.ingest.ips;
+
+import java.util.Iterator;
+
+import org.aptrust.common.duracloud.FilesystemContentStore;
+import org.duracloud.client.ContentStore;
+import org.duracloud.error.ContentStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Passes the changes made to a FilesystemContentStore to a
+ * SpaceEventDispatcher, taking the place of the DuraCloud JMS topics to
+ * which IngestProcessingService subscribes.  Events are routed exactly as
+ * JMS messages are, so the registered SpaceListeners (DropboxProcessor,
+ * FixityReportSpaceListener, etc.) can be driven in a single process,
+ * without a message broker, for load tests and benchmarks.
+ */
+public class LocalSpaceEventSource implements FilesystemContentStore.ChangeListener {
+
+    final Logger logger = LoggerFactory.getLogger(LocalSpaceEventSource.class);
+
+    private SpaceEventDispatcher dispatcher;
+
+    private long dispatchedCount;
+
+    private long ignoredCount;
+
+    public LocalSpaceEventSource(SpaceEventDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Creates an event source that passes on every change made to the given
+     * store.
+     */
+    public LocalSpaceEventSource(SpaceEventDispatcher dispatcher, FilesystemContentStore cs) {
+        this(dispatcher);
+        cs.addChangeListener(this);
+    }
+
+    public void contentUpdated(String spaceId, String contentId) {
+        dispatch(spaceId, contentId, false);
+    }
+
+    public void contentDeleted(String spaceId, String contentId) {
+        dispatch(spaceId, contentId, true);
+    }
+
+    /**
+     * Dispatches an update event for every item in the given space, as
+     * though each had just been added.  This allows a store populated
+     * beforehand to be processed at full speed.
+     * @return the number of events dispatched
+     */
+    public int replay(ContentStore cs, String spaceId) throws ContentStoreException {
+        int count = 0;
+        Iterator<String> it = cs.getSpaceContents(spaceId);
+        while (it.hasNext()) {
+            dispatch(spaceId, it.next(), false);
+            count ++;
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of events passed to a listener.
+     */
+    public synchronized long getDispatchedCount() {
+        return dispatchedCount;
+    }
+
+    /**
+     * Gets the number of events for spaces with no registered listener.
+     */
+    public synchronized long getIgnoredCount() {
+        return ignoredCount;
+    }
+
+    private void dispatch(String spaceId, String contentId, boolean delete) {
+        boolean dispatched = dispatcher.dispatch(spaceId, contentId, delete);
+        synchronized (this) {
+            if (dispatched) {
+                dispatchedCount ++;
+            } else {
+                ignoredCount ++;
+            }
+        }
+        if (!dispatched) {
+            logger.debug("Ignoring " + (delete ? "delete" : "update") + " of \"" + contentId + "\" in unmonitored space \"" + spaceId + "\".");
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.aptrust.ingest.ips;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.aptrust.common.duracloud.FilesystemContentStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LocalSpaceEventSourceTest {
+
+    private File dir;
+
+    @Before
+    public void createDirectory() throws IOException {
+        dir = File.createTempFile("local-space-events", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testChangesAreDispatched() throws Exception {
+        FilesystemContentStore cs = new FilesystemContentStore(dir);
+        cs.createSpace("dropbox");
+        cs.createSpace("other");
+        SpaceEventDispatcher d = new SpaceEventDispatcher(2, 0);
+        RecordingListener l = new RecordingListener();
+        d.registerListener("dropbox", l);
+        LocalSpaceEventSource events = new LocalSpaceEventSource(d, cs);
+
+        cs.addContent("dropbox", "a", new ByteArrayInputStream(new byte[1]), 1, null, null, null);
+        cs.addContent("other", "b", new ByteArrayInputStream(new byte[1]), 1, null, null, null);
+        cs.moveContent("dropbox", "a", "dropbox", "c");
+        Assert.assertTrue(d.awaitIdle(10000));
+        Assert.assertEquals(Arrays.asList("update:a", "update:c", "delete:a"), l.getEvents());
+        Assert.assertEquals(3, events.getDispatchedCount());
+        Assert.assertEquals(1, events.getIgnoredCount());
+
+        Assert.assertEquals(1, events.replay(cs, "dropbox"));
+        Assert.assertTrue(d.shutdown(10));
+        Assert.assertEquals("update:c", l.getEvents().get(3));
+    }
+
+    private static class RecordingListener implements SpaceListener {
+
+        private List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        public void notifyUpdate(String contentId) {
+            events.add("update:" + contentId);
+        }
+
+        public void notifyDelete(String contentId) {
+            events.add("delete:" + contentId);
+        }
+
+        public List<String> getEvents() {
+            return new ArrayList<String>(events);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.aptrust.ingest.ips;
+
+import junit.framework.Assert;
+
+import org.aptrust.ingest.api.IngestManifest;
+import org.junit.Test;
+
+public class ManifestCacheTest {
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        ManifestCache cache = new ManifestCache(2);
+        IngestManifest a = new IngestManifest();
+        IngestManifest b = new IngestManifest();
+        IngestManifest c = new IngestManifest();
+        cache.put("test:a", a);
+        cache.put("test:b", b);
+        Assert.assertSame(a, cache.get("test:a"));
+        cache.put("test:c", c);
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNull("The least recently used manifest should be evicted.", cache.get("test:b"));
+        Assert.assertSame(a, cache.get("test:a"));
+        Assert.assertSame(c, cache.get("test:c"));
+        Assert.assertEquals(3, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testPutReplacesAndRemoveForgets() {
+        ManifestCache cache = new ManifestCache(2);
+        IngestManifest original = new IngestManifest();
+        IngestManifest updated = new IngestManifest();
+        cache.put("test:a", original);
+        cache.put("test:a", updated);
+        Assert.assertSame(updated, cache.get("test:a"));
+        cache.remove("test:a");
+        Assert.assertNull(cache.get("test:a"));
+        Assert.assertEquals(0, cache.size());
+    }
+}
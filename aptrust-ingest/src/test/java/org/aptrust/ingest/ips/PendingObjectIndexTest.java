@@ -0,0 +1,61 @@
+package org.aptrust.ingest.ips;
+
+import junit.framework.Assert;
+
+import org.aptrust.common.exception.AptrustException;
+import org.aptrust.ingest.api.DigitalObject;
+import org.aptrust.ingest.api.IngestManifest;
+import org.aptrust.ingest.api.IngestPackage;
+import org.junit.Test;
+
+public class PendingObjectIndexTest {
+
+    @Test
+    public void testProgress() throws Exception {
+        PendingObjectIndex index = new PendingObjectIndex();
+        index.addManifest(manifest("test:m1", "test:1", "test:2", "test:3"), 1);
+        Assert.assertEquals("test:m1", index.getManifestId("test:2"));
+        Assert.assertNull(index.getManifestId("test:4"));
+        Assert.assertEquals(1, index.getIngestedObjectCount("test:m1"));
+
+        Assert.assertEquals(2, index.objectIngested("test:m1", "test:2"));
+        Assert.assertNull("An ingested object should no longer be pending.", index.getManifestId("test:2"));
+        Assert.assertEquals(2, index.getPendingObjectCount());
+
+        index.removeManifest("test:m1");
+        Assert.assertNull(index.getManifestId("test:1"));
+        Assert.assertEquals(0, index.getPendingObjectCount());
+        Assert.assertTrue(index.getManifestIds().isEmpty());
+    }
+
+    @Test
+    public void testConflictingManifests() throws Exception {
+        PendingObjectIndex index = new PendingObjectIndex();
+        index.addManifest(manifest("test:m1", "test:1", "test:2"), 0);
+        index.addManifest(manifest("test:m2", "test:2", "test:3"), 0);
+        Assert.assertEquals("test:m1", index.getManifestId("test:1"));
+        Assert.assertEquals("test:m2", index.getManifestId("test:3"));
+        try {
+            index.getManifestId("test:2");
+            Assert.fail("An object awaited by two manifests should be reported as a conflict.");
+        } catch (AptrustException ex) {
+            // expected
+        }
+
+        index.removeManifest("test:m1");
+        Assert.assertEquals("Once one manifest is removed the conflict is resolved.", "test:m2", index.getManifestId("test:2"));
+    }
+
+    private static IngestManifest manifest(String id, String ... objectIds) {
+        DigitalObject[] objects = new DigitalObject[objectIds.length];
+        for (int i = 0; i < objectIds.length; i ++) {
+            objects[i] = new DigitalObject(objectIds[i], DigitalObject.Type.FEDORA, "3.4", 100);
+        }
+        IngestPackage p = new IngestPackage();
+        p.setDigitalObjects(objects);
+        IngestManifest m = new IngestManifest();
+        m.setPackagesToSubmit(new IngestPackage[] { p });
+        m.setId(id);
+        return m;
+    }
+}
@@ -0,0 +1,141 @@
+package org.aptrust.ingest.ips;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class SpaceEventDispatcherTest {
+
+    @Test
+    public void testEventsForOneSpaceAreProcessedInOrder() throws Exception {
+        SpaceEventDispatcher d = new SpaceEventDispatcher(4, 0);
+        RecordingListener l = new RecordingListener();
+        d.registerListener("space", l);
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 500; i ++) {
+            String contentId = "content-" + i;
+            expected.add((i % 3 == 0 ? "delete:" : "update:") + contentId);
+            Assert.assertTrue(d.dispatch("space", contentId, i % 3 == 0));
+        }
+        Assert.assertTrue(d.shutdown(10));
+        Assert.assertEquals(expected, l.events);
+        Assert.assertEquals(0, d.getQueueDepth("space"));
+        Assert.assertEquals(500, d.getStatus().get("space").getProcessedCount());
+    }
+
+    @Test
+    public void testSpacesAreProcessedInParallel() throws Exception {
+        SpaceEventDispatcher d = new SpaceEventDispatcher(2, 0);
+        final CountDownLatch slowStarted = new CountDownLatch(1);
+        final CountDownLatch fastDone = new CountDownLatch(1);
+        d.registerListener("slow", new RecordingListener() {
+            public void notifyUpdate(String contentId) throws Exception {
+                slowStarted.countDown();
+                // blocks until the other space's event has been processed
+                Assert.assertTrue(fastDone.await(10, TimeUnit.SECONDS));
+                super.notifyUpdate(contentId);
+            }});
+        RecordingListener fast = new RecordingListener() {
+            public void notifyUpdate(String contentId) throws Exception {
+                super.notifyUpdate(contentId);
+                fastDone.countDown();
+            }};
+        d.registerListener("fast", fast);
+
+        d.dispatch("slow", "a", false);
+        d.dispatch("slow", "b", false);
+        Assert.assertTrue(slowStarted.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, d.getQueueDepth("slow"));
+        d.dispatch("fast", "c", false);
+        Assert.assertTrue(fastDone.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(d.shutdown(10));
+        Assert.assertEquals(Collections.singletonList("update:c"), fast.events);
+        Assert.assertEquals(0, d.getStatus().get("slow").getErrorCount());
+    }
+
+    @Test
+    public void testAwaitIdleWaitsForEventsQueuedByListeners() throws Exception {
+        final SpaceEventDispatcher d = new SpaceEventDispatcher(2, 0);
+        RecordingListener second = new RecordingListener() {
+            public void notifyUpdate(String contentId) throws Exception {
+                Thread.sleep(100);
+                super.notifyUpdate(contentId);
+            }};
+        d.registerListener("second", second);
+        d.registerListener("first", new RecordingListener() {
+            public void notifyUpdate(String contentId) throws Exception {
+                Thread.sleep(100);
+                d.dispatch("second", contentId, false);
+            }});
+        d.dispatch("first", "a", false);
+        Assert.assertTrue(d.awaitIdle(10000));
+        Assert.assertEquals("The event queued by the first listener should have been processed.", Collections.singletonList("update:a"), second.events);
+        Assert.assertTrue(d.shutdown(10));
+    }
+
+    @Test
+    public void testEventsAreRejectedAfterShutdown() throws Exception {
+        final SpaceEventDispatcher d = new SpaceEventDispatcher(2, 0);
+        final boolean[] accepted = new boolean[1];
+        RecordingListener second = new RecordingListener();
+        d.registerListener("second", second);
+        d.registerListener("first", new RecordingListener() {
+            public void notifyUpdate(String contentId) throws Exception {
+                // shutdown() has begun by the time this is processed
+                Thread.sleep(100);
+                accepted[0] = d.dispatch("second", contentId, false);
+                super.notifyUpdate(contentId);
+            }});
+        d.dispatch("first", "a", false);
+        Assert.assertTrue(d.shutdown(10));
+        Assert.assertFalse("No event should be accepted once shutdown has begun.", d.dispatch("first", "b", false));
+        Assert.assertFalse(accepted[0]);
+        Assert.assertTrue(second.events.isEmpty());
+        Assert.assertEquals(1, d.getStatus().get("first").getProcessedCount());
+    }
+
+    @Test
+    public void testUnregisteredSpaceIsIgnored() throws Exception {
+        SpaceEventDispatcher d = new SpaceEventDispatcher(1, 0);
+        Assert.assertFalse(d.dispatch("unknown", "content", false));
+        Assert.assertFalse(d.isRegistered("unknown"));
+        Assert.assertTrue(d.shutdown(10));
+    }
+
+    @Test
+    public void testListenerErrorsDoNotStopProcessing() throws Exception {
+        SpaceEventDispatcher d = new SpaceEventDispatcher(1, 0);
+        RecordingListener l = new RecordingListener() {
+            public void notifyUpdate(String contentId) throws Exception {
+                super.notifyUpdate(contentId);
+                if (contentId.equals("bad")) {
+                    throw new Exception("expected failure");
+                }
+            }};
+        d.registerListener("space", l);
+        d.dispatch("space", "bad", false);
+        d.dispatch("space", "good", false);
+        Assert.assertTrue(d.shutdown(10));
+        Assert.assertEquals(2, l.events.size());
+        Assert.assertEquals(1, d.getStatus().get("space").getErrorCount());
+    }
+
+    private static class RecordingListener implements SpaceListener {
+
+        List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        public void notifyUpdate(String contentId) throws Exception {
+            events.add("update:" + contentId);
+        }
+
+        public void notifyDelete(String contentId) throws Exception {
+            events.add("delete:" + contentId);
+        }
+    }
+}
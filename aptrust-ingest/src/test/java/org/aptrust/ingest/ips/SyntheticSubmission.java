@@ -0,0 +1,258 @@
+package org.aptrust.ingest.ips;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.aptrust.common.duracloud.ContentSource;
+import org.aptrust.common.duracloud.StubbornContentStore;
+import org.aptrust.common.metadata.APTrustMetadata;
+import org.aptrust.ingest.ChunkedUpload;
+import org.aptrust.ingest.IngestXmlBindings;
+import org.aptrust.ingest.api.DigitalObject;
+import org.aptrust.ingest.api.IngestManifest;
+import org.aptrust.ingest.api.IngestPackage;
+
+/**
+ * <p>
+ *   Generates an ingest operation (a manifest and the content of every
+ *   object it lists) and stores it in a staging space the way the ingest
+ *   client and Fedora CloudSync would.
+ * </p>
+ * <p>
+ *   Each Fedora object is stored as a version of each of its MANAGED
+ *   datastreams followed by its FOXML, so the FOXML is the last part to
+ *   arrive.  Datastream versions larger than the chunk size are stored in
+ *   chunks followed by a chunk manifest.  Each DSpace object is stored as a
+ *   single AIP zip (whose METS identifies it) and is never chunked, because
+ *   the chunks of a zip aren't recognized as part of any object.
+ * </p>
+ */
+public class SyntheticSubmission {
+
+    private String namespace;
+
+    private int fedoraObjectCount;
+
+    private int dspaceObjectCount;
+
+    private int objectsPerPackage = 10;
+
+    private int datastreamCount = 2;
+
+    private int versionCount = 1;
+
+    private int contentSize = 64 * 1024;
+
+    private long chunkSize;
+
+    private Random random = new Random(0);
+
+    /**
+     * @param namespace the pid namespace of the Fedora objects and the prefix
+     * of every other identifier, which should be unique for each submission
+     * stored in the same space
+     * @param fedoraObjectCount the number of Fedora objects to submit
+     * @param dspaceObjectCount the number of DSpace objects to submit
+     */
+    public SyntheticSubmission(String namespace, int fedoraObjectCount, int dspaceObjectCount) {
+        this.namespace = namespace;
+        this.fedoraObjectCount = fedoraObjectCount;
+        this.dspaceObjectCount = dspaceObjectCount;
+    }
+
+    public void setObjectsPerPackage(int objectsPerPackage) {
+        this.objectsPerPackage = objectsPerPackage;
+    }
+
+    /**
+     * Sets the number of MANAGED datastreams of each Fedora object.
+     */
+    public void setDatastreamCount(int datastreamCount) {
+        this.datastreamCount = datastreamCount;
+    }
+
+    /**
+     * Sets the number of versions of each datastream.
+     */
+    public void setVersionCount(int versionCount) {
+        this.versionCount = versionCount;
+    }
+
+    /**
+     * Sets the size in bytes of each datastream version and of the bitstream
+     * in each DSpace AIP.
+     */
+    public void setContentSize(int contentSize) {
+        this.contentSize = contentSize;
+    }
+
+    /**
+     * Sets the size of the chunks in which datastream versions are stored,
+     * or zero (the default) to store them whole.
+     */
+    public void setChunkSize(long chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Gets the id of every object, in the order in which they're stored.
+     */
+    public List<String> getObjectIds() {
+        List<String> ids = new ArrayList<String>();
+        for (int i = 1; i <= fedoraObjectCount; i ++) {
+            ids.add(getFedoraPid(i));
+        }
+        for (int i = 1; i <= dspaceObjectCount; i ++) {
+            ids.add(getDSpaceId(i));
+        }
+        return ids;
+    }
+
+    public IngestManifest createManifest() throws Exception {
+        List<IngestPackage> packages = new ArrayList<IngestPackage>();
+        List<DigitalObject> objects = new ArrayList<DigitalObject>();
+        for (int i = 1; i <= fedoraObjectCount; i ++) {
+            objects.add(new DigitalObject(getFedoraPid(i), DigitalObject.Type.FEDORA, "3.5", (long) datastreamCount * versionCount * contentSize));
+        }
+        for (int i = 1; i <= dspaceObjectCount; i ++) {
+            objects.add(new DigitalObject(getDSpaceId(i), DigitalObject.Type.DSPACE, "1.8.2", contentSize));
+        }
+        for (int start = 0; start < objects.size(); start += objectsPerPackage) {
+            IngestPackage p = new IngestPackage();
+            APTrustMetadata metadata = new APTrustMetadata();
+            metadata.setId(namespace + ":package-" + (packages.size() + 1));
+            metadata.setTitle("Synthetic package " + (packages.size() + 1));
+            metadata.setAccessConditions("institution");
+            p.setMetadata(metadata);
+            p.setDigitalObjects(objects.subList(start, Math.min(objects.size(), start + objectsPerPackage)).toArray(new DigitalObject[0]));
+            packages.add(p);
+        }
+        return new IngestManifest("Synthetic submission " + namespace, "benchmark", packages.toArray(new IngestPackage[0]));
+    }
+
+    /**
+     * Stores the manifest in the given space, tagged as the ingest client
+     * tags it.
+     * @return the contentId of the manifest
+     */
+    public String storeManifest(StubbornContentStore cs, String spaceId) throws Exception {
+        String contentId = "ingest-manifest-" + namespace + ".xml";
+        File file = File.createTempFile("synthetic-manifest", ".xml");
+        try {
+            IngestXmlBindings.MANIFEST.marshal(createManifest(), file);
+            cs.addContent(spaceId, contentId, ContentSource.forFile(file), "text/xml", null, Collections.singletonMap("tags", "aptrust_manifest"));
+        } finally {
+            file.delete();
+        }
+        return contentId;
+    }
+
+    /**
+     * Stores every part of the given object in the given space.
+     * @return the number of pieces of content stored (counting each chunk
+     * and chunk manifest)
+     */
+    public int storeObject(StubbornContentStore cs, String spaceId, String objectId) throws Exception {
+        if (objectId.startsWith(namespace + ":")) {
+            return storeFedoraObject(cs, spaceId, objectId);
+        } else {
+            return storeDSpaceObject(cs, spaceId, objectId);
+        }
+    }
+
+    private int storeFedoraObject(StubbornContentStore cs, String spaceId, String pid) throws Exception {
+        int stored = 0;
+        StringBuilder foxml = new StringBuilder();
+        foxml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        foxml.append("<foxml:digitalObject VERSION=\"1.1\" PID=\"" + pid + "\" xmlns:foxml=\"info:fedora/fedora-system:def/foxml#\">\n");
+        foxml.append("<foxml:objectProperties><foxml:property NAME=\"info:fedora/fedora-system:def/model#label\" VALUE=\"Synthetic object " + pid + "\"/></foxml:objectProperties>\n");
+        File file = File.createTempFile("synthetic-datastream", ".bin");
+        try {
+            for (int d = 1; d <= datastreamCount; d ++) {
+                String dsid = "DS" + d;
+                foxml.append("<foxml:datastream ID=\"" + dsid + "\" CONTROL_GROUP=\"M\" STATE=\"A\" VERSIONABLE=\"true\">\n");
+                for (int v = 0; v < versionCount; v ++) {
+                    String contentId = pid + "+" + dsid + "+" + dsid + "." + v;
+                    foxml.append("<foxml:datastreamVersion ID=\"" + dsid + "." + v + "\" MIMETYPE=\"application/octet-stream\">");
+                    foxml.append("<foxml:contentLocation TYPE=\"INTERNAL_ID\" REF=\"" + contentId + "\"/></foxml:datastreamVersion>\n");
+                    writeRandomContent(file);
+                    if (chunkSize > 0 && contentSize > chunkSize) {
+                        ChunkedUpload upload = new ChunkedUpload(cs, chunkSize);
+                        upload.upload(spaceId, contentId, file, "application/octet-stream", null);
+                        stored += upload.getUploadedChunkCount() + 1;
+                    } else {
+                        cs.addContent(spaceId, contentId, ContentSource.forFile(file), "application/octet-stream", null, null);
+                        stored ++;
+                    }
+                }
+                foxml.append("</foxml:datastream>\n");
+            }
+        } finally {
+            file.delete();
+        }
+        foxml.append("</foxml:digitalObject>\n");
+        cs.addContent(spaceId, pid, ContentSource.forBytes(foxml.toString().getBytes("UTF-8")), "text/xml", null, null);
+        return stored + 1;
+    }
+
+    private int storeDSpaceObject(StubbornContentStore cs, String spaceId, String id) throws Exception {
+        File file = File.createTempFile("synthetic-aip", ".zip");
+        try {
+            ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+            try {
+                zip.putNextEntry(new ZipEntry("mets.xml"));
+                zip.write(("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+                        + "<mets OBJID=\"" + id + "\" TYPE=\"DSpace ITEM\" xmlns=\"http://www.loc.gov/METS/\">\n"
+                        + " <metsHdr><agent ROLE=\"CREATOR\" TYPE=\"OTHER\" OTHERTYPE=\"DSpace Software\"><name>DSpace 1.8.2</name></agent></metsHdr>\n"
+                        + " <dmdSec ID=\"dmdSec_1\"><mdWrap MDTYPE=\"MODS\"><xmlData><mods:mods xmlns:mods=\"http://www.loc.gov/mods/v3\">"
+                        + "<mods:titleInfo><mods:title>Synthetic item " + id + "</mods:title></mods:titleInfo></mods:mods></xmlData></mdWrap></dmdSec>\n"
+                        + "</mets>\n").getBytes("UTF-8"));
+                zip.closeEntry();
+                zip.putNextEntry(new ZipEntry("bitstream_1"));
+                byte[] content = new byte[contentSize];
+                random.nextBytes(content);
+                zip.write(content);
+                zip.closeEntry();
+            } finally {
+                zip.close();
+            }
+            cs.addContent(spaceId, getAIPContentId(id), ContentSource.forFile(file), "application/zip", null, null);
+        } finally {
+            file.delete();
+        }
+        return 1;
+    }
+
+    private void writeRandomContent(File file) throws IOException {
+        byte[] buffer = new byte[Math.min(contentSize, 65536)];
+        OutputStream os = new FileOutputStream(file);
+        try {
+            for (int written = 0; written < contentSize; written += buffer.length) {
+                random.nextBytes(buffer);
+                os.write(buffer, 0, Math.min(buffer.length, contentSize - written));
+            }
+        } finally {
+            os.close();
+        }
+    }
+
+    private String getFedoraPid(int i) {
+        return namespace + ":" + i;
+    }
+
+    private String getDSpaceId(int i) {
+        return "hdl:" + namespace + "/" + i;
+    }
+
+    private String getAIPContentId(String id) {
+        return id.substring("hdl:".length()).replace('/', '-') + ".zip";
+    }
+}
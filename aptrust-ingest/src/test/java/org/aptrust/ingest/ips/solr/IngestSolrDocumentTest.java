@@ -98,6 +98,24 @@ public class IngestSolrDocumentTest extends AptrustSolrTestEnvironment {
         assertEquals("Expected to find one result for the full-text search for \"Novvelles\" but found " + results.getNumFound()  + ".", (long) 1, results.getNumFound());
     }
 
+    @Test
+    public void testProgressQueries() throws Exception {
+        for (int i = 1; i <= 3; i ++) {
+            server.add(AptrustSolrDocument.createValidSolrDocument(new IngestProgressSolrDocument("test", "test:1", i)));
+        }
+        server.commit();
+
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set("q", new SolrQueryClause(AptrustSolrDocument.RECORD_TYPE, "ingest_progress").and(AptrustSolrDocument.INGEST_ID, "test:1").getQueryString());
+        SolrDocumentList results = server.query(params).getResults();
+        Assert.assertEquals("Progress updates should replace one another.", 1, results.getNumFound());
+        Assert.assertEquals(3, results.get(0).getFirstValue(AptrustSolrDocument.COMPLETED_OBJECT_COUNT));
+
+        params.set("q", AptrustSolrDocument.RECORD_TYPE + ":ingest");
+        results = server.query(params).getResults();
+        Assert.assertEquals("The ingest record should not be affected by progress updates.", 0, results.get(0).getFirstValue(AptrustSolrDocument.COMPLETED_OBJECT_COUNT));
+    }
+
     @Test
     public void testHealthCheckQueries() throws Exception {
         ModifiableSolrParams params = new ModifiableSolrParams();
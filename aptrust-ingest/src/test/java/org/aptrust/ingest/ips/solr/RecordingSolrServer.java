@@ -0,0 +1,130 @@
+package org.aptrust.ingest.ips.solr;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.AbstractUpdateRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.aptrust.common.solr.AptrustSolrDocument;
+
+/**
+ * <p>
+ *   A SolrServer that passes every request on to another, counting the
+ *   documents written (by record type), the update requests and the commits,
+ *   and noting when the content records of each object were first
+ *   committed, which is when the object became searchable.
+ * </p>
+ * <p>
+ *   Only explicit commits are observed, so writers must not rely on
+ *   "commitWithin" when their documents' visibility is being measured.
+ * </p>
+ */
+public class RecordingSolrServer extends SolrServer {
+
+    private static final long serialVersionUID = 1L;
+
+    private SolrServer solr;
+
+    private Map<String, Long> documentCounts = new TreeMap<String, Long>();
+
+    private long updateRequestCount;
+
+    private long commitCount;
+
+    /**
+     * Objects whose content records have been sent but not yet committed.
+     */
+    private Set<String> uncommittedObjectIds = new HashSet<String>();
+
+    private Map<String, Long> objectIndexedTimes = new HashMap<String, Long>();
+
+    public RecordingSolrServer(SolrServer solr) {
+        this.solr = solr;
+    }
+
+    public NamedList<Object> request(SolrRequest request) throws SolrServerException, IOException {
+        if (!(request instanceof AbstractUpdateRequest)) {
+            return solr.request(request);
+        }
+        Set<String> objectIds = new HashSet<String>();
+        if (request instanceof UpdateRequest && ((UpdateRequest) request).getDocuments() != null) {
+            synchronized (this) {
+                for (SolrInputDocument doc : ((UpdateRequest) request).getDocuments()) {
+                    String recordType = String.valueOf(doc.getFieldValue(AptrustSolrDocument.RECORD_TYPE));
+                    Long count = documentCounts.get(recordType);
+                    documentCounts.put(recordType, count == null ? 1 : count + 1);
+                    if ("content".equals(recordType)) {
+                        objectIds.add(String.valueOf(doc.getFieldValue(AptrustSolrDocument.OBJECT_ID)));
+                    }
+                }
+            }
+        }
+        NamedList<Object> response = solr.request(request);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            updateRequestCount ++;
+            uncommittedObjectIds.addAll(objectIds);
+            if (((AbstractUpdateRequest) request).getAction() == AbstractUpdateRequest.ACTION.COMMIT) {
+                commitCount ++;
+                for (String objectId : uncommittedObjectIds) {
+                    if (!objectIndexedTimes.containsKey(objectId)) {
+                        objectIndexedTimes.put(objectId, now);
+                    }
+                }
+                uncommittedObjectIds.clear();
+                notifyAll();
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Gets the number of documents written of each record type.
+     */
+    public synchronized Map<String, Long> getDocumentCounts() {
+        return new TreeMap<String, Long>(documentCounts);
+    }
+
+    public synchronized long getUpdateRequestCount() {
+        return updateRequestCount;
+    }
+
+    public synchronized long getCommitCount() {
+        return commitCount;
+    }
+
+    /**
+     * Gets the time at which the content records of the given object were
+     * first committed, or null if they haven't been.
+     */
+    public synchronized Long getIndexedTime(String objectId) {
+        return objectIndexedTimes.get(objectId);
+    }
+
+    /**
+     * Waits up to the given number of milliseconds for the content records
+     * of every given object to be committed.
+     * @return true if they all were committed before the timeout elapsed
+     */
+    public synchronized boolean awaitIndexed(Collection<String> objectIds, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!objectIndexedTimes.keySet().containsAll(objectIds)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+}
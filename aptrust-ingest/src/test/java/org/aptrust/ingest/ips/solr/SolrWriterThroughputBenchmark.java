@@ -0,0 +1,76 @@
+package org.aptrust.ingest.ips.solr;
+
+import java.util.Date;
+
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.aptrust.common.solr.AptrustSolrDocument;
+import org.aptrust.common.solr.BatchingSolrWriter;
+import org.aptrust.common.solr.ContentSolrDocument;
+
+/**
+ * <p>
+ *   Compares the rate at which content records can be written to the
+ *   embedded Solr test environment when each is added and committed
+ *   individually (as the ingest pipeline once did) with the rate when they
+ *   are written through a BatchingSolrWriter.  This isn't a unit test; run it
+ *   from the aptrust-ingest directory with something like:
+ * </p>
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.aptrust.ingest.ips.solr.SolrWriterThroughputBenchmark \
+ *     -Dexec.args="2000 100"
+ * </pre>
+ * <p>
+ *   The arguments are the number of records to write and the batch size.
+ * </p>
+ */
+public class SolrWriterThroughputBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        AptrustSolrTestEnvironment env = new AptrustSolrTestEnvironment() {};
+        try {
+            SolrServer solr = env.getSolrServer();
+
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < count; i ++) {
+                solr.add(AptrustSolrDocument.createValidSolrDocument(record("individual", i)));
+                solr.commit();
+            }
+            report("Add and commit each record", count, System.currentTimeMillis() - start, count, count);
+            verify(solr, "individual", count);
+
+            BatchingSolrWriter writer = new BatchingSolrWriter(solr, batchSize, BatchingSolrWriter.DEFAULT_FLUSH_INTERVAL_MS, BatchingSolrWriter.DEFAULT_COMMIT_INTERVAL_MS, 0);
+            start = System.currentTimeMillis();
+            for (int i = 0; i < count; i ++) {
+                writer.add(AptrustSolrDocument.createValidSolrDocument(record("batched", i)));
+            }
+            writer.close();
+            report("BatchingSolrWriter (batch size " + batchSize + ")", count, System.currentTimeMillis() - start, writer.getAddRequestCount(), writer.getCommitCount());
+            verify(solr, "batched", count);
+        } finally {
+            env.removeSolrServer();
+        }
+    }
+
+    private static ContentSolrDocument record(String institutionId, int i) {
+        return new ContentSolrDocument(institutionId, "package-" + (i / 100), "test:" + (i / 10), "test:" + (i / 10) + "+DS" + i + "+DS" + i + ".0", true, new Date());
+    }
+
+    private static void report(String name, int count, long elapsed, long requests, long commits) {
+        System.out.println(name + ": " + count + " records in " + elapsed + "ms (" + (count * 1000L / Math.max(1, elapsed)) + " records/s, "
+                + requests + " add requests, " + commits + " commits)");
+    }
+
+    private static void verify(SolrServer solr, String institutionId, int count) throws Exception {
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set("q", AptrustSolrDocument.INSTITUTION_ID + ":\"" + institutionId + "\"");
+        long found = solr.query(params).getResults().getNumFound();
+        if (found != count) {
+            throw new IllegalStateException(count + " records were written but " + found + " were found!");
+        }
+    }
+}